@@ -18,11 +18,9 @@
 
 package org.apache.hadoop.conf;
 
-import java.io.BufferedInputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -30,6 +28,7 @@
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.net.InetSocketAddress;
 import java.net.URL;
@@ -41,7 +40,6 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -56,9 +54,9 @@
 import java.util.regex.PatternSyntaxException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -82,16 +80,12 @@
 import org.apache.hadoop.security.alias.CredentialProvider.CredentialEntry;
 import org.apache.hadoop.security.alias.CredentialProviderFactory;
 import org.apache.hadoop.util.ReflectionUtils;
-import org.apache.hadoop.util.StringInterner;
 import org.apache.hadoop.util.StringUtils;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
 import org.xml.sax.SAXException;
 
 import com.google.common.base.Preconditions;
@@ -252,6 +246,14 @@ public String toString() {
      */
     private HashMap<String, String[]> updatingResource;
 
+    /**
+     * Counts the modifications of the properties, to tell if the cached
+     * snapshot is current.  The snapshot is softly held, so an idle
+     * configuration does not keep a second copy of its properties.
+     */
+    private final AtomicInteger modCount = new AtomicInteger();
+    private volatile SoftReference<ConfigurationSnapshot> snapshot;
+
     /**
      * Class to keep the information about the keys which replace the deprecated
      * ones.
@@ -804,6 +806,7 @@ public void addResource(Configuration conf) {
     public synchronized void reloadConfiguration() {
         properties = null;                            // trigger reload
         finalParameters.clear();                      // clear site-limits
+        modCount.incrementAndGet();
     }
 
     private synchronized void addResourceObject(Resource resource) {
@@ -1024,15 +1027,20 @@ public void set(String name, String value, String source) {
                 updatingResource.put(n, new String[]{altSource});
             }
         }
+        modCount.incrementAndGet();
     }
 
-    private void warnOnceIfDeprecated(DeprecationContext deprecations, String name) {
+    private static void warnOnceIfDeprecated(DeprecationContext deprecations, String name) {
         DeprecatedKeyInfo keyInfo = deprecations.getDeprecatedKeyMap().get(name);
         if (keyInfo != null && !keyInfo.getAndSetAccessed()) {
             LOG_DEPRECATION.info(keyInfo.getWarningMessage(name));
         }
     }
 
+    static void warnOnceIfDeprecated(String name) {
+        warnOnceIfDeprecated(deprecationContext.get(), name);
+    }
+
     /**
      * Unset a previously set property.
      */
@@ -1051,6 +1059,7 @@ public synchronized void unset(String name) {
             getOverlay().remove(n);
             getProps().remove(n);
         }
+        modCount.incrementAndGet();
     }
 
     /**
@@ -1191,7 +1200,7 @@ public long getLongBytes(String name, long defaultValue) {
         return StringUtils.TraditionalBinaryPrefix.string2long(valueString);
     }
 
-    private String getHexDigits(String value) {
+    static String getHexDigits(String value) {
         boolean negative = false;
         String str = value;
         String hexString = null;
@@ -2311,6 +2320,83 @@ public Set<String> getFinalParameters() {
         return new HashSet<String>(finalParameters);
     }
 
+    /**
+     * Get an immutable view of the properties, with
+     * <a href="#VariableExpansion">variable expansion</a> and deprecated keys
+     * already resolved, whose getters take no lock.  Code that reads many
+     * properties, or reads them in a loop, should read them from the view.
+     * <p/>
+     * The view is kept until this configuration, or the set of deprecated
+     * keys, is modified, so taking it again is cheap.  System properties are
+     * only read when the view is built.  A property whose expansion fails
+     * makes only the lookups of that property fail, as {@link #get(String)}
+     * would.
+     *
+     * @return the view of the current properties.
+     */
+    public ConfigurationSnapshot snapshot() {
+        SoftReference<ConfigurationSnapshot> ref = snapshot;
+        ConfigurationSnapshot current = ref == null ? null : ref.get();
+        if (current != null && current.version == modCount.get()
+                && current.deprecations == deprecationContext.get()) {
+            return current;
+        }
+        return buildSnapshot();
+    }
+
+    private synchronized ConfigurationSnapshot buildSnapshot() {
+        // read before the properties, so a concurrent change invalidates it
+        final int version = modCount.get();
+        final DeprecationContext deprecations = deprecationContext.get();
+        Properties props = getProps();
+        Map<String, String> raw = new HashMap<String, String>();
+        for (Map.Entry<Object, Object> item : props.entrySet()) {
+            if (item.getKey() instanceof String &&
+                    item.getValue() instanceof String) {
+                raw.put((String) item.getKey(), (String) item.getValue());
+            }
+        }
+        // a deprecated key set in the overlay stands for its unset new keys
+        Properties overlay = getOverlay();
+        for (Map.Entry<String, String> item :
+                deprecations.getReverseDeprecatedKeyMap().entrySet()) {
+            String n = item.getKey();
+            String deprecatedKey = item.getValue();
+            if (!overlay.containsKey(n) && overlay.containsKey(deprecatedKey)) {
+                raw.put(n, overlay.getProperty(deprecatedKey));
+            }
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        Map<String, String> failures = new HashMap<String, String>();
+        for (Map.Entry<String, String> item : raw.entrySet()) {
+            try {
+                values.put(item.getKey(), substituteVars(item.getValue()));
+            } catch (IllegalStateException e) {
+                // fail the lookups of this property only
+                failures.put(item.getKey(), e.getMessage());
+            }
+        }
+        // a deprecated key reads as the last of its new keys, like get()
+        for (Map.Entry<String, DeprecatedKeyInfo> item :
+                deprecations.getDeprecatedKeyMap().entrySet()) {
+            String name = item.getKey();
+            for (String newKey : item.getValue().newKeys) {
+                if (newKey != null) {
+                    name = newKey;
+                }
+            }
+            if (failures.containsKey(name)) {
+                failures.put(item.getKey(), failures.get(name));
+            } else {
+                values.put(item.getKey(), values.get(name));
+            }
+        }
+        ConfigurationSnapshot built = new ConfigurationSnapshot(values, failures,
+                deprecations.getDeprecatedKeyMap().keySet(), version, deprecations);
+        snapshot = new SoftReference<ConfigurationSnapshot>(built);
+        return built;
+    }
+
     protected synchronized Properties getProps() {
         if (properties == null) {
             properties = new Properties();
@@ -2343,6 +2429,7 @@ public int size() {
     public void clear() {
         getProps().clear();
         getOverlay().clear();
+        modCount.incrementAndGet();
     }
 
     /**
@@ -2367,31 +2454,15 @@ public Iterator<Map.Entry<String, String>> iterator() {
         return result.entrySet().iterator();
     }
 
-    private Document parse(DocumentBuilder builder, URL url)
-            throws IOException, SAXException {
+    private List<ConfigurationBinaryCache.Property> parse(URL url)
+            throws IOException, SAXException, ParserConfigurationException {
         if (!quietmode) {
             LOG.debug("parsing URL " + url);
         }
         if (url == null) {
             return null;
         }
-        return parse(builder, url.openStream(), url.toString());
-    }
-
-    private Document parse(DocumentBuilder builder, InputStream is,
-                           String systemId) throws IOException, SAXException {
-        if (!quietmode) {
-            LOG.debug("parsing input stream " + is);
-        }
-        if (is == null) {
-            return null;
-        }
-        try {
-            return (systemId == null) ? builder.parse(is) : builder.parse(is,
-                    systemId);
-        } finally {
-            is.close();
-        }
+        return ConfigurationBinaryCache.load(url);
     }
 
     private void loadResources(Properties properties,
@@ -2422,31 +2493,14 @@ private Resource loadResource(Properties properties, Resource wrapper, boolean q
             Object resource = wrapper.getResource();
             name = wrapper.getName();
 
-            DocumentBuilderFactory docBuilderFactory
-                    = DocumentBuilderFactory.newInstance();
-            //ignore all comments inside the xml file
-            docBuilderFactory.setIgnoringComments(true);
-
-            //allow includes in the xml file
-            docBuilderFactory.setNamespaceAware(true);
-            try {
-                docBuilderFactory.setXIncludeAware(true);
-            } catch (UnsupportedOperationException e) {
-                LOG.error("Failed to set setXIncludeAware(true) for parser "
-                                + docBuilderFactory
-                                + ":" + e,
-                        e);
-            }
-            DocumentBuilder builder = docBuilderFactory.newDocumentBuilder();
-            Document doc = null;
-            Element root = null;
+            List<ConfigurationBinaryCache.Property> parsed = null;
             boolean returnCachedProperties = false;
 
             if (resource instanceof URL) {                  // an URL resource
-                doc = parse(builder, (URL) resource);
+                parsed = parse((URL) resource);
             } else if (resource instanceof String) {        // a CLASSPATH resource
                 URL url = getResource((String) resource);
-                doc = parse(builder, url);
+                parsed = parse(url);
             } else if (resource instanceof Path) {          // a file resource
                 // Can't use FileSystem API or we get an infinite loop
                 // since FileSystem uses Configuration API.  Use java.io.File instead.
@@ -2456,85 +2510,47 @@ private Resource loadResource(Properties properties, Resource wrapper, boolean q
                     if (!quiet) {
                         LOG.debug("parsing File " + file);
                     }
-                    doc = parse(builder, new BufferedInputStream(
-                            new FileInputStream(file)), ((Path) resource).toString());
+                    parsed = ConfigurationBinaryCache.load(file.toURI().toURL());
                 }
             } else if (resource instanceof InputStream) {
-                doc = parse(builder, (InputStream) resource, null);
+                if (!quiet) {
+                    LOG.debug("parsing input stream " + resource);
+                }
+                parsed = ConfigurationBinaryCache.parse((InputStream) resource, null);
                 returnCachedProperties = true;
             } else if (resource instanceof Properties) {
                 overlay(properties, (Properties) resource);
             } else if (resource instanceof Element) {
-                root = (Element) resource;
+                parsed = ConfigurationBinaryCache.parse((Element) resource);
             }
 
-            if (root == null) {
-                if (doc == null) {
-                    if (quiet) {
-                        return null;
-                    }
-                    throw new RuntimeException(resource + " not found");
+            if (parsed == null) {
+                if (quiet) {
+                    return null;
                 }
-                root = doc.getDocumentElement();
+                throw new RuntimeException(resource + " not found");
             }
             Properties toAddTo = properties;
             if (returnCachedProperties) {
                 toAddTo = new Properties();
             }
-            if (!"configuration".equals(root.getTagName()))
-                LOG.fatal("bad conf file: top-level element not <configuration>");
-            NodeList props = root.getChildNodes();
             DeprecationContext deprecations = deprecationContext.get();
-            for (int i = 0; i < props.getLength(); i++) {
-                Node propNode = props.item(i);
-                if (!(propNode instanceof Element))
-                    continue;
-                Element prop = (Element) propNode;
-                if ("configuration".equals(prop.getTagName())) {
-                    loadResource(toAddTo, new Resource(prop, name), quiet);
-                    continue;
-                }
-                if (!"property".equals(prop.getTagName()))
-                    LOG.warn("bad conf file: element not <property>");
-                NodeList fields = prop.getChildNodes();
-                String attr = null;
-                String value = null;
-                boolean finalParameter = false;
-                LinkedList<String> source = new LinkedList<String>();
-                for (int j = 0; j < fields.getLength(); j++) {
-                    Node fieldNode = fields.item(j);
-                    if (!(fieldNode instanceof Element))
-                        continue;
-                    Element field = (Element) fieldNode;
-                    if ("name".equals(field.getTagName()) && field.hasChildNodes())
-                        attr = StringInterner.weakIntern(
-                                ((Text) field.getFirstChild()).getData().trim());
-                    if ("value".equals(field.getTagName()) && field.hasChildNodes())
-                        value = StringInterner.weakIntern(
-                                ((Text) field.getFirstChild()).getData());
-                    if ("final".equals(field.getTagName()) && field.hasChildNodes())
-                        finalParameter = "true".equals(((Text) field.getFirstChild()).getData());
-                    if ("source".equals(field.getTagName()) && field.hasChildNodes())
-                        source.add(StringInterner.weakIntern(
-                                ((Text) field.getFirstChild()).getData()));
-                }
-                source.add(name);
-
+            for (ConfigurationBinaryCache.Property prop : parsed) {
+                String attr = prop.name;
+                String[] source = prop.getSources(name);
                 // Ignore this parameter if it has already been marked as 'final'
-                if (attr != null) {
-                    if (deprecations.getDeprecatedKeyMap().containsKey(attr)) {
-                        DeprecatedKeyInfo keyInfo =
-                                deprecations.getDeprecatedKeyMap().get(attr);
-                        keyInfo.clearAccessed();
-                        for (String key : keyInfo.newKeys) {
-                            // update new keys with deprecated key's value
-                            loadProperty(toAddTo, name, key, value, finalParameter,
-                                    source.toArray(new String[source.size()]));
-                        }
-                    } else {
-                        loadProperty(toAddTo, name, attr, value, finalParameter,
-                                source.toArray(new String[source.size()]));
+                if (deprecations.getDeprecatedKeyMap().containsKey(attr)) {
+                    DeprecatedKeyInfo keyInfo =
+                            deprecations.getDeprecatedKeyMap().get(attr);
+                    keyInfo.clearAccessed();
+                    for (String key : keyInfo.newKeys) {
+                        // update new keys with deprecated key's value
+                        loadProperty(toAddTo, name, key, prop.value, prop.isFinal,
+                                source);
                     }
+                } else {
+                    loadProperty(toAddTo, name, attr, prop.value, prop.isFinal,
+                            source);
                 }
             }
 
@@ -0,0 +1,395 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.conf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.StringInterner;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+import org.xml.sax.SAXException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Reads the properties of the XML resources of a {@link Configuration}
+ * without parsing the XML where it can.
+ * <p/>
+ * Next to an XML resource, e.g. <code>core-default.xml</code> in a jar, there
+ * may be its binary form, <code>core-default.xml.bin</code>, written at build
+ * time by {@link #main(String[])}.  The binary form records the checksum of
+ * the XML it was written from, and is only used while the XML still has that
+ * checksum; otherwise the XML is parsed.  The properties of the most
+ * recently loaded resources are also kept in a bounded cache, so every new
+ * {@link Configuration} loading the same unchanged resource reuses them.
+ * <p/>
+ * Resources which include others are always parsed, since the checksum does
+ * not cover the included resources.
+ */
+@InterfaceAudience.Private
+public final class ConfigurationBinaryCache {
+
+    private static final Log LOG =
+            LogFactory.getLog(ConfigurationBinaryCache.class);
+
+    static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x48434f4e;
+    private static final int VERSION = 1;
+    private static final byte[] XINCLUDE =
+            "http://www.w3.org/2001/XInclude".getBytes();
+
+    /**
+     * A property as declared in a resource.
+     */
+    static final class Property {
+        final String name;
+        final String value;
+        final boolean isFinal;
+        final String[] sources;
+
+        Property(String name, String value, boolean isFinal, String[] sources) {
+            this.name = name;
+            this.value = value;
+            this.isFinal = isFinal;
+            this.sources = sources;
+        }
+
+        /**
+         * @return the declared sources of the property followed by the resource
+         */
+        String[] getSources(String resource) {
+            String[] all = new String[sources.length + 1];
+            System.arraycopy(sources, 0, all, 0, sources.length);
+            all[sources.length] = resource;
+            return all;
+        }
+    }
+
+    private static final class Parsed {
+        final long checksum;
+        final List<Property> properties;
+
+        Parsed(long checksum, List<Property> properties) {
+            this.checksum = checksum;
+            this.properties = properties;
+        }
+    }
+
+    // the most resources whose properties are kept
+    private static final int MAX_PARSED = 64;
+
+    // the properties of the resources loaded recently, by URL
+    private static final Cache<String, Parsed> PARSED = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PARSED).softValues().build();
+
+    // the number of resources read from their binary form
+    private static final AtomicLong binaryReads = new AtomicLong();
+
+    private ConfigurationBinaryCache() {
+    }
+
+    /**
+     * Get the properties of the XML resource at the URL, from this JVM's
+     * cache, from its binary form or else by parsing it.
+     *
+     * @return the properties, in the order they are declared
+     */
+    static List<Property> load(URL url)
+            throws IOException, SAXException, ParserConfigurationException {
+        final byte[] xml = readFully(url.openStream());
+        final long checksum = checksum(xml);
+        final String key = url.toString();
+        Parsed parsed = PARSED.getIfPresent(key);
+        if (parsed != null && parsed.checksum == checksum) {
+            return parsed.properties;
+        }
+
+        final boolean includes = contains(xml, XINCLUDE);
+        List<Property> properties = null;
+        if (!includes) {
+            properties = readBinary(new URL(key + SUFFIX), checksum);
+            if (properties != null) {
+                binaryReads.incrementAndGet();
+            }
+        }
+        if (properties == null) {
+            properties = parse(new ByteArrayInputStream(xml), key);
+        }
+        if (!includes) {
+            PARSED.put(key, new Parsed(checksum, properties));
+        }
+        return properties;
+    }
+
+    /**
+     * @return the number of resources loaded from their binary form
+     */
+    @VisibleForTesting
+    static long getBinaryReads() {
+        return binaryReads.get();
+    }
+
+    /**
+     * Parse the properties of an XML resource.  The stream is closed.
+     *
+     * @param systemId the location of the resource, to resolve includes
+     */
+    static List<Property> parse(InputStream in, String systemId)
+            throws IOException, SAXException, ParserConfigurationException {
+        try {
+            Document doc = (systemId == null) ? newDocumentBuilder().parse(in)
+                    : newDocumentBuilder().parse(in, systemId);
+            return parse(doc.getDocumentElement());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Get the properties declared under a <code>configuration</code> element.
+     */
+    static List<Property> parse(Element root) {
+        List<Property> properties = new ArrayList<Property>();
+        parse(root, properties);
+        return Collections.unmodifiableList(properties);
+    }
+
+    private static void parse(Element root, List<Property> properties) {
+        if (!"configuration".equals(root.getTagName()))
+            LOG.fatal("bad conf file: top-level element not <configuration>");
+        NodeList props = root.getChildNodes();
+        for (int i = 0; i < props.getLength(); i++) {
+            Node propNode = props.item(i);
+            if (!(propNode instanceof Element))
+                continue;
+            Element prop = (Element) propNode;
+            if ("configuration".equals(prop.getTagName())) {
+                parse(prop, properties);
+                continue;
+            }
+            if (!"property".equals(prop.getTagName()))
+                LOG.warn("bad conf file: element not <property>");
+            NodeList fields = prop.getChildNodes();
+            String attr = null;
+            String value = null;
+            boolean finalParameter = false;
+            List<String> source = new ArrayList<String>(1);
+            for (int j = 0; j < fields.getLength(); j++) {
+                Node fieldNode = fields.item(j);
+                if (!(fieldNode instanceof Element))
+                    continue;
+                Element field = (Element) fieldNode;
+                if ("name".equals(field.getTagName()) && field.hasChildNodes())
+                    attr = StringInterner.weakIntern(
+                            ((Text) field.getFirstChild()).getData().trim());
+                if ("value".equals(field.getTagName()) && field.hasChildNodes())
+                    value = StringInterner.weakIntern(
+                            ((Text) field.getFirstChild()).getData());
+                if ("final".equals(field.getTagName()) && field.hasChildNodes())
+                    finalParameter = "true".equals(((Text) field.getFirstChild()).getData());
+                if ("source".equals(field.getTagName()) && field.hasChildNodes())
+                    source.add(StringInterner.weakIntern(
+                            ((Text) field.getFirstChild()).getData()));
+            }
+            if (attr != null) {
+                properties.add(new Property(attr, value, finalParameter,
+                        source.toArray(new String[source.size()])));
+            }
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder()
+            throws ParserConfigurationException {
+        DocumentBuilderFactory docBuilderFactory
+                = DocumentBuilderFactory.newInstance();
+        //ignore all comments inside the xml file
+        docBuilderFactory.setIgnoringComments(true);
+
+        //allow includes in the xml file
+        docBuilderFactory.setNamespaceAware(true);
+        try {
+            docBuilderFactory.setXIncludeAware(true);
+        } catch (UnsupportedOperationException e) {
+            LOG.error("Failed to set setXIncludeAware(true) for parser "
+                            + docBuilderFactory
+                            + ":" + e,
+                    e);
+        }
+        return docBuilderFactory.newDocumentBuilder();
+    }
+
+    /**
+     * Read the binary form at the URL, if there is one for the given checksum
+     * of the XML.
+     *
+     * @return the properties, or null to parse the XML instead
+     */
+    static List<Property> readBinary(URL url, long checksum) {
+        InputStream raw;
+        try {
+            raw = url.openStream();
+        } catch (IOException e) {
+            // FileNotFoundException, or the like for a missing jar entry
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(raw));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("Ignoring " + url + ": not a configuration binary");
+                return null;
+            }
+            if (in.readLong() != checksum) {
+                LOG.debug("Ignoring " + url + ": written from other XML");
+                return null;
+            }
+            // Counts are not trusted to size anything: a corrupt file runs out
+            // of bytes long before it runs out of memory.
+            int count = readCount(in);
+            List<Property> properties = new ArrayList<Property>();
+            for (int i = 0; i < count; i++) {
+                String name = StringInterner.weakIntern(WritableUtils.readString(in));
+                String value = StringInterner.weakIntern(WritableUtils.readString(in));
+                boolean isFinal = in.readBoolean();
+                int sourceCount = readCount(in);
+                List<String> sources = new ArrayList<String>();
+                for (int j = 0; j < sourceCount; j++) {
+                    sources.add(StringInterner.weakIntern(WritableUtils.readString(in)));
+                }
+                properties.add(new Property(name, value, isFinal,
+                        sources.toArray(new String[sources.size()])));
+            }
+            return Collections.unmodifiableList(properties);
+        } catch (IOException e) {
+            LOG.warn("Ignoring " + url + ": " + e);
+            return null;
+        } finally {
+            IOUtils.closeStream(in);
+        }
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Write the binary form of the XML resource.
+     */
+    static void writeBinary(byte[] xml, File binary)
+            throws IOException, SAXException, ParserConfigurationException {
+        List<Property> properties = parse(new ByteArrayInputStream(xml), null);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(binary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checksum(xml));
+            out.writeInt(properties.size());
+            for (Property p : properties) {
+                WritableUtils.writeString(out, p.name);
+                WritableUtils.writeString(out, p.value);
+                out.writeBoolean(p.isFinal);
+                out.writeInt(p.sources.length);
+                for (String source : p.sources) {
+                    WritableUtils.writeString(out, source);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        IOUtils.copyBytes(in, out, 4096, true);
+        return out.toByteArray();
+    }
+
+    static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static boolean contains(byte[] bytes, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the binary form of each XML resource given, next to it.  Run at
+     * build time on the default resources.
+     */
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            File file = new File(arg);
+            if (!file.exists()) {
+                throw new FileNotFoundException(arg);
+            }
+            byte[] xml = readFully(new FileInputStream(file));
+            if (contains(xml, XINCLUDE)) {
+                System.err.println("Skipping " + file + ": it includes others");
+                continue;
+            }
+            writeBinary(xml, new File(file.getPath() + SUFFIX));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.conf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * An immutable view of the properties of a {@link Configuration} at the time
+ * it was taken, from {@link Configuration#snapshot()}.
+ * <p/>
+ * <a href="Configuration.html#VariableExpansion">Variable expansion</a> and
+ * deprecated keys are resolved when the view is taken, so a lookup is one
+ * hash map access: it takes no lock and, but for hexadecimal numbers, creates
+ * no objects.  The getters parse values like those of {@link Configuration},
+ * and a deprecated key is warned about the first time it is read.  Reading a
+ * property whose expansion failed throws the {@link IllegalStateException}
+ * {@link Configuration#get(String)} would.
+ * <p/>
+ * Changes to the configuration after the view is taken are not seen by it.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public final class ConfigurationSnapshot {
+
+    private static final class Value {
+        final String value;
+        final String trimmed;
+        final boolean deprecated;
+        // why the value could not be expanded, if it could not
+        final String failure;
+
+        Value(String value, boolean deprecated, String failure) {
+            this.value = value;
+            this.trimmed = value == null ? null : value.trim();
+            this.deprecated = deprecated;
+            this.failure = failure;
+        }
+    }
+
+    private final Map<String, Value> values;
+    // what the view was taken from, to tell if it is still current
+    final int version;
+    final Object deprecations;
+
+    ConfigurationSnapshot(Map<String, String> values, Map<String, String> failures,
+                          Set<String> deprecatedKeys, int version, Object deprecations) {
+        this.values = new HashMap<String, Value>(
+                (values.size() + failures.size()) * 4 / 3 + 1);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            this.values.put(entry.getKey(), new Value(entry.getValue(),
+                    deprecatedKeys.contains(entry.getKey()), null));
+        }
+        for (Map.Entry<String, String> entry : failures.entrySet()) {
+            this.values.put(entry.getKey(), new Value(null,
+                    deprecatedKeys.contains(entry.getKey()), entry.getValue()));
+        }
+        this.version = version;
+        this.deprecations = deprecations;
+    }
+
+    private Value lookup(String name) {
+        Value v = values.get(name);
+        if (v == null) {
+            // as Configuration, ignore surrounding white space in the name
+            String trimmedName = name.trim();
+            if (trimmedName != name) {
+                v = values.get(trimmedName);
+                name = trimmedName;
+            }
+        }
+        if (v != null && v.deprecated) {
+            Configuration.warnOnceIfDeprecated(name);
+        }
+        if (v != null && v.failure != null) {
+            throw new IllegalStateException(v.failure);
+        }
+        return v;
+    }
+
+    /**
+     * @return the number of properties in the view, deprecated keys included
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @see Configuration#get(String)
+     */
+    public String get(String name) {
+        Value v = lookup(name);
+        return v == null ? null : v.value;
+    }
+
+    /**
+     * @see Configuration#get(String, String)
+     */
+    public String get(String name, String defaultValue) {
+        String value = get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @see Configuration#getTrimmed(String)
+     */
+    public String getTrimmed(String name) {
+        Value v = lookup(name);
+        return v == null ? null : v.trimmed;
+    }
+
+    /**
+     * @see Configuration#getTrimmed(String, String)
+     */
+    public String getTrimmed(String name, String defaultValue) {
+        String value = getTrimmed(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @see Configuration#getInt(String, int)
+     */
+    public int getInt(String name, int defaultValue) {
+        String valueString = getTrimmed(name);
+        if (valueString == null)
+            return defaultValue;
+        String hexString = Configuration.getHexDigits(valueString);
+        if (hexString != null) {
+            return Integer.parseInt(hexString, 16);
+        }
+        return Integer.parseInt(valueString);
+    }
+
+    /**
+     * @see Configuration#getLong(String, long)
+     */
+    public long getLong(String name, long defaultValue) {
+        String valueString = getTrimmed(name);
+        if (valueString == null)
+            return defaultValue;
+        String hexString = Configuration.getHexDigits(valueString);
+        if (hexString != null) {
+            return Long.parseLong(hexString, 16);
+        }
+        return Long.parseLong(valueString);
+    }
+
+    /**
+     * @see Configuration#getLongBytes(String, long)
+     */
+    public long getLongBytes(String name, long defaultValue) {
+        String valueString = getTrimmed(name);
+        if (valueString == null)
+            return defaultValue;
+        return StringUtils.TraditionalBinaryPrefix.string2long(valueString);
+    }
+
+    /**
+     * @see Configuration#getFloat(String, float)
+     */
+    public float getFloat(String name, float defaultValue) {
+        String valueString = getTrimmed(name);
+        if (valueString == null)
+            return defaultValue;
+        return Float.parseFloat(valueString);
+    }
+
+    /**
+     * @see Configuration#getBoolean(String, boolean)
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String valueString = getTrimmed(name);
+        if ("true".equalsIgnoreCase(valueString))
+            return true;
+        else if ("false".equalsIgnoreCase(valueString))
+            return false;
+        else return defaultValue;
+    }
+}
@@ -21,9 +21,11 @@
 import java.io.EOFException;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
 
 
 /**
@@ -33,7 +35,8 @@
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
 public class BufferedFSInputStream extends BufferedInputStream
-        implements Seekable, PositionedReadable, HasFileDescriptor {
+        implements Seekable, PositionedReadable, HasFileDescriptor,
+        VectoredReadable {
     /**
      * Creates a <code>BufferedFSInputStream</code>
      * with the specified buffer size,
@@ -118,6 +121,16 @@ public void readFully(long position, byte[] buffer) throws IOException {
         ((FSInputStream) in).readFully(position, buffer);
     }
 
+    @Override
+    public void readVectored(List<? extends FileRange> ranges,
+                             ByteBufferPool allocator) throws IOException {
+        if (in instanceof VectoredReadable) {
+            ((VectoredReadable) in).readVectored(ranges, allocator);
+        } else {
+            VectoredReadUtils.readVectored((FSInputStream) in, ranges, allocator);
+        }
+    }
+
     @Override
     public FileDescriptor getFileDescriptor() throws IOException {
         if (in instanceof HasFileDescriptor) {
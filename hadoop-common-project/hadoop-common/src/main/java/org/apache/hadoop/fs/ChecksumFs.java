@@ -26,6 +26,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +34,7 @@
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.fs.Options.ChecksumOpt;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.Progressable;
 
@@ -117,7 +119,8 @@ private int getSumBufferSize(int bytesPerSum, int bufferSize)
      * For open()'s FSInputStream
      * It verifies that data matches checksums.
      *******************************************************/
-    private static class ChecksumFSInputChecker extends FSInputChecker {
+    private static class ChecksumFSInputChecker extends FSInputChecker
+            implements VectoredReadable {
         public static final Log LOG
                 = LogFactory.getLog(FSInputChecker.class);
         private static final int HEADER_LENGTH = 8;
@@ -195,6 +198,25 @@ public int read(long position, byte[] b, int off, int len)
             return nread;
         }
 
+        /**
+         * Read the ranges in file order through one checker, instead of
+         * opening the data and checksum files for every positional read.
+         * Ranges within a checksum chunk of each other are read together, so
+         * that each chunk is verified once.
+         */
+        @Override
+        public void readVectored(List<? extends FileRange> ranges,
+                                 ByteBufferPool allocator) throws IOException {
+            ChecksumFSInputChecker checker = new ChecksumFSInputChecker(fs, file);
+            try {
+                VectoredReadUtils.readVectoredBySeeking(checker, ranges, allocator,
+                        Math.max(bytesPerSum, VectoredReadUtils.DEFAULT_MIN_SEEK_SIZE),
+                        VectoredReadUtils.DEFAULT_MAX_MERGED_SIZE);
+            } finally {
+                checker.close();
+            }
+        }
+
         @Override
         public void close() throws IOException {
             datas.close();
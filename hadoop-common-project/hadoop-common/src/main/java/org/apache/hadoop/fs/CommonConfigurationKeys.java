@@ -87,6 +87,48 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
      */
     public static final int IPC_SERVER_RPC_READ_THREADS_DEFAULT = 1;
 
+    /**
+     * Number of threads in RPC server writing responses to the socket
+     */
+    public static final String IPC_SERVER_RESPONDER_THREADS_KEY =
+            "ipc.server.responder.threads";
+    /**
+     * Default value for IPC_SERVER_RESPONDER_THREADS_KEY
+     */
+    public static final int IPC_SERVER_RESPONDER_THREADS_DEFAULT = 1;
+    /**
+     * Maximum number of bytes of queued responses the RPC server sends to a
+     * connection in one gathering write
+     */
+    public static final String IPC_SERVER_RESPONSE_GATHER_BYTES_KEY =
+            "ipc.server.response.gather.bytes";
+    /**
+     * Default value for IPC_SERVER_RESPONSE_GATHER_BYTES_KEY
+     */
+    public static final int IPC_SERVER_RESPONSE_GATHER_BYTES_DEFAULT =
+            64 * 1024;
+
+    /**
+     * Number of threads in RPC server accepting connections on its socket
+     */
+    public static final String IPC_SERVER_LISTENER_THREADS_KEY =
+            "ipc.server.listener.threads";
+    /**
+     * Default value for IPC_SERVER_LISTENER_THREADS_KEY
+     */
+    public static final int IPC_SERVER_LISTENER_THREADS_DEFAULT = 1;
+    /**
+     * Whether RPC server hands new connections to the socket reader with the
+     * fewest open connections, instead of round robin
+     */
+    public static final String IPC_SERVER_READER_BALANCE_CONNECTIONS_KEY =
+            "ipc.server.read.balance.connections";
+    /**
+     * Default value for IPC_SERVER_READER_BALANCE_CONNECTIONS_KEY
+     */
+    public static final boolean IPC_SERVER_READER_BALANCE_CONNECTIONS_DEFAULT =
+            false;
+
     /**
      * Number of pending connections that may be queued per socket reader
      */
@@ -318,6 +360,17 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
             "ipc.client.connect.max.retries.on.sasl";
     public static final int IPC_CLIENT_CONNECT_MAX_RETRIES_ON_SASL_DEFAULT = 5;
 
+    /**
+     * Number of threads of a client which read the responses of all its
+     * connections; 0 for a thread per connection.
+     */
+    public static final String IPC_CLIENT_RECEIVER_THREADS_KEY =
+            "ipc.client.receiver.threads";
+    /**
+     * Default value for IPC_CLIENT_RECEIVER_THREADS_KEY
+     */
+    public static final int IPC_CLIENT_RECEIVER_THREADS_DEFAULT = 0;
+
     /**
      * How often the server scans for idle connections
      */
@@ -337,6 +390,16 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
     public static final boolean RPC_METRICS_QUANTILE_ENABLE_DEFAULT = false;
     public static final String RPC_METRICS_PERCENTILES_INTERVALS_KEY =
             "rpc.metrics.percentiles.intervals";
+    public static final String RPC_METRICS_LATENCY_HISTOGRAMS_ENABLE =
+            "rpc.metrics.latency.histograms.enable";
+    public static final boolean RPC_METRICS_LATENCY_HISTOGRAMS_ENABLE_DEFAULT =
+            false;
+    public static final String RPC_METRICS_LATENCY_HISTOGRAMS_INTERVAL_KEY =
+            "rpc.metrics.latency.histograms.interval";
+    public static final int RPC_METRICS_LATENCY_HISTOGRAMS_INTERVAL_DEFAULT = 60;
+    public static final String RPC_METRICS_LATENCY_HISTOGRAMS_MAX_USERS_KEY =
+            "rpc.metrics.latency.histograms.max.users";
+    public static final int RPC_METRICS_LATENCY_HISTOGRAMS_MAX_USERS_DEFAULT = 0;
 
     /**
      * Allowed hosts for nfs exports
@@ -77,6 +77,14 @@ public class CommonConfigurationKeysPublic {
      * Default value for FS_DU_INTERVAL_KEY
      */
     public static final long FS_DU_INTERVAL_DEFAULT = 600000;
+    /**
+     * See <a href="{@docRoot}/../core-default.html">core-default.xml</a>
+     */
+    public static final String FS_DU_JAVA_ENABLED_KEY = "fs.du.java.enabled";
+    /**
+     * Default value for FS_DU_JAVA_ENABLED_KEY
+     */
+    public static final boolean FS_DU_JAVA_ENABLED_DEFAULT = false;
     /**
      * See <a href="{@docRoot}/../core-default.html">core-default.xml</a>
      */
@@ -422,6 +430,28 @@ public class CommonConfigurationKeysPublic {
     /**
      * See <a href="{@docRoot}/../core-default.html">core-default.xml</a>
      */
+    public static final String HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD =
+            "hadoop.security.groups.cache.background.reload";
+    public static final boolean
+            HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD_DEFAULT = false;
+    /**
+     * See <a href="{@docRoot}/../core-default.html">core-default.xml</a>
+     */
+    public static final String
+            HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD_THREADS =
+            "hadoop.security.groups.cache.background.reload.threads";
+    public static final int
+            HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD_THREADS_DEFAULT = 3;
+    /**
+     * See <a href="{@docRoot}/../core-default.html">core-default.xml</a>
+     */
+    public static final String HADOOP_SECURITY_GROUPS_MAX_CONCURRENT_LOOKUPS =
+            "hadoop.security.groups.max.concurrent.lookups";
+    public static final int HADOOP_SECURITY_GROUPS_MAX_CONCURRENT_LOOKUPS_DEFAULT =
+            0;
+    /**
+     * See <a href="{@docRoot}/../core-default.html">core-default.xml</a>
+     */
     public static final String HADOOP_SECURITY_AUTHENTICATION =
             "hadoop.security.authentication";
     /**
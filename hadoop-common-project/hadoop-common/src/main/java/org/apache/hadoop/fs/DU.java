@@ -29,7 +29,8 @@
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Filesystem disk space usage statistics.  Uses the unix 'du' program
+ * Filesystem disk space usage statistics.  Uses the unix 'du' program, or
+ * {@link DUHelper} on Windows and if configured to.
  */
 @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
 @InterfaceStability.Evolving
@@ -41,6 +42,7 @@ public class DU extends Shell {
     private Thread refreshUsed;
     private IOException duException = null;
     private long refreshInterval;
+    private final boolean useJava;
 
     /**
      * Keeps track of disk usage.
@@ -62,7 +64,13 @@ public DU(File path, long interval) throws IOException {
      * @throws IOException if we fail to refresh the disk usage
      */
     public DU(File path, long interval, long initialUsed) throws IOException {
+        this(path, interval, initialUsed, false);
+    }
+
+    private DU(File path, long interval, long initialUsed, boolean useJava)
+            throws IOException {
         super(0);
+        this.useJava = useJava;
 
         //we set the Shell interval to 0 so it will always run our command
         //and use this one to set the thread sleep interval
@@ -99,7 +107,9 @@ public DU(File path, Configuration conf) throws IOException {
     public DU(File path, Configuration conf, long initialUsed)
             throws IOException {
         this(path, conf.getLong(CommonConfigurationKeys.FS_DU_INTERVAL_KEY,
-                CommonConfigurationKeys.FS_DU_INTERVAL_DEFAULT), initialUsed);
+                CommonConfigurationKeys.FS_DU_INTERVAL_DEFAULT), initialUsed,
+                conf.getBoolean(CommonConfigurationKeys.FS_DU_JAVA_ENABLED_KEY,
+                        CommonConfigurationKeys.FS_DU_JAVA_ENABLED_DEFAULT));
     }
 
 
@@ -190,7 +200,7 @@ public String getDirPath() {
      */
     @Override
     protected void run() throws IOException {
-        if (WINDOWS) {
+        if (WINDOWS || useJava) {
             used.set(DUHelper.getFolderUsage(dirPath));
             return;
         }
@@ -20,6 +20,7 @@
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -36,7 +37,7 @@
 public class FSDataInputStream extends DataInputStream
         implements Seekable, PositionedReadable,
         ByteBufferReadable, HasFileDescriptor, CanSetDropBehind, CanSetReadahead,
-        HasEnhancedByteBufferAccess {
+        HasEnhancedByteBufferAccess, VectoredReadable {
     /**
      * Map ByteBuffers that we have handed out to readers to ByteBufferPool
      * objects
@@ -147,6 +148,20 @@ public int read(ByteBuffer buf) throws IOException {
         throw new UnsupportedOperationException("Byte-buffer read unsupported by input stream");
     }
 
+    /**
+     * Read the given ranges.  Streams which are not {@link VectoredReadable}
+     * are read with one positional read per group of nearby ranges.
+     */
+    @Override
+    public void readVectored(List<? extends FileRange> ranges,
+                             ByteBufferPool allocator) throws IOException {
+        if (in instanceof VectoredReadable) {
+            ((VectoredReadable) in).readVectored(ranges, allocator);
+        } else {
+            VectoredReadUtils.readVectored(this, ranges, allocator);
+        }
+    }
+
     @Override
     public FileDescriptor getFileDescriptor() throws IOException {
         if (in instanceof HasFileDescriptor) {
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A range of a file to read with
+ * {@link VectoredReadable#readVectored(java.util.List,
+ * org.apache.hadoop.io.ByteBufferPool)}.
+ * <p/>
+ * The data of the range is delivered through {@link #getData()}.  A range
+ * can only be read once.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class FileRange {
+    private final long offset;
+    private final int length;
+    private final SettableFuture<ByteBuffer> data = SettableFuture.create();
+
+    /**
+     * @param offset the position in the file of the first byte of the range
+     * @param length the number of bytes in the range
+     */
+    public FileRange(long offset, int length) {
+        Preconditions.checkArgument(offset >= 0,
+                "Negative offset %s", offset);
+        Preconditions.checkArgument(length >= 0,
+                "Negative length %s", length);
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return a future for the data of the range.  Once the range is read,
+     * the future returns a buffer whose remaining bytes are the range.
+     * If the range could not be read, the future throws the cause in an
+     * {@link java.util.concurrent.ExecutionException}.
+     */
+    public Future<ByteBuffer> getData() {
+        return data;
+    }
+
+    /**
+     * Complete the range with its data.
+     *
+     * @param buffer a buffer whose remaining bytes are the range
+     */
+    public void setData(ByteBuffer buffer) {
+        data.set(buffer);
+    }
+
+    /**
+     * Fail the range.
+     *
+     * @param t the reason the range could not be read
+     */
+    public void setException(Throwable t) {
+        data.setException(t);
+    }
+
+    @Override
+    public String toString() {
+        return "range[" + offset + "," + (offset + length) + ")";
+    }
+}
@@ -26,6 +26,7 @@
 import java.util.Arrays;
 
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.Shell.ExitCodeException;
 import org.apache.hadoop.util.Shell.ShellCommandExecutor;
@@ -33,6 +34,8 @@
 /**
  * Class for creating hardlinks.
  * Supports Unix/Linux, Windows via winutils , and Mac OS X.
+ * Links are made with link(2) when the native IO extensions are available,
+ * and with the platform's commands otherwise.
  * <p/>
  * The HardLink class was formerly a static inner class of FSUtil,
  * and the methods provided were blatantly non-thread-safe.
@@ -379,6 +382,10 @@ public static void createHardLink(File file, File linkName)
             throw new IOException(
                     "invalid arguments to createHardLink: link name is null");
         }
+        if (NativeIO.isAvailable()) {
+            NativeIO.link(file, linkName);
+            return;
+        }
         // construct and execute shell command
         String[] hardLinkCommand = getHardLinkCommand.linkOne(file, linkName);
         ShellCommandExecutor shexec = new ShellCommandExecutor(hardLinkCommand);
@@ -408,6 +415,14 @@ public static void createHardLink(File file, File linkName)
     public static void createHardLinkMult(File parentDir, String[] fileBaseNames,
                                           File linkDir) throws IOException {
         //This is the public method all non-test clients are expected to use.
+        if (NativeIO.isAvailable()) {
+            if (checkLinkMultArgs(parentDir, fileBaseNames, linkDir)) {
+                for (String name : fileBaseNames) {
+                    NativeIO.link(new File(parentDir, name), new File(linkDir, name));
+                }
+            }
+            return;
+        }
         //Normal case - allow up to maxAllowedCmdArgLength characters in the cmd
         createHardLinkMult(parentDir, fileBaseNames, linkDir,
                 getHardLinkCommand.getMaxAllowedCmdArgLength());
@@ -423,27 +438,11 @@ public static void createHardLinkMult(File parentDir, String[] fileBaseNames,
     protected static int createHardLinkMult(File parentDir,
                                             String[] fileBaseNames, File linkDir, int maxLength)
             throws IOException {
-        if (parentDir == null) {
-            throw new IOException(
-                    "invalid arguments to createHardLinkMult: parent directory is null");
-        }
-        if (linkDir == null) {
-            throw new IOException(
-                    "invalid arguments to createHardLinkMult: link directory is null");
-        }
-        if (fileBaseNames == null) {
-            throw new IOException(
-                    "invalid arguments to createHardLinkMult: "
-                            + "filename list can be empty but not null");
-        }
-        if (fileBaseNames.length == 0) {
+        if (!checkLinkMultArgs(parentDir, fileBaseNames, linkDir)) {
             //the OS cmds can't handle empty list of filenames,
             //but it's legal, so just return.
             return 0;
         }
-        if (!linkDir.exists()) {
-            throw new FileNotFoundException(linkDir + " not found.");
-        }
 
         //if the list is too long, split into multiple invocations
         int callCount = 0;
@@ -472,6 +471,36 @@ protected static int createHardLinkMult(File parentDir,
         return callCount;
     }
 
+    /**
+     * Check the arguments of createHardLinkMult.
+     *
+     * @return false if there are no files to link
+     */
+    private static boolean checkLinkMultArgs(File parentDir,
+                                             String[] fileBaseNames, File linkDir)
+            throws IOException {
+        if (parentDir == null) {
+            throw new IOException(
+                    "invalid arguments to createHardLinkMult: parent directory is null");
+        }
+        if (linkDir == null) {
+            throw new IOException(
+                    "invalid arguments to createHardLinkMult: link directory is null");
+        }
+        if (fileBaseNames == null) {
+            throw new IOException(
+                    "invalid arguments to createHardLinkMult: "
+                            + "filename list can be empty but not null");
+        }
+        if (fileBaseNames.length == 0) {
+            return false;
+        }
+        if (!linkDir.exists()) {
+            throw new FileNotFoundException(linkDir + " not found.");
+        }
+        return true;
+    }
+
     /**
      * Retrieves the number of links to the specified file.
      */
@@ -33,15 +33,20 @@
 import java.io.FileDescriptor;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.nativeio.Errno;
 import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.io.nativeio.NativeIOException;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.StringUtils;
@@ -99,7 +104,8 @@ public void initialize(URI uri, Configuration conf) throws IOException {
     /*******************************************************
      * For open()'s FSInputStream.
      *******************************************************/
-    class LocalFSFileInputStream extends FSInputStream implements HasFileDescriptor {
+    class LocalFSFileInputStream extends FSInputStream
+            implements HasFileDescriptor, VectoredReadable {
         private FileInputStream fis;
         private long position;
 
@@ -188,6 +194,38 @@ public int read(long position, byte[] b, int off, int len)
             }
         }
 
+        /**
+         * Read each range straight into its buffer with a positional read of
+         * the file channel.  Merging ranges would not save any system call.
+         */
+        @Override
+        public void readVectored(List<? extends FileRange> ranges,
+                                 ByteBufferPool allocator) throws IOException {
+            final FileChannel channel = fis.getChannel();
+            for (FileRange range : VectoredReadUtils.validateAndSortRanges(ranges)) {
+                // pooled direct buffers save the channel a copy
+                final ByteBuffer data = VectoredReadUtils.allocate(allocator,
+                        allocator != null, range.getLength());
+                try {
+                    while (data.hasRemaining()) {
+                        int n = channel.read(data, range.getOffset() + data.position());
+                        if (n < 0) {
+                            throw new EOFException("End of file reached before reading "
+                                    + range);
+                        }
+                        statistics.incrementBytesRead(n);
+                    }
+                    data.flip();
+                    range.setData(data);
+                } catch (IOException e) {
+                    if (allocator != null) {
+                        allocator.putBuffer(data);
+                    }
+                    range.setException(e);
+                }
+            }
+        }
+
         @Override
         public long skip(long n) throws IOException {
             long value = fis.skip(n);
@@ -589,8 +627,12 @@ public String getGroup() {
             return super.getGroup();
         }
 
-        /// loads permissions, owner, and group from `ls -ld`
+        /// loads permissions, owner, and group from stat(2), or else `ls -ld`
         private void loadPermissionInfo() {
+            if (NativeIO.isAvailable() && !Shell.WINDOWS) {
+                loadPermissionInfoByNativeIO();
+                return;
+            }
             IOException e = null;
             try {
                 String output = FileUtil.execCommand(new File(getPath().toUri()),
@@ -638,6 +680,28 @@ private void loadPermissionInfo() {
             }
         }
 
+        private void loadPermissionInfoByNativeIO() {
+            try {
+                NativeIO.POSIX.Stat stat = NativeIO.POSIX.getStat(
+                        new File(getPath().toUri()).getPath());
+                // the permission bits and the sticky bit, as `ls -ld` shows them
+                setPermission(new FsPermission((short) (stat.getMode() & 01777)));
+                setOwner(stat.getOwner());
+                setGroup(stat.getGroup());
+            } catch (NativeIOException e) {
+                if (e.getErrno() != Errno.ENOENT) {
+                    throw new RuntimeException("Error while getting file " +
+                            "permissions : " + StringUtils.stringifyException(e));
+                }
+                setPermission(null);
+                setOwner(null);
+                setGroup(null);
+            } catch (IOException e) {
+                throw new RuntimeException("Error while getting file " +
+                        "permissions : " + StringUtils.stringifyException(e));
+            }
+        }
+
         @Override
         public void write(DataOutput out) throws IOException {
             if (!isPermissionLoaded()) {
@@ -648,7 +712,7 @@ public void write(DataOutput out) throws IOException {
     }
 
     /**
-     * Use the command chown to set owner.
+     * Use chown(2), or else the command chown, to set owner.
      */
     @Override
     public void setOwner(Path p, String username, String groupname)
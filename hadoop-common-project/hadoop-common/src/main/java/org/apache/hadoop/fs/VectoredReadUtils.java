@@ -0,0 +1,294 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Helpers for implementing {@link VectoredReadable}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public final class VectoredReadUtils {
+    /**
+     * Ranges separated by at most this many bytes are read together.
+     */
+    public static final int DEFAULT_MIN_SEEK_SIZE = 4 * 1024;
+
+    /**
+     * Ranges are not merged into reads larger than this many bytes.
+     */
+    public static final int DEFAULT_MAX_MERGED_SIZE = 1024 * 1024;
+
+    private static final Comparator<FileRange> OFFSET_COMPARATOR =
+            new Comparator<FileRange>() {
+                @Override
+                public int compare(FileRange a, FileRange b) {
+                    return a.getOffset() < b.getOffset() ? -1
+                            : a.getOffset() == b.getOffset() ? 0 : 1;
+                }
+            };
+
+    private VectoredReadUtils() {
+    }
+
+    /**
+     * Ranges of a file which are read with a single read.
+     */
+    public static class CombinedRange {
+        private final long offset;
+        private long end;
+        private final List<FileRange> ranges = new ArrayList<FileRange>();
+
+        CombinedRange(FileRange first) {
+            this.offset = first.getOffset();
+            this.end = first.getOffset() + first.getLength();
+            ranges.add(first);
+        }
+
+        void add(FileRange range) {
+            ranges.add(range);
+            end = range.getOffset() + range.getLength();
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return (int) (end - offset);
+        }
+
+        /** @return the ranges, in file order */
+        public List<FileRange> getRanges() {
+            return ranges;
+        }
+
+        @Override
+        public String toString() {
+            return "combined[" + offset + "," + end + ")x" + ranges.size();
+        }
+    }
+
+    /**
+     * Sort the ranges by offset.
+     *
+     * @throws IllegalArgumentException if the ranges overlap
+     */
+    public static List<FileRange> validateAndSortRanges(
+            List<? extends FileRange> ranges) {
+        Preconditions.checkNotNull(ranges, "Null ranges");
+        final List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+        Collections.sort(sorted, OFFSET_COMPARATOR);
+        for (int i = 1; i < sorted.size(); i++) {
+            final FileRange prev = sorted.get(i - 1);
+            final FileRange cur = sorted.get(i);
+            Preconditions.checkArgument(
+                    prev.getOffset() + prev.getLength() <= cur.getOffset(),
+                    "Overlapping ranges %s and %s", prev, cur);
+        }
+        return sorted;
+    }
+
+    /**
+     * Merge sorted ranges which are close to each other.
+     *
+     * @param sorted       the ranges sorted by offset
+     * @param minSeek      ranges separated by at most this many bytes
+     *                     are merged
+     * @param maxMergedSize merged ranges are not longer than this, unless
+     *                     a single range is
+     * @return the merged ranges, in file order
+     */
+    public static List<CombinedRange> mergeSortedRanges(List<FileRange> sorted,
+                                                        int minSeek, int maxMergedSize) {
+        final List<CombinedRange> merged = new ArrayList<CombinedRange>();
+        CombinedRange current = null;
+        for (FileRange range : sorted) {
+            final long rangeEnd = range.getOffset() + range.getLength();
+            if (current != null
+                    && range.getOffset() - current.end <= minSeek
+                    && rangeEnd - current.offset <= maxMergedSize) {
+                current.add(range);
+            } else {
+                current = new CombinedRange(range);
+                merged.add(current);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Read the ranges with positional reads, merging nearby ranges with the
+     * default sizes.  All the ranges are completed when this returns.
+     */
+    public static void readVectored(PositionedReadable stream,
+                                    List<? extends FileRange> ranges, ByteBufferPool allocator) {
+        readVectored(stream, ranges, allocator, DEFAULT_MIN_SEEK_SIZE,
+                DEFAULT_MAX_MERGED_SIZE);
+    }
+
+    /**
+     * Read the ranges with positional reads, merging nearby ranges.
+     * All the ranges are completed when this returns.
+     */
+    public static void readVectored(PositionedReadable stream,
+                                    List<? extends FileRange> ranges, ByteBufferPool allocator,
+                                    int minSeek, int maxMergedSize) {
+        for (CombinedRange combined : mergeSortedRanges(
+                validateAndSortRanges(ranges), minSeek, maxMergedSize)) {
+            readCombinedRange(stream, combined, allocator);
+        }
+    }
+
+    /**
+     * Read the ranges by seeking the stream, which must not be used by
+     * anybody else meanwhile.  This suits streams whose positional reads
+     * are expensive.  All the ranges are completed when this returns.
+     */
+    public static void readVectoredBySeeking(final FSInputStream in,
+                                             List<? extends FileRange> ranges, ByteBufferPool allocator,
+                                             int minSeek, int maxMergedSize) {
+        readVectored(new PositionedReadable() {
+            @Override
+            public int read(long position, byte[] buffer, int offset, int length)
+                    throws IOException {
+                in.seek(position);
+                return in.read(buffer, offset, length);
+            }
+
+            @Override
+            public void readFully(long position, byte[] buffer, int offset,
+                                  int length) throws IOException {
+                in.seek(position);
+                while (length > 0) {
+                    final int n = in.read(buffer, offset, length);
+                    if (n < 0) {
+                        throw new EOFException("End of file reached before reading fully.");
+                    }
+                    offset += n;
+                    length -= n;
+                }
+            }
+
+            @Override
+            public void readFully(long position, byte[] buffer) throws IOException {
+                readFully(position, buffer, 0, buffer.length);
+            }
+        }, ranges, allocator, minSeek, maxMergedSize);
+    }
+
+    /**
+     * Read a combined range with one positional read and complete its ranges.
+     * If the read fails, e.g. since the last range is past the end of the
+     * file, the ranges are read one at a time so that only the bad ones fail.
+     * This never throws.
+     */
+    public static void readCombinedRange(PositionedReadable stream,
+                                         CombinedRange combined, ByteBufferPool allocator) {
+        final List<FileRange> ranges = combined.getRanges();
+        if (ranges.size() > 1) {
+            final byte[] buf = new byte[combined.getLength()];
+            try {
+                stream.readFully(combined.getOffset(), buf, 0, buf.length);
+            } catch (IOException e) {
+                for (FileRange range : ranges) {
+                    readRange(stream, range, allocator);
+                }
+                return;
+            } catch (RuntimeException e) {
+                for (FileRange range : ranges) {
+                    range.setException(e);
+                }
+                return;
+            }
+            for (FileRange range : ranges) {
+                final ByteBuffer data = allocate(allocator, range.getLength());
+                data.put(buf, (int) (range.getOffset() - combined.getOffset()),
+                        range.getLength());
+                data.flip();
+                range.setData(data);
+            }
+        } else {
+            readRange(stream, ranges.get(0), allocator);
+        }
+    }
+
+    private static void readRange(PositionedReadable stream, FileRange range,
+                                  ByteBufferPool allocator) {
+        try {
+            final byte[] buf = new byte[range.getLength()];
+            stream.readFully(range.getOffset(), buf, 0, buf.length);
+            final ByteBuffer data = allocate(allocator, buf.length);
+            data.put(buf);
+            data.flip();
+            range.setData(data);
+        } catch (IOException e) {
+            range.setException(e);
+        } catch (RuntimeException e) {
+            range.setException(e);
+        }
+    }
+
+    /**
+     * Get an empty heap buffer with room for exactly the given number of bytes.
+     *
+     * @param allocator the pool to take the buffer from, or null
+     */
+    public static ByteBuffer allocate(ByteBufferPool allocator, int length) {
+        return allocate(allocator, false, length);
+    }
+
+    /**
+     * Get an empty buffer with room for exactly the given number of bytes.
+     *
+     * @param allocator the pool to take the buffer from, or null
+     * @param direct    whether the buffer should be direct
+     */
+    public static ByteBuffer allocate(ByteBufferPool allocator, boolean direct,
+                                      int length) {
+        ByteBuffer buf = null;
+        if (allocator != null) {
+            buf = allocator.getBuffer(direct, length);
+            if (buf.capacity() < length) {
+                // the pool may hand out shorter buffers
+                allocator.putBuffer(buf);
+                buf = null;
+            }
+        }
+        if (buf == null) {
+            buf = direct ? ByteBuffer.allocateDirect(length)
+                    : ByteBuffer.allocate(length);
+        }
+        buf.clear();
+        buf.limit(length);
+        return buf;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
+
+/**
+ * Streams that permit reading many ranges of a file in one call.
+ * {@link FSDataInputStream} supports this for every stream; streams which
+ * implement this interface do it faster than one positional read per range.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface VectoredReadable {
+    /**
+     * Read the given ranges of the file.  Nearby ranges may be read together.
+     * The data of each range is delivered through {@link FileRange#getData()};
+     * the ranges may be completed in any order, before or after this call
+     * returns.  An error reading one range fails only the ranges read with
+     * it.  This does not change the current offset of the stream, and is
+     * thread-safe.
+     *
+     * @param ranges    the ranges to read.  They must not overlap.
+     * @param allocator the pool which provides the buffers for the data.
+     *                  If null, heap buffers are allocated.
+     * @throws IllegalArgumentException if the ranges overlap
+     * @throws IOException if the stream can not be read at all
+     */
+    public void readVectored(List<? extends FileRange> ranges,
+                             ByteBufferPool allocator) throws IOException;
+}
@@ -224,6 +224,17 @@ private static void assertCodeLoaded() throws IOException {
          */
         private static native Stat fstat(FileDescriptor fd) throws IOException;
 
+        /**
+         * Wrapper around stat(2)
+         */
+        private static native Stat stat(String path) throws IOException;
+
+        /**
+         * Wrapper around chown(2), looking up the ids of the names
+         */
+        private static native void chownImpl(String path, String user,
+                                             String group) throws IOException;
+
         /**
          * Native chmod implementation. On UNIX, it is a wrapper around chmod(2)
          */
@@ -444,6 +455,52 @@ public static Stat getFstat(FileDescriptor fd) throws IOException {
             return stat;
         }
 
+        /**
+         * Returns the file stat for a path, following symbolic links.  Not
+         * supported on Windows.
+         *
+         * @param path the path of the file.
+         * @return the file stat.
+         * @throws IOException thrown if there was an IO error while obtaining the file stat.
+         */
+        public static Stat getStat(String path) throws IOException {
+            if (Shell.WINDOWS) {
+                throw new UnsupportedOperationException(
+                        "POSIX.getStat() is not supported on Windows");
+            }
+            Stat stat = stat(path);
+            stat.owner = getNameOrId(IdCache.USER, stat.ownerId);
+            stat.group = getNameOrId(IdCache.GROUP, stat.groupId);
+            return stat;
+        }
+
+        // as ls(1), show the id of a user or group without a name
+        private static String getNameOrId(IdCache domain, int id) {
+            try {
+                return getName(domain, id);
+            } catch (IOException e) {
+                return Integer.toString(id);
+            }
+        }
+
+        /**
+         * Change the owner and group of a file, as chown(1) does.  Not
+         * supported on Windows.
+         *
+         * @param path  the path of the file.
+         * @param user  the name of the new owner, or null to keep it.
+         * @param group the name of the new group, or null to keep it.
+         * @throws IOException if a name is unknown or the file can't be changed.
+         */
+        public static void chown(String path, String user, String group)
+                throws IOException {
+            if (Shell.WINDOWS) {
+                throw new UnsupportedOperationException(
+                        "POSIX.chown() is not supported on Windows");
+            }
+            chownImpl(path, user, group);
+        }
+
         private static String getName(IdCache domain, int id) throws IOException {
             Map<Integer, CachedName> idNameCache = (domain == IdCache.USER)
                     ? USER_ID_NAME_CACHE : GROUP_ID_NAME_CACHE;
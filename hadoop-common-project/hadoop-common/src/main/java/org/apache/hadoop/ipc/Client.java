@@ -25,6 +25,7 @@
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -35,13 +36,19 @@
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.security.PrivilegedExceptionAction;
 import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -62,6 +69,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Writable;
@@ -91,6 +99,8 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
@@ -127,6 +137,44 @@ public static void setCallIdAndRetryCount(int cid, int rc) {
         retryCount.set(rc);
     }
 
+    private static final ThreadLocal<Boolean> asynchronousMode =
+            new ThreadLocal<Boolean>() {
+                @Override
+                protected Boolean initialValue() {
+                    return false;
+                }
+            };
+    private static final ThreadLocal<ListenableFuture<Writable>>
+            asyncRpcResponse = new ThreadLocal<ListenableFuture<Writable>>();
+
+    /**
+     * Set whether the calls of this thread are asynchronous.  An asynchronous
+     * call returns null as soon as the request is sent; the response is
+     * delivered by the future of {@link #getAsyncRpcResponse()}.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public static void setAsynchronousMode(boolean async) {
+        asynchronousMode.set(async);
+    }
+
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public static boolean isAsynchronousMode() {
+        return asynchronousMode.get();
+    }
+
+    /**
+     * @return the response of the last asynchronous call of this thread, or
+     * null if there is none.  The future is completed by the thread which
+     * reads the responses of the connection, so its listeners must not block.
+     */
+    static ListenableFuture<Writable> getAsyncRpcResponse() {
+        ListenableFuture<Writable> response = asyncRpcResponse.get();
+        asyncRpcResponse.set(null);
+        return response;
+    }
+
     private Hashtable<ConnectionId, Connection> connections =
             new Hashtable<ConnectionId, Connection>();
 
@@ -149,6 +197,15 @@ public static void setCallIdAndRetryCount(int cid, int rc) {
      * calling code.
      */
     private final ExecutorService sendParamsExecutor;
+
+    /**
+     * The threads which read the responses of the connections of this client,
+     * or null if each connection reads its responses in a thread of its own.
+     */
+    private final Receiver[] receivers;
+    private final AtomicInteger nextReceiver = new AtomicInteger();
+    private final int maxResponseLength;
+
     private final static ClientExecutorServiceFactory clientExcecutorFactory =
             new ClientExecutorServiceFactory();
 
@@ -316,6 +373,8 @@ static class Call {
         IOException error;          // exception, null if success
         final RPC.RpcKind rpcKind;      // Rpc EngineKind
         boolean done;               // true when call is done
+        SettableFuture<Writable> asyncResponse; // set if call is asynchronous
+        InetSocketAddress asyncAddress;         // server of an asynchronous call
 
         private Call(RPC.RpcKind rpcKind, Writable param) {
             this.rpcKind = rpcKind;
@@ -344,6 +403,27 @@ private Call(RPC.RpcKind rpcKind, Writable param) {
         protected synchronized void callComplete() {
             this.done = true;
             notify();                                 // notify caller
+            if (asyncResponse != null) {
+                if (error == null) {
+                    asyncResponse.set(rpcResponse);
+                } else if (error instanceof RemoteException) {
+                    asyncResponse.setException(error);
+                } else { // local exception
+                    asyncResponse.setException(NetUtils.wrapException(
+                            asyncAddress.getHostName(), asyncAddress.getPort(),
+                            NetUtils.getHostname(), 0, error));
+                }
+            }
+        }
+
+        /**
+         * Make the call asynchronous: complete the future rather than the
+         * caller waiting for the call.
+         */
+        synchronized void setAsyncResponse(SettableFuture<Writable> future,
+                                           InetSocketAddress address) {
+            this.asyncResponse = future;
+            this.asyncAddress = address;
         }
 
         /**
@@ -408,6 +488,11 @@ private class Connection extends Thread {
 
         private final Object sendRpcRequestLock = new Object();
 
+        // set if the responses are read by a shared receiver
+        private Receiver receiver;
+        private final ByteBuffer responseLength = ByteBuffer.allocate(4);
+        private ByteBuffer response; // the response being read, if any
+
         public Connection(ConnectionId remoteId, int serviceClass) throws IOException {
             this.remoteId = remoteId;
             this.server = remoteId.getAddress();
@@ -471,6 +556,10 @@ private void touch() {
         private synchronized boolean addCall(Call call) {
             if (shouldCloseConnection.get())
                 return false;
+            if (receiver != null && calls.isEmpty()) {
+                // the response timeout is counted from now, not the last call
+                touch();
+            }
             calls.put(call.id, call);
             notify();
             return true;
@@ -718,6 +807,7 @@ private synchronized void setupIOstreams() {
                 }
                 short numRetries = 0;
                 Random rand = null;
+                boolean saslWrapped = false;
                 while (true) {
                     setupConnection();
                     InputStream inStream = NetUtils.getInputStream(socket);
@@ -750,7 +840,9 @@ public AuthMethod run()
                         }
                         if (authMethod != AuthMethod.SIMPLE) {
                             // Sasl connect is successful. Let's set up Sasl i/o streams.
-                            inStream = saslRpcClient.getInputStream(inStream);
+                            final InputStream saslIn = saslRpcClient.getInputStream(inStream);
+                            saslWrapped = saslIn != inStream;
+                            inStream = saslIn;
                             outStream = saslRpcClient.getOutputStream(outStream);
                             // for testing
                             remoteId.saslQop =
@@ -781,8 +873,17 @@ public AuthMethod run()
                     touch();
 
                     // start the receiver thread after the socket connection has been set
-                    // up
-                    start();
+                    // up, or hand the connection to a shared receiver.  The receivers
+                    // read the socket channel directly, so they cannot take connections
+                    // whose responses are unwrapped by SASL or are already buffered.
+                    if (receivers != null && !saslWrapped
+                            && socket.getChannel() != null && in.available() == 0) {
+                        receiver = receivers[(nextReceiver.getAndIncrement()
+                                & Integer.MAX_VALUE) % receivers.length];
+                        receiver.add(this);
+                    } else {
+                        start();
+                    }
                     return;
                 }
             } catch (Throwable t) {
@@ -954,12 +1055,72 @@ private synchronized void sendPing() throws IOException {
             long curTime = Time.now();
             if (curTime - lastActivity.get() >= pingInterval) {
                 lastActivity.set(curTime);
-                synchronized (out) {
-                    out.writeInt(pingRequest.size());
-                    pingRequest.writeTo(out);
-                    out.flush();
+                writePing();
+            }
+        }
+
+        private void writePing() throws IOException {
+            synchronized (out) {
+                out.writeInt(pingRequest.size());
+                pingRequest.writeTo(out);
+                out.flush();
+            }
+        }
+
+        /**
+         * Check a connection whose responses are read by a receiver, as
+         * {@link #waitForWork()} and the {@link PingInputStream} do for a
+         * connection with a thread of its own: close it if it is idle too long
+         * or the client is stopped, and ping the server or time out if a
+         * response is overdue.  The ping is sent by another thread, so that the
+         * receiver does not wait for a sender holding the stream.
+         *
+         * @return how long until the connection is to be checked again, 0 if it
+         * need not be, or -1 if it is to be closed
+         */
+        private synchronized long checkTimeouts(long now) {
+            if (shouldCloseConnection.get()) {
+                return -1;
+            }
+            final long idle = now - lastActivity.get();
+            if (!running.get()) {
+                markClosed(calls.isEmpty() ? null : (IOException) new IOException()
+                        .initCause(new InterruptedException()));
+                return -1;
+            } else if (calls.isEmpty()) {
+                if (idle >= maxIdleTime) {
+                    markClosed(null);
+                    return -1;
                 }
+                return maxIdleTime - idle;
+            } else if (pingInterval <= 0) {
+                return 0;
+            } else if (idle < pingInterval) {
+                return pingInterval - idle;
+            } else if (rpcTimeout > 0) {
+                markClosed(new SocketTimeoutException(rpcTimeout
+                        + " millis timeout while waiting for a response from " + server));
+                return -1;
             }
+            lastActivity.set(now);
+            try {
+                sendParamsExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!shouldCloseConnection.get()) {
+                                writePing();
+                            }
+                        } catch (IOException e) {
+                            markClosed(e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                markClosed(new IOException("connection has been closed", e));
+                return -1;
+            }
+            return pingInterval;
         }
 
         @Override
@@ -1012,12 +1173,22 @@ public void sendRpcRequest(final Call call)
             // 2) RpcRequest
             //
             // Items '1' and '2' are prepared here.
-            final DataOutputBuffer d = new DataOutputBuffer();
             RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
                     call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id, call.retry,
                     clientId);
-            header.writeDelimitedTo(d);
-            call.rpcRequest.write(d);
+            final byte[] frame;
+            final DataOutputBuffer d;
+            if (call.rpcRequest instanceof ProtobufRpcEngine.RpcWrapper) {
+                // '0' is known up front, so the whole call is serialized at once
+                frame = ProtobufRpcEngine.frame(header,
+                        (ProtobufRpcEngine.RpcWrapper) call.rpcRequest);
+                d = null;
+            } else {
+                frame = null;
+                d = new DataOutputBuffer();
+                header.writeDelimitedTo(d);
+                call.rpcRequest.write(d);
+            }
 
             synchronized (sendRpcRequestLock) {
                 Future<?> senderFuture = sendParamsExecutor.submit(new Runnable() {
@@ -1032,10 +1203,14 @@ public void run() {
                                 if (LOG.isDebugEnabled())
                                     LOG.debug(getName() + " sending #" + call.id);
 
-                                byte[] data = d.getData();
-                                int totalLength = d.getLength();
-                                out.writeInt(totalLength); // Total Length
-                                out.write(data, 0, totalLength);// RpcRequestHeader + RpcRequest
+                                if (frame != null) {
+                                    out.write(frame);
+                                } else {
+                                    byte[] data = d.getData();
+                                    int totalLength = d.getLength();
+                                    out.writeInt(totalLength); // Total Length
+                                    out.write(data, 0, totalLength);// RpcRequestHeader + RpcRequest
+                                }
                                 out.flush();
                             }
                         } catch (IOException e) {
@@ -1078,62 +1253,44 @@ private void receiveRpcResponse() {
 
             try {
                 int totalLen = in.readInt();
-                RpcResponseHeaderProto header =
-                        RpcResponseHeaderProto.parseDelimitedFrom(in);
-                checkResponse(header);
-
-                int headerLen = header.getSerializedSize();
-                headerLen += CodedOutputStream.computeRawVarint32Size(headerLen);
-
-                int callId = header.getCallId();
-                if (LOG.isDebugEnabled())
-                    LOG.debug(getName() + " got value #" + callId);
-
-                Call call = calls.get(callId);
-                RpcStatusProto status = header.getStatus();
-                if (status == RpcStatusProto.SUCCESS) {
-                    Writable value = ReflectionUtils.newInstance(valueClass, conf);
-                    value.readFields(in);                 // read value
-                    calls.remove(callId);
-                    call.setRpcResponse(value);
-
-                    // verify that length was correct
-                    // only for ProtobufEngine where len can be verified easily
-                    if (call.getRpcResponse() instanceof ProtobufRpcEngine.RpcWrapper) {
-                        ProtobufRpcEngine.RpcWrapper resWrapper =
-                                (ProtobufRpcEngine.RpcWrapper) call.getRpcResponse();
-                        if (totalLen != headerLen + resWrapper.getLength()) {
-                            throw new RpcClientException(
-                                    "RPC response length mismatch on rpc success");
-                        }
-                    }
-                } else { // Rpc Request failed
-                    // Verify that length was correct
-                    if (totalLen != headerLen) {
-                        throw new RpcClientException(
-                                "RPC response length mismatch on rpc error");
-                    }
+                processRpcResponse(totalLen, in);
+            } catch (IOException e) {
+                markClosed(e);
+            }
+        }
 
-                    final String exceptionClassName = header.hasExceptionClassName() ?
-                            header.getExceptionClassName() :
-                            "ServerDidNotSetExceptionClassName";
-                    final String errorMsg = header.hasErrorMsg() ?
-                            header.getErrorMsg() : "ServerDidNotSetErrorMsg";
-                    final RpcErrorCodeProto erCode =
-                            (header.hasErrorDetail() ? header.getErrorDetail() : null);
-                    if (erCode == null) {
-                        LOG.warn("Detailed error code not set by server on rpc error");
+        /**
+         * Read the responses which have arrived on the connection, without
+         * blocking.  Only called by the receiver of the connection.
+         */
+        private void readRpcResponses() {
+            final SocketChannel channel = socket.getChannel();
+            try {
+                while (!shouldCloseConnection.get()) {
+                    final ByteBuffer buf = response == null ? responseLength : response;
+                    final int n = channel.read(buf);
+                    if (n < 0) {
+                        throw new EOFException("Connection closed by " + server);
+                    } else if (n > 0) {
+                        touch();
                     }
-                    RemoteException re =
-                            ((erCode == null) ?
-                                    new RemoteException(exceptionClassName, errorMsg) :
-                                    new RemoteException(exceptionClassName, errorMsg, erCode));
-                    if (status == RpcStatusProto.ERROR) {
-                        calls.remove(callId);
-                        call.setException(re);
-                    } else if (status == RpcStatusProto.FATAL) {
-                        // Close the connection
-                        markClosed(re);
+                    if (buf.hasRemaining()) {
+                        return;
+                    }
+                    if (response == null) {
+                        responseLength.flip();
+                        final int totalLen = responseLength.getInt();
+                        responseLength.clear();
+                        if (totalLen < 0 || totalLen > maxResponseLength) {
+                            throw new RpcClientException("Invalid response length "
+                                    + totalLen + " from " + server);
+                        }
+                        response = ByteBuffer.allocate(totalLen);
+                    } else {
+                        final DataInputBuffer data = new DataInputBuffer();
+                        data.reset(response.array(), response.capacity());
+                        response = null;
+                        processRpcResponse(data.getLength(), data);
                     }
                 }
             } catch (IOException e) {
@@ -1141,10 +1298,78 @@ private void receiveRpcResponse() {
             }
         }
 
+        /* Process a response of the given length, following its length on
+         * the stream.
+         */
+        private void processRpcResponse(int totalLen, DataInputStream in)
+                throws IOException {
+            RpcResponseHeaderProto header =
+                    RpcResponseHeaderProto.parseDelimitedFrom(in);
+            checkResponse(header);
+
+            int headerLen = header.getSerializedSize();
+            headerLen += CodedOutputStream.computeRawVarint32Size(headerLen);
+
+            int callId = header.getCallId();
+            if (LOG.isDebugEnabled())
+                LOG.debug(getName() + " got value #" + callId);
+
+            Call call = calls.get(callId);
+            RpcStatusProto status = header.getStatus();
+            if (status == RpcStatusProto.SUCCESS) {
+                Writable value = ReflectionUtils.newInstance(valueClass, conf);
+                value.readFields(in);                 // read value
+                calls.remove(callId);
+                call.setRpcResponse(value);
+
+                // verify that length was correct
+                // only for ProtobufEngine where len can be verified easily
+                if (call.getRpcResponse() instanceof ProtobufRpcEngine.RpcWrapper) {
+                    ProtobufRpcEngine.RpcWrapper resWrapper =
+                            (ProtobufRpcEngine.RpcWrapper) call.getRpcResponse();
+                    if (totalLen != headerLen + resWrapper.getLength()) {
+                        throw new RpcClientException(
+                                "RPC response length mismatch on rpc success");
+                    }
+                }
+            } else { // Rpc Request failed
+                // Verify that length was correct
+                if (totalLen != headerLen) {
+                    throw new RpcClientException(
+                            "RPC response length mismatch on rpc error");
+                }
+
+                final String exceptionClassName = header.hasExceptionClassName() ?
+                        header.getExceptionClassName() :
+                        "ServerDidNotSetExceptionClassName";
+                final String errorMsg = header.hasErrorMsg() ?
+                        header.getErrorMsg() : "ServerDidNotSetErrorMsg";
+                final RpcErrorCodeProto erCode =
+                        (header.hasErrorDetail() ? header.getErrorDetail() : null);
+                if (erCode == null) {
+                    LOG.warn("Detailed error code not set by server on rpc error");
+                }
+                RemoteException re =
+                        ((erCode == null) ?
+                                new RemoteException(exceptionClassName, errorMsg) :
+                                new RemoteException(exceptionClassName, errorMsg, erCode));
+                if (status == RpcStatusProto.ERROR) {
+                    calls.remove(callId);
+                    call.setException(re);
+                } else if (status == RpcStatusProto.FATAL) {
+                    // Close the connection
+                    markClosed(re);
+                }
+            }
+        }
+
         private synchronized void markClosed(IOException e) {
             if (shouldCloseConnection.compareAndSet(false, true)) {
                 closeException = e;
                 notifyAll();
+                if (receiver != null) {
+                    receiver.closing();
+                }
             }
         }
 
@@ -1206,6 +1431,140 @@ private void cleanupCalls() {
         }
     }
 
+    /**
+     * A thread which reads the responses of many connections through a
+     * selector, so that a client connected to many servers does not need a
+     * thread for each connection.  It also does the pings, timeouts and idle
+     * closing of its connections.
+     */
+    private class Receiver extends Thread {
+        private final Selector selector;
+        private final Queue<Connection> pending =
+                new ConcurrentLinkedQueue<Connection>();
+        // set when a connection is marked closed, to close it without delay
+        private final AtomicBoolean closeRequested = new AtomicBoolean();
+
+        Receiver(int index) throws IOException {
+            this.selector = Selector.open();
+            setName("IPC Client (" + socketFactory.hashCode() + ") receiver #"
+                    + index);
+            setDaemon(true);
+        }
+
+        /**
+         * Start reading the responses of a connection which has been set up.
+         */
+        void add(Connection connection) {
+            pending.add(connection);
+            selector.wakeup();
+            if (!running.get()) {
+                // the receiver may have stopped before it could take it
+                closePending();
+            }
+        }
+
+        void closing() {
+            closeRequested.set(true);
+            selector.wakeup();
+        }
+
+        void wakeup() {
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(getName() + ": starting");
+            }
+            try {
+                long timeout = 0;
+                long nextCheck = Long.MAX_VALUE;
+                while (running.get()) {
+                    registerPending();
+                    selector.select(timeout);
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            ((Connection) key.attachment()).readRpcResponses();
+                        }
+                    }
+                    final long now = Time.now();
+                    if (closeRequested.getAndSet(false) || now >= nextCheck) {
+                        nextCheck = checkConnections(now);
+                    }
+                    timeout = nextCheck == Long.MAX_VALUE ? 0
+                            : Math.max(1, nextCheck - now);
+                }
+            } catch (Throwable t) {
+                LOG.warn("Unexpected error in " + getName(), t);
+            } finally {
+                closeAll();
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(getName() + ": stopped");
+            }
+        }
+
+        private void registerPending() {
+            Connection connection;
+            while ((connection = pending.poll()) != null) {
+                try {
+                    connection.socket.getChannel().register(selector,
+                            SelectionKey.OP_READ, connection);
+                    // check the new connection in this round
+                    closeRequested.set(true);
+                } catch (IOException e) {
+                    connection.markClosed(e);
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Close the connections which are marked closed or have timed out.
+         *
+         * @return the time of the next check, or Long.MAX_VALUE if none is needed
+         */
+        private long checkConnections(long now) {
+            long nextCheck = Long.MAX_VALUE;
+            for (SelectionKey key : selector.keys()) {
+                final Connection connection = (Connection) key.attachment();
+                final long delay = connection.checkTimeouts(now);
+                if (delay < 0) {
+                    key.cancel();
+                    connection.close();
+                } else if (delay > 0) {
+                    nextCheck = Math.min(nextCheck, now + delay);
+                }
+            }
+            return nextCheck;
+        }
+
+        private void closePending() {
+            Connection connection;
+            while ((connection = pending.poll()) != null) {
+                stop(connection);
+            }
+        }
+
+        private void closeAll() {
+            closePending();
+            for (SelectionKey key : selector.keys()) {
+                stop((Connection) key.attachment());
+            }
+            IOUtils.cleanup(LOG, selector);
+        }
+
+        private void stop(Connection connection) {
+            connection.markClosed(connection.calls.isEmpty() ? null
+                    : new IOException(getName() + " stopped"));
+            connection.close();
+        }
+    }
+
     /**
      * Construct an IPC client whose values are of the given {@link Writable}
      * class.
@@ -1221,6 +1580,37 @@ public Client(Class<? extends Writable> valueClass, Configuration conf,
                 CommonConfigurationKeys.IPC_CLIENT_FALLBACK_TO_SIMPLE_AUTH_ALLOWED_DEFAULT);
         this.clientId = ClientId.getClientId();
         this.sendParamsExecutor = clientExcecutorFactory.refAndGetInstance();
+        this.maxResponseLength = conf.getInt(
+                CommonConfigurationKeys.IPC_MAXIMUM_DATA_LENGTH,
+                CommonConfigurationKeys.IPC_MAXIMUM_DATA_LENGTH_DEFAULT);
+        this.receivers = createReceivers(conf.getInt(
+                CommonConfigurationKeys.IPC_CLIENT_RECEIVER_THREADS_KEY,
+                CommonConfigurationKeys.IPC_CLIENT_RECEIVER_THREADS_DEFAULT));
+    }
+
+    private Receiver[] createReceivers(int count) {
+        if (count <= 0) {
+            return null;
+        }
+        final Receiver[] created = new Receiver[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                created[i] = new Receiver(i);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to open a selector, reading responses in a thread"
+                    + " per connection", e);
+            for (Receiver receiver : created) {
+                if (receiver != null) {
+                    IOUtils.cleanup(LOG, receiver.selector);
+                }
+            }
+            return null;
+        }
+        for (Receiver receiver : created) {
+            receiver.start();
+        }
+        return created;
     }
 
     /**
@@ -1261,6 +1651,11 @@ public void stop() {
                 conn.interrupt();
             }
         }
+        if (receivers != null) {
+            for (Receiver receiver : receivers) {
+                receiver.wakeup();
+            }
+        }
 
         // wait until all connections are closed
         while (!connections.isEmpty()) {
@@ -1419,6 +1814,14 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
     public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
                          ConnectionId remoteId, int serviceClass) throws IOException {
         final Call call = createCall(rpcKind, rpcRequest);
+        final SettableFuture<Writable> asyncResponse;
+        if (isAsynchronousMode()) {
+            // before sending, so that the response can not be missed
+            asyncResponse = SettableFuture.create();
+            call.setAsyncResponse(asyncResponse, remoteId.getAddress());
+        } else {
+            asyncResponse = null;
+        }
         Connection connection = getConnection(remoteId, call, serviceClass);
         try {
             connection.sendRpcRequest(call);                 // send the rpc request
@@ -1430,6 +1833,11 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
             throw new IOException(e);
         }
 
+        if (asyncResponse != null) {
+            asyncRpcResponse.set(asyncResponse);
+            return null;
+        }
+
         boolean interrupted = false;
         synchronized (call) {
             while (!call.done) {
@@ -25,6 +25,7 @@
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -35,6 +36,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputOutputStream;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.retry.RetryPolicy;
@@ -50,6 +52,9 @@
 import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.BlockingService;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors.MethodDescriptor;
@@ -73,6 +78,22 @@ public class ProtobufRpcEngine implements RpcEngine {
 
     private static final ClientCache CLIENTS = new ClientCache();
 
+    private static final ThreadLocal<ListenableFuture<Message>>
+            asyncReturnMessage = new ThreadLocal<ListenableFuture<Message>>();
+
+    /**
+     * @return the return message of the last call this thread made in
+     * {@link Client#setAsynchronousMode(boolean) asynchronous mode}, or null
+     * if there is none.  The proxy method itself returned null.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public static ListenableFuture<Message> getAsyncReturnMessage() {
+        ListenableFuture<Message> message = asyncReturnMessage.get();
+        asyncReturnMessage.set(null);
+        return message;
+    }
+
     public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
                                          InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
                                          SocketFactory factory, int rpcTimeout) throws IOException {
@@ -216,21 +237,37 @@ public Object invoke(Object proxy, Method method, Object[] args)
                 throw new ServiceException(e);
             }
 
-            if (LOG.isDebugEnabled()) {
-                long callTime = Time.now() - startTime;
-                LOG.debug("Call: " + method.getName() + " took " + callTime + "ms");
-            }
-
             Message prototype = null;
             try {
                 prototype = getReturnProtoType(method);
             } catch (Exception e) {
                 throw new ServiceException(e);
             }
+
+            if (val == null && Client.isAsynchronousMode()) {
+                // the response is parsed by the connection's thread
+                final Message asyncPrototype = prototype;
+                asyncReturnMessage.set(Futures.transform(
+                        Client.getAsyncRpcResponse(),
+                        new AsyncFunction<Writable, Message>() {
+                            @Override
+                            public ListenableFuture<Message> apply(Writable response)
+                                    throws Exception {
+                                return Futures.immediateFuture(
+                                        ((RpcResponseWrapper) response).parseResponse(
+                                                asyncPrototype));
+                            }
+                        }));
+                return null;
+            }
+
+            if (LOG.isDebugEnabled()) {
+                long callTime = Time.now() - startTime;
+                LOG.debug("Call: " + method.getName() + " took " + callTime + "ms");
+            }
             Message returnMessage;
             try {
-                returnMessage = prototype.newBuilderForType()
-                        .mergeFrom(val.theResponseRead).build();
+                returnMessage = val.parseResponse(prototype);
 
                 if (LOG.isTraceEnabled()) {
                     LOG.trace(Thread.currentThread().getId() + ": Response <- " +
@@ -273,6 +310,35 @@ public ConnectionId getConnectionId() {
 
     interface RpcWrapper extends Writable {
         int getLength();
+
+        /**
+         * Write the same bytes as {@link #write(DataOutput)}, of which there
+         * are {@link #getLength()}.
+         */
+        void writeTo(CodedOutputStream out) throws IOException;
+    }
+
+    /**
+     * Frame a message the way it is sent on the wire: the length of the rest
+     * of the frame, the length-delimited header, then the message.  The
+     * frame is serialized straight into an array of its exact size, rather
+     * than through a growing buffer which is copied at the end.
+     */
+    static byte[] frame(Message header, RpcWrapper message) throws IOException {
+        final int headerLength = header.getSerializedSize();
+        final int length = CodedOutputStream.computeRawVarint32Size(headerLength)
+                + headerLength + message.getLength();
+        final byte[] frame = new byte[4 + length];
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        final CodedOutputStream out = CodedOutputStream.newInstance(frame, 4, length);
+        out.writeRawVarint32(headerLength);
+        header.writeTo(out);
+        message.writeTo(out);
+        out.checkNoSpaceLeft();
+        return frame;
     }
 
     /**
@@ -286,7 +352,9 @@ interface RpcWrapper extends Writable {
             implements RpcWrapper {
         T requestHeader;
         Message theRequest; // for clientSide, the request is here
-        byte[] theRequestRead; // for server side, the request is here
+        byte[] theRequestRead; // for server side, the request is here,
+        int theRequestOffset;  // at this offset
+        int theRequestLength;  // with this length
 
         public RpcMessageWithHeader() {
         }
@@ -304,16 +372,34 @@ public void write(DataOutput out) throws IOException {
             theRequest.writeDelimitedTo(os);
         }
 
+        @Override
+        public void writeTo(CodedOutputStream out) throws IOException {
+            out.writeRawVarint32(requestHeader.getSerializedSize());
+            requestHeader.writeTo(out);
+            out.writeRawVarint32(theRequest.getSerializedSize());
+            theRequest.writeTo(out);
+        }
+
         @Override
         public void readFields(DataInput in) throws IOException {
             requestHeader = parseHeaderFrom(readVarintBytes(in));
-            theRequestRead = readMessageRequest(in);
+            readMessageRequest(in);
         }
 
         abstract T parseHeaderFrom(byte[] bytes) throws IOException;
 
-        byte[] readMessageRequest(DataInput in) throws IOException {
-            return readVarintBytes(in);
+        void readMessageRequest(DataInput in) throws IOException {
+            theRequestLength = ProtoUtil.readRawVarint32(in);
+            if (in instanceof DataInputBuffer) {
+                // refer to the request in the receive buffer, not a copy
+                theRequestRead = ((DataInputBuffer) in).getData();
+                theRequestOffset =
+                        ProtoUtil.skip((DataInputBuffer) in, theRequestLength);
+            } else {
+                theRequestRead = new byte[theRequestLength];
+                in.readFully(theRequestRead);
+                theRequestOffset = 0;
+            }
         }
 
         private static byte[] readVarintBytes(DataInput in) throws IOException {
@@ -328,7 +414,12 @@ public T getMessageHeader() {
         }
 
         public byte[] getMessageBytes() {
-            return theRequestRead;
+            if (theRequestRead == null || (theRequestOffset == 0
+                    && theRequestLength == theRequestRead.length)) {
+                return theRequestRead;
+            }
+            return Arrays.copyOfRange(theRequestRead, theRequestOffset,
+                    theRequestOffset + theRequestLength);
         }
 
         @Override
@@ -338,7 +429,7 @@ public int getLength() {
             if (theRequest != null) {
                 reqLen = theRequest.getSerializedSize();
             } else if (theRequestRead != null) {
-                reqLen = theRequestRead.length;
+                reqLen = theRequestLength;
             } else {
                 throw new IllegalArgumentException(
                         "getLength on uninitialized RpcWrapper");
@@ -400,14 +491,15 @@ public RpcResponseMessageWrapper(
         }
 
         @Override
-        byte[] readMessageRequest(DataInput in) throws IOException {
+        void readMessageRequest(DataInput in) throws IOException {
             // error message contain no message body
             switch (requestHeader.getStatus()) {
                 case ERROR:
                 case FATAL:
-                    return null;
+                    theRequestRead = null;
+                    break;
                 default:
-                    return super.readMessageRequest(in);
+                    super.readMessageRequest(in);
             }
         }
 
@@ -427,7 +519,9 @@ RpcResponseHeaderProto parseHeaderFrom(byte[] bytes) throws IOException {
     @InterfaceAudience.LimitedPrivate({"RPC"}) // temporarily exposed
     public static class RpcResponseWrapper implements RpcWrapper {
         Message theResponse; // for senderSide, the response is here
-        byte[] theResponseRead; // for receiver side, the response is here
+        byte[] theResponseRead; // for receiver side, the response is here,
+        int theResponseOffset;  // at this offset
+        int theResponseLength;  // with this length
 
         public RpcResponseWrapper() {
         }
@@ -442,11 +536,32 @@ public void write(DataOutput out) throws IOException {
             theResponse.writeDelimitedTo(os);
         }
 
+        @Override
+        public void writeTo(CodedOutputStream out) throws IOException {
+            out.writeRawVarint32(theResponse.getSerializedSize());
+            theResponse.writeTo(out);
+        }
+
         @Override
         public void readFields(DataInput in) throws IOException {
-            int length = ProtoUtil.readRawVarint32(in);
-            theResponseRead = new byte[length];
-            in.readFully(theResponseRead);
+            theResponseLength = ProtoUtil.readRawVarint32(in);
+            if (in instanceof DataInputBuffer) {
+                theResponseRead = ((DataInputBuffer) in).getData();
+                theResponseOffset =
+                        ProtoUtil.skip((DataInputBuffer) in, theResponseLength);
+            } else {
+                theResponseRead = new byte[theResponseLength];
+                in.readFully(theResponseRead);
+                theResponseOffset = 0;
+            }
+        }
+
+        /**
+         * Parse the response which was read.
+         */
+        Message parseResponse(Message prototype) throws IOException {
+            return prototype.newBuilderForType().mergeFrom(theResponseRead,
+                    theResponseOffset, theResponseLength).build();
         }
 
         @Override
@@ -455,7 +570,7 @@ public int getLength() {
             if (theResponse != null) {
                 resLen = theResponse.getSerializedSize();
             } else if (theResponseRead != null) {
-                resLen = theResponseRead.length;
+                resLen = theResponseLength;
             } else {
                 throw new IllegalArgumentException(
                         "getLength on uninitialized RpcWrapper");
@@ -599,7 +714,8 @@ public Writable call(RPC.Server server, String connectionProtocolName,
                 }
                 Message prototype = service.getRequestPrototype(methodDescriptor);
                 Message param = prototype.newBuilderForType()
-                        .mergeFrom(request.theRequestRead).build();
+                        .mergeFrom(request.theRequestRead, request.theRequestOffset,
+                                request.theRequestLength).build();
 
                 Message result;
                 long startTime = Time.now();
@@ -631,6 +747,7 @@ public Writable call(RPC.Server server, String connectionProtocolName,
                     server.rpcMetrics.addRpcProcessingTime(processingTime);
                     server.rpcDetailedMetrics.addProcessingTime(detailedMetricsName,
                             processingTime);
+                    server.addLatencies(detailedMetricsName, qTime, processingTime);
                 }
                 return new RpcResponseWrapper(result);
             }
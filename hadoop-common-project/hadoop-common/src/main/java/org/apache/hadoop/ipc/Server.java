@@ -63,6 +63,7 @@
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.sasl.Sasl;
@@ -78,6 +79,7 @@
 import org.apache.hadoop.conf.Configuration.IntegerRanges;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
@@ -86,6 +88,7 @@
 import org.apache.hadoop.ipc.RPC.RpcInvoker;
 import org.apache.hadoop.ipc.RPC.VersionMismatch;
 import org.apache.hadoop.ipc.metrics.RpcDetailedMetrics;
+import org.apache.hadoop.ipc.metrics.RpcLatencyMetrics;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.IpcConnectionContextProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcKindProto;
@@ -316,6 +319,49 @@ public static int getCallRetryCount() {
         return call != null ? call.retryCount : RpcConstants.INVALID_RETRY_COUNT;
     }
 
+    /**
+     * Add to the time the current RPC call has waited for locks of the
+     * service, which is published in the latency metrics of its method.
+     * Does nothing outside of an RPC call.
+     *
+     * @param nanos the time waited
+     */
+    public static void addLockWaitTime(long nanos) {
+        Call call = CurCall.get();
+        if (call != null) {
+            call.lockWaitNanos += nanos;
+        }
+    }
+
+    /**
+     * Add the latencies of the current call to the latency metrics, if they
+     * are kept.  Called by the RPC engines once the call has been processed.
+     *
+     * @param name           the method of the call, or the exception it threw
+     * @param qTime          the time the call waited in the queue
+     * @param processingTime the time the call was processed
+     */
+    void addLatencies(String name, int qTime, int processingTime) {
+        if (rpcLatencyMetrics == null) {
+            return;
+        }
+        rpcLatencyMetrics.add(name, RpcLatencyMetrics.QUEUE_TIME, qTime);
+        rpcLatencyMetrics.add(name, RpcLatencyMetrics.PROCESSING_TIME,
+                processingTime);
+        Call call = CurCall.get();
+        if (call != null) {
+            rpcLatencyMetrics.add(name, RpcLatencyMetrics.LOCK_WAIT_TIME,
+                    TimeUnit.NANOSECONDS.toMillis(call.lockWaitNanos));
+            // the response time is added once the response is sent
+            call.metricsName = name;
+            UserGroupInformation user = call.connection.user;
+            if (user != null) {
+                rpcLatencyMetrics.addUserProcessingTime(user.getShortUserName(),
+                        processingTime);
+            }
+        }
+    }
+
     /**
      * Returns the remote side ip address when invoked inside an RPC
      * Returns null incase of an error.
@@ -370,6 +416,7 @@ public static boolean isRpcInvocation() {
     private Class<? extends Writable> rpcRequestClass;   // class used for deserializing the rpc request
     final protected RpcMetrics rpcMetrics;
     final protected RpcDetailedMetrics rpcDetailedMetrics;
+    final protected RpcLatencyMetrics rpcLatencyMetrics; // null if not kept
 
     private Configuration conf;
     private String portRangeConfig = null;
@@ -379,6 +426,7 @@ public static boolean isRpcInvocation() {
 
     private int maxQueueSize;
     private final int maxRespSize;
+    private final int responseGatherBytes; // max bytes of a gathering write
     private int socketSendBufferSize;
     private final int maxDataLength;
     private final boolean tcpNoDelay; // if T then disable Nagle's Algorithm
@@ -389,7 +437,8 @@ public static boolean isRpcInvocation() {
     // maintains the set of client connections and handles idle timeouts
     private ConnectionManager connectionManager;
     private Listener listener = null;
-    private Responder responder = null;
+    private Responder[] responders = null;
+    private final AtomicInteger nextResponder = new AtomicInteger();
     private Handler[] handlers = null;
 
     /**
@@ -455,6 +504,11 @@ public RpcDetailedMetrics getRpcDetailedMetrics() {
         return rpcDetailedMetrics;
     }
 
+    @VisibleForTesting
+    public RpcLatencyMetrics getRpcLatencyMetrics() {
+        return rpcLatencyMetrics;
+    }
+
     @VisibleForTesting
     Iterable<? extends Thread> getHandlers() {
         return Arrays.asList(handlers);
@@ -525,6 +579,9 @@ public static class Call implements Schedulable {
         private ByteBuffer rpcResponse;       // the response for this call
         private final RPC.RpcKind rpcKind;
         private final byte[] clientId;
+        private long lockWaitNanos;           // time waited for service locks
+        private String metricsName;           // set if latencies are kept
+        private long responseTimestamp;       // time the response was ready
 
         public Call(int id, int retryCount, Writable param,
                     Connection connection) {
@@ -568,12 +625,19 @@ private class Listener extends Thread {
 
         private ServerSocketChannel acceptChannel = null; //the accept channel
         private Selector selector = null; //the selector that we use for the server
+        private Acceptor[] acceptors = null; // accept besides the listener
         private Reader[] readers = null;
-        private int currentReader = 0;
+        private final AtomicInteger currentReader = new AtomicInteger();
         private InetSocketAddress address; //the address we bind at
         private int backlogLength = conf.getInt(
                 CommonConfigurationKeysPublic.IPC_SERVER_LISTEN_QUEUE_SIZE_KEY,
                 CommonConfigurationKeysPublic.IPC_SERVER_LISTEN_QUEUE_SIZE_DEFAULT);
+        private final int listenerThreads = Math.max(1, conf.getInt(
+                CommonConfigurationKeys.IPC_SERVER_LISTENER_THREADS_KEY,
+                CommonConfigurationKeys.IPC_SERVER_LISTENER_THREADS_DEFAULT));
+        private final boolean balanceReaders = conf.getBoolean(
+                CommonConfigurationKeys.IPC_SERVER_READER_BALANCE_CONNECTIONS_KEY,
+                CommonConfigurationKeys.IPC_SERVER_READER_BALANCE_CONNECTIONS_DEFAULT);
 
         public Listener() throws IOException {
             address = new InetSocketAddress(bindAddress, port);
@@ -596,13 +660,65 @@ public Listener() throws IOException {
 
             // Register accepts on the server socket with the selector.
             acceptChannel.register(selector, SelectionKey.OP_ACCEPT);
+            acceptors = new Acceptor[listenerThreads - 1];
+            for (int i = 0; i < acceptors.length; i++) {
+                acceptors[i] = new Acceptor(
+                        "IPC Server acceptor #" + (i + 1) + " for port " + port);
+            }
             this.setName("IPC Server listener on " + port);
             this.setDaemon(true);
         }
 
+        /**
+         * Accepts connections on the socket of the listener with a selector of
+         * its own.  The selectors of the listener and of all the acceptors are
+         * woken up by a new connection, and the first to accept it hands it to
+         * a reader, so a burst of connections is accepted and registered in
+         * parallel.
+         */
+        private class Acceptor extends Thread {
+            private final Selector acceptSelector;
+
+            Acceptor(String name) throws IOException {
+                super(name);
+                this.acceptSelector = Selector.open();
+                acceptChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+                this.setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                LOG.info("Starting " + Thread.currentThread().getName());
+                SERVER.set(Server.this);
+                try {
+                    while (running) {
+                        doSelect(acceptSelector);
+                    }
+                } finally {
+                    try {
+                        acceptSelector.close();
+                    } catch (IOException ioe) {
+                        LOG.error("Error closing accept selector in " + Thread.currentThread().getName(), ioe);
+                    }
+                }
+            }
+
+            void shutdown() {
+                assert !running;
+                acceptSelector.wakeup();
+                try {
+                    join();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
         private class Reader extends Thread {
             final private BlockingQueue<Connection> pendingConnections;
             private final Selector readSelector;
+            // the number of open connections the reader was given
+            private final AtomicInteger numConnections = new AtomicInteger();
 
             Reader(String name) throws IOException {
                 super(name);
@@ -666,10 +782,20 @@ private synchronized void doRunLoop() {
              * and update its readSelector before performing the next select
              */
             public void addConnection(Connection conn) throws InterruptedException {
-                pendingConnections.put(conn);
+                conn.reader = this;
+                numConnections.incrementAndGet();
+                if (!pendingConnections.offer(conn)) {
+                    // the reader is behind, so the accepting thread must wait
+                    rpcMetrics.incrReaderQueueOverflows();
+                    pendingConnections.put(conn);
+                }
                 readSelector.wakeup();
             }
 
+            void connectionClosed() {
+                numConnections.decrementAndGet();
+            }
+
             void shutdown() {
                 assert !running;
                 readSelector.wakeup();
@@ -686,37 +812,11 @@ public void run() {
             LOG.info(Thread.currentThread().getName() + ": starting");
             SERVER.set(Server.this);
             connectionManager.startIdleScan();
+            for (Acceptor acceptor : acceptors) {
+                acceptor.start();
+            }
             while (running) {
-                SelectionKey key = null;
-                try {
-                    getSelector().select();
-                    Iterator<SelectionKey> iter = getSelector().selectedKeys().iterator();
-                    while (iter.hasNext()) {
-                        key = iter.next();
-                        iter.remove();
-                        try {
-                            if (key.isValid()) {
-                                if (key.isAcceptable())
-                                    doAccept(key);
-                            }
-                        } catch (IOException e) {
-                        }
-                        key = null;
-                    }
-                } catch (OutOfMemoryError e) {
-                    // we can run out of memory if we have too many threads
-                    // log the event and sleep for a minute and give
-                    // some thread(s) a chance to finish
-                    LOG.warn("Out of Memory in server select", e);
-                    closeCurrentConnection(key, e);
-                    connectionManager.closeIdle(true);
-                    try {
-                        Thread.sleep(60000);
-                    } catch (Exception ie) {
-                    }
-                } catch (Exception e) {
-                    closeCurrentConnection(key, e);
-                }
+                doSelect(getSelector());
             }
             LOG.info("Stopping " + Thread.currentThread().getName());
 
@@ -736,6 +836,39 @@ public void run() {
             }
         }
 
+        private void doSelect(Selector selector) {
+            SelectionKey key = null;
+            try {
+                selector.select();
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    key = iter.next();
+                    iter.remove();
+                    try {
+                        if (key.isValid()) {
+                            if (key.isAcceptable())
+                                doAccept(key);
+                        }
+                    } catch (IOException e) {
+                    }
+                    key = null;
+                }
+            } catch (OutOfMemoryError e) {
+                // we can run out of memory if we have too many threads
+                // log the event and sleep for a minute and give
+                // some thread(s) a chance to finish
+                LOG.warn("Out of Memory in server select", e);
+                closeCurrentConnection(key, e);
+                connectionManager.closeIdle(true);
+                try {
+                    Thread.sleep(60000);
+                } catch (Exception ie) {
+                }
+            } catch (Exception e) {
+                closeCurrentConnection(key, e);
+            }
+        }
+
         private void closeCurrentConnection(SelectionKey key, Throwable e) {
             if (key != null) {
                 Connection c = (Connection) key.attachment();
@@ -758,6 +891,7 @@ void doAccept(SelectionKey key) throws InterruptedException, IOException, OutOfM
                 channel.configureBlocking(false);
                 channel.socket().setTcpNoDelay(tcpNoDelay);
                 channel.socket().setKeepAlive(true);
+                rpcMetrics.incrConnectionsAccepted();
 
                 Reader reader = getReader();
                 Connection c = connectionManager.register(channel);
@@ -809,6 +943,9 @@ synchronized void doStop() {
                     LOG.info(Thread.currentThread().getName() + ":Exception in closing listener socket. " + e);
                 }
             }
+            for (Acceptor a : acceptors) {
+                a.shutdown();
+            }
             for (Reader r : readers) {
                 r.shutdown();
             }
@@ -818,11 +955,28 @@ synchronized Selector getSelector() {
             return selector;
         }
 
-        // The method that will return the next reader to work with
-        // Simplistic implementation of round robin for now
+        // The method that will return the next reader to work with: the one
+        // with the fewest connections if balancing, else round robin
         Reader getReader() {
-            currentReader = (currentReader + 1) % readers.length;
-            return readers[currentReader];
+            if (balanceReaders) {
+                Reader reader = readers[0];
+                for (int i = 1; i < readers.length; i++) {
+                    if (readers[i].numConnections.get() < reader.numConnections.get()) {
+                        reader = readers[i];
+                    }
+                }
+                return reader;
+            }
+            return readers[(currentReader.incrementAndGet() & Integer.MAX_VALUE)
+                    % readers.length];
+        }
+
+        int[] getReaderConnections() {
+            int[] connections = new int[readers.length];
+            for (int i = 0; i < readers.length; i++) {
+                connections[i] = readers[i].numConnections.get();
+            }
+            return connections;
         }
     }
 
@@ -833,8 +987,9 @@ private class Responder extends Thread {
 
         final static int PURGE_INTERVAL = 900000; // 15mins
 
-        Responder() throws IOException {
-            this.setName("IPC Server Responder");
+        Responder(int index) throws IOException {
+            this.setName(index == 0 ? "IPC Server Responder"
+                    : "IPC Server Responder #" + index);
             this.setDaemon(true);
             writeSelector = Selector.open(); // create a selector
             pending = 0;
@@ -965,8 +1120,8 @@ private void doPurge(Call call, long now) {
             }
         }
 
-        // Processes one response. Returns true if there are no more pending
-        // data for this channel.
+        // Processes the responses at the head of the queue. Returns true if
+        // there are no more pending data for this channel.
         //
         private boolean processResponse(LinkedList<Call> responseQueue,
                                         boolean inHandler) throws IOException {
@@ -985,40 +1140,44 @@ private boolean processResponse(LinkedList<Call> responseQueue,
                         return true;              // no more data for this channel.
                     }
                     //
-                    // Extract the first call
+                    // Send as much data as we can in the non-blocking fashion,
+                    // gathering the responses queued behind the first into one write
                     //
-                    call = responseQueue.removeFirst();
+                    call = responseQueue.getFirst();
                     SocketChannel channel = call.connection.channel;
                     if (LOG.isDebugEnabled()) {
                         LOG.debug(Thread.currentThread().getName() + ": responding to " + call);
                     }
-                    //
-                    // Send as much data as we can in the non-blocking fashion
-                    //
-                    int numBytes = channelWrite(channel, call.rpcResponse);
+                    int numBytes = writeResponses(channel, responseQueue);
                     if (numBytes < 0) {
                         return true;
                     }
-                    if (!call.rpcResponse.hasRemaining()) {
+                    //
+                    // Remove the calls which were sent completely
+                    //
+                    while (!responseQueue.isEmpty()
+                            && !responseQueue.getFirst().rpcResponse.hasRemaining()) {
+                        Call sent = responseQueue.removeFirst();
                         //Clear out the response buffer so it can be collected
-                        call.rpcResponse = null;
-                        call.connection.decRpcCount();
-                        if (numElements == 1) {    // last call fully processes.
-                            done = true;             // no more data for this channel.
-                        } else {
-                            done = false;            // more calls pending to be sent.
+                        sent.rpcResponse = null;
+                        sent.connection.decRpcCount();
+                        if (sent.metricsName != null) {
+                            rpcLatencyMetrics.add(sent.metricsName,
+                                    RpcLatencyMetrics.RESPONSE_TIME,
+                                    Time.now() - sent.responseTimestamp);
                         }
                         if (LOG.isDebugEnabled()) {
-                            LOG.debug(Thread.currentThread().getName() + ": responding to " + call
+                            LOG.debug(Thread.currentThread().getName() + ": responding to " + sent
                                     + " Wrote " + numBytes + " bytes.");
                         }
-                    } else {
+                    }
+                    if (responseQueue.isEmpty()) {
+                        done = true;             // no more data for this channel.
+                    } else if (responseQueue.getFirst() == call) {
                         //
                         // If we were unable to write the entire response out, then
                         // insert in Selector queue.
                         //
-                        call.connection.responseQueue.addFirst(call);
-
                         if (inHandler) {
                             // set the serve time when the response has to be sent later
                             call.timestamp = Time.now();
@@ -1053,6 +1212,50 @@ private boolean processResponse(LinkedList<Call> responseQueue,
             return done;
         }
 
+        /**
+         * Write the response of the first call of the queue, along with those
+         * of the calls behind it which fit in {@link #responseGatherBytes}, in
+         * one gathering write.  Only responses already queued are gathered, so
+         * no response waits for others to be sent.
+         *
+         * @return the number of bytes written, or -1 at the end of the stream
+         */
+        private int writeResponses(SocketChannel channel,
+                                   LinkedList<Call> responseQueue) throws IOException {
+            final ByteBuffer first = responseQueue.getFirst().rpcResponse;
+            int gathered = first.remaining();
+            int count = 1;
+            if (responseQueue.size() > 1 && gathered < responseGatherBytes) {
+                Iterator<Call> iter = responseQueue.listIterator(1);
+                while (iter.hasNext()) {
+                    final int remaining = iter.next().rpcResponse.remaining();
+                    if (gathered + remaining > responseGatherBytes) {
+                        break;
+                    }
+                    gathered += remaining;
+                    count++;
+                }
+            }
+            final int numBytes;
+            if (count == 1) {
+                numBytes = channelWrite(channel, first);
+            } else {
+                final ByteBuffer[] buffers = new ByteBuffer[count];
+                Iterator<Call> iter = responseQueue.iterator();
+                for (int i = 0; i < count; i++) {
+                    buffers[i] = iter.next().rpcResponse;
+                }
+                numBytes = (int) channel.write(buffers);
+                if (numBytes > 0) {
+                    rpcMetrics.incrSentBytes(numBytes);
+                }
+            }
+            if (numBytes > 0) {
+                rpcMetrics.addResponseWrite(numBytes, count);
+            }
+            return numBytes;
+        }
+
         //
         // Enqueue a response from the application.
         //
@@ -1182,8 +1385,14 @@ public class Connection {
         private boolean sentNegotiate = false;
         private boolean useWrap = false;
 
+        // sends the responses of the connection
+        private final Responder responder;
+        // reads the requests of the connection, once it is handed over
+        private volatile Listener.Reader reader;
+
         public Connection(SocketChannel channel, long lastContact) {
             this.channel = channel;
+            this.responder = getResponder();
             this.lastContact = lastContact;
             this.data = null;
 
@@ -1868,8 +2077,9 @@ private void processOneRpc(byte[] buf)
             int callId = -1;
             int retry = RpcConstants.INVALID_RETRY_COUNT;
             try {
-                final DataInputStream dis =
-                        new DataInputStream(new ByteArrayInputStream(buf));
+                // the request is parsed in place in buf, which is not reused
+                final DataInputBuffer dis = new DataInputBuffer();
+                dis.reset(buf, buf.length);
                 final RpcRequestHeaderProto header =
                         decodeProtobufFromStream(RpcRequestHeaderProto.newBuilder(), dis);
                 callId = header.getCallId();
@@ -2062,7 +2272,11 @@ private void authorizeConnection() throws WrappedRpcServerException {
         private <T extends Message> T decodeProtobufFromStream(Builder builder,
                                                                DataInputStream dis) throws WrappedRpcServerException {
             try {
-                builder.mergeDelimitedFrom(dis);
+                if (dis instanceof DataInputBuffer) {
+                    ProtoUtil.mergeDelimitedFrom(builder, (DataInputBuffer) dis);
+                } else {
+                    builder.mergeDelimitedFrom(dis);
+                }
                 return (T) builder.build();
             } catch (Exception ioe) {
                 Class<?> protoClass = builder.getDefaultInstanceForType().getClass();
@@ -2214,7 +2428,10 @@ public Writable run() throws Exception {
                                     + call.toString());
                             buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
                         }
-                        responder.doRespond(call);
+                        if (call.metricsName != null) {
+                            call.responseTimestamp = Time.now();
+                        }
+                        call.connection.responder.doRespond(call);
                     }
                 } catch (InterruptedException e) {
                     if (running) {                          // unexpected -- log it
@@ -2316,12 +2533,21 @@ protected Server(String bindAddress, int port,
         connectionManager = new ConnectionManager();
         this.rpcMetrics = RpcMetrics.create(this, conf);
         this.rpcDetailedMetrics = RpcDetailedMetrics.create(this.port);
+        this.rpcLatencyMetrics = RpcLatencyMetrics.create(this.port, conf);
         this.tcpNoDelay = conf.getBoolean(
                 CommonConfigurationKeysPublic.IPC_SERVER_TCPNODELAY_KEY,
                 CommonConfigurationKeysPublic.IPC_SERVER_TCPNODELAY_DEFAULT);
 
-        // Create the responder here
-        responder = new Responder();
+        // Create the responders here
+        this.responseGatherBytes = conf.getInt(
+                CommonConfigurationKeys.IPC_SERVER_RESPONSE_GATHER_BYTES_KEY,
+                CommonConfigurationKeys.IPC_SERVER_RESPONSE_GATHER_BYTES_DEFAULT);
+        responders = new Responder[Math.max(1, conf.getInt(
+                CommonConfigurationKeys.IPC_SERVER_RESPONDER_THREADS_KEY,
+                CommonConfigurationKeys.IPC_SERVER_RESPONDER_THREADS_DEFAULT))];
+        for (int i = 0; i < responders.length; i++) {
+            responders[i] = new Responder(i);
+        }
 
         if (secretManager != null || UserGroupInformation.isSecurityEnabled()) {
             SaslRpcServer.init(conf);
@@ -2415,7 +2641,13 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
             int fullLength = CodedOutputStream.computeRawVarint32Size(headerLen) +
                     headerLen;
             try {
-                if (rv instanceof ProtobufRpcEngine.RpcWrapper) {
+                if (rv instanceof ProtobufRpcEngine.RpcWrapper
+                        && !call.connection.useWrap) {
+                    // the frame is the response, with no buffer to copy from
+                    call.setResponse(ByteBuffer.wrap(ProtobufRpcEngine.frame(
+                            header, (ProtobufRpcEngine.RpcWrapper) rv)));
+                    return;
+                } else if (rv instanceof ProtobufRpcEngine.RpcWrapper) {
                     ProtobufRpcEngine.RpcWrapper resWrapper =
                             (ProtobufRpcEngine.RpcWrapper) rv;
                     fullLength += resWrapper.getLength();
@@ -2537,7 +2769,9 @@ public void setSocketSendBufSize(int size) {
      * Starts the service.  Must be called before any calls will be handled.
      */
     public synchronized void start() {
-        responder.start();
+        for (Responder responder : responders) {
+            responder.start();
+        }
         listener.start();
         handlers = new Handler[handlerCount];
 
@@ -2562,7 +2796,9 @@ public synchronized void stop() {
         }
         listener.interrupt();
         listener.doStop();
-        responder.interrupt();
+        for (Responder responder : responders) {
+            responder.interrupt();
+        }
         notifyAll();
         this.rpcMetrics.shutdown();
         this.rpcDetailedMetrics.shutdown();
@@ -2659,6 +2895,29 @@ public int getCallQueueLen() {
         return callQueue.size();
     }
 
+    /**
+     * The number of responses waiting to be sent.
+     *
+     * @return the number of responses queued on all connections
+     */
+    public int getResponseQueueLen() {
+        int len = 0;
+        for (Connection connection : connectionManager.toArray()) {
+            synchronized (connection.responseQueue) {
+                len += connection.responseQueue.size();
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Round robin the connections over the responders.
+     */
+    private Responder getResponder() {
+        return responders[(nextResponder.getAndIncrement() & Integer.MAX_VALUE)
+                % responders.length];
+    }
+
     /**
      * The maximum size of the rpc call queue of this server.
      *
@@ -2677,6 +2936,16 @@ public int getNumReaders() {
         return readThreads;
     }
 
+    /**
+     * The number of open connections of each reader thread.
+     *
+     * @return the number of connections per reader
+     */
+    @VisibleForTesting
+    int[] getReaderConnections() {
+        return listener.getReaderConnections();
+    }
+
     /**
      * When the read or write buffer size is larger than this limit, i/o will be
      * done in chunks of this size. Most RPC requests and responses would be
@@ -2839,6 +3108,9 @@ boolean close(Connection connection) {
                 // only close if actually removed to avoid double-closing due
                 // to possible races
                 connection.close();
+                if (connection.reader != null) {
+                    connection.reader.connectionClosed();
+                }
             }
             return exists;
         }
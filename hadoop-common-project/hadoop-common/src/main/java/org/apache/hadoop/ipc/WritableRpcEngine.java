@@ -548,6 +548,7 @@ public Writable call(org.apache.hadoop.ipc.RPC.Server server,
                     server.rpcMetrics.addRpcProcessingTime(processingTime);
                     server.rpcDetailedMetrics.addProcessingTime(detailedMetricsName,
                             processingTime);
+                    server.addLatencies(detailedMetricsName, qTime, processingTime);
                 }
             }
         }
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc.metrics;
+
+import static org.apache.hadoop.metrics2.lib.Interns.info;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MutableHistogram;
+
+/**
+ * This class maintains latency histograms of the RPC methods, and optionally
+ * of the users, and publishes their percentiles through the metrics
+ * interfaces, and so through JMX.
+ * <p/>
+ * The latency of a call is split into the time it waits in the call queue,
+ * the time it is processed, the part of that it waits for locks of the
+ * service, and the time its response waits to be sent.
+ */
+@InterfaceAudience.Private
+public class RpcLatencyMetrics implements MetricsSource {
+
+    static final Log LOG = LogFactory.getLog(RpcLatencyMetrics.class);
+
+    public static final String QUEUE_TIME = "QueueTime";
+    public static final String PROCESSING_TIME = "ProcessingTime";
+    public static final String LOCK_WAIT_TIME = "LockWaitTime";
+    public static final String RESPONSE_TIME = "ResponseTime";
+
+    /**
+     * The name under which the users beyond the limit are counted.
+     */
+    static final String OTHER_USERS = "Others";
+
+    final String name;
+    private final String port;
+    private final int interval;
+    private final int maxUsers;
+
+    private final ConcurrentMap<String, MutableHistogram> methods =
+            new ConcurrentHashMap<String, MutableHistogram>();
+    private final ConcurrentMap<String, MutableHistogram> users =
+            new ConcurrentHashMap<String, MutableHistogram>();
+
+    RpcLatencyMetrics(int port, int interval, int maxUsers) {
+        this.name = "RpcLatencyForPort" + port;
+        this.port = String.valueOf(port);
+        this.interval = interval;
+        this.maxUsers = maxUsers;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the registered metrics, or null if they are not enabled
+     */
+    public static RpcLatencyMetrics create(int port, Configuration conf) {
+        if (!conf.getBoolean(
+                CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_ENABLE,
+                CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_ENABLE_DEFAULT)) {
+            return null;
+        }
+        RpcLatencyMetrics m = new RpcLatencyMetrics(port, conf.getInt(
+                CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_INTERVAL_KEY,
+                CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_INTERVAL_DEFAULT),
+                conf.getInt(
+                        CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_MAX_USERS_KEY,
+                        CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_MAX_USERS_DEFAULT));
+        return DefaultMetricsSystem.instance().register(m.name,
+                "Per method RPC latency histograms", m);
+    }
+
+    private MutableHistogram get(ConcurrentMap<String, MutableHistogram> map,
+                                 String key, String metricName, String desc) {
+        MutableHistogram histogram = map.get(key);
+        if (histogram == null) {
+            histogram = new MutableHistogram(metricName + interval + "s", desc,
+                    "ops", "latency", interval);
+            MutableHistogram existing = map.putIfAbsent(key, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Add a latency sample of a method
+     *
+     * @param method the name of the RPC method, or of the exception it threw
+     * @param phase  the part of the call the sample is for, e.g.
+     *               {@link #PROCESSING_TIME}
+     * @param millis the latency
+     */
+    public void add(String method, String phase, long millis) {
+        final String metricName = method + phase;
+        get(methods, metricName, metricName, "rpc " + phase + " of " + method
+                + " in milli second").add(millis);
+    }
+
+    /**
+     * Add a processing time sample of a user.  The users beyond the limit
+     * are counted together.
+     */
+    public void addUserProcessingTime(String user, long millis) {
+        if (maxUsers <= 0 || user == null) {
+            return;
+        }
+        if (!users.containsKey(user) && users.size() >= maxUsers) {
+            user = OTHER_USERS;
+        }
+        get(users, user, "User_" + user + "_" + PROCESSING_TIME,
+                "rpc processing time of user " + user + " in milli second")
+                .add(millis);
+    }
+
+    @Override
+    public void getMetrics(MetricsCollector collector, boolean all) {
+        MetricsRecordBuilder rb = collector.addRecord(name)
+                .setContext("rpclatency")
+                .tag(info("port", "RPC port"), port);
+        for (MutableHistogram histogram : methods.values()) {
+            histogram.snapshot(rb, all);
+        }
+        for (MutableHistogram histogram : users.values()) {
+            histogram.snapshot(rb, all);
+        }
+    }
+}
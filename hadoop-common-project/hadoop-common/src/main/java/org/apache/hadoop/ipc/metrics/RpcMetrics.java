@@ -31,6 +31,7 @@
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.metrics2.lib.MutableStat;
 
 /**
  * This class is for maintaining  the various RPC statistics
@@ -101,6 +102,16 @@ public static RpcMetrics create(Server server, Configuration conf) {
     MutableCounterLong rpcAuthorizationFailures;
     @Metric("Number of authorization sucesses")
     MutableCounterLong rpcAuthorizationSuccesses;
+    @Metric("Number of accepted connections")
+    MutableCounterLong connectionsAccepted;
+    @Metric("Number of accepted connections that found the queue of their reader full")
+    MutableCounterLong readerQueueOverflows;
+    @Metric(value = "Bytes sent per response write", sampleName = "Writes",
+            valueName = "Bytes")
+    MutableStat responseWriteBytes;
+    @Metric(value = "Responses sent per response write", sampleName = "Writes",
+            valueName = "Responses")
+    MutableStat responseWriteCalls;
 
     @Metric("Number of open connections")
     public int numOpenConnections() {
@@ -112,6 +123,11 @@ public int callQueueLength() {
         return server.getCallQueueLen();
     }
 
+    @Metric("Number of responses waiting to be sent")
+    public int responseQueueLength() {
+        return server.getResponseQueueLen();
+    }
+
     // Public instrumentation methods that could be extracted to an
     // abstract class if we decide to do custom instrumentation classes a la
     // JobTrackerInstrumenation. The methods with //@Override comment are
@@ -166,6 +182,34 @@ public void incrSentBytes(int count) {
         sentBytes.incr(count);
     }
 
+    /**
+     * One accepted connection
+     */
+    //@Override
+    public void incrConnectionsAccepted() {
+        connectionsAccepted.incr();
+    }
+
+    /**
+     * One connection waiting for room in the queue of its reader
+     */
+    //@Override
+    public void incrReaderQueueOverflows() {
+        readerQueueOverflows.incr();
+    }
+
+    /**
+     * Add a response write sample
+     *
+     * @param bytes     the number of bytes written
+     * @param responses the number of responses the write was gathered from
+     */
+    //@Override
+    public void addResponseWrite(int bytes, int responses) {
+        responseWriteBytes.add(bytes);
+        responseWriteCalls.add(responses);
+    }
+
     /**
      * Increment received bytes by count
      *
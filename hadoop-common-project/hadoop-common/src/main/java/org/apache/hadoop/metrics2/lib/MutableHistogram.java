@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.metrics2.lib;
+
+import static org.apache.hadoop.metrics2.lib.Interns.info;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Watches a stream of non-negative long values, counting them in a
+ * log-linear histogram, and publishes the number, percentiles and maximum of
+ * the values added in the last interval.
+ * <p/>
+ * Unlike {@link MutableQuantiles}, adding a value takes no lock: it
+ * increments one bucket of one of a few stripes of counters, chosen by the
+ * thread, and the stripes are only merged when the interval is rolled over.
+ * A value is counted in a bucket at most 1/{@value #SUB_BUCKETS} wider than
+ * the value, and published as the largest value of its bucket.  Values of
+ * 2^32 and above all fall in the last bucket.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class MutableHistogram extends MutableMetric {
+
+    @VisibleForTesting
+    public static final int[] PERCENTILES = {50, 75, 90, 95, 99};
+
+    /**
+     * The number of buckets between consecutive powers of two.
+     */
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_EXPONENT = 32;
+    static final int NUM_BUCKETS =
+            (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final int STRIPES = 4;
+
+    private final MetricsInfo numInfo;
+    private final MetricsInfo[] percentileInfos;
+    private final MetricsInfo maxInfo;
+    private final long intervalMillis;
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    // the bucket totals at the last rollover
+    private long[] rolledOver = new long[NUM_BUCKETS];
+    private long intervalStart;
+    private long previousCount = 0;
+    private final long[] previousPercentiles = new long[PERCENTILES.length];
+    private long previousMax = 0;
+
+    /**
+     * Instantiates a new {@link MutableHistogram} for a metric that rolls itself
+     * over on the specified time interval.
+     *
+     * @param name        of the metric
+     * @param description long-form textual description of the metric
+     * @param sampleName  type of items in the stream (e.g., "Ops")
+     * @param valueName   type of the values
+     * @param interval    rollover interval (in seconds)
+     */
+    public MutableHistogram(String name, String description, String sampleName,
+                            String valueName, int interval) {
+        String ucName = StringUtils.capitalize(name);
+        String usName = StringUtils.capitalize(sampleName);
+        String uvName = StringUtils.capitalize(valueName);
+        String desc = StringUtils.uncapitalize(description);
+        String lsName = StringUtils.uncapitalize(sampleName);
+        String lvName = StringUtils.uncapitalize(valueName);
+
+        numInfo = info(ucName + "Num" + usName, String.format(
+                "Number of %s for %s with %ds interval", lsName, desc, interval));
+        percentileInfos = new MetricsInfo[PERCENTILES.length];
+        String nameTemplate = ucName + "%dthPercentile" + uvName;
+        String descTemplate = "%d percentile " + lvName + " with " + interval
+                + " second interval for " + desc;
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            percentileInfos[i] = info(String.format(nameTemplate, PERCENTILES[i]),
+                    String.format(descTemplate, PERCENTILES[i]));
+        }
+        maxInfo = info(ucName + "Max" + uvName, "Maximum " + lvName + " with "
+                + interval + " second interval for " + desc);
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(NUM_BUCKETS);
+        }
+        this.intervalMillis = interval * 1000L;
+        this.intervalStart = Time.monotonicNow();
+    }
+
+    /**
+     * @return the bucket of the value
+     */
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        // the bits following the leading one pick the sub-bucket
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+                & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value counted in the bucket
+     */
+    static long getBucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = bucket % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS))
+                + width - 1;
+    }
+
+    public void add(long value) {
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        stripes[stripe].incrementAndGet(getBucket(value));
+    }
+
+    @Override
+    public synchronized void snapshot(MetricsRecordBuilder builder, boolean all) {
+        final long now = Time.monotonicNow();
+        if (now - intervalStart >= intervalMillis) {
+            rollover();
+            intervalStart = now;
+            setChanged();
+        }
+        if (all || changed()) {
+            builder.addGauge(numInfo, previousCount);
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                builder.addGauge(percentileInfos[i], previousPercentiles[i]);
+            }
+            builder.addGauge(maxInfo, previousMax);
+            if (changed()) {
+                clearChanged();
+            }
+        }
+    }
+
+    /**
+     * Compute the published values from the values added since the last
+     * rollover.
+     */
+    @VisibleForTesting
+    synchronized void rollover() {
+        final long[] totals = new long[NUM_BUCKETS];
+        final long[] counts = new long[NUM_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            for (AtomicLongArray stripe : stripes) {
+                totals[i] += stripe.get(i);
+            }
+            counts[i] = totals[i] - rolledOver[i];
+            count += counts[i];
+        }
+        rolledOver = totals;
+
+        previousCount = count;
+        previousMax = 0;
+        int p = 0;
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS && count > 0; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            seen += counts[i];
+            for (; p < PERCENTILES.length
+                    && seen * 100 >= count * PERCENTILES[p]; p++) {
+                previousPercentiles[p] = getBucketMax(i);
+            }
+            previousMax = getBucketMax(i);
+        }
+        for (; p < PERCENTILES.length; p++) {
+            previousPercentiles[p] = 0;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized long getPreviousCount() {
+        return previousCount;
+    }
+
+    @VisibleForTesting
+    synchronized long getPreviousPercentile(int index) {
+        return previousPercentiles[index];
+    }
+
+    @VisibleForTesting
+    synchronized long getPreviousMax() {
+        return previousMax;
+    }
+}
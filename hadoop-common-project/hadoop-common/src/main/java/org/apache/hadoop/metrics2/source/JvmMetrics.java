@@ -41,6 +41,7 @@
 import static org.apache.hadoop.metrics2.impl.MsInfo.*;
 
 import org.apache.hadoop.util.JvmPauseMonitor;
+import org.apache.hadoop.util.Shell;
 
 /**
  * JVM and logging related metrics.
@@ -100,6 +101,7 @@ public void getMetrics(MetricsCollector collector, boolean all) {
         getGcUsage(rb);
         getThreadUsage(rb);
         getEventCounters(rb);
+        rb.addCounter(ShellForkCount, Shell.getForkCount());
     }
 
     private void getMemoryUsage(MetricsRecordBuilder rb) {
@@ -51,7 +51,8 @@ public enum JvmMetricsInfo implements MetricsInfo {
     LogInfo("Total number of info log events"),
     GcNumWarnThresholdExceeded("Number of times that the GC warn threshold is exceeded"),
     GcNumInfoThresholdExceeded("Number of times that the GC info threshold is exceeded"),
-    GcTotalExtraSleepTime("Total GC extra sleep time in milliseconds");
+    GcTotalExtraSleepTime("Total GC extra sleep time in milliseconds"),
+    ShellForkCount("Total number of processes forked to run shell commands");
 
     private final String desc;
 
@@ -252,6 +252,46 @@ public void transferToFully(FileChannel fileCh, long position, int count)
         transferToFully(fileCh, position, count, null, null);
     }
 
+    /**
+     * Writes all the remaining bytes of a buffer, like
+     * {@link #transferToFully(FileChannel, long, int, LongWritable, LongWritable)}
+     * does for a file, and updates <code>waitForWritableTime</code> and
+     * <code>writeTime</code> the same way.
+     *
+     * @param src                 the bytes to write
+     * @param waitForWritableTime nanoseconds spent waiting for the socket
+     *                            to become writable
+     * @param writeTime           nanoseconds spent writing data
+     * @throws SocketTimeoutException If this channel blocks transfer longer than timeout for
+     *                                this stream.
+     * @throws IOException            On any other I/O error.
+     */
+    public void writeFully(ByteBuffer src, LongWritable waitForWritableTime,
+                           LongWritable writeTime) throws IOException {
+        long waitTime = 0;
+        long transferTime = 0;
+        while (src.hasRemaining()) {
+            long start = System.nanoTime();
+            waitForWritable();
+            long wait = System.nanoTime();
+
+            // the channel is non-blocking; a full socket writes nothing
+            if (getChannel().write(src) < 0) {
+                throw new IOException("Unexpected negative return from write()");
+            }
+            long transfer = System.nanoTime();
+            waitTime += wait - start;
+            transferTime += transfer - wait;
+        }
+
+        if (waitForWritableTime != null) {
+            waitForWritableTime.set(waitTime);
+        }
+        if (writeTime != null) {
+            writeTime.set(transferTime);
+        }
+    }
+
     public void setTimeout(int timeoutMs) {
         writer.setTimeout(timeoutMs);
     }
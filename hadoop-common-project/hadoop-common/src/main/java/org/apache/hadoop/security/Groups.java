@@ -18,12 +18,20 @@
 package org.apache.hadoop.security;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -38,6 +46,8 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * A user-to-groups mapping service.
  * <p/>
@@ -61,6 +71,10 @@ public class Groups {
     private final long negativeCacheTimeout;
     private final long warningDeltaMs;
     private final Timer timer;
+    // reloads expired groups while they are still served, if enabled
+    private final ExecutorService reloadExecutor;
+    // limits the concurrent lookups, if set
+    private final Semaphore lookupPermits;
 
     public Groups(Configuration conf) {
         this(conf, new Timer());
@@ -87,10 +101,31 @@ public Groups(Configuration conf, Timer timer) {
 
         this.timer = timer;
 
+        if (conf.getBoolean(
+                CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD,
+                CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD_DEFAULT)) {
+            int threads = conf.getInt(
+                    CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD_THREADS,
+                    CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD_THREADS_DEFAULT);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("Group-Cache-Reload #%d").build());
+            executor.allowCoreThreadTimeOut(true);
+            reloadExecutor = executor;
+        } else {
+            reloadExecutor = null;
+        }
+        int maxLookups = conf.getInt(
+                CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_MAX_CONCURRENT_LOOKUPS,
+                CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_MAX_CONCURRENT_LOOKUPS_DEFAULT);
+        lookupPermits = maxLookups > 0 ? new Semaphore(maxLookups, true) : null;
+
         if (LOG.isDebugEnabled())
             LOG.debug("Group mapping impl=" + impl.getClass().getName() +
                     "; cacheTimeout=" + cacheTimeout + "; warningDeltaMs=" +
-                    warningDeltaMs);
+                    warningDeltaMs + "; backgroundReload=" +
+                    (reloadExecutor != null) + "; maxLookups=" + maxLookups);
     }
 
     /*
@@ -166,16 +201,49 @@ public List<String> getGroups(String user) throws IOException {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Returning cached groups for '" + user + "'");
             }
-            if (groups.getGroups().isEmpty()) {
-                // Even with enabling negative cache, getGroups() has the same behavior
-                // that throws IOException if the groups for the user is empty.
-                throw new IOException("No groups found for user " + user);
+            UserGroupInformation.metrics.incrGetGroupsCacheHits();
+            return getCachedGroups(user, groups);
+        }
+        if (groups != null && reloadExecutor != null) {
+            // Serve the expired groups rather than wait for the lookup
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Returning expired groups for '" + user + "'");
             }
-            return groups.getGroups();
+            UserGroupInformation.metrics.incrGetGroupsCacheStaleHits();
+            reloadInBackground(user, groups);
+            return getCachedGroups(user, groups);
         }
 
         // Create and cache user's groups
-        List<String> groupList = impl.getGroups(user);
+        UserGroupInformation.metrics.incrGetGroupsCacheMisses();
+        groups = fetchGroups(user, startMs);
+        if (groups.getGroups().isEmpty()) {
+            throw new IOException("No groups found for user " + user);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Returning fetched groups for '" + user + "'");
+        }
+        return groups.getGroups();
+    }
+
+    private static List<String> getCachedGroups(String user,
+                                                CachedGroups groups)
+            throws IOException {
+        if (groups.getGroups().isEmpty()) {
+            // Even with enabling negative cache, getGroups() has the same behavior
+            // that throws IOException if the groups for the user is empty.
+            throw new IOException("No groups found for user " + user);
+        }
+        return groups.getGroups();
+    }
+
+    /**
+     * Look up the groups of the user and cache them, or the lack of them if the
+     * negative cache is enabled.
+     */
+    private CachedGroups fetchGroups(String user, long startMs)
+            throws IOException {
+        List<String> groupList = lookupGroups(user);
         long endMs = timer.monotonicNow();
         long deltaMs = endMs - startMs;
         UserGroupInformation.metrics.addGetGroups(deltaMs);
@@ -183,18 +251,59 @@ public List<String> getGroups(String user) throws IOException {
             LOG.warn("Potential performance problem: getGroups(user=" + user + ") " +
                     "took " + deltaMs + " milliseconds.");
         }
-        groups = new CachedGroups(groupList, endMs);
-        if (groups.getGroups().isEmpty()) {
-            if (isNegativeCacheEnabled()) {
-                userToGroupsMap.put(user, groups);
-            }
-            throw new IOException("No groups found for user " + user);
+        CachedGroups groups = new CachedGroups(groupList, endMs);
+        if (!groups.getGroups().isEmpty() || isNegativeCacheEnabled()) {
+            userToGroupsMap.put(user, groups);
+        } else {
+            userToGroupsMap.remove(user);
         }
-        userToGroupsMap.put(user, groups);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Returning fetched groups for '" + user + "'");
+        return groups;
+    }
+
+    private List<String> lookupGroups(String user) throws IOException {
+        if (lookupPermits == null) {
+            return impl.getGroups(user);
+        }
+        try {
+            lookupPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted waiting to look up the groups of " + user);
+        }
+        try {
+            return impl.getGroups(user);
+        } finally {
+            lookupPermits.release();
+        }
+    }
+
+    /**
+     * Reload the expired groups of the user on the background executor,
+     * unless they are being reloaded already.  If the lookup fails, the
+     * expired groups are kept and reloaded again on the next request.
+     */
+    private void reloadInBackground(final String user,
+                                    final CachedGroups groups) {
+        if (!groups.reloading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            reloadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetchGroups(user, timer.monotonicNow());
+                    } catch (Exception e) {
+                        LOG.warn("Error reloading the groups of " + user, e);
+                        UserGroupInformation.metrics.incrGetGroupsReloadFailures();
+                        groups.reloading.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            groups.reloading.set(false);
         }
-        return groups.getGroups();
     }
 
     /**
@@ -229,6 +338,8 @@ public void cacheGroupsAdd(List<String> groups) {
     private static class CachedGroups {
         final long timestamp;
         final List<String> groups;
+        // whether the groups are being reloaded in the background
+        final AtomicBoolean reloading = new AtomicBoolean(false);
 
         /**
          * Create and initialize group cache
@@ -27,6 +27,7 @@
 import java.lang.reflect.UndeclaredThrowableException;
 import java.security.AccessControlContext;
 import java.security.AccessController;
+import java.security.DomainCombiner;
 import java.security.Principal;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
@@ -43,6 +44,7 @@
 import java.util.Set;
 
 import javax.security.auth.Subject;
+import javax.security.auth.SubjectDomainCombiner;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.kerberos.KerberosKey;
 import javax.security.auth.kerberos.KerberosPrincipal;
@@ -63,6 +65,7 @@
 import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.security.SaslRpcServer.AuthMethod;
@@ -106,6 +109,14 @@ static class UgiMetrics {
         @Metric("GetGroups")
         MutableRate getGroups;
         MutableQuantiles[] getGroupsQuantiles;
+        @Metric("Number of group lookups answered from the cache")
+        MutableCounterLong getGroupsCacheHits;
+        @Metric("Number of group lookups answered with expired groups being reloaded")
+        MutableCounterLong getGroupsCacheStaleHits;
+        @Metric("Number of group lookups that waited for the group mapping")
+        MutableCounterLong getGroupsCacheMisses;
+        @Metric("Number of failed background reloads of groups")
+        MutableCounterLong getGroupsReloadFailures;
 
         static UgiMetrics create() {
             return DefaultMetricsSystem.instance().register(new UgiMetrics());
@@ -119,6 +130,22 @@ void addGetGroups(long latency) {
                 }
             }
         }
+
+        void incrGetGroupsCacheHits() {
+            getGroupsCacheHits.incr();
+        }
+
+        void incrGetGroupsCacheStaleHits() {
+            getGroupsCacheStaleHits.incr();
+        }
+
+        void incrGetGroupsCacheMisses() {
+            getGroupsCacheMisses.incr();
+        }
+
+        void incrGetGroupsReloadFailures() {
+            getGroupsReloadFailures.incr();
+        }
     }
 
     /**
@@ -339,9 +366,10 @@ private static boolean isAuthenticationMethodEnabled(AuthenticationMethod method
     }
 
     /**
-     * Information about the logged in user.
+     * Information about the logged in user.  It is only assigned once it is
+     * complete, so it can be read without holding the class lock.
      */
-    private static UserGroupInformation loginUser = null;
+    private static volatile UserGroupInformation loginUser = null;
     private static String keytabPrincipal = null;
     private static String keytabFile = null;
 
@@ -350,6 +378,8 @@ private static boolean isAuthenticationMethodEnabled(AuthenticationMethod method
     private final User user;
     private final boolean isKeytab;
     private final boolean isKrbTkt;
+    // created on the first doAs, and shared by all doAs of this user
+    private volatile UgiDomainCombiner combiner;
 
     private static String OS_LOGIN_MODULE_NAME;
     private static Class<? extends Principal> OS_PRINCIPAL_CLASS;
@@ -617,6 +647,31 @@ private void setLogin(LoginContext login) {
         this.isKrbTkt = !subject.getPrivateCredentials(KerberosTicket.class).isEmpty();
     }
 
+    /**
+     * Create a UserGroupInformation for a new subject holding only
+     * principals, so that it has no Kerberos credentials.
+     */
+    private UserGroupInformation(Subject subject, User user) {
+        this.subject = subject;
+        this.user = user;
+        this.isKeytab = false;
+        this.isKrbTkt = false;
+    }
+
+    /**
+     * The combiner of the access control context of a doAs, which knows the
+     * user the action is run as.  One combiner is shared by all the doAs of a
+     * user, which also keeps the protection domains it has combined.
+     */
+    private static class UgiDomainCombiner extends SubjectDomainCombiner {
+        private final UserGroupInformation ugi;
+
+        UgiDomainCombiner(UserGroupInformation ugi) {
+            super(ugi.subject);
+            this.ugi = ugi;
+        }
+    }
+
     /**
      * checks if logged in using kerberos
      *
@@ -628,15 +683,21 @@ public boolean hasKerberosCredentials() {
 
     /**
      * Return the current user, including any doAs in the current stack.
+     * Within a doAs of a UserGroupInformation, that is the user returned.
      *
      * @return the current user
      * @throws IOException if login fails
      */
     @InterfaceAudience.Public
     @InterfaceStability.Evolving
-    public synchronized
-    static UserGroupInformation getCurrentUser() throws IOException {
+    public static UserGroupInformation getCurrentUser() throws IOException {
         AccessControlContext context = AccessController.getContext();
+        if (System.getSecurityManager() == null) {
+            DomainCombiner combiner = context.getDomainCombiner();
+            if (combiner instanceof UgiDomainCombiner) {
+                return ((UgiDomainCombiner) combiner).ugi;
+            }
+        }
         Subject subject = Subject.getSubject(context);
         if (subject == null || subject.getPrincipals(User.class).isEmpty()) {
             return getLoginUser();
@@ -761,12 +822,17 @@ public static UserGroupInformation getUGIFromSubject(Subject subject)
      */
     @InterfaceAudience.Public
     @InterfaceStability.Evolving
-    public synchronized
-    static UserGroupInformation getLoginUser() throws IOException {
-        if (loginUser == null) {
-            loginUserFromSubject(null);
+    public static UserGroupInformation getLoginUser() throws IOException {
+        UserGroupInformation ugi = loginUser;
+        if (ugi == null) {
+            synchronized (UserGroupInformation.class) {
+                if (loginUser == null) {
+                    loginUserFromSubject(null);
+                }
+                ugi = loginUser;
+            }
         }
-        return loginUser;
+        return ugi;
     }
 
     /**
@@ -799,7 +865,8 @@ static void loginUserFromSubject(Subject subject) throws IOException {
             if (proxyUser == null) {
                 proxyUser = System.getProperty(HADOOP_PROXY_USER);
             }
-            loginUser = proxyUser == null ? realUser : createProxyUser(proxyUser, realUser);
+            UserGroupInformation ugi =
+                    proxyUser == null ? realUser : createProxyUser(proxyUser, realUser);
 
             String fileLocation = System.getenv(HADOOP_TOKEN_FILE_LOCATION);
             if (fileLocation != null) {
@@ -808,9 +875,10 @@ static void loginUserFromSubject(Subject subject) throws IOException {
                 // cycle (HADOOP-9212).
                 Credentials cred = Credentials.readTokenStorageFile(
                         new File(fileLocation), conf);
-                loginUser.addCredentials(cred);
+                ugi.addCredentials(cred);
             }
-            loginUser.spawnAutoRenewalThreadForUserCreds();
+            loginUser = ugi;
+            ugi.spawnAutoRenewalThreadForUserCreds();
         } catch (LoginException le) {
             LOG.debug("failure to login", le);
             throw new IOException("failure to login", le);
@@ -951,9 +1019,10 @@ static void loginUserFromKeytab(String user,
             start = Time.now();
             login.login();
             metrics.loginSuccess.add(Time.now() - start);
-            loginUser = new UserGroupInformation(subject);
-            loginUser.setLogin(login);
-            loginUser.setAuthenticationMethod(AuthenticationMethod.KERBEROS);
+            UserGroupInformation ugi = new UserGroupInformation(subject);
+            ugi.setLogin(login);
+            ugi.setAuthenticationMethod(AuthenticationMethod.KERBEROS);
+            loginUser = ugi;
         } catch (LoginException le) {
             if (start > 0) {
                 metrics.loginFailure.add(Time.now() - start);
@@ -1168,7 +1237,7 @@ private boolean hasSufficientTimeElapsed(long now) {
      */
     @InterfaceAudience.Public
     @InterfaceStability.Evolving
-    public synchronized static boolean isLoginKeytabBased() throws IOException {
+    public static boolean isLoginKeytabBased() throws IOException {
         return getLoginUser().isKeytab;
     }
 
@@ -1208,8 +1277,9 @@ public static UserGroupInformation createRemoteUser(String user, AuthMethod auth
             throw new IllegalArgumentException("Null user");
         }
         Subject subject = new Subject();
-        subject.getPrincipals().add(new User(user));
-        UserGroupInformation result = new UserGroupInformation(subject);
+        User principal = new User(user);
+        subject.getPrincipals().add(principal);
+        UserGroupInformation result = new UserGroupInformation(subject, principal);
         result.setAuthenticationMethod(authMethod);
         return result;
     }
@@ -1288,9 +1358,10 @@ public static UserGroupInformation createProxyUser(String user,
         }
         Subject subject = new Subject();
         Set<Principal> principals = subject.getPrincipals();
-        principals.add(new User(user));
+        User principal = new User(user);
+        principals.add(principal);
         principals.add(new RealUser(realUser));
-        UserGroupInformation result = new UserGroupInformation(subject);
+        UserGroupInformation result = new UserGroupInformation(subject, principal);
         result.setAuthenticationMethod(AuthenticationMethod.PROXY);
         return result;
     }
@@ -1390,10 +1461,7 @@ public static UserGroupInformation createProxyUserForTesting(String user,
      * @return the user's name up to the first '/' or '@'.
      */
     public String getShortUserName() {
-        for (User p : subject.getPrincipals(User.class)) {
-            return p.getShortName();
-        }
-        return null;
+        return user.getShortName();
     }
 
     public String getPrimaryGroupName() throws IOException {
@@ -1520,7 +1588,7 @@ private synchronized Credentials getCredentialsInternal() {
      * @return the list of users with the primary group first. If the command
      * fails, it returns an empty list.
      */
-    public synchronized String[] getGroupNames() {
+    public String[] getGroupNames() {
         ensureInitialized();
         try {
             Set<String> result = new LinkedHashSet<String>
@@ -1644,7 +1712,17 @@ protected Subject getSubject() {
     @InterfaceStability.Evolving
     public <T> T doAs(PrivilegedAction<T> action) {
         logPrivilegedAction(subject, action);
-        return Subject.doAs(subject, action);
+        if (System.getSecurityManager() != null) {
+            return Subject.doAs(subject, action);
+        }
+        AccessControlContext context = AccessController.getContext();
+        UgiDomainCombiner ugiCombiner = getCombiner();
+        if (context.getDomainCombiner() == ugiCombiner) {
+            // already running as this user
+            return action.run();
+        }
+        return AccessController.doPrivileged(action,
+                new AccessControlContext(context, ugiCombiner));
     }
 
     /**
@@ -1665,7 +1743,7 @@ public <T> T doAs(PrivilegedExceptionAction<T> action
     ) throws IOException, InterruptedException {
         try {
             logPrivilegedAction(subject, action);
-            return Subject.doAs(subject, action);
+            return doAsPrivileged(action);
         } catch (PrivilegedActionException pae) {
             Throwable cause = pae.getCause();
             if (LOG.isDebugEnabled()) {
@@ -1685,6 +1763,42 @@ public <T> T doAs(PrivilegedExceptionAction<T> action
         }
     }
 
+    /**
+     * Run the action as {@link Subject#doAs(Subject, PrivilegedExceptionAction)}
+     * does, but sharing the combiner of this user between calls, and running
+     * it directly if this user is already the current one.  With a security
+     * manager installed, Subject.doAs is used.
+     */
+    private <T> T doAsPrivileged(PrivilegedExceptionAction<T> action)
+            throws PrivilegedActionException {
+        if (System.getSecurityManager() != null) {
+            return Subject.doAs(subject, action);
+        }
+        AccessControlContext context = AccessController.getContext();
+        UgiDomainCombiner ugiCombiner = getCombiner();
+        if (context.getDomainCombiner() == ugiCombiner) {
+            try {
+                return action.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new PrivilegedActionException(e);
+            }
+        }
+        return AccessController.doPrivileged(action,
+                new AccessControlContext(context, ugiCombiner));
+    }
+
+    private UgiDomainCombiner getCombiner() {
+        UgiDomainCombiner c = combiner;
+        if (c == null) {
+            // racing threads may each create one, any of them will do
+            c = new UgiDomainCombiner(this);
+            combiner = c;
+        }
+        return c;
+    }
+
     private void logPrivilegedAction(Subject subject, Object action) {
         if (LOG.isDebugEnabled()) {
             // would be nice if action included a descriptive toString()
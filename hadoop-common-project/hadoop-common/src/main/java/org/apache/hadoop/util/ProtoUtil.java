@@ -19,8 +19,10 @@
 package org.apache.hadoop.util;
 
 import java.io.DataInput;
+import java.io.EOFException;
 import java.io.IOException;
 
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.IpcConnectionContextProto;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.UserInformationProto;
@@ -29,6 +31,7 @@
 import org.apache.hadoop.security.UserGroupInformation;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
 
 public abstract class ProtoUtil {
 
@@ -73,6 +76,38 @@ public static int readRawVarint32(DataInput in) throws IOException {
         return result;
     }
 
+    /**
+     * Move the buffer past the next bytes, so that they can be used in place
+     * in the buffer's array instead of being copied out of it.
+     *
+     * @param in     the buffer
+     * @param length the number of bytes to skip
+     * @return the offset of the skipped bytes in {@code in.getData()}
+     * @throws EOFException if the buffer has fewer bytes left
+     */
+    public static int skip(DataInputBuffer in, int length) throws IOException {
+        final int offset = in.getPosition();
+        final int end = in.getLength();
+        if (length < 0 || length > end - offset) {
+            throw new EOFException("Cannot skip " + length + " bytes, only "
+                    + (end - offset) + " left");
+        }
+        in.reset(in.getData(), offset + length, end - offset - length);
+        return offset;
+    }
+
+    /**
+     * Merge a length-delimited message from the buffer, like
+     * {@link Message.Builder#mergeDelimitedFrom(java.io.InputStream)}, but
+     * parsing it in place in the buffer's array.
+     */
+    public static void mergeDelimitedFrom(Message.Builder builder,
+                                          DataInputBuffer in) throws IOException {
+        final int length = readRawVarint32(in);
+        final int offset = skip(in, length);
+        builder.mergeFrom(in.getData(), offset, length);
+    }
+
 
     /**
      * This method creates the connection context  using exactly the same logic
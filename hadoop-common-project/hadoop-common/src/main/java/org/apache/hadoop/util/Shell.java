@@ -27,6 +27,7 @@
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -91,6 +92,18 @@ public static void checkWindowsCommandLineLength(String... commands)
      */
     public static final Object WindowsProcessLaunchLock = new Object();
 
+    /**
+     * Number of processes started, for the JVM metrics.
+     */
+    private static final AtomicLong forkCount = new AtomicLong();
+
+    /**
+     * @return the number of processes started by this class in this JVM
+     */
+    public static long getForkCount() {
+        return forkCount.get();
+    }
+
     // OSType detection
 
     public enum OSType {
@@ -540,6 +553,7 @@ private void runCommand() throws IOException {
         } else {
             process = builder.start();
         }
+        forkCount.incrementAndGet();
 
         if (timeOutInterval > 0) {
             timeOutTimer = new Timer("Shell command timeout");
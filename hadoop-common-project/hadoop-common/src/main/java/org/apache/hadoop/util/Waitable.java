@@ -23,7 +23,7 @@
  * Represents an object that you can wait for.
  */
 public class Waitable<T> {
-    private T val;
+    private volatile T val;
     private final Condition cond;
 
     public Waitable(Condition cond) {
@@ -316,6 +316,44 @@ cleanup:
 
 
 
+/*
+ * static native Stat stat(String path);
+ *
+ * The "00024" in the function name is an artifact of how JNI encodes
+ * special characters. U+0024 is '$'.
+ */
+JNIEXPORT jobject JNICALL
+Java_org_apache_hadoop_io_nativeio_NativeIO_00024POSIX_stat(
+  JNIEnv *env, jclass clazz, jstring j_path)
+{
+#ifdef UNIX
+  jobject ret = NULL;
+  struct stat s;
+
+  const char *path = (*env)->GetStringUTFChars(env, j_path, NULL);
+  if (path == NULL) return NULL; // JVM throws Exception for us
+
+  if (stat(path, &s) != 0) {
+    throw_ioe(env, errno);
+    goto cleanup;
+  }
+
+  // Construct result
+  ret = (*env)->NewObject(env, stat_clazz, stat_ctor,
+    (jint)s.st_uid, (jint)s.st_gid, (jint)s.st_mode);
+
+cleanup:
+  (*env)->ReleaseStringUTFChars(env, j_path, path);
+  return ret;
+#endif
+
+#ifdef WINDOWS
+  THROW(env, "java/io/IOException",
+    "The function POSIX.stat() is not supported on Windows");
+  return NULL;
+#endif
+}
+
 /**
  * public static native void posix_fadvise(
  *   FileDescriptor fd, long offset, long len, int flags);
@@ -605,6 +643,122 @@ JNIEXPORT void JNICALL Java_org_apache_hadoop_io_nativeio_NativeIO_00024POSIX_ch
 #endif
 }
 
+#ifdef UNIX
+/**
+ * Look up the id of the user or group of the given name, as chown(1) does:
+ * a name which is not found but is all digits is taken as the id itself.
+ *
+ * Returns 0 and sets the id if found, and otherwise raises an exception.
+ */
+static int lookup_owner_id(JNIEnv *env, const char *name, int is_group,
+                           jint *id)
+{
+  char *pw_buf = NULL;
+  int pw_lock_locked = 0;
+  int ret = -1;
+  int rc;
+  struct passwd pwd, *pwdp = NULL;
+  struct group grp, *grpp = NULL;
+
+  if (pw_lock_object != NULL) {
+    if ((*env)->MonitorEnter(env, pw_lock_object) != JNI_OK) {
+      goto cleanup;
+    }
+    pw_lock_locked = 1;
+  }
+
+  size_t pw_buflen = get_pw_buflen();
+  if ((pw_buf = malloc(pw_buflen)) == NULL) {
+    THROW(env, "java/lang/OutOfMemoryError", "Couldn't allocate memory for pw buffer");
+    goto cleanup;
+  }
+
+  while ((rc = is_group
+      ? getgrnam_r(name, &grp, pw_buf, pw_buflen, &grpp)
+      : getpwnam_r(name, &pwd, pw_buf, pw_buflen, &pwdp)) != 0) {
+    if (rc != ERANGE) {
+      throw_ioe(env, rc);
+      goto cleanup;
+    }
+    free(pw_buf);
+    pw_buflen *= 2;
+    if ((pw_buf = malloc(pw_buflen)) == NULL) {
+      THROW(env, "java/lang/OutOfMemoryError", "Couldn't allocate memory for pw buffer");
+      goto cleanup;
+    }
+  }
+  if (is_group ? grpp == NULL : pwdp == NULL) {
+    // as chown(1) does, take a name of only digits as a numeric id
+    char *end = NULL;
+    long numeric;
+    errno = 0;
+    numeric = strtol(name, &end, 10);
+    if (name[0] >= '0' && name[0] <= '9' && *end == '\0' && errno == 0
+        && numeric <= INT32_MAX) {
+      *id = (jint)numeric;
+      ret = 0;
+      goto cleanup;
+    }
+    char msg[128];
+    snprintf(msg, sizeof(msg), "%s not found: %s",
+      is_group ? "group" : "user", name);
+    THROW(env, "java/io/IOException", msg);
+    goto cleanup;
+  }
+  *id = is_group ? (jint)grp.gr_gid : (jint)pwd.pw_uid;
+  ret = 0;
+
+cleanup:
+  if (pw_lock_locked) {
+    (*env)->MonitorExit(env, pw_lock_object);
+  }
+  if (pw_buf != NULL) free(pw_buf);
+  return ret;
+}
+#endif
+
+/*
+ * static native void chownImpl(String path, String user, String group);
+ *
+ * A null user or group is left unchanged.
+ */
+JNIEXPORT void JNICALL
+Java_org_apache_hadoop_io_nativeio_NativeIO_00024POSIX_chownImpl(
+  JNIEnv *env, jclass clazz, jstring j_path, jstring j_user, jstring j_group)
+{
+#ifdef UNIX
+  const char *path = NULL, *user = NULL, *group = NULL;
+  jint uid = -1, gid = -1;
+
+  path = (*env)->GetStringUTFChars(env, j_path, NULL);
+  if (!path) goto done; // exception was thrown
+  if (j_user != NULL) {
+    user = (*env)->GetStringUTFChars(env, j_user, NULL);
+    if (!user) goto done; // exception was thrown
+    if (lookup_owner_id(env, user, 0, &uid) != 0) goto done;
+  }
+  if (j_group != NULL) {
+    group = (*env)->GetStringUTFChars(env, j_group, NULL);
+    if (!group) goto done; // exception was thrown
+    if (lookup_owner_id(env, group, 1, &gid) != 0) goto done;
+  }
+
+  if (chown(path, (uid_t)uid, (gid_t)gid) != 0) {
+    throw_ioe(env, errno);
+  }
+
+done:
+  if (path) (*env)->ReleaseStringUTFChars(env, j_path, path);
+  if (user) (*env)->ReleaseStringUTFChars(env, j_user, user);
+  if (group) (*env)->ReleaseStringUTFChars(env, j_group, group);
+#endif
+
+#ifdef WINDOWS
+  THROW(env, "java/io/IOException",
+    "The function POSIX.chown() is not supported on Windows");
+#endif
+}
+
 /*
  * static native String getUserName(int uid);
  */
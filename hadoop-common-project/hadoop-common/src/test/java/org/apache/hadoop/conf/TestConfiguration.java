@@ -21,19 +21,23 @@
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -192,6 +196,145 @@ public void testVariableSubstitution() throws IOException {
         assertEquals(-1, results.get("my.file").indexOf("${"));
     }
 
+    public void testSnapshot() throws IOException {
+        out = new BufferedWriter(new FileWriter(CONFIG));
+        startConfig();
+        appendProperty("intvar", "42");
+        appendProperty("my.int", "${intvar}");
+        appendProperty("my.hex", "0x10");
+        appendProperty("my.bytes", "2k");
+        appendProperty("my.bool", " TRUE ");
+        appendProperty("my.float", "3.5");
+        appendProperty("my.failsexpand", "a${my.undefvar}b");
+        endConfig();
+        conf.addResource(new Path(CONFIG));
+
+        ConfigurationSnapshot snapshot = conf.snapshot();
+        assertEquals("42", snapshot.get("my.int"));
+        assertEquals(42, snapshot.getInt(" my.int ", -1));
+        assertEquals(16, snapshot.getInt("my.hex", -1));
+        assertEquals(16L, snapshot.getLong("my.hex", -1L));
+        assertEquals(2048L, snapshot.getLongBytes("my.bytes", -1L));
+        assertEquals(" TRUE ", snapshot.get("my.bool"));
+        assertEquals("TRUE", snapshot.getTrimmed("my.bool"));
+        assertTrue(snapshot.getBoolean("my.bool", false));
+        assertEquals(3.5f, snapshot.getFloat("my.float", 0.0f));
+        assertEquals("a${my.undefvar}b", snapshot.get("my.failsexpand"));
+        assertNull(snapshot.get("my.unset"));
+        assertEquals("def", snapshot.get("my.unset", "def"));
+        assertEquals(7, snapshot.getInt("my.unset", 7));
+
+        // the snapshot is kept until the configuration is modified
+        assertSame(snapshot, conf.snapshot());
+        conf.set("intvar", "43");
+        assertEquals(42, snapshot.getInt("my.int", -1));
+        ConfigurationSnapshot modified = conf.snapshot();
+        assertNotSame(snapshot, modified);
+        assertEquals(43, modified.getInt("my.int", -1));
+        conf.unset("intvar");
+        assertEquals("${intvar}", conf.snapshot().get("my.int"));
+    }
+
+    public void testSnapshotSubstitutionDepth() throws IOException {
+        // a chain of variables too deep to expand
+        for (int i = 0; i < 30; i++) {
+            conf.set("chain" + i, "${chain" + (i + 1) + "}");
+        }
+        conf.set("my.int", "42");
+        ConfigurationSnapshot snapshot = conf.snapshot();
+        assertEquals(42, snapshot.getInt("my.int", -1));
+        try {
+            snapshot.get("chain0");
+            fail("Expanded a chain of 30 variables");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("Variable substitution depth"));
+        }
+        assertEquals("${chain30}", snapshot.get("chain29"));
+    }
+
+    public void testBinaryResourceBadCount() throws Exception {
+        out = new BufferedWriter(new FileWriter(CONFIG));
+        startConfig();
+        appendProperty("a", "b");
+        endConfig();
+        File binary = new File(CONFIG + ConfigurationBinaryCache.SUFFIX);
+        try {
+            ConfigurationBinaryCache.main(new String[]{CONFIG});
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            IOUtils.copyBytes(new FileInputStream(CONFIG), xml, 4096, true);
+            long checksum = ConfigurationBinaryCache.checksum(xml.toByteArray());
+            URL binaryUrl = binary.toURI().toURL();
+            // the property count follows the magic, version and checksum
+            for (int count : new int[]{-1, Integer.MAX_VALUE}) {
+                RandomAccessFile raf = new RandomAccessFile(binary, "rw");
+                try {
+                    raf.seek(4 + 4 + 8);
+                    raf.writeInt(count);
+                } finally {
+                    raf.close();
+                }
+                assertNull(ConfigurationBinaryCache.readBinary(binaryUrl, checksum));
+            }
+
+            // the XML is parsed instead
+            Configuration fromXml = new Configuration(false);
+            fromXml.addResource(new Path(CONFIG));
+            assertEquals("b", fromXml.get("a"));
+        } finally {
+            binary.delete();
+        }
+    }
+
+    public void testBinaryResource() throws Exception {
+        out = new BufferedWriter(new FileWriter(CONFIG));
+        startConfig();
+        appendProperty("a", "b");
+        appendProperty("c", "d", true, "somewhere");
+        endConfig();
+        File binary = new File(CONFIG + ConfigurationBinaryCache.SUFFIX);
+        try {
+            ConfigurationBinaryCache.main(new String[]{CONFIG});
+            assertTrue(binary.exists());
+
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            IOUtils.copyBytes(new FileInputStream(CONFIG), xml, 4096, true);
+            long checksum = ConfigurationBinaryCache.checksum(xml.toByteArray());
+            URL binaryUrl = binary.toURI().toURL();
+            List<ConfigurationBinaryCache.Property> properties =
+                    ConfigurationBinaryCache.readBinary(binaryUrl, checksum);
+            assertEquals(2, properties.size());
+            assertEquals("c", properties.get(1).name);
+            assertEquals("d", properties.get(1).value);
+            assertTrue(properties.get(1).isFinal);
+            assertEquals("somewhere", properties.get(1).sources[0]);
+            // the binary form of other XML is not used
+            assertNull(ConfigurationBinaryCache.readBinary(binaryUrl, checksum + 1));
+
+            long binaryReads = ConfigurationBinaryCache.getBinaryReads();
+            conf.addResource(new Path(CONFIG));
+            assertEquals("b", conf.get("a"));
+            assertEquals("d", conf.get("c"));
+            // the properties came from the binary form, not the XML
+            assertEquals(binaryReads + 1, ConfigurationBinaryCache.getBinaryReads());
+            assertTrue(conf.getFinalParameters().contains("c"));
+            String[] sources = conf.getPropertySources("c");
+            assertEquals("somewhere", sources[0]);
+
+            // once the XML changes, it is parsed again
+            out = new BufferedWriter(new FileWriter(CONFIG));
+            startConfig();
+            appendProperty("a", "changed");
+            endConfig();
+            Configuration changed = new Configuration(false);
+            changed.addResource(new Path(CONFIG));
+            assertEquals("changed", changed.get("a"));
+            assertNull(changed.get("c"));
+            assertEquals(binaryReads + 1, ConfigurationBinaryCache.getBinaryReads());
+        } finally {
+            binary.delete();
+        }
+    }
+
     public void testFinalParam() throws IOException {
         out = new BufferedWriter(new FileWriter(CONFIG));
         startConfig();
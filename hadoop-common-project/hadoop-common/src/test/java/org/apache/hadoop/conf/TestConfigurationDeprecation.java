@@ -285,6 +285,21 @@ public void testSetBeforeAndGetAfterDeprecationAndDefaults() {
         assertEquals("hello", conf.get("tests.fake-default.new-key"));
     }
 
+    @Test
+    public void testSnapshotWithDeprecatedKeys() {
+        Configuration conf = new Configuration();
+        conf.set("snapshot.old-key", "hello");
+        Configuration.addDeprecation("snapshot.old-key",
+                new String[]{"snapshot.new-key"});
+        ConfigurationSnapshot snapshot = conf.snapshot();
+        assertEquals("hello", snapshot.get("snapshot.new-key"));
+        assertEquals("hello", snapshot.get("snapshot.old-key"));
+        conf.set("snapshot.new-key", "world");
+        snapshot = conf.snapshot();
+        assertEquals("world", snapshot.get("snapshot.old-key"));
+        assertEquals("world", snapshot.get("snapshot.new-key"));
+    }
+
     @Test
     public void testIteratorWithDeprecatedKeys() {
         Configuration conf = new Configuration();
@@ -48,7 +48,9 @@
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.NativeCodeLoader;
+import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.Time;
 
 public class TestNativeIO {
@@ -499,6 +501,62 @@ private void assertPermissions(File f, int expected) throws IOException {
         assertEquals(expected, perms.toShort());
     }
 
+    @Test(timeout = 30000)
+    public void testStat() throws Exception {
+        if (Path.WINDOWS) {
+            return;
+        }
+
+        try {
+            NativeIO.POSIX.getStat("/this/file/doesnt/exist");
+            fail("Stat of non-existent file didn't fail");
+        } catch (NativeIOException nioe) {
+            assertEquals(Errno.ENOENT, nioe.getErrno());
+        }
+
+        File toStat = new File(TEST_DIR, "testStat");
+        assertTrue("Create test subject", toStat.mkdir());
+        NativeIO.POSIX.chmod(toStat.getAbsolutePath(), 0750);
+        NativeIO.POSIX.Stat stat = NativeIO.POSIX.getStat(toStat.getAbsolutePath());
+        assertEquals(System.getProperty("user.name"), stat.getOwner());
+        assertFalse(stat.getGroup().isEmpty());
+        assertEquals(NativeIO.POSIX.Stat.S_IFDIR,
+                stat.getMode() & NativeIO.POSIX.Stat.S_IFMT);
+        assertEquals(0750, stat.getMode() & 0777);
+    }
+
+    @Test(timeout = 30000)
+    public void testChown() throws Exception {
+        if (Path.WINDOWS) {
+            return;
+        }
+
+        File toChown = new File(TEST_DIR, "testChown");
+        assertTrue("Create test subject", toChown.createNewFile());
+        String path = toChown.getAbsolutePath();
+        NativeIO.POSIX.Stat stat = NativeIO.POSIX.getStat(path);
+
+        // changing to the current owner and group is always allowed
+        NativeIO.POSIX.chown(path, stat.getOwner(), stat.getGroup());
+        NativeIO.POSIX.chown(path, null, stat.getGroup());
+        NativeIO.POSIX.chown(path, stat.getOwner(), null);
+        NativeIO.POSIX.Stat after = NativeIO.POSIX.getStat(path);
+        assertEquals(stat.getOwner(), after.getOwner());
+        assertEquals(stat.getGroup(), after.getGroup());
+
+        // as chown(1), a numeric id is accepted
+        String uid = Shell.execCommand("id", "-u").trim();
+        NativeIO.POSIX.chown(path, uid, null);
+        assertEquals(stat.getOwner(), NativeIO.POSIX.getStat(path).getOwner());
+
+        try {
+            NativeIO.POSIX.chown(path, "no-such-user-" + Time.now(), null);
+            fail("Chown to an unknown user didn't fail");
+        } catch (IOException ioe) {
+            GenericTestUtils.assertExceptionContains("user not found", ioe);
+        }
+    }
+
     @Test(timeout = 30000)
     public void testGetUserName() throws IOException {
         if (Path.WINDOWS) {
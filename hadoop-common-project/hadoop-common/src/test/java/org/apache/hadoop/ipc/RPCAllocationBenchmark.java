@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.TestProtoBufRpc.PBServerImpl;
+import org.apache.hadoop.ipc.TestProtoBufRpc.TestRpcService;
+import org.apache.hadoop.ipc.protobuf.TestProtos.EchoRequestProto;
+import org.apache.hadoop.ipc.protobuf.TestRpcServiceProtos.TestProtobufRpcProto;
+import org.apache.hadoop.net.NetUtils;
+
+import com.google.protobuf.BlockingService;
+
+/**
+ * RPCAllocationBenchmark measures the bytes allocated on the heap for each
+ * protobuf RPC call, by the client and the server together.
+ * <p/>
+ * It makes the calls sequentially over one connection to a server in the
+ * same JVM, and sums the bytes allocated by all the threads of the JVM
+ * while they run, as reported by the HotSpot thread MXBean.  The calls echo
+ * a message of the given size.
+ * <p/>
+ * Input arguments:
+ * <ul>
+ * <li>numCalls - number of calls to make</li>
+ * <li>messageSize - size of the echoed message in bytes, 16 by default</li>
+ * </ul>
+ */
+public class RPCAllocationBenchmark {
+    private static final String ADDRESS = "0.0.0.0";
+    private static final int WARMUP_CALLS = 1000;
+
+    private final int numCalls;
+    private final int messageSize;
+
+    RPCAllocationBenchmark(int numCalls, int messageSize) {
+        this.numCalls = numCalls;
+        this.messageSize = messageSize;
+    }
+
+    /**
+     * @return whether the JVM can tell the bytes allocated by a thread
+     */
+    static boolean isSupported() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean)
+                .isThreadAllocatedMemorySupported();
+    }
+
+    /** @return the bytes allocated so far by the live threads of the JVM */
+    private static long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Make the calls.
+     *
+     * @return the average number of bytes allocated by a call
+     */
+    double run() throws Exception {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                    "Thread allocated memory is not supported by this JVM");
+        }
+        Configuration conf = new Configuration();
+        RPC.setProtocolEngine(conf, TestRpcService.class, ProtobufRpcEngine.class);
+        BlockingService service = TestProtobufRpcProto
+                .newReflectiveBlockingService(new PBServerImpl());
+        RPC.Server server = new RPC.Builder(conf).setProtocol(TestRpcService.class)
+                .setInstance(service).setBindAddress(ADDRESS).setPort(0)
+                .setNumHandlers(1).setVerbose(false).build();
+        server.start();
+        TestRpcService proxy = null;
+        try {
+            InetSocketAddress addr = NetUtils.getConnectAddress(server);
+            proxy = RPC.getProxy(TestRpcService.class, 0, addr, conf);
+            StringBuilder message = new StringBuilder(messageSize);
+            for (int i = 0; i < messageSize; i++) {
+                message.append('a');
+            }
+            EchoRequestProto req = EchoRequestProto.newBuilder()
+                    .setMessage(message.toString()).build();
+
+            // connect, and let the JIT compile the call path
+            for (int i = 0; i < WARMUP_CALLS; i++) {
+                proxy.echo(null, req);
+            }
+            long before = getAllocatedBytes();
+            for (int i = 0; i < numCalls; i++) {
+                proxy.echo(null, req);
+            }
+            return (double) (getAllocatedBytes() - before) / numCalls;
+        } finally {
+            RPC.stopProxy(proxy);
+            server.stop();
+        }
+    }
+
+    static void printUsage() {
+        System.err.println(
+                "Usage: RPCAllocationBenchmark <numCalls> [<messageSize>]");
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Benchmark: heap allocation of protobuf RPC calls.");
+        if (args.length < 1)
+            printUsage();
+
+        int count = Integer.parseInt(args[0]);
+        int messageSize = 16;
+        if (args.length > 1)
+            messageSize = Integer.parseInt(args[1]);
+
+        double average = new RPCAllocationBenchmark(count, messageSize).run();
+        System.out.println(org.apache.hadoop.util.VersionInfo.getVersion());
+        System.out.println("Number of calls        : " + count);
+        System.out.println("Message size           : " + messageSize);
+        System.out.println("Average bytes allocated: " + average);
+    }
+}
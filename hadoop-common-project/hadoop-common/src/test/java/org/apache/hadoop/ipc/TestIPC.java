@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.ipc;
 
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -28,9 +30,12 @@
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,6 +63,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
@@ -65,11 +71,17 @@
 import org.apache.hadoop.io.retry.RetryPolicies;
 import org.apache.hadoop.io.retry.RetryProxy;
 import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.ProtobufRpcEngine.RpcRequestMessageWrapper;
 import org.apache.hadoop.ipc.RPC.RpcKind;
 import org.apache.hadoop.ipc.Server.Connection;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto.OperationProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.net.ConnectTimeoutException;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.SaslRpcServer.AuthMethod;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.ProtoUtil;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.log4j.Level;
 import org.junit.Assert;
@@ -895,6 +907,195 @@ private void callAndVerify(Server server, InetSocketAddress addr,
         client.stop();
     }
 
+    @Test(timeout = 60000)
+    public void testSerialWithReceivers() throws IOException, InterruptedException {
+        conf.setInt(CommonConfigurationKeys.IPC_CLIENT_RECEIVER_THREADS_KEY, 2);
+        internalTestSerial(3, false, 2, 5, 100);
+        // long calls, which are pinged
+        internalTestSerial(3, true, 2, 5, 10);
+    }
+
+    @Test(timeout = 60000)
+    public void testSerialWithResponders() throws IOException, InterruptedException {
+        conf.setInt(CommonConfigurationKeys.IPC_SERVER_RESPONDER_THREADS_KEY, 3);
+        // gather a few of the small responses into each write
+        conf.setInt(CommonConfigurationKeys.IPC_SERVER_RESPONSE_GATHER_BYTES_KEY, 100);
+        internalTestSerial(3, false, 2, 5, 100);
+
+        // a client which sends all its calls before reading any response
+        // backs the responses up on the server, which then gathers them
+        Server server = new TestServer(3, false);
+        server.setSocketSendBufSize(1024);
+        InetSocketAddress addr = NetUtils.getConnectAddress(server);
+        server.start();
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(1024);
+        try {
+            NetUtils.connect(socket, addr, 5000);
+            final int numCalls = 2000;
+            writePipelinedCalls(socket.getOutputStream(), numCalls);
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < numCalls; i++) {
+                in.readFully(new byte[in.readInt()]);
+            }
+            MetricsRecordBuilder rb = getMetrics(server.getRpcMetrics().name());
+            long writes = getLongCounter("ResponseWriteCallsNumWrites", rb);
+            assertTrue("Expected responses to be gathered, but " + numCalls
+                    + " responses took " + writes + " writes", writes < numCalls);
+        } finally {
+            IOUtils.closeSocket(socket);
+            server.stop();
+        }
+    }
+
+    /**
+     * Write the connection header and context, followed by the given number
+     * of calls, without waiting for any response.
+     */
+    private static void writePipelinedCalls(OutputStream outStream, int numCalls)
+            throws IOException {
+        DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(outStream));
+        out.write(RpcConstants.HEADER.array());
+        out.write(RpcConstants.CURRENT_VERSION);
+        out.write(0);                                   // service class
+        out.write(Server.AuthProtocol.NONE.callId);
+
+        final byte[] clientId = ClientId.getClientId();
+        RpcRequestMessageWrapper context = new RpcRequestMessageWrapper(
+                ProtoUtil.makeRpcRequestHeader(RpcKind.RPC_PROTOCOL_BUFFER,
+                        OperationProto.RPC_FINAL_PACKET,
+                        RpcConstants.CONNECTION_CONTEXT_CALL_ID,
+                        RpcConstants.INVALID_RETRY_COUNT, clientId),
+                ProtoUtil.makeIpcConnectionContext(null,
+                        UserGroupInformation.getCurrentUser(), AuthMethod.SIMPLE));
+        out.writeInt(context.getLength());
+        context.write(out);
+
+        DataOutputBuffer call = new DataOutputBuffer();
+        for (int i = 0; i < numCalls; i++) {
+            call.reset();
+            ProtoUtil.makeRpcRequestHeader(RpcKind.RPC_BUILTIN,
+                    OperationProto.RPC_FINAL_PACKET, i,
+                    RpcConstants.INVALID_RETRY_COUNT, clientId)
+                    .writeDelimitedTo(call);
+            new LongWritable(i).write(call);
+            out.writeInt(call.getLength());
+            out.write(call.getData(), 0, call.getLength());
+        }
+        out.flush();
+    }
+
+    @Test(timeout = 60000)
+    public void testSerialWithListeners() throws IOException, InterruptedException {
+        conf.setInt(CommonConfigurationKeys.IPC_SERVER_LISTENER_THREADS_KEY, 3);
+        internalTestSerial(3, false, 5, 10, 50);
+    }
+
+    @Test(timeout = 60000)
+    public void testBalancedReaders() throws Exception {
+        conf.setInt(CommonConfigurationKeys.IPC_SERVER_LISTENER_THREADS_KEY, 2);
+        conf.setBoolean(
+                CommonConfigurationKeys.IPC_SERVER_READER_BALANCE_CONNECTIONS_KEY, true);
+        final int numReaders = 3;
+        TestServerQueue server = new TestServerQueue(0, numReaders, 10, 1, conf);
+        // let all the calls through
+        server.callBlockLatch.countDown();
+        server.start();
+        InetSocketAddress addr = NetUtils.getConnectAddress(server);
+        Client[] clients = new Client[2 * numReaders];
+        try {
+            // each client makes a connection of its own, accepted in turn
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new Client(LongWritable.class, conf);
+                clients[i].call(new LongWritable(i), addr, null, null, 0, conf);
+            }
+            for (int connections : server.getReaderConnections()) {
+                assertEquals(2, connections);
+            }
+        } finally {
+            for (Client client : clients) {
+                if (client != null) {
+                    client.stop();
+                }
+            }
+            server.stop();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testReceiversWithManyServers() throws Exception {
+        conf.setInt(CommonConfigurationKeys.IPC_CLIENT_RECEIVER_THREADS_KEY, 1);
+        final int numServers = 5;
+        Server[] servers = new Server[numServers];
+        SerialCaller[] callers = new SerialCaller[numServers];
+        Client client = new Client(LongWritable.class, conf);
+        try {
+            for (int i = 0; i < numServers; i++) {
+                servers[i] = new TestServer(1, false);
+                servers[i].start();
+                callers[i] = new SerialCaller(client,
+                        NetUtils.getConnectAddress(servers[i]), 50);
+                callers[i].start();
+            }
+            for (SerialCaller caller : callers) {
+                caller.join();
+                assertFalse(caller.failed);
+            }
+            assertEquals(numServers, client.getConnectionIds().size());
+            // no connection runs a thread of its own
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                for (SerialCaller caller : callers) {
+                    assertFalse(thread.getName(), thread.getName().contains(
+                            "connection to " + caller.server));
+                }
+            }
+        } finally {
+            client.stop();
+            for (Server server : servers) {
+                if (server != null) {
+                    server.stop();
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testIpcTimeoutWithReceivers() throws IOException {
+        conf.setInt(CommonConfigurationKeys.IPC_CLIENT_RECEIVER_THREADS_KEY, 1);
+        conf.setInt(
+                CommonConfigurationKeysPublic.IPC_CLIENT_CONNECTION_MAXIDLETIME_KEY,
+                500);
+        Server server = new TestServer(1, true);
+        InetSocketAddress addr = NetUtils.getConnectAddress(server);
+        server.start();
+        Client client = new Client(LongWritable.class, conf);
+        try {
+            try {
+                client.call(new LongWritable(RANDOM.nextLong()),
+                        addr, null, null, MIN_SLEEP_TIME / 2, conf);
+                fail("Expected an exception to have been thrown");
+            } catch (SocketTimeoutException e) {
+                LOG.info("Get a SocketTimeoutException ", e);
+            }
+            client.call(new LongWritable(RANDOM.nextLong()),
+                    addr, null, null, 3 * PING_INTERVAL + MIN_SLEEP_TIME, conf);
+
+            // the idle connection is closed
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!client.getConnectionIds().isEmpty()) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            client.stop();
+            server.stop();
+        }
+    }
+
     @Test(timeout = 30000, expected = IOException.class)
     public void testIpcAfterStopping() throws IOException {
         // start server
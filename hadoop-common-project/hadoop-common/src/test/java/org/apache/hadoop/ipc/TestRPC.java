@@ -20,12 +20,19 @@
 
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
 import static org.apache.hadoop.test.MetricsAsserts.assertCounterGt;
+import static org.apache.hadoop.metrics2.lib.Interns.info;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.eqName;
 import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getLongGauge;
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -38,7 +45,10 @@
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.security.PrivilegedExceptionAction;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -57,6 +67,7 @@
 import org.apache.hadoop.io.retry.RetryPolicy;
 import org.apache.hadoop.io.retry.RetryProxy;
 import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.metrics.RpcLatencyMetrics;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
@@ -68,11 +79,13 @@
 import org.apache.hadoop.security.authorize.Service;
 import org.apache.hadoop.security.token.SecretManager;
 import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.MetricsAsserts;
 import org.apache.hadoop.test.MockitoUtil;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
 import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
 
@@ -471,6 +484,9 @@ private void testCallsInternal(Configuration conf) throws IOException {
             assertCounter("RpcProcessingTimeNumOps", 3L, rb);
             assertCounterGt("SentBytes", 0L, rb);
             assertCounterGt("ReceivedBytes", 0L, rb);
+            assertCounter("ResponseWriteBytesNumWrites", 3L, rb);
+            assertCounter("ConnectionsAccepted", 1L, rb);
+            assertGauge("ResponseQueueLength", 0, rb);
 
             // Number of calls to echo method should be 2
             rb = getMetrics(server.rpcDetailedMetrics.name());
@@ -1021,6 +1037,86 @@ public void testRpcMetrics() throws Exception {
         }
     }
 
+    @Test(timeout = 30000)
+    public void testRpcLatencyHistograms() throws Exception {
+        final Configuration configuration = new Configuration();
+        configuration.setBoolean(CommonConfigurationKeys.
+                RPC_METRICS_LATENCY_HISTOGRAMS_ENABLE, true);
+        configuration.setInt(CommonConfigurationKeys.
+                RPC_METRICS_LATENCY_HISTOGRAMS_INTERVAL_KEY, 1);
+        // only the first user gets its own histogram
+        configuration.setInt(CommonConfigurationKeys.
+                RPC_METRICS_LATENCY_HISTOGRAMS_MAX_USERS_KEY, 1);
+        final Server server = new RPC.Builder(configuration)
+                .setProtocol(TestProtocol.class).setInstance(new TestImpl())
+                .setBindAddress(ADDRESS).setPort(0).setNumHandlers(5).setVerbose(true)
+                .build();
+        server.start();
+        final InetSocketAddress addr = server.getListenerAddress();
+        final TestProtocol proxy = RPC.getProxy(TestProtocol.class,
+                TestProtocol.versionID, addr, configuration);
+        try {
+            for (int i = 0; i < 100; i++) {
+                proxy.ping();
+                proxy.echo("" + i);
+            }
+            for (String user : new String[]{"user1", "user2"}) {
+                UserGroupInformation.createRemoteUser(user).doAs(
+                        new PrivilegedExceptionAction<Void>() {
+                            @Override
+                            public Void run() throws IOException {
+                                TestProtocol userProxy = RPC.getProxy(
+                                        TestProtocol.class, TestProtocol.versionID,
+                                        addr, configuration);
+                                try {
+                                    userProxy.ping();
+                                } finally {
+                                    RPC.stopProxy(userProxy);
+                                }
+                                return null;
+                            }
+                        });
+            }
+
+            final String currentUser =
+                    UserGroupInformation.getCurrentUser().getShortUserName();
+            final Set<String> expected = new HashSet<String>();
+            for (String phase : new String[]{RpcLatencyMetrics.QUEUE_TIME,
+                    RpcLatencyMetrics.PROCESSING_TIME,
+                    RpcLatencyMetrics.LOCK_WAIT_TIME,
+                    RpcLatencyMetrics.RESPONSE_TIME}) {
+                expected.add("Ping" + phase + "1sNumOps");
+                expected.add("Echo" + phase + "1sNumOps");
+            }
+            expected.add("User_" + currentUser + "_ProcessingTime1sNumOps");
+            expected.add("User_Others_ProcessingTime1sNumOps");
+
+            // the histograms publish the previous interval, so wait for each
+            // of them to roll over with a non-zero count
+            final String source = server.getRpcLatencyMetrics().name();
+            final Set<String> published = new HashSet<String>();
+            GenericTestUtils.waitFor(new Supplier<Boolean>() {
+                @Override
+                public Boolean get() {
+                    MetricsRecordBuilder rb = getMetrics(source);
+                    for (String name : expected) {
+                        if (getLongGauge(name, rb) > 0) {
+                            published.add(name);
+                        }
+                    }
+                    for (String user : new String[]{"user1", "user2"}) {
+                        verify(rb, never()).addGauge(eqName(info("User_" + user
+                                + "_ProcessingTime1sNumOps", "")), anyLong());
+                    }
+                    return published.containsAll(expected);
+                }
+            }, 100, 20000);
+        } finally {
+            RPC.stopProxy(proxy);
+            server.stop();
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         new TestRPC().testCallsInternal(conf);
 
@@ -22,6 +22,8 @@
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
 import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
 import static org.apache.hadoop.test.MetricsAsserts.mockMetricsRecordBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.eq;
 import static org.mockito.AdditionalMatchers.geq;
 import static org.mockito.AdditionalMatchers.leq;
@@ -236,4 +238,53 @@ public void testMutableQuantilesEmptyRollover() throws Exception {
         verify(mb, times(2)).addGauge(
                 info("FooNumOps", "Number of ops for stat with 5s interval"), (long) 0);
     }
+
+    /**
+     * Test that every value falls in a bucket whose maximum is at most
+     * 1/{@value MutableHistogram#SUB_BUCKETS} above it
+     */
+    @Test
+    public void testMutableHistogramBuckets() {
+        int last = -1;
+        for (long v = 0; v < 100000; v++) {
+            int bucket = MutableHistogram.getBucket(v);
+            long max = MutableHistogram.getBucketMax(bucket);
+            assertTrue(bucket == last || bucket == last + 1);
+            assertTrue(max >= v);
+            assertTrue(max - v <= v / MutableHistogram.SUB_BUCKETS);
+            last = bucket;
+        }
+        assertEquals(MutableHistogram.NUM_BUCKETS - 1,
+                MutableHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    /**
+     * Test the percentiles of a {@link MutableHistogram} and that it only
+     * publishes the values of the last interval
+     */
+    @Test
+    public void testMutableHistogramRollover() {
+        MutableHistogram histogram = new MutableHistogram("foo", "stat", "Ops",
+                "Latency", 60);
+        for (int i = 1; i <= 100; i++) {
+            histogram.add(i);
+        }
+        histogram.rollover();
+        assertEquals(100, histogram.getPreviousCount());
+        for (int i = 0; i < MutableHistogram.PERCENTILES.length; i++) {
+            long p = histogram.getPreviousPercentile(i);
+            assertTrue(p >= MutableHistogram.PERCENTILES[i]);
+            assertTrue(p <= MutableHistogram.PERCENTILES[i] * 9 / 8);
+        }
+        assertEquals(103, histogram.getPreviousMax());
+
+        histogram.rollover();
+        assertEquals(0, histogram.getPreviousCount());
+        assertEquals(0, histogram.getPreviousMax());
+
+        MetricsRecordBuilder mb = mockMetricsRecordBuilder();
+        histogram.snapshot(mb, true);
+        verify(mb).addGauge(
+                info("FooNumOps", "Number of ops for stat with 60s interval"), 0L);
+    }
 }
@@ -53,6 +53,8 @@ else if (info.name().startsWith("Threads"))
                 verify(rb).addGauge(eq(info), anyInt());
             else if (info.name().startsWith("Log"))
                 verify(rb).addCounter(eq(info), anyLong());
+            else if (info.name().startsWith("Shell"))
+                verify(rb).addCounter(eq(info), anyLong());
         }
     }
 }
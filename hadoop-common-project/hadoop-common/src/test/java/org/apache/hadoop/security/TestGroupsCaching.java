@@ -44,6 +44,8 @@
 import org.apache.hadoop.security.Groups;
 import org.apache.hadoop.security.ShellBasedUnixGroupsMapping;
 
+import com.google.common.base.Supplier;
+
 
 public class TestGroupsCaching {
     public static final Log LOG = LogFactory.getLog(TestGroupsCaching.class);
@@ -130,6 +132,48 @@ public void testGroupsCaching() throws Exception {
         assertTrue(groups.getGroups("user1").size() == 2);
     }
 
+    @Test(timeout = 30000)
+    public void testBackgroundReload() throws Exception {
+        final String user = "reloaded";
+        conf.setBoolean(
+                CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_BACKGROUND_RELOAD,
+                true);
+        conf.setLong(CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_SECS, 1);
+        conf.setInt(
+                CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_MAX_CONCURRENT_LOOKUPS, 1);
+        FakeTimer timer = new FakeTimer();
+        final Groups groups = new Groups(conf, timer);
+        groups.cacheGroupsAdd(Arrays.asList(myGroups));
+        groups.refresh();
+        try {
+            assertEquals(2, groups.getGroups(user).size());
+
+            // once expired, the groups are still served while being reloaded
+            FakeGroupMapping.addToBlackList(user);
+            timer.advance(2 * 1000);
+            long staleHits =
+                    UserGroupInformation.metrics.getGroupsCacheStaleHits.value();
+            assertEquals(2, groups.getGroups(user).size());
+            assertEquals(staleHits + 1,
+                    UserGroupInformation.metrics.getGroupsCacheStaleHits.value());
+
+            // the reload finds no groups, and puts the user in the negative cache
+            GenericTestUtils.waitFor(new Supplier<Boolean>() {
+                @Override
+                public Boolean get() {
+                    try {
+                        groups.getGroups(user);
+                        return false;
+                    } catch (IOException e) {
+                        return true;
+                    }
+                }
+            }, 10, 10000);
+        } finally {
+            FakeGroupMapping.clearBlackList();
+        }
+    }
+
     public static class FakeunPrivilegedGroupMapping extends FakeGroupMapping {
         private static boolean invoked = false;
 
@@ -37,6 +37,7 @@
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Method;
+import java.security.AccessController;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
@@ -534,6 +535,47 @@ public <T extends TokenIdentifier> void testGetCredsNotSame()
         assertNotSame(creds, ugi.getCredentials());
     }
 
+    @Test(timeout = 30000)
+    public void testNestedDoAs() throws Exception {
+        final UserGroupInformation outer =
+                UserGroupInformation.createRemoteUser("outer");
+        final UserGroupInformation inner =
+                UserGroupInformation.createProxyUser("inner", outer);
+        outer.doAs(new PrivilegedExceptionAction<Void>() {
+            @Override
+            public Void run() throws Exception {
+                // the user of the doAs itself is current
+                assertSame(outer, UserGroupInformation.getCurrentUser());
+                assertSame(outer.getSubject(),
+                        Subject.getSubject(AccessController.getContext()));
+                inner.doAs(new PrivilegedExceptionAction<Void>() {
+                    @Override
+                    public Void run() throws Exception {
+                        assertSame(inner, UserGroupInformation.getCurrentUser());
+                        return null;
+                    }
+                });
+                assertSame(outer, UserGroupInformation.getCurrentUser());
+                // a doAs of the current user runs the action in place
+                try {
+                    outer.doAs(new PrivilegedExceptionAction<Void>() {
+                        @Override
+                        public Void run() throws Exception {
+                            assertSame(outer, UserGroupInformation.getCurrentUser());
+                            throw new IOException("nested");
+                        }
+                    });
+                    fail("the action should have thrown");
+                } catch (IOException e) {
+                    assertEquals("nested", e.getMessage());
+                }
+                return null;
+            }
+        });
+        assertEquals(UserGroupInformation.getLoginUser(),
+                UserGroupInformation.getCurrentUser());
+    }
+
 
     private void checkTokens(UserGroupInformation ugi, Token<?>... tokens) {
         // check the ugi's token collection
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.security;
+
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.security.SaslRpcServer.AuthMethod;
+
+/**
+ * UGIBenchmark measures the cost of the user handling an RPC server does
+ * for each call, without the network and the call itself.
+ * <p/>
+ * Each thread stands for a handler serving calls of several connections.
+ * A connection creates its remote user once; every call then runs as that
+ * user through {@link UserGroupInformation#doAs}, and looks up the current
+ * user, its short name and the login user, as the services do to check
+ * permissions.
+ * <p/>
+ * Input arguments:
+ * <ul>
+ * <li>numCalls - number of calls made by each thread</li>
+ * <li>numThreads - number of threads, 1 by default</li>
+ * <li>callsPerConnection - number of calls before a new connection is
+ * made, 1000 by default</li>
+ * </ul>
+ */
+public class UGIBenchmark {
+    private static final String USER_PREFIX = "benchUser";
+
+    private final int numCalls;
+    private final int numThreads;
+    private final int callsPerConnection;
+
+    UGIBenchmark(int numCalls, int numThreads, int callsPerConnection) {
+        this.numCalls = numCalls;
+        this.numThreads = numThreads;
+        this.callsPerConnection = callsPerConnection;
+    }
+
+    /**
+     * Run the calls on all the threads.
+     *
+     * @return the average time of a call in nanoseconds
+     */
+    double run() throws Exception {
+        UserGroupInformation.getLoginUser();
+        final AtomicLong elapsed = new AtomicLong();
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final String user = USER_PREFIX + i;
+            threads[i] = new Thread("UGIBenchmark-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        elapsed.addAndGet(makeCalls(user));
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new IOException("Benchmark thread failed", failure[0]);
+            }
+        }
+        return (double) elapsed.get() / ((long) numCalls * numThreads);
+    }
+
+    private long makeCalls(final String user) throws Exception {
+        final PrivilegedExceptionAction<String> call =
+                new PrivilegedExceptionAction<String>() {
+                    @Override
+                    public String run() throws IOException {
+                        UserGroupInformation current =
+                                UserGroupInformation.getCurrentUser();
+                        UserGroupInformation.getLoginUser();
+                        return current.getShortUserName();
+                    }
+                };
+        UserGroupInformation ugi = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < numCalls; i++) {
+            if (i % callsPerConnection == 0) {
+                ugi = UserGroupInformation.createRemoteUser(user, AuthMethod.SIMPLE);
+            }
+            if (!user.equals(ugi.doAs(call))) {
+                throw new IOException("Call did not run as " + user);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    static void printUsage() {
+        System.err.println(
+                "Usage: UGIBenchmark <numCalls> [<numThreads> [<callsPerConnection>]]");
+        System.exit(-1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Benchmark: user handling of RPC calls.");
+        if (args.length < 1)
+            printUsage();
+
+        int count = Integer.parseInt(args[0]);
+        int threads = 1;
+        if (args.length > 1)
+            threads = Integer.parseInt(args[1]);
+        int callsPerConnection = 1000;
+        if (args.length > 2)
+            callsPerConnection = Integer.parseInt(args[2]);
+
+        UGIBenchmark bench = new UGIBenchmark(count, threads, callsPerConnection);
+        // warm up, then measure
+        new UGIBenchmark(Math.min(count, 100000), threads, callsPerConnection).run();
+        double average = bench.run();
+        System.out.println(org.apache.hadoop.util.VersionInfo.getVersion());
+        System.out.println("Number of threads: " + threads);
+        System.out.println("Calls per thread : " + count);
+        System.out.println("Average call time: " + average + " ns");
+    }
+}
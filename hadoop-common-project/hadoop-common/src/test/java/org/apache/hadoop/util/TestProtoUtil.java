@@ -19,13 +19,16 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.Arrays;
 
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.ipc.ClientId;
 import org.apache.hadoop.ipc.RPC.RpcKind;
 import org.apache.hadoop.ipc.RpcConstants;
@@ -85,4 +88,38 @@ public void testRpcClientId() {
                 RpcConstants.INVALID_RETRY_COUNT, uuid);
         assertTrue(Arrays.equals(uuid, header.getClientId().toByteArray()));
     }
+
+    @Test
+    public void testMergeDelimitedFromBuffer() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        RpcRequestHeaderProto first = ProtoUtil.makeRpcRequestHeader(
+                RpcKind.RPC_PROTOCOL_BUFFER, OperationProto.RPC_FINAL_PACKET, 1,
+                RpcConstants.INVALID_RETRY_COUNT, ClientId.getClientId());
+        RpcRequestHeaderProto second = ProtoUtil.makeRpcRequestHeader(
+                RpcKind.RPC_PROTOCOL_BUFFER, OperationProto.RPC_FINAL_PACKET, 2,
+                RpcConstants.INVALID_RETRY_COUNT, ClientId.getClientId());
+        first.writeDelimitedTo(baos);
+        second.writeDelimitedTo(baos);
+        byte[] data = baos.toByteArray();
+
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(data, data.length);
+        RpcRequestHeaderProto.Builder builder = RpcRequestHeaderProto.newBuilder();
+        ProtoUtil.mergeDelimitedFrom(builder, in);
+        assertEquals(first, builder.build());
+        builder = RpcRequestHeaderProto.newBuilder();
+        ProtoUtil.mergeDelimitedFrom(builder, in);
+        assertEquals(second, builder.build());
+        assertEquals(data.length, in.getPosition());
+
+        // a truncated message is not read past the end of the buffer
+        in.reset(data, data.length - 1);
+        ProtoUtil.mergeDelimitedFrom(RpcRequestHeaderProto.newBuilder(), in);
+        try {
+            ProtoUtil.mergeDelimitedFrom(RpcRequestHeaderProto.newBuilder(), in);
+            fail("Read a truncated message");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
 }
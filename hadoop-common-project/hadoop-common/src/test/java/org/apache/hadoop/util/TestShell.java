@@ -66,6 +66,15 @@ public void testInterval() throws IOException {
         testInterval(Time.now() / 60000 + 60); // test a very big interval
     }
 
+    public void testForkCount() throws IOException {
+        long forks = Shell.getForkCount();
+        Command command = new Command(0L);
+        command.run();
+        command.run();
+        // other threads of the JVM may fork too
+        assertTrue(Shell.getForkCount() >= forks + 2);
+    }
+
     /**
      * Assert that a string has a substring in it
      * @param string string to search
@@ -473,6 +473,7 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
                         LOG.debug(this + ": closing stale domain peer " + peer, e);
                     }
                     IOUtils.cleanup(LOG, peer);
+                    clientContext.getPeerCache().evictStale(datanode, true);
                 } else {
                     // Handle an I/O error we got when using a newly created socket.
                     // We temporarily disable the domain socket path for a few minutes in
@@ -617,6 +618,7 @@ private BlockReader getRemoteBlockReaderFromDomain() throws IOException {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Closed potentially stale domain peer " + peer, ioe);
                     }
+                    clientContext.getPeerCache().evictStale(datanode, true);
                 } else {
                     // Handle an I/O error we got when using a newly created domain peer.
                     // We temporarily disable the domain socket path for a few minutes in
@@ -680,6 +682,7 @@ private BlockReader getRemoteBlockReaderFromTcp() throws IOException {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Closed potentially stale remote peer " + peer, ioe);
                     }
+                    clientContext.getPeerCache().evictStale(datanode, false);
                 } else {
                     // Handle an I/O error we got when using a newly created peer.
                     LOG.warn("I/O error constructing remote block reader.", ioe);
@@ -722,6 +725,7 @@ private BlockReaderPeer nextDomainPeer() {
         DomainSocket sock = clientContext.getDomainSocketFactory().
                 createSocket(pathInfo, conf.socketTimeout);
         if (sock == null) return null;
+        clientContext.getPeerCache().peerCreated();
         return new BlockReaderPeer(new DomainPeer(sock), false);
     }
 
@@ -749,6 +753,7 @@ private BlockReaderPeer nextTcpPeer() throws IOException {
             if (LOG.isTraceEnabled()) {
                 LOG.trace("nextTcpPeer: created newConnectedPeer " + peer);
             }
+            clientContext.getPeerCache().peerCreated();
             return new BlockReaderPeer(peer, false);
         } catch (IOException e) {
             if (LOG.isTraceEnabled()) {
@@ -70,6 +70,11 @@ public class ClientContext {
      */
     private final DomainSocketFactory domainSocketFactory;
 
+    /**
+     * Tracks the read latency of each DataNode for hedged reads.
+     */
+    private final DatanodeLatencyTracker datanodeLatencyTracker;
+
     /**
      * True if we should use the legacy BlockReaderLocal.
      */
@@ -101,10 +106,16 @@ private ClientContext(String name, Conf conf) {
                 conf.shortCircuitMmapCacheRetryTimeout,
                 conf.shortCircuitCacheStaleThresholdMs,
                 conf.shortCircuitSharedMemoryWatcherInterruptCheckMs);
-        this.peerCache =
-                new PeerCache(conf.socketCacheCapacity, conf.socketCacheExpiry);
+        this.peerCache = new PeerCache(conf.socketCacheCapacity,
+                conf.socketCacheExpiry, conf.socketCacheMaxIdlePerHost,
+                conf.socketCacheMaxDrainBytes);
         this.useLegacyBlockReaderLocal = conf.useLegacyBlockReaderLocal;
         this.domainSocketFactory = new DomainSocketFactory(conf);
+        this.datanodeLatencyTracker = new DatanodeLatencyTracker(
+                conf.hedgedReadAdaptive,
+                conf.hedgedReadAdaptivePercentile,
+                conf.hedgedReadAdaptiveMinSamples,
+                conf.hedgedReadSlowNodeFactor);
     }
 
     public static String confAsString(Conf conf) {
@@ -125,6 +136,10 @@ public static String confAsString(Conf conf) {
                 append(conf.socketCacheCapacity).
                 append(", socketCacheExpiry = ").
                 append(conf.socketCacheExpiry).
+                append(", socketCacheMaxIdlePerHost = ").
+                append(conf.socketCacheMaxIdlePerHost).
+                append(", socketCacheMaxDrainBytes = ").
+                append(conf.socketCacheMaxDrainBytes).
                 append(", shortCircuitLocalReads = ").
                 append(conf.shortCircuitLocalReads).
                 append(", useLegacyBlockReaderLocal = ").
@@ -132,7 +147,15 @@ public static String confAsString(Conf conf) {
                 append(", domainSocketDataTraffic = ").
                 append(conf.domainSocketDataTraffic).
                 append(", shortCircuitSharedMemoryWatcherInterruptCheckMs = ").
-                append(conf.shortCircuitSharedMemoryWatcherInterruptCheckMs);
+                append(conf.shortCircuitSharedMemoryWatcherInterruptCheckMs).
+                append(", hedgedReadAdaptive = ").
+                append(conf.hedgedReadAdaptive).
+                append(", hedgedReadAdaptivePercentile = ").
+                append(conf.hedgedReadAdaptivePercentile).
+                append(", hedgedReadAdaptiveMinSamples = ").
+                append(conf.hedgedReadAdaptiveMinSamples).
+                append(", hedgedReadSlowNodeFactor = ").
+                append(conf.hedgedReadSlowNodeFactor);
 
         return builder.toString();
     }
@@ -204,4 +227,8 @@ public void setDisableLegacyBlockReaderLocal() {
     public DomainSocketFactory getDomainSocketFactory() {
         return domainSocketFactory;
     }
+
+    public DatanodeLatencyTracker getDatanodeLatencyTracker() {
+        return datanodeLatencyTracker;
+    }
 }
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of the file statuses, first listing pages and block locations the
+ * NameNode returned to a {@link DFSClient}, so that repeated lookups of the
+ * same paths within a short time do not reach the NameNode.
+ * <p/>
+ * Entries expire after a fixed time, so changes made by other clients are
+ * seen after at most that long.  The changes the client makes itself
+ * invalidate the affected entries at once, and the files the client is
+ * writing are not cached, since their length changes as they are written.
+ */
+@InterfaceAudience.Private
+public class ClientMetadataCache {
+    private final Cache<String, HdfsFileStatus> statuses;
+    private final Cache<String, DirectoryListing> listings;
+    private final Cache<String, LocatedBlocks> blocks;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param ttlMs      how long an entry is used
+     * @param maxEntries the maximum number of entries of each kind
+     */
+    public ClientMetadataCache(long ttlMs, int maxEntries) {
+        this.statuses = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .build();
+        this.listings = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .build();
+        this.blocks = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    private <V> V lookup(Cache<String, V> cache, String key) {
+        V value = cache.getIfPresent(key);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @return the cached status of the path, or null
+     */
+    public HdfsFileStatus getFileInfo(String src) {
+        return lookup(statuses, src);
+    }
+
+    public void putFileInfo(String src, HdfsFileStatus status) {
+        statuses.put(src, status);
+    }
+
+    private static String listingKey(String src, boolean needLocation) {
+        return needLocation ? src + "\u0000locations" : src;
+    }
+
+    /**
+     * @return the cached first page of the listing of the directory, or null
+     */
+    public DirectoryListing getListing(String src, boolean needLocation) {
+        return lookup(listings, listingKey(src, needLocation));
+    }
+
+    public void putListing(String src, boolean needLocation,
+                           DirectoryListing listing) {
+        listings.put(listingKey(src, needLocation), listing);
+    }
+
+    /**
+     * @return a copy of the cached locations of the first blocks of the
+     * file, or null.  Streams modify the locations they are given, so each
+     * gets its own copy.
+     */
+    public LocatedBlocks getBlockLocations(String src) {
+        LocatedBlocks cached = lookup(blocks, src);
+        return cached == null ? null : copy(cached);
+    }
+
+    public void putBlockLocations(String src, LocatedBlocks locations) {
+        blocks.put(src, copy(locations));
+    }
+
+    private static LocatedBlocks copy(LocatedBlocks locations) {
+        return new LocatedBlocks(locations.getFileLength(),
+                locations.isUnderConstruction(),
+                new ArrayList<LocatedBlock>(locations.getLocatedBlocks()),
+                locations.getLastLocatedBlock(),
+                locations.isLastBlockComplete());
+    }
+
+    private static String getParent(String src) {
+        final int slash = src.lastIndexOf(Path.SEPARATOR_CHAR);
+        if (slash < 0 || src.length() == 1) {
+            return null;
+        }
+        return slash == 0 ? Path.SEPARATOR : src.substring(0, slash);
+    }
+
+    private void invalidateEntry(String src) {
+        statuses.invalidate(src);
+        listings.invalidate(listingKey(src, false));
+        listings.invalidate(listingKey(src, true));
+        blocks.invalidate(src);
+    }
+
+    /**
+     * Drop the entries of the path, and the listing of its parent.
+     */
+    public void invalidate(String src) {
+        invalidations.incrementAndGet();
+        invalidateEntry(src);
+        final String parent = getParent(src);
+        if (parent != null) {
+            listings.invalidate(listingKey(parent, false));
+            listings.invalidate(listingKey(parent, true));
+        }
+    }
+
+    /**
+     * Drop only the cached block locations of the file, e.g. after a stream
+     * found them to be stale.
+     */
+    public void invalidateBlockLocations(String src) {
+        invalidations.incrementAndGet();
+        blocks.invalidate(src);
+    }
+
+    /**
+     * Drop the entries of the path, of the paths below it, and of all its
+     * ancestors, e.g. after a directory is renamed, deleted, or created with
+     * its parents.
+     */
+    public void invalidateTree(String src) {
+        invalidate(src);
+        for (String ancestor = getParent(src); ancestor != null;
+             ancestor = getParent(ancestor)) {
+            invalidateEntry(ancestor);
+        }
+        final String prefix = src.endsWith(Path.SEPARATOR) ? src
+                : src + Path.SEPARATOR;
+        removeDescendants(statuses, prefix);
+        removeDescendants(listings, prefix);
+        removeDescendants(blocks, prefix);
+    }
+
+    private static void removeDescendants(Cache<String, ?> cache,
+                                          String prefix) {
+        for (Iterator<String> it = cache.asMap().keySet().iterator();
+             it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /** @return the number of lookups answered from the cache */
+    public long getHits() {
+        return hits.longValue();
+    }
+
+    /** @return the number of lookups which had to go to the NameNode */
+    public long getMisses() {
+        return misses.longValue();
+    }
+
+    /** @return the number of paths invalidated by changes of this client */
+    public long getInvalidations() {
+        return invalidations.longValue();
+    }
+}
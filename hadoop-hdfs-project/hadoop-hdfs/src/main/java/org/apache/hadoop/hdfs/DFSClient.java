@@ -52,6 +52,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_CAPACITY_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_MAX_DRAIN_BYTES_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_MAX_DRAIN_BYTES_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_MAX_IDLE_PER_HOST_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_MAX_IDLE_PER_HOST_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_SOCKET_TIMEOUT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_USE_DN_HOSTNAME;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_USE_DN_HOSTNAME_DEFAULT;
@@ -84,6 +88,9 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -166,6 +173,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.BlockOpResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpBlockChecksumResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.apache.hadoop.hdfs.protocolPB.ClientNamenodeProtocolTranslatorPB;
 import org.apache.hadoop.hdfs.protocolPB.PBHelper;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
 import org.apache.hadoop.hdfs.security.token.block.DataEncryptionKey;
@@ -185,6 +193,8 @@
 import org.apache.hadoop.ipc.Client;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.net.DNS;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
@@ -203,6 +213,11 @@
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 /********************************************************
  * DFSClient can connect to a Hadoop Filesystem and 
@@ -245,10 +260,14 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
     private final CachingStrategy defaultReadCachingStrategy;
     private final CachingStrategy defaultWriteCachingStrategy;
     private final ClientContext clientContext;
+    /** The cache of NameNode metadata, or null if disabled. */
+    private final ClientMetadataCache metadataCache;
     private volatile long hedgedReadThresholdMillis;
     private static final DFSHedgedReadMetrics HEDGED_READ_METRIC =
             new DFSHedgedReadMetrics();
     private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
+    private static ThreadPoolExecutor VECTORED_READ_THREAD_POOL;
+    private static ListeningExecutorService ASYNC_THREAD_POOL;
 
     /**
      * DFSClient configuration
@@ -268,6 +287,8 @@ public static class Conf {
         final int socketTimeout;
         final int socketCacheCapacity;
         final long socketCacheExpiry;
+        final int socketCacheMaxIdlePerHost;
+        final long socketCacheMaxDrainBytes;
         final long excludedNodesCacheExpiry;
         /** Wait time window (in msec) if BlockMissingException is caught */
         final int timeWindow;
@@ -305,6 +326,18 @@ public static class Conf {
         final long shortCircuitMmapCacheRetryTimeout;
         final long shortCircuitCacheStaleThresholdMs;
 
+        final int vectoredReadMinSeekSize;
+        final int vectoredReadMaxMergedSize;
+
+        final boolean hedgedReadAdaptive;
+        final float hedgedReadAdaptivePercentile;
+        final int hedgedReadAdaptiveMinSamples;
+        final float hedgedReadSlowNodeFactor;
+
+        final boolean metadataCacheEnabled;
+        final long metadataCacheTtlMs;
+        final int metadataCacheMaxEntries;
+
         public Conf(Configuration conf) {
             // The hdfsTimeout is currently the same as the ipc timeout
             hdfsTimeout = Client.getTimeout(conf);
@@ -344,6 +377,12 @@ public Conf(Configuration conf) {
                     DFS_CLIENT_SOCKET_CACHE_CAPACITY_DEFAULT);
             socketCacheExpiry = conf.getLong(DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY,
                     DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_DEFAULT);
+            socketCacheMaxIdlePerHost = conf.getInt(
+                    DFS_CLIENT_SOCKET_CACHE_MAX_IDLE_PER_HOST_KEY,
+                    DFS_CLIENT_SOCKET_CACHE_MAX_IDLE_PER_HOST_DEFAULT);
+            socketCacheMaxDrainBytes = conf.getLong(
+                    DFS_CLIENT_SOCKET_CACHE_MAX_DRAIN_BYTES_KEY,
+                    DFS_CLIENT_SOCKET_CACHE_MAX_DRAIN_BYTES_DEFAULT);
             excludedNodesCacheExpiry = conf.getLong(
                     DFS_CLIENT_WRITE_EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL,
                     DFS_CLIENT_WRITE_EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_DEFAULT);
@@ -438,6 +477,36 @@ public Conf(Configuration conf) {
                     DFSConfigKeys.DFS_SHORT_CIRCUIT_SHARED_MEMORY_WATCHER_INTERRUPT_CHECK_MS,
                     DFSConfigKeys.DFS_SHORT_CIRCUIT_SHARED_MEMORY_WATCHER_INTERRUPT_CHECK_MS_DEFAULT);
 
+            vectoredReadMinSeekSize = conf.getInt(
+                    DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE_KEY,
+                    DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE_DEFAULT);
+            vectoredReadMaxMergedSize = conf.getInt(
+                    DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE_KEY,
+                    DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE_DEFAULT);
+
+            hedgedReadAdaptive = conf.getBoolean(
+                    DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_ADAPTIVE_ENABLED,
+                    DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_ADAPTIVE_ENABLED);
+            hedgedReadAdaptivePercentile = conf.getFloat(
+                    DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_ADAPTIVE_PERCENTILE,
+                    DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_ADAPTIVE_PERCENTILE);
+            hedgedReadAdaptiveMinSamples = conf.getInt(
+                    DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_ADAPTIVE_MIN_SAMPLES,
+                    DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_ADAPTIVE_MIN_SAMPLES);
+            hedgedReadSlowNodeFactor = conf.getFloat(
+                    DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_SLOW_NODE_FACTOR,
+                    DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_SLOW_NODE_FACTOR);
+
+            metadataCacheEnabled = conf.getBoolean(
+                    DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_ENABLED_KEY,
+                    DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_ENABLED_DEFAULT);
+            metadataCacheTtlMs = conf.getLong(
+                    DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_TTL_MS_KEY,
+                    DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_TTL_MS_DEFAULT);
+            metadataCacheMaxEntries = conf.getInt(
+                    DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_KEY,
+                    DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_DEFAULT);
+
             datanodeRestartTimeout = conf.getLong(
                     DFS_CLIENT_DATANODE_RESTART_TIMEOUT_KEY,
                     DFS_CLIENT_DATANODE_RESTART_TIMEOUT_DEFAULT) * 1000;
@@ -634,6 +703,10 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
         this.clientContext = ClientContext.get(
                 conf.get(DFS_CLIENT_CONTEXT, DFS_CLIENT_CONTEXT_DEFAULT),
                 dfsClientConf);
+        this.metadataCache = dfsClientConf.metadataCacheEnabled
+                ? new ClientMetadataCache(dfsClientConf.metadataCacheTtlMs,
+                dfsClientConf.metadataCacheMaxEntries)
+                : null;
         this.hedgedReadThresholdMillis = conf.getLong(
                 DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS,
                 DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS);
@@ -643,6 +716,12 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
         if (numThreads > 0) {
             this.initThreadsNumForHedgedReads(numThreads);
         }
+        this.initThreadsNumForVectoredReads(conf.getInt(
+                DFSConfigKeys.DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE_KEY,
+                DFSConfigKeys.DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE_DEFAULT));
+        this.initThreadsNumForAsync(conf.getInt(
+                DFSConfigKeys.DFS_CLIENT_ASYNC_THREADPOOL_SIZE_KEY,
+                DFSConfigKeys.DFS_CLIENT_ASYNC_THREADPOOL_SIZE_DEFAULT));
         this.saslClient = new SaslDataTransferClient(
                 DataTransferSaslUtil.getSaslPropertiesResolver(conf),
                 TrustedChannelResolver.getInstance(conf),
@@ -790,6 +869,13 @@ void removeFileBeingWritten(final long inodeId) {
         }
     }
 
+    /** Is the file being written by this client? */
+    boolean isFileBeingWritten(final long inodeId) {
+        synchronized (filesBeingWritten) {
+            return filesBeingWritten.containsKey(inodeId);
+        }
+    }
+
     /** Is file-being-written map empty? */
     boolean isFilesBeingWrittenEmpty() {
         synchronized (filesBeingWritten) {
@@ -1148,7 +1234,20 @@ public LocatedBlocks getLocatedBlocks(String src, long start)
     @VisibleForTesting
     public LocatedBlocks getLocatedBlocks(String src, long start, long length)
             throws IOException {
-        return callGetBlockLocations(namenode, src, start, length);
+        // only the locations fetched when a file is opened are cached
+        final boolean cacheable = metadataCache != null && start == 0
+                && length == dfsClientConf.prefetchSize;
+        if (cacheable) {
+            LocatedBlocks cached = metadataCache.getBlockLocations(src);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        LocatedBlocks blocks = callGetBlockLocations(namenode, src, start, length);
+        if (cacheable && blocks != null && !blocks.isUnderConstruction()) {
+            metadataCache.putBlockLocations(src, blocks);
+        }
+        return blocks;
     }
 
     /**
@@ -1181,6 +1280,8 @@ boolean recoverLease(String src) throws IOException {
             throw re.unwrapRemoteException(FileNotFoundException.class,
                     AccessControlException.class,
                     UnresolvedPathException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -1484,16 +1585,43 @@ public DFSOutputStream create(String src,
         final DFSOutputStream result = DFSOutputStream.newStreamForCreate(this,
                 src, masked, flag, createParent, replication, blockSize, progress,
                 buffersize, dfsClientConf.createChecksum(checksumOpt), favoredNodeStrs);
+        invalidateCachedTree(src);
         beginFileLease(result.getFileId(), result);
         return result;
     }
 
+    /**
+     * Create a new file which is written through several concurrent
+     * pipelines, one block per pipeline.  See {@link ParallelDFSOutputStream}
+     * for the limitations of such a stream.
+     *
+     * @param numStreams the number of blocks written concurrently
+     */
+    public ParallelDFSOutputStream createParallel(String src,
+                                                  FsPermission permission,
+                                                  boolean overwrite,
+                                                  short replication,
+                                                  long blockSize,
+                                                  Progressable progress,
+                                                  int buffersize,
+                                                  int numStreams) throws IOException {
+        checkOpen();
+        if (permission == null) {
+            permission = FsPermission.getFileDefault();
+        }
+        return new ParallelDFSOutputStream(this, src, permission,
+                overwrite ? EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE)
+                        : EnumSet.of(CreateFlag.CREATE),
+                replication, blockSize, progress, buffersize, numStreams);
+    }
+
     /**
      * Append to an existing file if {@link CreateFlag#APPEND} is present
      */
     private DFSOutputStream primitiveAppend(String src, EnumSet<CreateFlag> flag,
                                             int buffersize, Progressable progress) throws IOException {
         if (flag.contains(CreateFlag.APPEND)) {
+            invalidateCachedMetadata(src);
             HdfsFileStatus stat = getFileInfo(src);
             if (stat == null) { // No file to append to
                 // New file needs to be created if create option is present
@@ -1532,6 +1660,7 @@ public DFSOutputStream primitiveCreate(String src,
                     flag, createParent, replication, blockSize, progress, buffersize,
                     checksum);
         }
+        invalidateCachedTree(src);
         beginFileLease(result.getFileId(), result);
         return result;
     }
@@ -1556,6 +1685,8 @@ public void createSymlink(String target, String link, boolean createParent)
                     DSQuotaExceededException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedTree(link);
         }
     }
 
@@ -1614,6 +1745,7 @@ public HdfsDataOutputStream append(final String src, final int buffersize,
     private DFSOutputStream append(String src, int buffersize, Progressable progress)
             throws IOException {
         checkOpen();
+        invalidateCachedMetadata(src);
         HdfsFileStatus stat = getFileInfo(src);
         if (stat == null) { // No file found
             throw new FileNotFoundException("failed to append to non-existent file "
@@ -1642,6 +1774,8 @@ public boolean setReplication(String src, short replication)
                     DSQuotaExceededException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -1661,6 +1795,9 @@ public boolean rename(String src, String dst) throws IOException {
                     DSQuotaExceededException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedTree(src);
+            invalidateCachedTree(dst);
         }
     }
 
@@ -1676,6 +1813,11 @@ public void concat(String trg, String[] srcs) throws IOException {
             throw re.unwrapRemoteException(AccessControlException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedMetadata(trg);
+            for (String src : srcs) {
+                invalidateCachedMetadata(src);
+            }
         }
     }
 
@@ -1698,6 +1840,9 @@ public void rename(String src, String dst, Options.Rename... options)
                     NSQuotaExceededException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedTree(src);
+            invalidateCachedTree(dst);
         }
     }
 
@@ -1708,7 +1853,11 @@ public void rename(String src, String dst, Options.Rename... options)
     @Deprecated
     public boolean delete(String src) throws IOException {
         checkOpen();
-        return namenode.delete(src, true);
+        try {
+            return namenode.delete(src, true);
+        } finally {
+            invalidateCachedTree(src);
+        }
     }
 
     /**
@@ -1728,6 +1877,8 @@ public boolean delete(String src, boolean recursive) throws IOException {
                     SafeModeException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedTree(src);
         }
     }
 
@@ -1760,8 +1911,22 @@ public DirectoryListing listPaths(String src, byte[] startAfter,
                                       boolean needLocation)
             throws IOException {
         checkOpen();
+        // only the first page of a listing is cached
+        final boolean cacheable = metadataCache != null
+                && startAfter.length == 0;
+        if (cacheable) {
+            DirectoryListing cached = metadataCache.getListing(src, needLocation);
+            if (cached != null) {
+                return cached;
+            }
+        }
         try {
-            return namenode.getListing(src, startAfter, needLocation);
+            DirectoryListing listing =
+                    namenode.getListing(src, startAfter, needLocation);
+            if (cacheable && listing != null && !isAnyBeingWritten(listing)) {
+                metadataCache.putListing(src, needLocation, listing);
+            }
+            return listing;
         } catch (RemoteException re) {
             throw re.unwrapRemoteException(AccessControlException.class,
                     FileNotFoundException.class,
@@ -1779,8 +1944,19 @@ public DirectoryListing listPaths(String src, byte[] startAfter,
      */
     public HdfsFileStatus getFileInfo(String src) throws IOException {
         checkOpen();
+        if (metadataCache != null) {
+            HdfsFileStatus cached = metadataCache.getFileInfo(src);
+            if (cached != null) {
+                return cached;
+            }
+        }
         try {
-            return namenode.getFileInfo(src);
+            HdfsFileStatus status = namenode.getFileInfo(src);
+            if (metadataCache != null && status != null
+                    && !isFileBeingWritten(status.getFileId())) {
+                metadataCache.putFileInfo(src, status);
+            }
+            return status;
         } catch (RemoteException re) {
             throw re.unwrapRemoteException(AccessControlException.class,
                     FileNotFoundException.class,
@@ -2122,6 +2298,8 @@ public void setPermission(String src, FsPermission permission)
                     SafeModeException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2144,6 +2322,8 @@ public void setOwner(String src, String username, String groupname)
                     SafeModeException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2556,6 +2736,8 @@ public boolean primitiveMkdir(String src, FsPermission absPermission,
                     DSQuotaExceededException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedTree(src);
         }
     }
 
@@ -2617,6 +2799,8 @@ public void setTimes(String src, long mtime, long atime) throws IOException {
                     FileNotFoundException.class,
                     UnresolvedPathException.class,
                     SnapshotAccessControlException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2678,6 +2862,8 @@ public void modifyAclEntries(String src, List<AclEntry> aclSpec)
                     SafeModeException.class,
                     SnapshotAccessControlException.class,
                     UnresolvedPathException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2694,6 +2880,8 @@ public void removeAclEntries(String src, List<AclEntry> aclSpec)
                     SafeModeException.class,
                     SnapshotAccessControlException.class,
                     UnresolvedPathException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2709,6 +2897,8 @@ public void removeDefaultAcl(String src) throws IOException {
                     SafeModeException.class,
                     SnapshotAccessControlException.class,
                     UnresolvedPathException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2724,6 +2914,8 @@ public void removeAcl(String src) throws IOException {
                     SafeModeException.class,
                     SnapshotAccessControlException.class,
                     UnresolvedPathException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2739,6 +2931,8 @@ public void setAcl(String src, List<AclEntry> aclSpec) throws IOException {
                     SafeModeException.class,
                     SnapshotAccessControlException.class,
                     UnresolvedPathException.class);
+        } finally {
+            invalidateCachedMetadata(src);
         }
     }
 
@@ -2908,6 +3102,275 @@ public void rejectedExecution(Runnable runnable,
         }
     }
 
+    /**
+     * Create the vectored reads thread pool, VECTORED_READ_THREAD_POOL, if
+     * it does not already exist.  When all the threads are busy, the reads
+     * run in the calling thread.
+     * @param num Number of threads for vectored reads thread pool.
+     * If zero, vectored reads run in the calling thread.
+     */
+    private static synchronized void initThreadsNumForVectoredReads(int num) {
+        if (num <= 0 || VECTORED_READ_THREAD_POOL != null) return;
+        VECTORED_READ_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new Daemon.DaemonFactory() {
+                    private final AtomicInteger threadIndex =
+                            new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = super.newThread(r);
+                        t.setName("vectoredRead-" +
+                                threadIndex.getAndIncrement());
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        VECTORED_READ_THREAD_POOL.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a vectored read task in the vectored reads thread pool, or in the
+     * calling thread if there is no pool.
+     */
+    void executeVectoredRead(Runnable task) {
+        if (VECTORED_READ_THREAD_POOL != null) {
+            VECTORED_READ_THREAD_POOL.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Create the thread pool for the asynchronous calls which can not avoid
+     * blocking, ASYNC_THREAD_POOL, if it does not exist yet.
+     *
+     * @param num Number of threads.  If zero, such calls run in the caller.
+     */
+    private static synchronized void initThreadsNumForAsync(int num) {
+        if (num <= 0 || ASYNC_THREAD_POOL != null) return;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(num, num, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new Daemon.DaemonFactory() {
+                    private final AtomicInteger threadIndex =
+                            new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = super.newThread(r);
+                        t.setName("dfsClientAsync-" +
+                                threadIndex.getAndIncrement());
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        ASYNC_THREAD_POOL = MoreExecutors.listeningDecorator(pool);
+    }
+
+    /**
+     * Run a blocking task of an asynchronous call in the async thread pool.
+     */
+    <T> ListenableFuture<T> submitAsync(Callable<T> task) {
+        if (ASYNC_THREAD_POOL != null) {
+            return ASYNC_THREAD_POOL.submit(task);
+        }
+        try {
+            return Futures.immediateFuture(task.call());
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * A call to the namenode, made by an asynchronous method.
+     */
+    private interface NamenodeCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Make a namenode call without waiting for its response.  The namenode
+     * proxy returns at once in asynchronous mode, and the response completes
+     * the future from the IPC connection's thread.  If the namenode proxy
+     * does not support asynchronous calls, or there is no async thread pool
+     * to retry calls in, the call completes before this returns.
+     * <p/>
+     * The retry and failover policy of the namenode proxy only sees the
+     * request being sent, not the response.  A call the namenode refuses
+     * with a {@link StandbyException} or {@link RetriableException} is
+     * therefore made again the blocking way in the async thread pool, so
+     * that the proxy fails over or retries it as it does any other call.
+     *
+     * @param unwrap the remote exceptions to unwrap
+     */
+    private <T> ListenableFuture<T> callNamenodeAsync(final NamenodeCall<T> call,
+                                                      final Class<?>... unwrap) throws IOException {
+        checkOpen();
+        if (ASYNC_THREAD_POOL == null) {
+            try {
+                return Futures.immediateFuture(call.call());
+            } catch (RemoteException re) {
+                throw re.unwrapRemoteException(unwrap);
+            }
+        }
+        final T result;
+        final ListenableFuture<T> future;
+        final boolean wasAsync = Client.isAsynchronousMode();
+        Client.setAsynchronousMode(true);
+        try {
+            result = call.call();
+            future = ClientNamenodeProtocolTranslatorPB.getAsyncReturnValue();
+        } catch (RemoteException re) {
+            throw re.unwrapRemoteException(unwrap);
+        } finally {
+            Client.setAsynchronousMode(wasAsync);
+        }
+        if (future == null) {
+            return Futures.immediateFuture(result);
+        }
+
+        final SettableFuture<T> completed = SettableFuture.create();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                Throwable cause;
+                try {
+                    completed.set(future.get());
+                    return;
+                } catch (ExecutionException e) {
+                    cause = e.getCause();
+                } catch (Throwable t) {
+                    cause = t;
+                }
+                if (isStandbyOrRetriable(cause)) {
+                    completeFrom(submitAsync(new Callable<T>() {
+                        @Override
+                        public T call() throws IOException {
+                            return call.call();
+                        }
+                    }), completed, unwrap);
+                } else {
+                    completed.setException(unwrapAsyncException(cause, unwrap));
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return completed;
+    }
+
+    private static boolean isStandbyOrRetriable(Throwable t) {
+        if (!(t instanceof RemoteException)) {
+            return false;
+        }
+        final String className = ((RemoteException) t).getClassName();
+        return StandbyException.class.getName().equals(className)
+                || RetriableException.class.getName().equals(className);
+    }
+
+    private static Throwable unwrapAsyncException(Throwable t,
+                                                   Class<?>... unwrap) {
+        return t instanceof RemoteException
+                ? ((RemoteException) t).unwrapRemoteException(unwrap) : t;
+    }
+
+    /**
+     * Complete a future with the result of another, unwrapping the given
+     * remote exceptions.
+     */
+    private static <T> void completeFrom(
+            final ListenableFuture<T> future, final SettableFuture<T> unwrapped,
+            final Class<?>... unwrap) {
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    unwrapped.set(future.get());
+                } catch (ExecutionException e) {
+                    unwrapped.setException(unwrapAsyncException(e.getCause(), unwrap));
+                } catch (Throwable t) {
+                    unwrapped.setException(t);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Asynchronous version of {@link #getFileInfo(String)}.  The future is
+     * completed by the IPC connection's thread, so its listeners must not
+     * block, or should be given their own executor.
+     */
+    public ListenableFuture<HdfsFileStatus> getFileInfoAsync(final String src)
+            throws IOException {
+        return callNamenodeAsync(new NamenodeCall<HdfsFileStatus>() {
+            @Override
+            public HdfsFileStatus call() throws IOException {
+                return namenode.getFileInfo(src);
+            }
+        }, AccessControlException.class,
+                FileNotFoundException.class,
+                UnresolvedPathException.class);
+    }
+
+    /**
+     * Asynchronous version of {@link #listPaths(String, byte[], boolean)}.
+     * The future is completed by the IPC connection's thread, so its
+     * listeners must not block, or should be given their own executor.
+     */
+    public ListenableFuture<DirectoryListing> listPathsAsync(final String src,
+                                                             final byte[] startAfter, final boolean needLocation)
+            throws IOException {
+        return callNamenodeAsync(new NamenodeCall<DirectoryListing>() {
+            @Override
+            public DirectoryListing call() throws IOException {
+                return namenode.getListing(src, startAfter, needLocation);
+            }
+        }, AccessControlException.class,
+                FileNotFoundException.class,
+                UnresolvedPathException.class);
+    }
+
+    /**
+     * Asynchronous version of {@link #rename(String, String)}.  The future is
+     * completed by the IPC connection's thread, so its listeners must not
+     * block, or should be given their own executor.
+     */
+    public ListenableFuture<Boolean> renameAsync(final String src,
+                                                 final String dst) throws IOException {
+        ListenableFuture<Boolean> result = callNamenodeAsync(new NamenodeCall<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return namenode.rename(src, dst);
+            }
+        }, AccessControlException.class,
+                NSQuotaExceededException.class,
+                DSQuotaExceededException.class,
+                UnresolvedPathException.class,
+                SnapshotAccessControlException.class);
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                invalidateCachedTree(src);
+                invalidateCachedTree(dst);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    /**
+     * Asynchronous version of {@link #open(String, int, boolean)}.  Opening
+     * a file may contact datanodes, so it runs in the async thread pool.
+     */
+    public ListenableFuture<DFSInputStream> openAsync(final String src,
+                                                      final int buffersize, final boolean verifyChecksum)
+            throws IOException {
+        checkOpen();
+        return submitAsync(new Callable<DFSInputStream>() {
+            @Override
+            public DFSInputStream call() throws IOException {
+                return open(src, buffersize, verifyChecksum);
+            }
+        });
+    }
+
     long getHedgedReadTimeout() {
         return this.hedgedReadThresholdMillis;
     }
@@ -2929,4 +3392,52 @@ boolean isHedgedReadsEnabled() {
     DFSHedgedReadMetrics getHedgedReadMetrics() {
         return HEDGED_READ_METRIC;
     }
+
+    /**
+     * @return the cache of NameNode metadata, or null if it is disabled
+     */
+    public ClientMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Drop the cached metadata of the path, after it was changed or found
+     * to be stale.
+     */
+    void invalidateCachedMetadata(String src) {
+        if (metadataCache != null) {
+            metadataCache.invalidate(src);
+        }
+    }
+
+    /**
+     * Drop the cached block locations of the file, after a stream found them
+     * to be stale.
+     */
+    void invalidateCachedBlockLocations(String src) {
+        if (metadataCache != null) {
+            metadataCache.invalidateBlockLocations(src);
+        }
+    }
+
+    /**
+     * Drop the cached metadata of the path, its ancestors and descendants.
+     */
+    private void invalidateCachedTree(String src) {
+        if (metadataCache != null) {
+            metadataCache.invalidateTree(src);
+        }
+    }
+
+    private boolean isAnyBeingWritten(DirectoryListing listing) {
+        if (isFilesBeingWrittenEmpty()) {
+            return false;
+        }
+        for (HdfsFileStatus status : listing.getPartialListing()) {
+            if (isFileBeingWritten(status.getFileId())) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
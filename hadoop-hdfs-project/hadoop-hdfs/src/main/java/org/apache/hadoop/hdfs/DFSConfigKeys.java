@@ -92,12 +92,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
 
     public static final String DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY = "dfs.client.socketcache.expiryMsec";
     public static final long DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_DEFAULT = 3000;
+    public static final String DFS_CLIENT_SOCKET_CACHE_MAX_IDLE_PER_HOST_KEY = "dfs.client.socketcache.max.idle.per.host";
+    public static final int DFS_CLIENT_SOCKET_CACHE_MAX_IDLE_PER_HOST_DEFAULT = 0;
+    public static final String DFS_CLIENT_SOCKET_CACHE_MAX_DRAIN_BYTES_KEY = "dfs.client.socketcache.max.drain.bytes";
+    public static final long DFS_CLIENT_SOCKET_CACHE_MAX_DRAIN_BYTES_DEFAULT = 64 * 1024;
     public static final String DFS_CLIENT_WRITE_EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL = "dfs.client.write.exclude.nodes.cache.expiry.interval.millis";
     public static final long DFS_CLIENT_WRITE_EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_DEFAULT = 10 * 60 * 1000; // 10 minutes, in ms
     public static final String DFS_CLIENT_DATANODE_RESTART_TIMEOUT_KEY = "dfs.client.datanode-restart.timeout";
     public static final long DFS_CLIENT_DATANODE_RESTART_TIMEOUT_DEFAULT = 30;
     public static final String DFS_DATANODE_RESTART_REPLICA_EXPIRY_KEY = "dfs.datanode.restart.replica.expiration";
     public static final long DFS_DATANODE_RESTART_REPLICA_EXPIRY_DEFAULT = 50;
+    public static final String DFS_DATANODE_REPLICA_CACHE_EXPIRY_TIME_MS_KEY = "dfs.datanode.replica.cache.expiry.time.ms";
+    public static final long DFS_DATANODE_REPLICA_CACHE_EXPIRY_TIME_MS_DEFAULT = 5 * 60 * 1000; // 5 minutes
     public static final String DFS_NAMENODE_BACKUP_ADDRESS_KEY = "dfs.namenode.backup.address";
     public static final String DFS_NAMENODE_BACKUP_ADDRESS_DEFAULT = "localhost:50100";
     public static final String DFS_NAMENODE_BACKUP_HTTP_ADDRESS_KEY = "dfs.namenode.backup.http-address";
@@ -123,6 +129,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
     public static final long DFS_DATANODE_MAX_LOCKED_MEMORY_DEFAULT = 0;
     public static final String DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_KEY = "dfs.datanode.fsdatasetcache.max.threads.per.volume";
     public static final int DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_DEFAULT = 4;
+    public static final String DFS_DATANODE_BLOCK_READ_CACHE_CAPACITY_KEY = "dfs.datanode.block.read.cache.capacity";
+    public static final long DFS_DATANODE_BLOCK_READ_CACHE_CAPACITY_DEFAULT = 0;
+    public static final String DFS_DATANODE_BLOCK_READ_CACHE_MAX_BLOCK_SIZE_KEY = "dfs.datanode.block.read.cache.max.block.size";
+    public static final long DFS_DATANODE_BLOCK_READ_CACHE_MAX_BLOCK_SIZE_DEFAULT = 1024 * 1024;
     public static final String DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT =
             "dfs.namenode.path.based.cache.block.map.allocation.percent";
     public static final float DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT_DEFAULT = 0.25f;
@@ -362,6 +372,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
     public static final int DFS_BALANCER_MOVERTHREADS_DEFAULT = 1000;
     public static final String DFS_BALANCER_DISPATCHERTHREADS_KEY = "dfs.balancer.dispatcherThreads";
     public static final int DFS_BALANCER_DISPATCHERTHREADS_DEFAULT = 200;
+    // The most concurrent moves per datanode the balancer and mover may grow to;
+    // if lower, dfs.datanode.balance.max.concurrent.moves is used.
+    public static final String DFS_BALANCER_MAX_CONCURRENT_MOVES_KEY = "dfs.balancer.maxConcurrentMoves";
+    public static final int DFS_BALANCER_MAX_CONCURRENT_MOVES_DEFAULT = 0;
     public static final String DFS_DATANODE_ADDRESS_KEY = "dfs.datanode.address";
     public static final int DFS_DATANODE_DEFAULT_PORT = 50010;
     public static final String DFS_DATANODE_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_DEFAULT_PORT;
@@ -386,6 +400,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
     public static final int DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
     public static final String DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
     public static final int DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 0;
+    public static final String DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND =
+            "dfs.block.scanner.volume.bytes.per.second";
+    public static final long DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT =
+            1024L * 1024L;
+    public static final String DFS_BLOCK_SCANNER_CURSOR_SAVE_INTERVAL_MS_KEY =
+            "dfs.block.scanner.cursor.save.interval.ms";
+    public static final long DFS_BLOCK_SCANNER_CURSOR_SAVE_INTERVAL_MS_DEFAULT =
+            10 * 60 * 1000L; // 10 minutes
     public static final String DFS_DATANODE_TRANSFERTO_ALLOWED_KEY = "dfs.datanode.transferTo.allowed";
     public static final boolean DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT = true;
     public static final String DFS_HEARTBEAT_INTERVAL_KEY = "dfs.heartbeat.interval";
@@ -659,6 +681,56 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
     public static final String DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE =
             "dfs.client.hedged.read.threadpool.size";
     public static final int DEFAULT_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE = 0;
+    public static final String DFS_DFSCLIENT_HEDGED_READ_ADAPTIVE_ENABLED =
+            "dfs.client.hedged.read.adaptive.enabled";
+    public static final boolean DEFAULT_DFSCLIENT_HEDGED_READ_ADAPTIVE_ENABLED =
+            false;
+    public static final String DFS_DFSCLIENT_HEDGED_READ_ADAPTIVE_PERCENTILE =
+            "dfs.client.hedged.read.adaptive.percentile";
+    public static final float DEFAULT_DFSCLIENT_HEDGED_READ_ADAPTIVE_PERCENTILE =
+            95.0f;
+    public static final String DFS_DFSCLIENT_HEDGED_READ_ADAPTIVE_MIN_SAMPLES =
+            "dfs.client.hedged.read.adaptive.min.samples";
+    public static final int DEFAULT_DFSCLIENT_HEDGED_READ_ADAPTIVE_MIN_SAMPLES =
+            20;
+    public static final String DFS_DFSCLIENT_HEDGED_READ_SLOW_NODE_FACTOR =
+            "dfs.client.hedged.read.slow.node.factor";
+    public static final float DEFAULT_DFSCLIENT_HEDGED_READ_SLOW_NODE_FACTOR =
+            3.0f;
+
+    // vectored read properties
+    public static final String DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE_KEY =
+            "dfs.client.vectored.read.threadpool.size";
+    public static final int DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE_DEFAULT = 16;
+    public static final String DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE_KEY =
+            "dfs.client.vectored.read.min.seek.size";
+    public static final int DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE_DEFAULT =
+            64 * 1024;
+    public static final String DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE_KEY =
+            "dfs.client.vectored.read.max.merged.size";
+    public static final int DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE_DEFAULT =
+            1024 * 1024;
+
+    // parallel writes
+    public static final String DFS_CLIENT_PARALLEL_WRITE_STREAMS_KEY =
+            "dfs.client.parallel.write.streams";
+    public static final int DFS_CLIENT_PARALLEL_WRITE_STREAMS_DEFAULT = 4;
+
+    // asynchronous client calls
+    public static final String DFS_CLIENT_ASYNC_THREADPOOL_SIZE_KEY =
+            "dfs.client.async.threadpool.size";
+    public static final int DFS_CLIENT_ASYNC_THREADPOOL_SIZE_DEFAULT = 16;
+
+    // client metadata cache
+    public static final String DFS_CLIENT_METADATA_CACHE_ENABLED_KEY =
+            "dfs.client.metadata.cache.enabled";
+    public static final boolean DFS_CLIENT_METADATA_CACHE_ENABLED_DEFAULT = false;
+    public static final String DFS_CLIENT_METADATA_CACHE_TTL_MS_KEY =
+            "dfs.client.metadata.cache.ttl.ms";
+    public static final long DFS_CLIENT_METADATA_CACHE_TTL_MS_DEFAULT = 5000;
+    public static final String DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_KEY =
+            "dfs.client.metadata.cache.max.entries";
+    public static final int DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_DEFAULT = 10000;
 
     // Slow io warning log threshold settings for dfsclient and datanode.
     public static final String DFS_CLIENT_SLOW_IO_WARNING_THRESHOLD_KEY =
@@ -671,4 +743,15 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
     public static final String DFS_DATANODE_BLOCK_ID_LAYOUT_UPGRADE_THREADS_KEY =
             "dfs.datanode.block.id.layout.upgrade.threads";
     public static final int DFS_DATANODE_BLOCK_ID_LAYOUT_UPGRADE_THREADS = 12;
+    public static final String DFS_DATANODE_VOLUME_INIT_THREADS_KEY =
+            "dfs.datanode.volume.init.threads";
+    public static final int DFS_DATANODE_VOLUME_INIT_THREADS_DEFAULT = 0;
+    public static final String DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY =
+            "dfs.datanode.du.reconcile.interval.ms";
+    public static final long DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_DEFAULT =
+            6 * 60 * 60 * 1000L; // 6 hours
+    public static final String DFS_DATANODE_DISK_CHECK_TIMEOUT_MS_KEY =
+            "dfs.datanode.disk.check.timeout.ms";
+    public static final long DFS_DATANODE_DISK_CHECK_TIMEOUT_MS_DEFAULT =
+            10 * 60 * 1000L; // 10 minutes
 }
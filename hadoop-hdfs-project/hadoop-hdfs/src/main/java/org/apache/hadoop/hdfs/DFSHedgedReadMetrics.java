@@ -28,6 +28,8 @@ public class DFSHedgedReadMetrics {
     public final AtomicLong hedgedReadOps = new AtomicLong();
     public final AtomicLong hedgedReadOpsWin = new AtomicLong();
     public final AtomicLong hedgedReadOpsInCurThread = new AtomicLong();
+    public final AtomicLong hedgedReadSlowNodesSkipped = new AtomicLong();
+    public final AtomicLong hedgedSequentialReadSwitches = new AtomicLong();
 
     public void incHedgedReadOps() {
         hedgedReadOps.incrementAndGet();
@@ -41,6 +43,14 @@ public void incHedgedReadWins() {
         hedgedReadOpsWin.incrementAndGet();
     }
 
+    public void incHedgedReadSlowNodesSkipped() {
+        hedgedReadSlowNodesSkipped.incrementAndGet();
+    }
+
+    public void incHedgedSequentialReadSwitches() {
+        hedgedSequentialReadSwitches.incrementAndGet();
+    }
+
     public long getHedgedReadOps() {
         return hedgedReadOps.longValue();
     }
@@ -52,4 +62,20 @@ public long getHedgedReadOpsInCurThread() {
     public long getHedgedReadWins() {
         return hedgedReadOpsWin.longValue();
     }
+
+    /**
+     * @return the number of reads which went to another DataNode because the
+     * first choice has been consistently slower than the others
+     */
+    public long getHedgedReadSlowNodesSkipped() {
+        return hedgedReadSlowNodesSkipped.longValue();
+    }
+
+    /**
+     * @return the number of times a sequential read moved to another DataNode
+     * after a read took longer than the hedged read threshold
+     */
+    public long getHedgedSequentialReadSwitches() {
+        return hedgedSequentialReadSwitches.longValue();
+    }
 }
@@ -24,6 +24,7 @@
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -50,9 +51,13 @@
 import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.fs.VectoredReadUtils.CombinedRange;
+import org.apache.hadoop.fs.VectoredReadable;
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
@@ -71,8 +76,10 @@
 import org.apache.hadoop.security.token.SecretManager.InvalidToken;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.IdentityHashStore;
+import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /****************************************************************
  * DFSInputStream provides bytes from a named file.  It handles 
@@ -81,7 +88,7 @@
 @InterfaceAudience.Private
 public class DFSInputStream extends FSInputStream
         implements ByteBufferReadable, CanSetDropBehind, CanSetReadahead,
-        HasEnhancedByteBufferAccess {
+        HasEnhancedByteBufferAccess, VectoredReadable {
     @VisibleForTesting
     public static boolean tcpReadsDisabledForTesting = false;
     private long hedgedReadOpsLoopNumForTesting = 0;
@@ -209,6 +216,22 @@ void addZeroCopyBytes(long amt) {
      * parallel accesses to DFSInputStream (through ptreads) properly */
     private final ConcurrentHashMap<DatanodeInfo, DatanodeInfo> deadNodes =
             new ConcurrentHashMap<DatanodeInfo, DatanodeInfo>();
+
+    /**
+     * The node a sequential read should move away from at the next seek,
+     * since a read from it took longer than the hedged read threshold.
+     */
+    private DatanodeInfo slowSequentialNode = null;
+
+    /**
+     * Time and bytes of the sequential reads from the current DataNode not
+     * yet recorded in the latency tracker. Small reads are mostly served
+     * from the block reader's buffer, so they are recorded together, once
+     * they add up to {@link DatanodeLatencyTracker#SAMPLE_BYTES}.
+     */
+    private long sequentialSampleMs = 0;
+    private long sequentialSampleBytes = 0;
+
     private int buffersize = 1;
 
     private final byte[] oneByteBuf = new byte[1]; // used for 'int read()'
@@ -450,6 +473,15 @@ private synchronized void fetchBlockAt(long offset) throws IOException {
         locatedBlocks.insertRange(targetBlockIdx, newBlocks.getLocatedBlocks());
     }
 
+    /**
+     * Fetch a block from namenode again, after its cached locations or
+     * token turned out to be stale.
+     */
+    private synchronized void refetchBlockAt(long offset) throws IOException {
+        dfsClient.invalidateCachedBlockLocations(src);
+        fetchBlockAt(offset);
+    }
+
     /**
      * Get blocks in the specified range.
      * Fetch them from the namenode if not cached. This function
@@ -539,6 +571,8 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
             blockReader.close();
             blockReader = null;
         }
+        sequentialSampleMs = 0;
+        sequentialSampleBytes = 0;
 
         //
         // Connect to best DataNode for desired Block, with potential offset
@@ -557,7 +591,20 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
             assert (target == pos) : "Wrong postion " + pos + " expect " + target;
             long offsetIntoBlock = target - targetBlock.getStartOffset();
 
-            DNAddrPair retval = chooseDataNode(targetBlock, null);
+            DNAddrPair retval = null;
+            if (slowSequentialNode != null) {
+                try {
+                    retval = getBestNodeDNAddrPair(targetBlock.getLocations(),
+                            Collections.singletonList(slowSequentialNode));
+                    dfsClient.getHedgedReadMetrics().incHedgedSequentialReadSwitches();
+                } catch (IOException e) {
+                    // no other replica, so stay with the slow one
+                }
+                slowSequentialNode = null;
+            }
+            if (retval == null) {
+                retval = chooseDataNode(targetBlock, null);
+            }
             chosenNode = retval.info;
             InetSocketAddress targetAddr = retval.addr;
 
@@ -596,7 +643,7 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
                     dfsClient.clearDataEncryptionKey();
                 } else if (refetchToken > 0 && tokenRefetchNeeded(ex, targetAddr)) {
                     refetchToken--;
-                    fetchBlockAt(target);
+                    refetchBlockAt(target);
                 } else {
                     connectFailedOnce = true;
                     DFSClient.LOG.warn("Failed to connect to " + targetAddr + " for block"
@@ -718,6 +765,58 @@ public int doRead(BlockReader blockReader, int off, int len,
         }
     }
 
+    /**
+     * Hedging for sequential reads: a block reader can not be read from two
+     * DataNodes at once, so after a read from the current DataNode takes
+     * longer than the hedged read threshold, move to another DataNode at
+     * the next read instead, if there is one.
+     */
+    private synchronized void checkSequentialReadLatency(long elapsedMs,
+                                                         int bytes) {
+        if (currentNode == null) {
+            return;
+        }
+        final DatanodeLatencyTracker tracker = getLatencyTracker();
+        final long threshold = tracker.getHedgeThresholdMs(currentNode,
+                DatanodeLatencyTracker.ReadType.SEQUENTIAL,
+                dfsClient.getHedgedReadTimeout(), bytes);
+        sequentialSampleMs += elapsedMs;
+        sequentialSampleBytes += bytes;
+        if (sequentialSampleBytes >= DatanodeLatencyTracker.SAMPLE_BYTES) {
+            tracker.addSample(currentNode,
+                    DatanodeLatencyTracker.ReadType.SEQUENTIAL,
+                    sequentialSampleMs, sequentialSampleBytes);
+            sequentialSampleMs = 0;
+            sequentialSampleBytes = 0;
+        }
+        if (elapsedMs <= threshold || !hasOtherLiveReplica()) {
+            return;
+        }
+        if (DFSClient.LOG.isDebugEnabled()) {
+            DFSClient.LOG.debug("Read from " + currentNode + " took " + elapsedMs
+                    + "ms; moving to another datanode");
+        }
+        slowSequentialNode = currentNode;
+        // force blockSeekTo on the next read
+        blockEnd = -1;
+    }
+
+    /**
+     * @return whether the current block has a replica on a DataNode other
+     * than the current one which is not known to be dead
+     */
+    private boolean hasOtherLiveReplica() {
+        if (currentLocatedBlock == null) {
+            return false;
+        }
+        for (DatanodeInfo node : currentLocatedBlock.getLocations()) {
+            if (!node.equals(currentNode) && !deadNodes.containsKey(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /* This is a used by regular read() and handles ChecksumExceptions.
      * name readBuffer() is chosen to imply similarity to readBuffer() in
      * ChecksumFileSystem
@@ -795,7 +894,12 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
                     if (locatedBlocks.isLastBlockComplete()) {
                         realLen = (int) Math.min(realLen, locatedBlocks.getFileLength());
                     }
+                    final long begin = Time.monotonicNow();
                     int result = readBuffer(strategy, off, realLen, corruptedBlockMap);
+                    if (dfsClient.getConf().hedgedReadAdaptive) {
+                        checkSequentialReadLatency(Time.monotonicNow() - begin,
+                                Math.max(result, 0));
+                    }
 
                     if (result >= 0) {
                         pos += result;
@@ -908,6 +1012,7 @@ private DNAddrPair chooseDataNode(LocatedBlock block,
                 } catch (InterruptedException iex) {
                 }
                 deadNodes.clear(); //2nd option is to remove only nodes[blockId]
+                dfsClient.invalidateCachedBlockLocations(src);
                 openInfo();
                 block = getBlockAt(block.getStartOffset(), false);
                 failures++;
@@ -926,6 +1031,19 @@ private DNAddrPair chooseDataNode(LocatedBlock block,
     private DNAddrPair getBestNodeDNAddrPair(final DatanodeInfo[] nodes,
                                              Collection<DatanodeInfo> ignoredNodes) throws IOException {
         DatanodeInfo chosenNode = bestNode(nodes, deadNodes, ignoredNodes);
+        final DatanodeLatencyTracker tracker = getLatencyTracker();
+        if (tracker.isSlow(chosenNode)) {
+            // prefer the first node which is not consistently slow, if any
+            for (DatanodeInfo node : nodes) {
+                if (!deadNodes.containsKey(node)
+                        && (ignoredNodes == null || !ignoredNodes.contains(node))
+                        && !tracker.isSlow(node)) {
+                    chosenNode = node;
+                    dfsClient.getHedgedReadMetrics().incHedgedReadSlowNodesSkipped();
+                    break;
+                }
+            }
+        }
         final String dnAddr =
                 chosenNode.getXferAddr(dfsClient.getConf().connectToDnViaHostname);
         if (DFSClient.LOG.isDebugEnabled()) {
@@ -1017,6 +1135,7 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
             InetSocketAddress targetAddr = datanode.addr;
             BlockReader reader = null;
 
+            final long begin = Time.monotonicNow();
             try {
                 DFSClientFaultInjector.get().fetchFromDatanodeException();
                 Token<BlockTokenIdentifier> blockToken = block.getBlockToken();
@@ -1040,6 +1159,9 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
                         build();
                 int nread = reader.readAll(buf, offset, len);
                 updateReadStatistics(readStatistics, nread, reader);
+                getLatencyTracker().addSample(chosenNode,
+                        DatanodeLatencyTracker.ReadType.PREAD,
+                        Time.monotonicNow() - begin, nread);
 
                 if (nread != len) {
                     throw new IOException("truncated return from reader.read(): " +
@@ -1068,7 +1190,7 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
                 } else if (refetchToken > 0 && tokenRefetchNeeded(e, targetAddr)) {
                     refetchToken--;
                     try {
-                        fetchBlockAt(block.getStartOffset());
+                        refetchBlockAt(block.getStartOffset());
                     } catch (IOException fbae) {
                         // ignore IOE, since we can retry it later in a loop
                     }
@@ -1122,14 +1244,15 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
                         .submit(getFromDataNodeCallable);
                 futures.add(firstRequest);
                 try {
+                    final long timeout = getHedgedReadTimeout(chosenNode.info, len);
                     Future<ByteBuffer> future = hedgedService.poll(
-                            dfsClient.getHedgedReadTimeout(), TimeUnit.MILLISECONDS);
+                            timeout, TimeUnit.MILLISECONDS);
                     if (future != null) {
                         future.get();
                         return;
                     }
                     if (DFSClient.LOG.isDebugEnabled()) {
-                        DFSClient.LOG.debug("Waited " + dfsClient.getHedgedReadTimeout()
+                        DFSClient.LOG.debug("Waited " + timeout
                                 + "ms to read from " + chosenNode.info
                                 + "; spawning hedged read");
                     }
@@ -1190,6 +1313,20 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
         }
     }
 
+    private DatanodeLatencyTracker getLatencyTracker() {
+        return dfsClient.getClientContext().getDatanodeLatencyTracker();
+    }
+
+    /**
+     * @return how long to wait for a positional read of len bytes from the
+     * node before hedging it
+     */
+    private long getHedgedReadTimeout(DatanodeInfo node, int len) {
+        return getLatencyTracker().getHedgeThresholdMs(node,
+                DatanodeLatencyTracker.ReadType.PREAD,
+                dfsClient.getHedgedReadTimeout(), len);
+    }
+
     @VisibleForTesting
     public long getHedgedReadOpsLoopNumForTesting() {
         return hedgedReadOpsLoopNumForTesting;
@@ -1320,6 +1457,50 @@ public int read(long position, byte[] buffer, int offset, int length)
         return realLen;
     }
 
+    /**
+     * Asynchronous version of {@link #read(long, byte[], int, int)}.  Reads
+     * from datanodes block, so the read runs in the client's async thread
+     * pool.
+     */
+    public ListenableFuture<Integer> readAsync(final long position,
+                                               final byte[] buffer, final int offset, final int length) {
+        return dfsClient.submitAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return read(position, buffer, offset, length);
+            }
+        });
+    }
+
+    /**
+     * Read the given ranges.  Nearby ranges are merged into a single
+     * positional read, and the merged reads run concurrently in the
+     * vectored reads thread pool, so this may return before the ranges are
+     * complete.
+     */
+    @Override
+    public void readVectored(List<? extends FileRange> ranges,
+                             final ByteBufferPool allocator) throws IOException {
+        dfsClient.checkOpen();
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        final List<CombinedRange> combinedRanges =
+                VectoredReadUtils.mergeSortedRanges(
+                        VectoredReadUtils.validateAndSortRanges(ranges),
+                        dfsClient.getConf().vectoredReadMinSeekSize,
+                        dfsClient.getConf().vectoredReadMaxMergedSize);
+        for (final CombinedRange combined : combinedRanges) {
+            dfsClient.executeVectoredRead(new Runnable() {
+                @Override
+                public void run() {
+                    VectoredReadUtils.readCombinedRange(DFSInputStream.this,
+                            combined, allocator);
+                }
+            });
+        }
+    }
+
     /**
      * DFSInputStream reports checksum failure.
      * Case I : client has tried multiple data nodes and at least one of the
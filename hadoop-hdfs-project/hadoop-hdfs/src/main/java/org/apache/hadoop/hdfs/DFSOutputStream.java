@@ -2112,6 +2112,7 @@ public synchronized void close() throws IOException {
             closeThreads(false);
             completeFile(lastBlock);
             dfsClient.endFileLease(fileId);
+            dfsClient.invalidateCachedMetadata(src);
         } catch (ClosedChannelException e) {
         } finally {
             closed = true;
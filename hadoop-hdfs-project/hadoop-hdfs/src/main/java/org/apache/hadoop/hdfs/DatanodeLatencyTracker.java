@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the recent read latencies of each DataNode, so that hedged reads
+ * can be started after a DataNode takes longer than it usually does, rather
+ * than after a fixed threshold, and so that DataNodes which are consistently
+ * slower than the others can be avoided.
+ * <p/>
+ * Positional and sequential reads are kept apart, since a sequential read is
+ * often served from data the block reader has already buffered. Latencies
+ * are normalized to the time taken per {@link #SAMPLE_BYTES} bytes, so that
+ * large reads are not mistaken for slow ones.
+ * <p/>
+ * A tracker which is not enabled records nothing and always falls back to
+ * the fixed threshold.
+ */
+@InterfaceAudience.Private
+public class DatanodeLatencyTracker {
+    /**
+     * The kind of read a latency was measured for.
+     */
+    public enum ReadType {
+        PREAD, SEQUENTIAL
+    }
+
+    /**
+     * The number of recent latencies kept for each DataNode and read type.
+     */
+    @VisibleForTesting
+    static final int WINDOW_SIZE = 128;
+
+    /**
+     * Latencies are normalized to this many bytes read. Reads of up to this
+     * size are dominated by fixed costs and are recorded as they are.
+     */
+    public static final int SAMPLE_BYTES = 64 * 1024;
+
+    /**
+     * The adaptive threshold never drops below this, or below the fixed
+     * threshold if that is smaller, so that a run of very fast reads does
+     * not start a hedged read for every read.
+     */
+    @VisibleForTesting
+    static final long MIN_THRESHOLD_MS = 10;
+
+    /**
+     * How long the median latency across DataNodes is cached.
+     */
+    private static final long MEDIAN_REFRESH_MS = 1000;
+
+    private final boolean enabled;
+    private final float percentile;
+    private final int minSamples;
+    private final float slowNodeFactor;
+
+    private final ConcurrentHashMap<DatanodeInfo, LatencyWindow[]> windows =
+            new ConcurrentHashMap<DatanodeInfo, LatencyWindow[]>();
+
+    private final long[] medianMs = new long[ReadType.values().length];
+    private long medianRefreshTime;
+
+    /**
+     * @param enabled        whether latencies are recorded at all
+     * @param percentile     the percentile of a DataNode's latencies after
+     *                       which a hedged read is started
+     * @param minSamples     the number of latencies needed before the
+     *                       latencies of a DataNode are used
+     * @param slowNodeFactor a DataNode is slow when its median latency is
+     *                       this many times the median across DataNodes
+     */
+    public DatanodeLatencyTracker(boolean enabled, float percentile,
+                                  int minSamples, float slowNodeFactor) {
+        Preconditions.checkArgument(percentile > 0 && percentile <= 100,
+                "Invalid percentile %s", percentile);
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minSamples = Math.max(1, Math.min(minSamples, WINDOW_SIZE));
+        this.slowNodeFactor = slowNodeFactor;
+        this.medianRefreshTime = Time.monotonicNow() - MEDIAN_REFRESH_MS - 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record how long a read of the given number of bytes from the DataNode
+     * took.
+     */
+    public void addSample(DatanodeInfo datanode, ReadType type,
+                          long latencyMs, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        LatencyWindow[] nodeWindows = windows.get(datanode);
+        if (nodeWindows == null) {
+            nodeWindows = new LatencyWindow[ReadType.values().length];
+            for (int i = 0; i < nodeWindows.length; i++) {
+                nodeWindows[i] = new LatencyWindow();
+            }
+            LatencyWindow[] existing = windows.putIfAbsent(datanode, nodeWindows);
+            if (existing != null) {
+                nodeWindows = existing;
+            }
+        }
+        nodeWindows[type.ordinal()].add(
+                latencyMs * SAMPLE_BYTES / Math.max(bytes, SAMPLE_BYTES));
+    }
+
+    /**
+     * @return the given percentile of the recent latencies of the DataNode
+     * per {@link #SAMPLE_BYTES} bytes, or -1 if there are not enough of them
+     */
+    public long getPercentile(DatanodeInfo datanode, ReadType type, float p) {
+        LatencyWindow[] nodeWindows = windows.get(datanode);
+        return nodeWindows == null ? -1
+                : nodeWindows[type.ordinal()].getPercentile(p, minSamples);
+    }
+
+    /**
+     * @return how long to wait for a read of the given number of bytes from
+     * the DataNode before starting a hedged read: the configured percentile
+     * of its recent latencies, or the fixed threshold if it has not been read
+     * from often enough
+     */
+    public long getHedgeThresholdMs(DatanodeInfo datanode, ReadType type,
+                                    long fixedMs, long bytes) {
+        if (!enabled) {
+            return fixedMs;
+        }
+        long threshold = getPercentile(datanode, type, percentile);
+        if (threshold < 0) {
+            return fixedMs;
+        }
+        threshold = threshold * Math.max(bytes, SAMPLE_BYTES) / SAMPLE_BYTES;
+        return Math.max(Math.min(fixedMs, MIN_THRESHOLD_MS), threshold);
+    }
+
+    /**
+     * @return true if, for either read type, the median latency of the
+     * DataNode is more than the slow node factor times the median latency
+     * across DataNodes
+     */
+    public boolean isSlow(DatanodeInfo datanode) {
+        if (!enabled) {
+            return false;
+        }
+        for (ReadType type : ReadType.values()) {
+            long nodeMedian = getPercentile(datanode, type, 50);
+            if (nodeMedian < 0) {
+                continue;
+            }
+            long median = getMedianAcrossNodes(type);
+            if (median >= 0 && nodeMedian > slowNodeFactor * Math.max(1, median)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized long getMedianAcrossNodes(ReadType type) {
+        long now = Time.monotonicNow();
+        if (now - medianRefreshTime > MEDIAN_REFRESH_MS) {
+            for (ReadType t : ReadType.values()) {
+                medianMs[t.ordinal()] = computeMedianAcrossNodes(t);
+            }
+            medianRefreshTime = now;
+        }
+        return medianMs[type.ordinal()];
+    }
+
+    private long computeMedianAcrossNodes(ReadType type) {
+        List<Long> medians = new ArrayList<Long>(windows.size());
+        for (LatencyWindow[] nodeWindows : windows.values()) {
+            long m = nodeWindows[type.ordinal()].getPercentile(50, minSamples);
+            if (m >= 0) {
+                medians.add(m);
+            }
+        }
+        if (medians.size() < 2) {
+            // nothing to compare with
+            return -1;
+        }
+        Collections.sort(medians);
+        return medians.get((medians.size() - 1) / 2);
+    }
+
+    /**
+     * The most recent latencies of one DataNode. They are also kept in
+     * sorted order, updated on each sample, so that reading a percentile
+     * neither copies nor sorts them.
+     */
+    private static class LatencyWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private final long[] sorted = new long[WINDOW_SIZE];
+        private int next = 0;
+        private int count = 0;
+
+        synchronized void add(long latencyMs) {
+            if (count == samples.length) {
+                // drop the oldest sample from the sorted samples
+                int i = Arrays.binarySearch(sorted, 0, count, samples[next]);
+                System.arraycopy(sorted, i + 1, sorted, i, count - i - 1);
+                count--;
+            }
+            int i = Arrays.binarySearch(sorted, 0, count, latencyMs);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            System.arraycopy(sorted, i, sorted, i + 1, count - i);
+            sorted[i] = latencyMs;
+            count++;
+            samples[next] = latencyMs;
+            next = (next + 1) % samples.length;
+        }
+
+        synchronized long getPercentile(float p, int minSamples) {
+            if (count < minSamples) {
+                return -1;
+            }
+            int index = (int) Math.ceil(p / 100 * count) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+}
@@ -406,6 +406,26 @@ public FSDataOutputStream next(final FileSystem fs, final Path p)
         }.resolve(this, absF);
     }
 
+    /**
+     * Create a file whose consecutive blocks are written through concurrent
+     * pipelines, as many as {@link DFSConfigKeys#DFS_CLIENT_PARALLEL_WRITE_STREAMS_KEY}.
+     * This suits large sequential writes by a single writer.  The file is
+     * complete only once the stream is closed, and the stream does not
+     * support hflush or hsync; see {@link ParallelDFSOutputStream}.
+     */
+    public FSDataOutputStream createParallel(Path f, FsPermission permission,
+                                             boolean overwrite, int bufferSize, short replication,
+                                             long blockSize, Progressable progress) throws IOException {
+        statistics.incrementWriteOps(1);
+        final int numStreams = getConf().getInt(
+                DFSConfigKeys.DFS_CLIENT_PARALLEL_WRITE_STREAMS_KEY,
+                DFSConfigKeys.DFS_CLIENT_PARALLEL_WRITE_STREAMS_DEFAULT);
+        return new FSDataOutputStream(dfs.createParallel(
+                getPathName(fixRelativePart(f)), permission, overwrite,
+                replication, blockSize, progress, bufferSize, numStreams),
+                statistics);
+    }
+
     @Override
     protected HdfsDataOutputStream primitiveCreate(Path f,
                                                    FsPermission absolutePermission, EnumSet<CreateFlag> flag, int bufferSize,
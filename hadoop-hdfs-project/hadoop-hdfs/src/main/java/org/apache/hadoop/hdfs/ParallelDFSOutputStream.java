@@ -0,0 +1,307 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Progressable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An output stream which writes consecutive blocks of a file through
+ * concurrently running pipelines, so that the write rate of a single writer
+ * is not limited by one pipeline.
+ * <p/>
+ * Each block is written as a separate file, a segment, in the directory of
+ * the file: the first block to the file itself, the others to hidden part
+ * files.  A segment is buffered in memory while its pipeline is behind the
+ * writer, so up to the number of streams times the block size of data is
+ * buffered.  On {@link #close()} the part files are concatenated to the
+ * file, in order.  Until then the file holds only its first block.
+ * <p/>
+ * A failure of any pipeline fails the whole stream; the segments written
+ * so far are deleted.  hflush and hsync are not supported.
+ */
+@InterfaceAudience.Private
+public class ParallelDFSOutputStream extends OutputStream {
+    /**
+     * The size of the chunks a segment is buffered in.
+     */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Marks the end of the data of a segment.
+     */
+    private static final ByteBuffer END_OF_SEGMENT = ByteBuffer.allocate(0);
+
+    private final DFSClient dfsClient;
+    private final String src;
+    private final FsPermission permission;
+    private final EnumSet<CreateFlag> flag;
+    private final short replication;
+    private final long blockSize;
+    private final Progressable progress;
+    private final int bufferSize;
+    private final int numStreams;
+    private final ExecutorService executor;
+
+    /** The segments in file order. */
+    private final List<Segment> segments = new ArrayList<Segment>();
+    /** The segment being written, or null if a new one is needed. */
+    private Segment current = null;
+    private ByteBuffer chunk = null;
+    private boolean closed = false;
+
+    /**
+     * A block of the file, written by its own pipeline.
+     */
+    private class Segment implements Callable<Void> {
+        private final String path;
+        private final DFSOutputStream out;
+        private final BlockingQueue<ByteBuffer> chunks =
+                new LinkedBlockingQueue<ByteBuffer>();
+        private long length = 0;
+        private Future<Void> future;
+
+        Segment(String path, DFSOutputStream out) {
+            this.path = path;
+            this.out = out;
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            try {
+                while (true) {
+                    ByteBuffer data = chunks.take();
+                    if (data == END_OF_SEGMENT) {
+                        break;
+                    }
+                    out.write(data.array(), data.arrayOffset(), data.remaining());
+                }
+                out.close();
+                return null;
+            } catch (IOException e) {
+                abortQuietly();
+                throw e;
+            } catch (InterruptedException e) {
+                abortQuietly();
+                throw e;
+            }
+        }
+
+        void abortQuietly() {
+            try {
+                out.abort();
+            } catch (IOException e) {
+                DFSClient.LOG.debug("Failed to abort " + path, e);
+            }
+        }
+
+        /**
+         * Throw the error of the segment if its pipeline has failed.
+         */
+        void checkFailed() throws IOException {
+            if (future.isDone()) {
+                waitFor();
+            }
+        }
+
+        void waitFor() throws IOException {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted waiting for " + path);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Failed to write " + path, cause);
+            }
+        }
+    }
+
+    ParallelDFSOutputStream(DFSClient dfsClient, String src,
+                            FsPermission permission, EnumSet<CreateFlag> flag, short replication,
+                            long blockSize, Progressable progress, int bufferSize,
+                            int numStreams) throws IOException {
+        Preconditions.checkArgument(numStreams > 0,
+                "Invalid number of streams %s", numStreams);
+        this.dfsClient = dfsClient;
+        this.src = src;
+        this.permission = permission;
+        this.flag = flag;
+        this.replication = replication;
+        this.blockSize = blockSize;
+        this.progress = progress;
+        this.bufferSize = bufferSize;
+        this.numStreams = numStreams;
+        this.executor = Executors.newFixedThreadPool(numStreams,
+                new Daemon.DaemonFactory());
+        try {
+            // create the file itself now, so that errors are thrown here
+            startSegment();
+        } catch (IOException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+    }
+
+    private String getSegmentPath(int index) {
+        if (index == 0) {
+            return src;
+        }
+        // concat requires the parts to be in the directory of the file
+        final int slash = src.lastIndexOf(Path.SEPARATOR_CHAR);
+        return src.substring(0, slash + 1) + "." + src.substring(slash + 1)
+                + ".parallel-" + index;
+    }
+
+    private void startSegment() throws IOException {
+        final int index = segments.size();
+        if (index >= numStreams) {
+            // wait for a pipeline to finish before starting another
+            segments.get(index - numStreams).waitFor();
+        }
+        final String path = getSegmentPath(index);
+        final DFSOutputStream out = dfsClient.create(path, permission,
+                index == 0 ? flag : EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE),
+                true, replication, blockSize, progress, bufferSize, null);
+        final Segment segment = new Segment(path, out);
+        segments.add(segment);
+        segment.future = executor.submit(segment);
+        current = segment;
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed: " + src);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+        checkClosed();
+        while (len > 0) {
+            if (current == null) {
+                startSegment();
+            }
+            if (chunk == null) {
+                chunk = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE,
+                        blockSize - current.length));
+            }
+            final int n = Math.min(len, chunk.remaining());
+            chunk.put(b, off, n);
+            current.length += n;
+            off += n;
+            len -= n;
+            if (!chunk.hasRemaining()) {
+                flushChunk();
+            }
+            if (current.length == blockSize) {
+                current.chunks.add(END_OF_SEGMENT);
+                current = null;
+            }
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        current.checkFailed();
+        chunk.flip();
+        current.chunks.add(chunk);
+        chunk = null;
+    }
+
+    /**
+     * Wait for all the segments to be written, and concatenate them to the
+     * file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean success = false;
+        try {
+            if (current != null) {
+                if (chunk != null && chunk.position() > 0) {
+                    flushChunk();
+                }
+                current.chunks.add(END_OF_SEGMENT);
+                current = null;
+            }
+            for (Segment segment : segments) {
+                segment.waitFor();
+            }
+            if (segments.size() > 1) {
+                final String[] parts = new String[segments.size() - 1];
+                for (int i = 1; i < segments.size(); i++) {
+                    parts[i - 1] = segments.get(i).path;
+                }
+                dfsClient.concat(src, parts);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                abort();
+            }
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stop all the pipelines and delete the segments.
+     */
+    private void abort() {
+        executor.shutdownNow();
+        for (Segment segment : segments) {
+            segment.abortQuietly();
+            try {
+                dfsClient.delete(segment.path, false);
+            } catch (IOException e) {
+                DFSClient.LOG.warn("Failed to delete " + segment.path, e);
+            }
+        }
+    }
+}
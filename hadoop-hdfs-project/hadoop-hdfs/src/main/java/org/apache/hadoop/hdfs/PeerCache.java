@@ -22,6 +22,7 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -37,6 +38,12 @@
 
 /**
  * A cache of input stream sockets to Data Node.
+ * <p/>
+ * Besides the total capacity, the number of idle peers kept for a single
+ * DataNode can be limited, so that a few busy DataNodes do not evict the
+ * peers of all the others.  The cache also counts the peers it reused and
+ * the peers which had to be created, each of which costs a TCP connection,
+ * and possibly a SASL handshake.
  */
 class PeerCache {
     private static final Log LOG = LogFactory.getLog(PeerCache.class);
@@ -89,10 +96,33 @@ long getTime() {
             LinkedListMultimap.create();
     private final int capacity;
     private final long expiryPeriod;
+    /** The maximum number of peers per DataNode, or 0 for no limit. */
+    private final int maxIdlePerHost;
+    /** The maximum number of bytes a reader reads to make a peer reusable. */
+    private final long maxDrainBytes;
+
+    private final AtomicLong peersReused = new AtomicLong();
+    private final AtomicLong peersCreated = new AtomicLong();
+    private final AtomicLong stalePeersEvicted = new AtomicLong();
 
     public PeerCache(int c, long e) {
+        this(c, e, 0, 0);
+    }
+
+    /**
+     * @param c              the maximum number of peers in the cache
+     * @param e              how long a peer may be idle in the cache
+     * @param maxIdlePerHost the maximum number of peers of a single DataNode,
+     *                       or 0 for no limit
+     * @param maxDrainBytes  a block reader which is closed with at most this
+     *                       many bytes of its read left reads them, so that
+     *                       its peer can be cached
+     */
+    public PeerCache(int c, long e, int maxIdlePerHost, long maxDrainBytes) {
         this.capacity = c;
         this.expiryPeriod = e;
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.maxDrainBytes = maxDrainBytes;
 
         if (capacity == 0) {
             LOG.info("SocketCache disabled.");
@@ -165,12 +195,26 @@ public synchronized Peer get(DatanodeID dnId, boolean isDomain) {
                             ", which is " + ageMs + " ms old");
                 }
             } else if (!peer.isClosed()) {
+                peersReused.incrementAndGet();
                 return peer;
             }
         }
         return null;
     }
 
+    /**
+     * Close and remove all the cached peers of the given DataNode, after one
+     * of them was found to be stale, e.g. because the DataNode restarted.
+     * The others were most likely broken by the same cause.
+     */
+    public synchronized void evictStale(DatanodeID dnId, boolean isDomain) {
+        List<Value> stale = multimap.removeAll(new Key(dnId, isDomain));
+        for (Value value : stale) {
+            IOUtils.cleanup(LOG, value.getPeer());
+        }
+        stalePeersEvicted.addAndGet(stale.size());
+    }
+
     /**
      * Give an unused socket to the cache.
      */
@@ -186,11 +230,44 @@ public synchronized void put(DatanodeID dnId, Peer peer) {
 
         startExpiryDaemon();
 
+        final Key key = new Key(dnId, peer.getDomainSocket() != null);
+        if (maxIdlePerHost > 0) {
+            List<Value> hostPeers = multimap.get(key);
+            if (hostPeers.size() >= maxIdlePerHost) {
+                // the peers of a key are in the order they were added
+                IOUtils.cleanup(LOG, hostPeers.remove(0).getPeer());
+            }
+        }
         if (capacity == multimap.size()) {
             evictOldest();
         }
-        multimap.put(new Key(dnId, peer.getDomainSocket() != null),
-                new Value(peer, Time.monotonicNow()));
+        multimap.put(key, new Value(peer, Time.monotonicNow()));
+    }
+
+    /**
+     * Count a peer created because none could be taken from the cache.
+     */
+    public void peerCreated() {
+        peersCreated.incrementAndGet();
+    }
+
+    /** @return the number of peers taken from the cache */
+    public long getPeersReused() {
+        return peersReused.get();
+    }
+
+    /** @return the number of peers created instead */
+    public long getPeersCreated() {
+        return peersCreated.get();
+    }
+
+    /** @return the number of peers evicted by {@link #evictStale} */
+    public long getStalePeersEvicted() {
+        return stalePeersEvicted.get();
+    }
+
+    long getMaxDrainBytes() {
+        return capacity > 0 ? maxDrainBytes : 0;
     }
 
     public synchronized int size() {
@@ -120,6 +120,13 @@ public class RemoteBlockReader2 implements BlockReader {
 
     private boolean sentStatusCode = false;
 
+    /**
+     * True while a packet is being read; stays true if the read failed, in
+     * which case the stream is not in a state the rest of the read can be
+     * drained from.
+     */
+    private boolean readingPacket = false;
+
     byte[] skipBuf = null;
     ByteBuffer checksumBytes = null;
     /** Amount of unread data in the current received packet */
@@ -182,6 +189,7 @@ public int read(ByteBuffer buf) throws IOException {
     }
 
     private void readNextPacket() throws IOException {
+        readingPacket = true;
         //Read packet headers.
         packetReceiver.receiveNextPacket(in);
 
@@ -237,6 +245,7 @@ private void readNextPacket() throws IOException {
                 sendReadResult(Status.SUCCESS);
             }
         }
+        readingPacket = false;
     }
 
     @Override
@@ -302,6 +311,9 @@ protected RemoteBlockReader2(String file, String bpid, long blockId,
 
     @Override
     public synchronized void close() throws IOException {
+        if (peerCache != null && !sentStatusCode) {
+            drainForReuse();
+        }
         packetReceiver.close();
         startOffset = -1;
         checksum = null;
@@ -314,6 +326,28 @@ public synchronized void close() throws IOException {
         // in will be closed when its Socket is closed.
     }
 
+    /**
+     * If little of the read is left, read the rest of it, so that the peer
+     * can be given to the cache instead of being closed.  Reading a few more
+     * packets is cheaper than connecting to the DataNode again.
+     */
+    private void drainForReuse() {
+        if (readingPacket || bytesNeededToFinish <= 0
+                || bytesNeededToFinish > peerCache.getMaxDrainBytes()) {
+            return;
+        }
+        try {
+            // the last packet is followed by the status response
+            while (bytesNeededToFinish > 0) {
+                readNextPacket();
+            }
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to drain the rest of the read from " + peer, e);
+            }
+        }
+    }
+
     /**
      * When the reader reaches end of the read, it sends a status response
      * (e.g. CHECKSUM_OK) to the DN. Failure to do so could lead to the DN
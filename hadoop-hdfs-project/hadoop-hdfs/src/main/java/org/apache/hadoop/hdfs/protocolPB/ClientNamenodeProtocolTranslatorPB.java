@@ -127,6 +127,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RemoveCachePoolRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.Rename2RequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenewLeaseRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.ReportBadBlocksRequestProto;
@@ -157,7 +158,9 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.Client;
 import org.apache.hadoop.ipc.ProtobufHelper;
+import org.apache.hadoop.ipc.ProtobufRpcEngine;
 import org.apache.hadoop.ipc.ProtocolMetaInterface;
 import org.apache.hadoop.ipc.ProtocolTranslator;
 import org.apache.hadoop.ipc.RPC;
@@ -169,7 +172,11 @@
 import org.apache.hadoop.security.proto.SecurityProtos.RenewDelegationTokenRequestProto;
 import org.apache.hadoop.security.token.Token;
 
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
 import com.google.protobuf.ServiceException;
 
 /**
@@ -183,6 +190,9 @@ public class ClientNamenodeProtocolTranslatorPB implements
         ProtocolMetaInterface, ClientProtocol, Closeable, ProtocolTranslator {
     final private ClientNamenodeProtocolPB rpcProxy;
 
+    private static final ThreadLocal<ListenableFuture<?>> asyncReturnValue =
+            new ThreadLocal<ListenableFuture<?>>();
+
     static final GetServerDefaultsRequestProto VOID_GET_SERVER_DEFAULT_REQUEST =
             GetServerDefaultsRequestProto.newBuilder().build();
 
@@ -210,6 +220,29 @@ public ClientNamenodeProtocolTranslatorPB(ClientNamenodeProtocolPB proxy) {
         rpcProxy = proxy;
     }
 
+    /**
+     * Get the result of the last call this thread made in
+     * {@link Client#setAsynchronousMode(boolean) asynchronous mode}, for the
+     * calls which support it: {@link #getFileInfo(String)},
+     * {@link #getListing(String, byte[], boolean)} and
+     * {@link #rename(String, String)}.  The call itself returned null or
+     * false.
+     *
+     * @return the result, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ListenableFuture<T> getAsyncReturnValue() {
+        ListenableFuture<T> value = (ListenableFuture<T>) asyncReturnValue.get();
+        asyncReturnValue.set(null);
+        return value;
+    }
+
+    private static <T> void setAsyncReturnValue(
+            AsyncFunction<Message, T> convert) {
+        asyncReturnValue.set(Futures.transform(
+                ProtobufRpcEngine.getAsyncReturnMessage(), convert));
+    }
+
     @Override
     public void close() {
         RPC.stopProxy(rpcProxy);
@@ -438,7 +471,18 @@ public boolean rename(String src, String dst) throws UnresolvedLinkException,
                 .setSrc(src)
                 .setDst(dst).build();
         try {
-            return rpcProxy.rename(null, req).getResult();
+            RenameResponseProto res = rpcProxy.rename(null, req);
+            if (res == null && Client.isAsynchronousMode()) {
+                setAsyncReturnValue(new AsyncFunction<Message, Boolean>() {
+                    @Override
+                    public ListenableFuture<Boolean> apply(Message message) {
+                        return Futures.immediateFuture(
+                                ((RenameResponseProto) message).getResult());
+                    }
+                });
+                return false;
+            }
+            return res.getResult();
         } catch (ServiceException e) {
             throw ProtobufHelper.getRemoteException(e);
         }
@@ -525,6 +569,17 @@ public DirectoryListing getListing(String src, byte[] startAfter,
                 .setNeedLocation(needLocation).build();
         try {
             GetListingResponseProto result = rpcProxy.getListing(null, req);
+            if (result == null && Client.isAsynchronousMode()) {
+                setAsyncReturnValue(new AsyncFunction<Message, DirectoryListing>() {
+                    @Override
+                    public ListenableFuture<DirectoryListing> apply(Message message) {
+                        GetListingResponseProto res = (GetListingResponseProto) message;
+                        return Futures.immediateFuture(res.hasDirList()
+                                ? PBHelper.convert(res.getDirList()) : null);
+                    }
+                });
+                return null;
+            }
 
             if (result.hasDirList()) {
                 return PBHelper.convert(result.getDirList());
@@ -723,6 +778,17 @@ public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
                 .setSrc(src).build();
         try {
             GetFileInfoResponseProto res = rpcProxy.getFileInfo(null, req);
+            if (res == null && Client.isAsynchronousMode()) {
+                setAsyncReturnValue(new AsyncFunction<Message, HdfsFileStatus>() {
+                    @Override
+                    public ListenableFuture<HdfsFileStatus> apply(Message message) {
+                        GetFileInfoResponseProto res = (GetFileInfoResponseProto) message;
+                        return Futures.immediateFuture(res.hasFs()
+                                ? PBHelper.convert(res.getFs()) : null);
+                    }
+                });
+                return null;
+            }
             return res.hasFs() ? PBHelper.convert(res.getFs()) : null;
         } catch (ServiceException e) {
             throw ProtobufHelper.getRemoteException(e);
@@ -48,6 +48,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.StorageType;
 import org.apache.hadoop.hdfs.protocol.Block;
@@ -75,9 +76,23 @@
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
-/** Dispatching block replica moves between datanodes. */
+/**
+ * Dispatching block replica moves between datanodes.
+ *
+ * <p>Moves are chosen one iteration at a time.  The balancer pairs sources
+ * with targets from the storage reports of the iteration; each source then
+ * fetches its blocks from the namenode with getBlocks and picks moves for
+ * its targets as it goes.  There is no plan computed up front across the
+ * whole cluster.
+ *
+ * <p>Every move is a separate replaceBlock request on its own connection,
+ * since the datanode closes the connection after replying to it.  Moves run
+ * concurrently up to a per-datanode limit, which adapts to the throughput
+ * observed on that datanode.
+ */
 @InterfaceAudience.Private
 public class Dispatcher {
     static final Log LOG = LogFactory.getLog(Dispatcher.class);
@@ -86,6 +101,11 @@ public class Dispatcher {
     private static final long MAX_BLOCKS_SIZE_TO_FETCH = 2 * GB;
 
     private static final int MAX_NO_PENDING_MOVE_ITERATIONS = 5;
+    /**
+     * A window of moves whose throughput is within this fraction of the
+     * previous window's still lets a node take on more concurrent moves.
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.1;
     private static final long DELAY_AFTER_ERROR = 10 * 1000L; // 10 seconds
 
     private final NameNodeConnector nnc;
@@ -111,6 +131,7 @@ public class Dispatcher {
     private final ExecutorService dispatchExecutor;
     /** The maximum number of concurrent blocks moves at a datanode */
     private final int maxConcurrentMovesPerNode;
+    private final int maxConcurrentMovesLimit;
 
     private final AtomicLong bytesMoved = new AtomicLong();
 
@@ -169,7 +190,7 @@ void clear() {
     /** This class keeps track of a scheduled block move */
     private class PendingMove {
         private DBlock block;
-        private Source source;
+        private StorageGroup source;
         private DDatanode proxySource;
         private StorageGroup target;
 
@@ -190,7 +211,7 @@ public String toString() {
          *
          * @return true if a block and its proxy are chosen; false otherwise
          */
-        private boolean chooseBlockAndProxy() {
+        private boolean chooseBlockAndProxy(Source source) {
             // iterate all source's blocks until find a good one
             for (Iterator<DBlock> i = source.getBlockIterator(); i.hasNext(); ) {
                 if (markMovedIfGoodBlock(i.next())) {
@@ -222,6 +243,35 @@ private boolean markMovedIfGoodBlock(DBlock block) {
             return false;
         }
 
+        /**
+         * Mark the block moved if a replica of it can be moved from the
+         * source to the target storage type and a proxy is found.  A move
+         * within a datanode is done by the datanode itself.
+         *
+         * @return true if the block is good for the move
+         */
+        private boolean markMovedIfGoodStorageTypeMove(DBlock block) {
+            synchronized (block) {
+                synchronized (movedBlocks) {
+                    if (isGoodStorageTypeMove(source, target, block)) {
+                        this.block = block;
+                        final DDatanode targetDn = target.getDDatanode();
+                        if (source.getDDatanode() == targetDn) {
+                            proxySource = targetDn;
+                        } else if (!chooseProxySource()) {
+                            return false;
+                        }
+                        movedBlocks.put(block);
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Decided to move " + this);
+                        }
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
         /**
          * Choose a proxy source.
          *
@@ -269,6 +319,8 @@ private void dispatch() {
                 LOG.debug("Start moving " + this);
             }
 
+            final long startTime = Time.monotonicNow();
+            boolean succeeded = false;
             Socket sock = new Socket();
             DataOutputStream out = null;
             DataInputStream in = null;
@@ -297,6 +349,7 @@ private void dispatch() {
                 sendRequest(out, eb, accessToken);
                 receiveResponse(in);
                 bytesMoved.addAndGet(block.getNumBytes());
+                succeeded = true;
                 LOG.info("Successfully moved " + this);
             } catch (IOException e) {
                 LOG.warn("Failed to move " + this + ": " + e.getMessage());
@@ -311,8 +364,11 @@ private void dispatch() {
                 IOUtils.closeStream(in);
                 IOUtils.closeSocket(sock);
 
-                proxySource.removePendingBlock(this);
-                target.getDDatanode().removePendingBlock(this);
+                final long elapsed = Time.monotonicNow() - startTime;
+                proxySource.moveFinished(this, block.getNumBytes(), elapsed,
+                        succeeded);
+                target.getDDatanode().moveFinished(this, block.getNumBytes(),
+                        elapsed, succeeded);
 
                 synchronized (this) {
                     reset();
@@ -442,16 +498,34 @@ public String toString() {
         /** blocks being moved but not confirmed yet */
         private final List<PendingMove> pendings;
         private final int maxConcurrentMoves;
+        /**
+         * The number of concurrent moves currently allowed, between 1 and
+         * maxConcurrentMoves.  It is adjusted once per window of completed
+         * moves: raised while the throughput of the node keeps up, lowered
+         * when it drops or a move fails.
+         */
+        private int concurrentMovesLimit;
+        private int windowMoves = 0;
+        private long windowBytes = 0L;
+        private long windowStartTime = 0L;
+        private double lastWindowThroughput = 0.0;
 
         @Override
         public String toString() {
             return getClass().getSimpleName() + ":" + datanode + ":" + storageMap.values();
         }
 
-        private DDatanode(DatanodeStorageReport r, int maxConcurrentMoves) {
+        /**
+         * @param concurrentMoves the number of concurrent moves allowed at first
+         * @param maxConcurrentMoves the most concurrent moves ever allowed
+         */
+        @VisibleForTesting
+        DDatanode(DatanodeStorageReport r, int concurrentMoves,
+                  int maxConcurrentMoves) {
             this.datanode = r.getDatanodeInfo();
-            this.maxConcurrentMoves = maxConcurrentMoves;
-            this.pendings = new ArrayList<PendingMove>(maxConcurrentMoves);
+            this.maxConcurrentMoves = Math.max(concurrentMoves, maxConcurrentMoves);
+            this.concurrentMovesLimit = concurrentMoves;
+            this.pendings = new ArrayList<PendingMove>(concurrentMoves);
         }
 
         private void put(StorageType storageType, StorageGroup g) {
@@ -485,7 +559,12 @@ synchronized private boolean isDelayActive() {
 
         /** Check if the node can schedule more blocks to move */
         synchronized boolean isPendingQNotFull() {
-            return pendings.size() < maxConcurrentMoves;
+            return pendings.size() < concurrentMovesLimit;
+        }
+
+        /** @return the number of concurrent moves currently allowed */
+        synchronized int getConcurrentMovesLimit() {
+            return concurrentMovesLimit;
         }
 
         /** Check if all the dispatched moves are done */
@@ -505,6 +584,62 @@ synchronized boolean addPendingBlock(PendingMove pendingBlock) {
         synchronized boolean removePendingBlock(PendingMove pendingBlock) {
             return pendings.remove(pendingBlock);
         }
+
+        /**
+         * Remove a dispatched block move from the node and adapt the number
+         * of concurrent moves to the observed throughput.
+         */
+        synchronized void moveFinished(PendingMove pendingBlock, long bytes,
+                                       long elapsed, boolean succeeded) {
+            if (pendings.remove(pendingBlock)) {
+                adaptConcurrentMovesLimit(bytes, elapsed, succeeded,
+                        Time.monotonicNow());
+            }
+        }
+
+        /**
+         * Account a finished move to the current window, and adjust the
+         * number of concurrent moves at the end of the window.
+         *
+         * @param now the time the move finished, in monotonic milliseconds
+         */
+        @VisibleForTesting
+        synchronized void adaptConcurrentMovesLimit(long bytes, long elapsed,
+                                                    boolean succeeded, long now) {
+            if (!succeeded) {
+                // back off quickly; the delay after error also applies
+                setConcurrentMovesLimit(concurrentMovesLimit / 2);
+                return;
+            }
+            if (windowMoves == 0) {
+                windowStartTime = now - elapsed;
+            }
+            windowMoves++;
+            windowBytes += bytes;
+            if (windowMoves < concurrentMovesLimit) {
+                return;
+            }
+            // A window is as many moves as are allowed to run at once.
+            final long windowTime = Math.max(1L, now - windowStartTime);
+            final double throughput = (double) windowBytes / windowTime;
+            if (throughput >= lastWindowThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+                setConcurrentMovesLimit(concurrentMovesLimit + 1);
+            } else {
+                setConcurrentMovesLimit(concurrentMovesLimit - 1);
+            }
+            lastWindowThroughput = throughput;
+        }
+
+        private void setConcurrentMovesLimit(int limit) {
+            limit = Math.max(1, Math.min(maxConcurrentMoves, limit));
+            if (limit != concurrentMovesLimit && LOG.isDebugEnabled()) {
+                LOG.debug("Concurrent moves limit of " + datanode + " changed from "
+                        + concurrentMovesLimit + " to " + limit);
+            }
+            concurrentMovesLimit = limit;
+            windowMoves = 0;
+            windowBytes = 0L;
+        }
     }
 
     /** A node that can be the sources of a block move */
@@ -602,7 +737,7 @@ private PendingMove chooseNextMove() {
                     // target is not busy, so do a tentative block allocation
                     pendingBlock.source = this;
                     pendingBlock.target = task.target;
-                    if (pendingBlock.chooseBlockAndProxy()) {
+                    if (pendingBlock.chooseBlockAndProxy(this)) {
                         long blockSize = pendingBlock.block.getNumBytes();
                         incScheduledSize(-blockSize);
                         task.size -= blockSize;
@@ -718,6 +853,9 @@ public Dispatcher(NameNodeConnector nnc, Set<String> includedNodes,
         this.moveExecutor = Executors.newFixedThreadPool(moverThreads);
         this.dispatchExecutor = Executors.newFixedThreadPool(dispatcherThreads);
         this.maxConcurrentMovesPerNode = maxConcurrentMovesPerNode;
+        this.maxConcurrentMovesLimit = conf.getInt(
+                DFSConfigKeys.DFS_BALANCER_MAX_CONCURRENT_MOVES_KEY,
+                DFSConfigKeys.DFS_BALANCER_MAX_CONCURRENT_MOVES_DEFAULT);
 
         final boolean fallbackToSimpleAuthAllowed = conf.getBoolean(
                 CommonConfigurationKeys.IPC_CLIENT_FALLBACK_TO_SIMPLE_AUTH_ALLOWED_KEY,
@@ -758,6 +896,48 @@ void add(Source source, StorageGroup target) {
         targets.add(target);
     }
 
+    /**
+     * Move a replica of the given block from the source storage group to a
+     * target group of another storage type.  The replicas at the given
+     * locations may serve as proxies.  The move is dispatched without waiting
+     * for it to finish.
+     *
+     * @return false if the move is not good or the target is too busy
+     */
+    boolean scheduleStorageTypeMove(Block b, List<StorageGroup> locations,
+                                    StorageGroup source, StorageGroup target) {
+        final DBlock block;
+        synchronized (globalBlocks) {
+            block = globalBlocks.get(b);
+        }
+        synchronized (block) {
+            block.clearLocations();
+            for (StorageGroup g : locations) {
+                block.addLocation(g);
+            }
+        }
+
+        final DDatanode targetDn = target.getDDatanode();
+        final PendingMove p = new PendingMove();
+        if (!targetDn.addPendingBlock(p)) {
+            return false;
+        }
+        p.source = source;
+        p.target = target;
+        if (!p.markMovedIfGoodStorageTypeMove(block)) {
+            targetDn.removePendingBlock(p);
+            return false;
+        }
+        targets.add(target);
+        moveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                p.dispatch();
+            }
+        });
+        return true;
+    }
+
     private boolean shouldIgnore(DatanodeInfo dn) {
         // ignore decommissioned nodes
         final boolean decommissioned = dn.isDecommissioned();
@@ -796,7 +976,8 @@ List<DatanodeStorageReport> init() throws IOException {
     }
 
     public DDatanode newDatanode(DatanodeStorageReport r) {
-        return new DDatanode(r, maxConcurrentMovesPerNode);
+        return new DDatanode(r, maxConcurrentMovesPerNode,
+                maxConcurrentMovesLimit);
     }
 
     public boolean dispatchAndCheckContinue() throws InterruptedException {
@@ -849,22 +1030,27 @@ static void setBlockMoveWaitTime(long time) {
         blockMoveWaitTime = time;
     }
 
-    /** Wait for all block move confirmations. */
-    private void waitForMoveCompletion() {
+    /**
+     * Wait for all block move confirmations.  Every finished move notifies
+     * the dispatcher, so the wait ends as soon as the last move is done.
+     */
+    void waitForMoveCompletion() {
         for (; ; ) {
-            boolean empty = true;
-            for (StorageGroup t : targets) {
-                if (!t.getDDatanode().isPendingQEmpty()) {
-                    empty = false;
-                    break;
+            synchronized (this) {
+                boolean empty = true;
+                for (StorageGroup t : targets) {
+                    if (!t.getDDatanode().isPendingQEmpty()) {
+                        empty = false;
+                        break;
+                    }
+                }
+                if (empty) {
+                    return; //all pending queues are empty
+                }
+                try {
+                    wait(blockMoveWaitTime);
+                } catch (InterruptedException ignored) {
                 }
-            }
-            if (empty) {
-                return; //all pending queues are empty
-            }
-            try {
-                Thread.sleep(blockMoveWaitTime);
-            } catch (InterruptedException ignored) {
             }
         }
     }
@@ -876,7 +1062,7 @@ private void waitForMoveCompletion() {
      * 2. the block does not have a replica on the target;
      * 3. doing the move does not reduce the number of racks that the block has
      */
-    private boolean isGoodBlockCandidate(Source source, StorageGroup target,
+    private boolean isGoodBlockCandidate(StorageGroup source, StorageGroup target,
                                          DBlock block) {
         if (source.storageType != target.storageType) {
             return false;
@@ -898,11 +1084,44 @@ && isOnSameNodeGroupWithReplicas(target, block, source)) {
         return true;
     }
 
+    /**
+     * Decide if a replica of the block can be moved from source to a target of
+     * another storage type.  The block must not be in the process of being
+     * moved and must have the source replica.  Across datanodes, the target
+     * datanode must not have a replica and the move must not reduce the
+     * number of racks of the block.
+     */
+    private boolean isGoodStorageTypeMove(StorageGroup source,
+                                          StorageGroup target, DBlock block) {
+        if (source.storageType == target.storageType) {
+            return false;
+        }
+        if (movedBlocks.contains(block.getBlock())) {
+            return false;
+        }
+        if (!block.isLocatedOn(source)) {
+            return false;
+        }
+        if (source.getDDatanode() == target.getDDatanode()) {
+            return true;
+        }
+        for (StorageGroup g : block.getLocations()) {
+            if (g.getDDatanode() == target.getDDatanode()) {
+                return false;
+            }
+        }
+        if (cluster.isNodeGroupAware()
+                && isOnSameNodeGroupWithReplicas(target, block, source)) {
+            return false;
+        }
+        return !reduceNumOfRacks(source, target, block);
+    }
+
     /**
      * Determine whether moving the given block replica from source to target
      * would reduce the number of racks of the block replicas.
      */
-    private boolean reduceNumOfRacks(Source source, StorageGroup target,
+    private boolean reduceNumOfRacks(StorageGroup source, StorageGroup target,
                                      DBlock block) {
         final DatanodeInfo sourceDn = source.getDatanodeInfo();
         if (cluster.isOnSameRack(sourceDn, target.getDatanodeInfo())) {
@@ -940,7 +1159,7 @@ private boolean reduceNumOfRacks(Source source, StorageGroup target,
      *         group with target
      */
     private boolean isOnSameNodeGroupWithReplicas(
-            StorageGroup target, DBlock block, Source source) {
+            StorageGroup target, DBlock block, StorageGroup source) {
         final DatanodeInfo targetDn = target.getDatanodeInfo();
         for (StorageGroup g : block.getLocations()) {
             if (g != source && cluster.isOnSameNodeGroup(g.getDatanodeInfo(), targetDn)) {
@@ -0,0 +1,507 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.balancer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.balancer.Dispatcher.DDatanode;
+import org.apache.hadoop.hdfs.server.balancer.Dispatcher.DDatanode.StorageGroup;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * <p>The mover is a tool that moves block replicas between storage types so
+ * that the files under the given paths match a storage policy, e.g. to move
+ * the replicas of hot data onto SSD or of cold data back onto DISK.
+ *
+ * <p>SYNOPSIS
+ * <pre>
+ *      hdfs mover -policy <policy> -p <path> [<path> ...]
+ * </pre>
+ *
+ * <p>DESCRIPTION
+ * <p>In each iteration the mover walks the given paths, compares the storage
+ * types of the replicas of every complete block with the types wanted by the
+ * policy, and schedules a move for each replica on a wrong storage type.  A
+ * replica is moved to a storage of the wanted type on the same datanode when
+ * the datanode has one, which avoids the network; otherwise it is moved to
+ * another datanode, preferably on the same rack.  The moves are carried out
+ * by the balancer {@link Dispatcher}, so they are throttled the same way:
+ * by the concurrent move limit of each datanode and by the balancing
+ * bandwidth of the datanodes.  At most one replica of a block is moved per
+ * iteration.  At the end of each iteration the mover gets the updated
+ * replica locations from the namenode.
+ *
+ * <p>The mover exits when every replica is on the wanted storage type, when
+ * no block has been moved for five consecutive iterations, or when another
+ * mover is running.
+ */
+@InterfaceAudience.Private
+public class Mover {
+    static final Log LOG = LogFactory.getLog(Mover.class);
+
+    private static final Path MOVER_ID_PATH = new Path("/system/mover.id");
+
+    private static final String USAGE = "Usage: java "
+            + Mover.class.getSimpleName()
+            + "\n\t-policy <policy>\tthe storage policy: "
+            + Arrays.toString(Policy.values())
+            + "\n\t-p <path> [<path> ...]\tthe paths to move the replicas of";
+
+    /** The storage types wanted for the replicas of a block. */
+    enum Policy {
+        /** All replicas on DISK. */
+        HOT(StorageType.DISK, StorageType.DISK),
+        /** One replica on SSD, the other replicas on DISK. */
+        ONE_SSD(StorageType.SSD, StorageType.DISK),
+        /** All replicas on SSD. */
+        ALL_SSD(StorageType.SSD, StorageType.SSD);
+
+        private final StorageType first;
+        private final StorageType others;
+
+        private Policy(StorageType first, StorageType others) {
+            this.first = first;
+            this.others = others;
+        }
+
+        /** @return the storage types for the given number of replicas. */
+        List<StorageType> chooseStorageTypes(int replication) {
+            final List<StorageType> types = new LinkedList<StorageType>();
+            for (int i = 0; i < replication; i++) {
+                types.add(i == 0 ? first : others);
+            }
+            return types;
+        }
+
+        static Policy parse(String s) {
+            for (Policy p : values()) {
+                if (p.name().equalsIgnoreCase(s)) {
+                    return p;
+                }
+            }
+            throw new IllegalArgumentException("Cannot parse string \"" + s + "\"");
+        }
+    }
+
+    private final Dispatcher dispatcher;
+    private final NameNodeConnector nnc;
+    private final Policy policy;
+    private final List<Path> paths;
+
+    /** The storage groups of each storage type, candidates for targets. */
+    private final Map<StorageType, List<StorageGroup>> storages
+            = new EnumMap<StorageType, List<StorageGroup>>(StorageType.class);
+
+    Mover(NameNodeConnector nnc, Parameters p, Configuration conf) {
+        final long movedWinWidth = conf.getLong(
+                DFSConfigKeys.DFS_BALANCER_MOVEDWINWIDTH_KEY,
+                DFSConfigKeys.DFS_BALANCER_MOVEDWINWIDTH_DEFAULT);
+        final int moverThreads = conf.getInt(
+                DFSConfigKeys.DFS_BALANCER_MOVERTHREADS_KEY,
+                DFSConfigKeys.DFS_BALANCER_MOVERTHREADS_DEFAULT);
+        final int maxConcurrentMovesPerNode = conf.getInt(
+                DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
+                DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT);
+
+        // the mover schedules the moves itself, no dispatcher thread is used
+        this.dispatcher = new Dispatcher(nnc, Collections.<String>emptySet(),
+                Collections.<String>emptySet(), movedWinWidth, moverThreads, 1,
+                maxConcurrentMovesPerNode, conf);
+        this.nnc = nnc;
+        this.policy = p.policy;
+        this.paths = p.paths;
+    }
+
+    private static long getRemaining(DatanodeStorageReport report, StorageType t) {
+        long remaining = 0L;
+        for (StorageReport r : report.getStorageReports()) {
+            if (r.getStorage().getStorageType() == t) {
+                remaining += r.getRemaining();
+            }
+        }
+        return remaining;
+    }
+
+    /** Create a storage group for each storage type of each datanode. */
+    private void init(List<DatanodeStorageReport> reports) {
+        for (DatanodeStorageReport r : reports) {
+            final DDatanode dn = dispatcher.newDatanode(r);
+            for (StorageType t : StorageType.asList()) {
+                boolean hasType = false;
+                for (StorageReport s : r.getStorageReports()) {
+                    hasType |= s.getStorage().getStorageType() == t;
+                }
+                if (!hasType) {
+                    continue;
+                }
+                final StorageGroup g = dn.addStorageGroup(t, getRemaining(r, t));
+                dispatcher.getStorageGroupMap().put(g);
+                List<StorageGroup> groups = storages.get(t);
+                if (groups == null) {
+                    groups = new ArrayList<StorageGroup>();
+                    storages.put(t, groups);
+                }
+                groups.add(g);
+            }
+        }
+    }
+
+    /**
+     * Schedule the moves needed under the given path.
+     *
+     * @return true if some replica still needs to be moved
+     */
+    private boolean processPath(String fullPath) throws IOException {
+        final DFSClient client = nnc.getDistributedFileSystem().getClient();
+        boolean hasRemaining = false;
+        for (byte[] lastReturnedName = HdfsFileStatus.EMPTY_NAME; ; ) {
+            final DirectoryListing children;
+            try {
+                children = client.listPaths(fullPath, lastReturnedName, true);
+            } catch (IOException e) {
+                LOG.warn("Failed to list directory " + fullPath
+                        + ". Ignore the directory and continue.", e);
+                return hasRemaining;
+            }
+            if (children == null) { // the path does not exist
+                return hasRemaining;
+            }
+            for (HdfsFileStatus child : children.getPartialListing()) {
+                if (child.isSymlink()) {
+                    continue;
+                }
+                if (child.isDir()) {
+                    hasRemaining |= processPath(child.getFullName(fullPath));
+                } else {
+                    hasRemaining |= processFile((HdfsLocatedFileStatus) child);
+                }
+            }
+            if (!children.hasMore()) {
+                return hasRemaining;
+            }
+            lastReturnedName = children.getLastName();
+        }
+    }
+
+    /** @return true if some replica of the file still needs to be moved */
+    private boolean processFile(HdfsLocatedFileStatus status) {
+        final LocatedBlocks locatedBlocks = status.getBlockLocations();
+        final List<LocatedBlock> blocks = locatedBlocks.getLocatedBlocks();
+        boolean hasRemaining = false;
+        for (int i = 0; i < blocks.size(); i++) {
+            if (i == blocks.size() - 1 && !locatedBlocks.isLastBlockComplete()) {
+                continue; // the last block is still being written
+            }
+            hasRemaining |= processBlock(blocks.get(i), status.getReplication());
+        }
+        return hasRemaining;
+    }
+
+    /** @return true if some replica of the block still needs to be moved */
+    private boolean processBlock(LocatedBlock lb, short replication) {
+        final List<StorageType> wanted = policy.chooseStorageTypes(replication);
+        final DatanodeInfo[] datanodes = lb.getLocations();
+        final StorageType[] types = lb.getStorageTypes();
+
+        // the replicas on storage types which are not wanted anymore
+        final List<StorageGroup> locations = new ArrayList<StorageGroup>();
+        final List<StorageGroup> misplaced = new ArrayList<StorageGroup>();
+        for (int i = 0; i < datanodes.length; i++) {
+            final StorageGroup g = dispatcher.getStorageGroupMap().get(
+                    datanodes[i].getDatanodeUuid(), types[i]);
+            if (g == null) { // not a live datanode
+                continue;
+            }
+            locations.add(g);
+            if (!wanted.remove(types[i])) {
+                misplaced.add(g);
+            }
+        }
+
+        // A scheduled move may still fail in the dispatcher, so the block is
+        // checked again in the next iteration whether or not it is scheduled.
+        boolean hasRemaining = false;
+        for (int i = 0; i < misplaced.size() && i < wanted.size(); i++) {
+            scheduleMove(lb, locations, misplaced.get(i), wanted.get(i));
+            hasRemaining = true;
+        }
+        return hasRemaining;
+    }
+
+    /**
+     * Schedule a move of the replica in the source storage group to the given
+     * storage type: on the same datanode if possible, otherwise on the same
+     * rack if possible, otherwise anywhere.
+     *
+     * @return true if the move is scheduled
+     */
+    private boolean scheduleMove(LocatedBlock lb, List<StorageGroup> locations,
+                                 StorageGroup source, StorageType targetType) {
+        final DatanodeInfo sourceDn = source.getDatanodeInfo();
+        final StorageGroup local = dispatcher.getStorageGroupMap().get(
+                sourceDn.getDatanodeUuid(), targetType);
+        if (local != null && scheduleMove(lb, locations, source, local)) {
+            return true;
+        }
+        final List<StorageGroup> candidates = storages.get(targetType);
+        if (candidates == null) {
+            return false;
+        }
+        for (StorageGroup target : candidates) {
+            if (target != local
+                    && dispatcher.getCluster().isOnSameRack(sourceDn, target.getDatanodeInfo())
+                    && scheduleMove(lb, locations, source, target)) {
+                return true;
+            }
+        }
+        for (StorageGroup target : candidates) {
+            if (target != local && scheduleMove(lb, locations, source, target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean scheduleMove(LocatedBlock lb, List<StorageGroup> locations,
+                                 StorageGroup source, StorageGroup target) {
+        final long size = lb.getBlockSize();
+        if (target.availableSizeToMove() < size) {
+            return false;
+        }
+        if (dispatcher.scheduleStorageTypeMove(lb.getBlock().getLocalBlock(),
+                locations, source, target)) {
+            target.incScheduledSize(size);
+            return true;
+        }
+        return false;
+    }
+
+    /** Run an iteration over all the paths. */
+    private ExitStatus run() {
+        try {
+            init(dispatcher.init());
+        } catch (IOException e) {
+            System.out.println(e + ".  Exiting ...");
+            return ExitStatus.IO_EXCEPTION;
+        }
+        try {
+            boolean hasRemaining = false;
+            for (Path path : paths) {
+                hasRemaining |= processPath(path.toUri().getPath());
+            }
+            dispatcher.waitForMoveCompletion();
+            if (!hasRemaining) {
+                return ExitStatus.SUCCESS;
+            }
+            return nnc.shouldContinue(dispatcher.getBytesMoved())
+                    ? ExitStatus.IN_PROGRESS : ExitStatus.NO_MOVE_PROGRESS;
+        } catch (IOException e) {
+            System.out.println(e + ".  Exiting ...");
+            return ExitStatus.IO_EXCEPTION;
+        } finally {
+            dispatcher.shutdownNow();
+        }
+    }
+
+    /**
+     * Move the replicas under the paths in all namenodes.  A path which does
+     * not exist in a namespace is skipped for that namespace.
+     */
+    static int run(Collection<URI> namenodes, Parameters p, Configuration conf)
+            throws IOException, InterruptedException {
+        final long sleeptime = 2000 * conf.getLong(
+                DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY,
+                DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_DEFAULT);
+        LOG.info("namenodes  = " + namenodes);
+        LOG.info("parameters = " + p);
+
+        final List<NameNodeConnector> connectors
+                = new ArrayList<NameNodeConnector>(namenodes.size());
+        try {
+            for (URI uri : namenodes) {
+                final NameNodeConnector nnc = new NameNodeConnector(
+                        Mover.class.getSimpleName(), uri, MOVER_ID_PATH, conf);
+                nnc.getKeyManager().startBlockKeyUpdater();
+                connectors.add(nnc);
+            }
+
+            boolean done = false;
+            for (int iteration = 0; !done; iteration++) {
+                done = true;
+                for (NameNodeConnector nnc : connectors) {
+                    final ExitStatus r = new Mover(nnc, p, conf).run();
+                    if (r == ExitStatus.IN_PROGRESS) {
+                        done = false;
+                    } else if (r != ExitStatus.SUCCESS) {
+                        //must be an error statue, return.
+                        return r.getExitCode();
+                    }
+                }
+
+                if (!done) {
+                    LOG.info("Iteration " + iteration + " done, some replicas"
+                            + " still need to be moved");
+                    Thread.sleep(sleeptime);
+                }
+            }
+        } finally {
+            for (NameNodeConnector nnc : connectors) {
+                nnc.close();
+            }
+        }
+        System.out.println("All replicas are on the wanted storage types. Exiting...");
+        return ExitStatus.SUCCESS.getExitCode();
+    }
+
+    static class Parameters {
+        final Policy policy;
+        final List<Path> paths;
+
+        Parameters(Policy policy, List<Path> paths) {
+            this.policy = policy;
+            this.paths = paths;
+        }
+
+        @Override
+        public String toString() {
+            return Mover.class.getSimpleName() + "." + getClass().getSimpleName()
+                    + "[" + policy + ", paths=" + paths + "]";
+        }
+    }
+
+    static class Cli extends Configured implements Tool {
+        /**
+         * Parse arguments and then run the mover.
+         *
+         * @param args command specific arguments.
+         * @return exit code. 0 indicates success, non-zero indicates failure.
+         */
+        @Override
+        public int run(String[] args) {
+            final long startTime = Time.now();
+            final Configuration conf = getConf();
+
+            try {
+                final Collection<URI> namenodes = DFSUtil.getNsServiceRpcUris(conf);
+                return Mover.run(namenodes, parse(args), conf);
+            } catch (IOException e) {
+                System.out.println(e + ".  Exiting ...");
+                return ExitStatus.IO_EXCEPTION.getExitCode();
+            } catch (InterruptedException e) {
+                System.out.println(e + ".  Exiting ...");
+                return ExitStatus.INTERRUPTED.getExitCode();
+            } finally {
+                System.out.format("%-24s ", DateFormat.getDateTimeInstance().format(new Date()));
+                System.out.println("Mover took "
+                        + StringUtils.formatTime(Time.now() - startTime));
+            }
+        }
+
+        /** parse command line arguments */
+        static Parameters parse(String[] args) {
+            Policy policy = null;
+            final List<Path> paths = new ArrayList<Path>();
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    if ("-policy".equalsIgnoreCase(args[i])) {
+                        checkArgument(++i < args.length,
+                                "Policy value is missing: args = " + Arrays.toString(args));
+                        try {
+                            policy = Policy.parse(args[i]);
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Illegal policy name: " + args[i]);
+                            throw e;
+                        }
+                    } else if ("-p".equalsIgnoreCase(args[i])) {
+                        for (; i + 1 < args.length && !args[i + 1].startsWith("-"); i++) {
+                            paths.add(new Path(args[i + 1]));
+                        }
+                    } else {
+                        throw new IllegalArgumentException("args = "
+                                + Arrays.toString(args));
+                    }
+                }
+                checkArgument(policy != null, "-policy is missing: args = "
+                        + Arrays.toString(args));
+                checkArgument(!paths.isEmpty(), "No path is given: args = "
+                        + Arrays.toString(args));
+            } catch (RuntimeException e) {
+                printUsage(System.err);
+                throw e;
+            }
+            return new Parameters(policy, paths);
+        }
+
+        private static void printUsage(PrintStream out) {
+            out.println(USAGE + "\n");
+        }
+    }
+
+    /**
+     * Run a mover
+     * @param args Command line arguments
+     */
+    public static void main(String[] args) {
+        if (DFSUtil.parseHelpArgument(args, USAGE, System.out, true)) {
+            System.exit(0);
+        }
+
+        try {
+            System.exit(ToolRunner.run(new HdfsConfiguration(), new Cli(), args));
+        } catch (Throwable e) {
+            LOG.error("Exiting mover due an exception", e);
+            System.exit(-1);
+        }
+    }
+}
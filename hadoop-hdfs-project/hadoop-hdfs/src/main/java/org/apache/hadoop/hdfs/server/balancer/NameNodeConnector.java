@@ -31,6 +31,7 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.NameNodeProxies;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
@@ -106,6 +107,11 @@ public DatanodeStorageReport[] getLiveDatanodeStorageReport()
         return client.getDatanodeStorageReport(DatanodeReportType.LIVE);
     }
 
+    /** @return the file system of the namenode */
+    public DistributedFileSystem getDistributedFileSystem() {
+        return (DistributedFileSystem) fs;
+    }
+
     /** @return the key manager */
     public KeyManager getKeyManager() {
         return keyManager;
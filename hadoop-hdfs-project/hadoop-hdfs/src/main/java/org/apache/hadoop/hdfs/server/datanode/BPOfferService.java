@@ -659,9 +659,6 @@ private boolean processCommandFromActive(DatanodeCommand cmd,
                 //
                 Block toDelete[] = bcmd.getBlocks();
                 try {
-                    if (dn.blockScanner != null) {
-                        dn.blockScanner.deleteBlocks(bcmd.getBlockPoolId(), toDelete);
-                    }
                     // using global fsdataset
                     dn.getFSDataset().invalidate(bcmd.getBlockPoolId(), toDelete);
                 } catch (IOException e) {
@@ -257,12 +257,16 @@ private void doTransition(DataNode datanode, StorageDirectory sd,
                               NamespaceInfo nsInfo, StartupOption startOpt) throws IOException {
         if (startOpt == StartupOption.ROLLBACK) {
             doRollback(sd, nsInfo); // rollback if applicable
+            deleteReplicaCache(sd);
         } else {
             // Restore all the files in the trash. The restored files are retained
             // during rolling upgrade rollback. They are deleted during rolling
             // upgrade downgrade.
             int restored = restoreBlockFilesFromTrash(getTrashRootDir(sd));
             LOG.info("Restored " + restored + " block files from trash.");
+            if (restored > 0) {
+                deleteReplicaCache(sd);
+            }
         }
         readProperties(sd);
         checkVersionUpgradable(this.layoutVersion);
@@ -297,6 +301,19 @@ private void doTransition(DataNode datanode, StorageDirectory sd,
                 + nsInfo.getLayoutVersion() + " CTime = " + nsInfo.getCTime());
     }
 
+    /**
+     * The replicas saved at the last shutdown no longer describe the block
+     * pool once block files have been moved back into it, so make the next
+     * load scan the directories instead.
+     */
+    private static void deleteReplicaCache(StorageDirectory sd) {
+        File replicaCache = new File(sd.getCurrentDir(),
+                DataStorage.REPLICA_CACHE_FILE);
+        if (replicaCache.exists() && !replicaCache.delete()) {
+            LOG.warn("Failed to delete " + replicaCache);
+        }
+    }
+
     /**
      * Upgrade to any release after 0.22 (0.22 included) release e.g. 0.22 => 0.23
      * Upgrade procedure is as follows:
@@ -0,0 +1,529 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_BLOCK_READ_CACHE_CAPACITY_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_BLOCK_READ_CACHE_CAPACITY_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_BLOCK_READ_CACHE_MAX_BLOCK_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_BLOCK_READ_CACHE_MAX_BLOCK_SIZE_KEY;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.ExtendedBlockId;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.io.IOUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * An adaptive, off-heap cache of small finalized replicas.
+ * <p>
+ * Unlike {@link org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetCache},
+ * which mlocks replicas named by explicit cache directives, this cache decides
+ * by itself what to keep.  The block data and the meta file of a hot replica
+ * are copied into direct buffers so that {@link BlockSender} can write them
+ * to the socket without going through the page cache or the heap.
+ * <p>
+ * Admission is TinyLFU-style: a small counting sketch tracks how often each
+ * block was requested recently, and a replica is only admitted if it is more
+ * popular than every LRU entry it would displace.  This keeps one-off scans
+ * from flushing the cache.  The sketch is periodically aged by halving its
+ * counters.
+ * <p>
+ * Entries are keyed by block pool and block id, and remember the generation
+ * stamp and length they were loaded with; a lookup with a different generation
+ * stamp or length drops the stale entry.  The total size of the cached data
+ * is bounded by dfs.datanode.block.read.cache.capacity: an admitted replica
+ * reserves its size before its buffers are allocated, and only one load of a
+ * replica runs at a time, the other readers of it waiting for that load.
+ * Evicted buffers are released by the garbage collector once the last reader
+ * is done with them.
+ */
+@InterfaceAudience.Private
+public class BlockReadCache {
+    public static final Log LOG = LogFactory.getLog(BlockReadCache.class);
+
+    /**
+     * A cached replica.  The buffers are shared and read-only; callers must use
+     * {@link #getData()} and {@link #getMeta()} to get private views.
+     */
+    static final class CachedReplica {
+        private final long genStamp;
+        private final long length;
+        private final ByteBuffer data;
+        private final ByteBuffer meta;
+
+        CachedReplica(long genStamp, long length, ByteBuffer data,
+                      ByteBuffer meta) {
+            this.genStamp = genStamp;
+            this.length = length;
+            this.data = data.asReadOnlyBuffer();
+            this.meta = meta.asReadOnlyBuffer();
+        }
+
+        /** @return a private view of the block data, positioned at 0 */
+        ByteBuffer getData() {
+            return data.duplicate();
+        }
+
+        /** @return a private view of the meta file, positioned at 0 */
+        ByteBuffer getMeta() {
+            return meta.duplicate();
+        }
+
+        long getSize() {
+            return data.capacity() + meta.capacity();
+        }
+    }
+
+    private final long capacity;
+    private final long maxBlockSize;
+    private final DataNodeMetrics metrics;
+    private final FrequencySketch sketch;
+
+    /** Access-ordered, so the eldest entry is the LRU victim. */
+    private final LinkedHashMap<ExtendedBlockId, CachedReplica> replicas =
+            new LinkedHashMap<ExtendedBlockId, CachedReplica>(16, 0.75f, true);
+
+    /** The loads in progress, by replica; guarded by this. */
+    private final Map<ExtendedBlockId, SettableFuture<CachedReplica>> loading =
+            new HashMap<ExtendedBlockId, SettableFuture<CachedReplica>>();
+
+    /** Bytes of data and checksums currently held; guarded by this. */
+    private long used = 0;
+
+    /** Bytes reserved for the loads in progress; guarded by this. */
+    private long reserved = 0;
+
+    BlockReadCache(long capacity, long maxBlockSize, DataNodeMetrics metrics) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+        this.maxBlockSize = Math.min(maxBlockSize, Integer.MAX_VALUE);
+        this.metrics = metrics;
+        // Size the sketch for the number of entries we could hold if every
+        // entry were a quarter of the maximum block size.
+        long expectedEntries = capacity / Math.max(1, this.maxBlockSize / 4);
+        this.sketch = new FrequencySketch(
+                (int) Math.min(Math.max(expectedEntries, 256), 1 << 24));
+    }
+
+    /**
+     * Create the cache if it is enabled in the configuration.
+     * @return the cache, or null if dfs.datanode.block.read.cache.capacity is 0
+     */
+    static BlockReadCache create(Configuration conf, DataNodeMetrics metrics) {
+        long capacity = conf.getLong(DFS_DATANODE_BLOCK_READ_CACHE_CAPACITY_KEY,
+                DFS_DATANODE_BLOCK_READ_CACHE_CAPACITY_DEFAULT);
+        if (capacity <= 0) {
+            return null;
+        }
+        long maxBlockSize = conf.getLong(
+                DFS_DATANODE_BLOCK_READ_CACHE_MAX_BLOCK_SIZE_KEY,
+                DFS_DATANODE_BLOCK_READ_CACHE_MAX_BLOCK_SIZE_DEFAULT);
+        LOG.info("Block read cache enabled: capacity=" + capacity
+                + ", maxBlockSize=" + maxBlockSize);
+        return new BlockReadCache(capacity, maxBlockSize, metrics);
+    }
+
+    /**
+     * Look up a finalized replica, loading it from the dataset if it is
+     * popular enough to be admitted.
+     *
+     * @param block the block being read
+     * @param genStamp generation stamp of the replica on disk
+     * @param length visible length of the replica
+     * @param dataset dataset to load the replica from on a miss
+     * @return the cached replica, or null if the replica is not cached or
+     *         could not be loaded
+     * @throws InterruptedIOException if interrupted while waiting for another
+     *         reader's load of the replica
+     */
+    CachedReplica getOrLoad(ExtendedBlock block, long genStamp, long length,
+                            FsDatasetSpi<?> dataset) throws IOException {
+        if (length > maxBlockSize) {
+            return null;
+        }
+        final ExtendedBlockId key = ExtendedBlockId.fromExtendedBlock(block);
+        final SettableFuture<CachedReplica> inFlight;
+        final SettableFuture<CachedReplica> pending;
+        synchronized (this) {
+            sketch.increment(key);
+            CachedReplica cached = replicas.get(key);
+            if (cached != null) {
+                if (cached.genStamp == genStamp && cached.length == length) {
+                    incrHits();
+                    return cached;
+                }
+                // The replica was appended to or recovered since we loaded it.
+                removeEntry(key);
+            }
+            incrMisses();
+            inFlight = loading.get(key);
+            if (inFlight != null) {
+                pending = null;
+            } else if (reserve(key, length)) {
+                pending = SettableFuture.create();
+                loading.put(key, pending);
+            } else {
+                return null;
+            }
+        }
+
+        if (inFlight != null) {
+            // Another reader is loading the replica; use what it loads, unless
+            // that is another version of the replica.
+            final CachedReplica loaded = await(inFlight);
+            return loaded != null && loaded.genStamp == genStamp
+                    && loaded.length == length ? loaded : null;
+        }
+
+        // Read the replica without holding the cache lock.
+        CachedReplica loaded = null;
+        long reservedBytes = length;
+        try {
+            LengthInputStream metaIn = dataset.getMetaDataInputStream(block);
+            if (metaIn != null) {
+                if (metaIn.getLength() <= Integer.MAX_VALUE
+                        && reserveMore(key, metaIn.getLength())) {
+                    reservedBytes += metaIn.getLength();
+                    loaded = load(block, genStamp, length, metaIn, dataset);
+                } else {
+                    IOUtils.cleanup(LOG, metaIn);
+                }
+            }
+        } catch (IOException e) {
+            // The cache is only an optimization; the reader goes to disk, and
+            // reports any real problem with the replica from there.
+            LOG.warn("Failed to cache " + block, e);
+            if (metrics != null) {
+                metrics.incrBlockReadCacheLoadFailures();
+            }
+        } finally {
+            synchronized (this) {
+                reserved -= reservedBytes;
+                // Not cached if it was invalidated while it was being loaded.
+                if (loading.get(key) == pending) {
+                    loading.remove(key);
+                    if (loaded != null) {
+                        removeEntry(key);
+                        evictFor(loaded.getSize());
+                        used += loaded.getSize();
+                        replicas.put(key, loaded);
+                    }
+                }
+            }
+            pending.set(loaded);
+        }
+        return loaded;
+    }
+
+    /** Wait for another reader's load of a replica. */
+    private static CachedReplica await(SettableFuture<CachedReplica> inFlight)
+            throws IOException {
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for a replica to be cached");
+        } catch (ExecutionException e) {
+            // Loads are only ever completed with set(); read from disk.
+            return null;
+        }
+    }
+
+    /**
+     * Drop a replica from the cache, e.g. because it was deleted.
+     */
+    public synchronized void invalidate(String bpid, long blockId) {
+        final ExtendedBlockId key = new ExtendedBlockId(blockId, bpid);
+        removeEntry(key);
+        loading.remove(key);
+    }
+
+    /** @return the number of bytes currently cached */
+    @VisibleForTesting
+    synchronized long getUsed() {
+        return used;
+    }
+
+    /** @return the number of bytes reserved for loads in progress */
+    @VisibleForTesting
+    synchronized long getReserved() {
+        return reserved;
+    }
+
+    /** @return the number of replicas currently cached */
+    @VisibleForTesting
+    synchronized int size() {
+        return replicas.size();
+    }
+
+    /**
+     * Admit a replica and reserve space for its data, evicting entries as
+     * needed.
+     * @return false if the replica is not admitted
+     */
+    private boolean reserve(ExtendedBlockId key, long size) {
+        if (!canAdmit(key, size)) {
+            return false;
+        }
+        evictFor(size);
+        reserved += size;
+        return true;
+    }
+
+    /**
+     * Reserve space for the meta file of a replica being loaded.
+     * @return false if it no longer fits, and the replica is not cached
+     */
+    private synchronized boolean reserveMore(ExtendedBlockId key, long size) {
+        return reserve(key, size);
+    }
+
+    /**
+     * Decide whether a replica of the given size may enter the cache.  It is
+     * admitted if it fits into free space, or if it was requested more often
+     * than each of the LRU entries that would have to be evicted.
+     */
+    private boolean canAdmit(ExtendedBlockId key, long size) {
+        if (size > capacity) {
+            return false;
+        }
+        final int frequency = sketch.frequency(key);
+        if (frequency < 2) {
+            // Never seen before; one-off reads are not worth caching.
+            return false;
+        }
+        long needed = used + reserved + size - capacity;
+        if (needed <= 0) {
+            return true;
+        }
+        Iterator<Map.Entry<ExtendedBlockId, CachedReplica>> it =
+                replicas.entrySet().iterator();
+        while (needed > 0 && it.hasNext()) {
+            Map.Entry<ExtendedBlockId, CachedReplica> victim = it.next();
+            if (victim.getKey().equals(key)) {
+                needed -= victim.getValue().getSize();
+                continue;
+            }
+            if (sketch.frequency(victim.getKey()) >= frequency) {
+                return false;
+            }
+            needed -= victim.getValue().getSize();
+        }
+        return needed <= 0;
+    }
+
+    /** Evict LRU entries until {@code size} more bytes fit. */
+    private void evictFor(long size) {
+        Iterator<Map.Entry<ExtendedBlockId, CachedReplica>> it =
+                replicas.entrySet().iterator();
+        while (used + reserved + size > capacity && it.hasNext()) {
+            Map.Entry<ExtendedBlockId, CachedReplica> victim = it.next();
+            it.remove();
+            used -= victim.getValue().getSize();
+            if (metrics != null) {
+                metrics.incrBlockReadCacheEvictions();
+            }
+        }
+    }
+
+    private void removeEntry(ExtendedBlockId key) {
+        CachedReplica removed = replicas.remove(key);
+        if (removed != null) {
+            used -= removed.getSize();
+        }
+    }
+
+    private void incrHits() {
+        if (metrics != null) {
+            metrics.incrBlockReadCacheHits();
+        }
+    }
+
+    private void incrMisses() {
+        if (metrics != null) {
+            metrics.incrBlockReadCacheMisses();
+        }
+    }
+
+    /**
+     * Read the block and meta file of a replica into direct buffers.  The
+     * meta stream is closed.
+     * @return the loaded replica
+     */
+    private static CachedReplica load(ExtendedBlock block, long genStamp,
+                                      long length, LengthInputStream metaIn, FsDatasetSpi<?> dataset)
+            throws IOException {
+        InputStream blockIn = null;
+        try {
+            ByteBuffer meta = readFully(metaIn, (int) metaIn.getLength());
+            blockIn = dataset.getBlockInputStream(block, 0);
+            ByteBuffer data = readFully(blockIn, (int) length);
+            return new CachedReplica(genStamp, length, data, meta);
+        } finally {
+            IOUtils.cleanup(LOG, metaIn, blockIn);
+        }
+    }
+
+    private static ByteBuffer readFully(InputStream in, int len)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(len);
+        // For a FileInputStream this reads straight into the direct buffer.
+        ReadableByteChannel ch = Channels.newChannel(in);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException("Premature EOF: read " + buf.position()
+                        + " of " + len + " bytes");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * An input stream over a private view of a cached buffer.
+     */
+    static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
+    /**
+     * A count-min sketch with 4-bit saturating counters.  Every
+     * {@code 10 * width} increments all counters are halved, so that the
+     * sketch reflects recent popularity rather than all-time popularity.
+     */
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {
+                0x97cb3127, 0xb7c56ab1, 0x5f3b9e2d, 0x2d4c8f71 };
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+            table = new byte[DEPTH][width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (table[i][index] < MAX_COUNT) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table[i][indexOf(hash, i)]);
+            }
+            return min;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = (byte) (row[j] >>> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int i) {
+            int h = (hash ^ SEEDS[i]) * 0x9e3779b9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int h) {
+            h ^= (h >>> 17);
+            h *= 0xed5ad4bb;
+            h ^= (h >>> 11);
+            return h;
+        }
+    }
+}
@@ -191,20 +191,12 @@ class BlockReceiver implements Closeable {
                         break;
                     case PIPELINE_SETUP_APPEND:
                         replicaInfo = datanode.data.append(block, newGs, minBytesRcvd);
-                        if (datanode.blockScanner != null) { // remove from block scanner
-                            datanode.blockScanner.deleteBlock(block.getBlockPoolId(),
-                                    block.getLocalBlock());
-                        }
                         block.setGenerationStamp(newGs);
                         datanode.notifyNamenodeReceivingBlock(
                                 block, replicaInfo.getStorageUuid());
                         break;
                     case PIPELINE_SETUP_APPEND_RECOVERY:
                         replicaInfo = datanode.data.recoverAppend(block, newGs, minBytesRcvd);
-                        if (datanode.blockScanner != null) { // remove from block scanner
-                            datanode.blockScanner.deleteBlock(block.getBlockPoolId(),
-                                    block.getLocalBlock());
-                        }
                         block.setGenerationStamp(newGs);
                         datanode.notifyNamenodeReceivingBlock(
                                 block, replicaInfo.getStorageUuid());
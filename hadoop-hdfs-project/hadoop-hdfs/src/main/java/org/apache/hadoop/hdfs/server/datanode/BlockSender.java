@@ -37,6 +37,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
@@ -130,6 +131,8 @@ class BlockSender implements java.io.Closeable {
     private final boolean transferToAllowed;
     /** Set to true once entire requested byte range has been sent to the client */
     private boolean sentEntireByteRange;
+    /** Set to true if reading or verifying the local replica files failed */
+    private boolean localReadFailed;
     /** When true, verify checksum while reading from checksum file */
     private final boolean verifyChecksum;
     /** Format used to print client trace log messages */
@@ -139,6 +142,8 @@ class BlockSender implements java.io.Closeable {
 
     /** The file descriptor of the block being sent */
     private FileDescriptor blockInFd;
+    /** Block data if the replica is served from the {@link BlockReadCache} */
+    private ByteBuffer cachedData;
 
     // Cache-management related fields
     private final long readaheadLength;
@@ -222,12 +227,10 @@ class BlockSender implements java.io.Closeable {
                         "If verifying checksum, currently must also send it.");
             }
 
-            final Replica replica;
-            final long replicaVisibleLength;
-            synchronized (datanode.data) {
-                replica = getReplica(block, datanode);
-                replicaVisibleLength = replica.getVisibleLength();
-            }
+            // Replica lookups do not need the dataset lock, so a slow writer
+            // holding it cannot stall readers.
+            final Replica replica = getReplica(block, datanode);
+            final long replicaVisibleLength = replica.getVisibleLength();
             // if there is a write in progress
             ChunkChecksum chunkChecksum = null;
             if (replica instanceof ReplicaBeingWritten) {
@@ -260,9 +263,21 @@ class BlockSender implements java.io.Closeable {
        * False,  True: will verify checksum
        * False, False: throws IOException file not found
        */
+            // Small, hot finalized replicas may be served from memory.  A
+            // verifying read, i.e. the block scanner, must see the disk.
+            BlockReadCache.CachedReplica cached = null;
+            final BlockReadCache readCache = datanode.getBlockReadCache();
+            if (readCache != null && !verifyChecksum
+                    && replica.getState() == ReplicaState.FINALIZED) {
+                cached = readCache.getOrLoad(block, replica.getGenerationStamp(),
+                        replicaVisibleLength, datanode.data);
+            }
+
             DataChecksum csum = null;
             if (verifyChecksum || sendChecksum) {
-                final InputStream metaIn = datanode.data.getMetaDataInputStream(block);
+                final InputStream metaIn = cached != null
+                        ? new BlockReadCache.ByteBufferInputStream(cached.getMeta())
+                        : datanode.data.getMetaDataInputStream(block);
                 if (!corruptChecksumOk || metaIn != null) {
                     if (metaIn == null) {
                         //need checksum but meta-data not found
@@ -353,7 +368,14 @@ class BlockSender implements java.io.Closeable {
             if (DataNode.LOG.isDebugEnabled()) {
                 DataNode.LOG.debug("replica=" + replica);
             }
-            blockIn = datanode.data.getBlockInputStream(block, offset); // seek to offset
+            if (cached != null) {
+                cachedData = cached.getData();
+                ByteBuffer in = cached.getData();
+                in.position((int) offset);
+                blockIn = new BlockReadCache.ByteBufferInputStream(in);
+            } else {
+                blockIn = datanode.data.getBlockInputStream(block, offset); // seek to offset
+            }
             if (blockIn instanceof FileInputStream) {
                 blockInFd = ((FileInputStream) blockIn).getFD();
             } else {
@@ -404,6 +426,7 @@ public void close() throws IOException {
             }
             blockIn = null;
             blockInFd = null;
+            cachedData = null;
         }
         // throw IOException if there is any
         if (ioe != null) {
@@ -527,10 +550,15 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
 
         int dataOff = checksumOff + checksumDataLen;
         if (!transferTo) { // normal transfer
-            IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+            try {
+                IOUtils.readFully(blockIn, buf, dataOff, dataLen);
 
-            if (verifyChecksum) {
-                verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
+                if (verifyChecksum) {
+                    verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
+                }
+            } catch (IOException e) {
+                localReadFailed = true;
+                throw e;
             }
         }
 
@@ -541,14 +569,22 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
                 sockOut.write(buf, headerOff, dataOff - headerOff);
 
                 // no need to flush since we know out is not a buffered stream
-                FileChannel fileCh = ((FileInputStream) blockIn).getChannel();
                 LongWritable waitTime = new LongWritable();
                 LongWritable transferTime = new LongWritable();
-                sockOut.transferToFully(fileCh, blockInPosition, dataLen,
-                        waitTime, transferTime);
+                if (cachedData != null) {
+                    // write straight from the off-heap cache to the socket
+                    ByteBuffer data = cachedData.duplicate();
+                    data.limit((int) (offset + dataLen));
+                    data.position((int) offset);
+                    sockOut.writeFully(data, waitTime, transferTime);
+                } else {
+                    FileChannel fileCh = ((FileInputStream) blockIn).getChannel();
+                    sockOut.transferToFully(fileCh, blockInPosition, dataLen,
+                            waitTime, transferTime);
+                    blockInPosition += dataLen;
+                }
                 datanode.metrics.addSendDataPacketBlockedOnNetworkNanos(waitTime.get());
                 datanode.metrics.addSendDataPacketTransferNanos(transferTime.get());
-                blockInPosition += dataLen;
             } else {
                 // normal transfer
                 out.write(buf, headerOff, dataOff + dataLen - headerOff);
@@ -615,6 +651,7 @@ private void readChecksum(byte[] buf, final int checksumOffset,
                     Arrays.fill(buf, checksumOffset, checksumLen, (byte) 0);
                 }
             } else {
+                localReadFailed = true;
                 throw e;
             }
         }
@@ -693,10 +730,12 @@ long sendBlock(DataOutputStream out, OutputStream baseStream,
             int pktBufSize = PacketHeader.PKT_MAX_HEADER_LEN;
             boolean transferTo = transferToAllowed && !verifyChecksum
                     && baseStream instanceof SocketOutputStream
-                    && blockIn instanceof FileInputStream;
+                    && (blockIn instanceof FileInputStream || cachedData != null);
             if (transferTo) {
-                FileChannel fileChannel = ((FileInputStream) blockIn).getChannel();
-                blockInPosition = fileChannel.position();
+                if (cachedData == null) {
+                    FileChannel fileChannel = ((FileInputStream) blockIn).getChannel();
+                    blockInPosition = fileChannel.position();
+                }
                 streamForSendChunks = baseStream;
                 maxChunksPerPacket = numberOfChunks(TRANSFERTO_BUFFER_SIZE);
 
@@ -811,6 +850,15 @@ boolean didSendEntireByteRange() {
         return sentEntireByteRange;
     }
 
+    /**
+     * @return true if sending failed because the block or meta file could
+     * not be read or did not match its checksums, rather than because of
+     * the network.
+     */
+    boolean didLocalReadFail() {
+        return localReadFailed;
+    }
+
     /**
      * @return the checksum type that will be used with this block transfer.
      */
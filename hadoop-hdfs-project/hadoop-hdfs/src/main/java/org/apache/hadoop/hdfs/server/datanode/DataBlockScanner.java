@@ -19,7 +19,14 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -29,7 +36,7 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
@@ -37,266 +44,230 @@
 import com.google.common.annotations.VisibleForTesting;
 
 /**
- * DataBlockScanner manages block scanning for all the block pools. For each
- * block pool a {@link BlockPoolSliceScanner} is created which runs in a separate
- * thread to scan the blocks for that block pool. When a {@link BPOfferService}
- * becomes alive or dies, blockPoolScannerMap in this class is updated.
+ * DataBlockScanner manages block scanning for all the volumes.  Each volume
+ * has its own {@link VolumeScanner} thread, so that the disks are scanned in
+ * parallel and a slow disk only holds up its own scan.  Each volume scanner
+ * walks the replicas on disk with a saved cursor rather than keeping a
+ * record per replica in memory.  When a {@link BPOfferService} becomes alive
+ * or dies, its block pool is enabled or disabled on every volume scanner.
  */
 @InterfaceAudience.Private
-public class DataBlockScanner implements Runnable {
+public class DataBlockScanner {
     public static final Log LOG = LogFactory.getLog(DataBlockScanner.class);
-    private final DataNode datanode;
-    private final FsDatasetSpi<? extends FsVolumeSpi> dataset;
-    private final Configuration conf;
 
-    static final int SLEEP_PERIOD_MS = 5 * 1000;
+    private static final long DEFAULT_SCAN_PERIOD_HOURS = 21 * 24L; // three weeks
 
     /**
-     * Map to find the BlockPoolScanner for a given block pool id. This is updated
-     * when a BPOfferService becomes alive or dies.
+     * Scan period in ms, overriding dfs.datanode.scan.period.hours; lets
+     * tests use periods shorter than an hour.
      */
-    private final TreeMap<String, BlockPoolSliceScanner> blockPoolScannerMap =
-            new TreeMap<String, BlockPoolSliceScanner>();
-    Thread blockScannerThread = null;
+    @VisibleForTesting
+    static final String INTERNAL_SCAN_PERIOD_MS_KEY =
+            "internal.dfs.block.scanner.scan.period.ms";
+
+    static class Conf {
+        final long targetBytesPerSec;
+        final long scanPeriodMs;
+        final long cursorSaveMs;
+
+        Conf(Configuration conf) {
+            this.targetBytesPerSec = Math.max(0L, conf.getLong(
+                    DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND,
+                    DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT));
+            long hours = conf.getInt(DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY,
+                    DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT);
+            if (hours == 0) {
+                hours = DEFAULT_SCAN_PERIOD_HOURS;
+            }
+            this.scanPeriodMs = conf.getLong(INTERNAL_SCAN_PERIOD_MS_KEY,
+                    hours * 3600 * 1000);
+            this.cursorSaveMs = Math.max(0L, conf.getLong(
+                    DFSConfigKeys.DFS_BLOCK_SCANNER_CURSOR_SAVE_INTERVAL_MS_KEY,
+                    DFSConfigKeys.DFS_BLOCK_SCANNER_CURSOR_SAVE_INTERVAL_MS_DEFAULT));
+        }
+    }
+
+    private final DataNode datanode;
+    private final FsDatasetSpi<? extends FsVolumeSpi> dataset;
+    private final Conf conf;
+
+    /** The volume scanners, by storage ID. */
+    private final TreeMap<String, VolumeScanner> scanners =
+            new TreeMap<String, VolumeScanner>();
+
+    /** The block pools being scanned. */
+    private final Set<String> blockPoolIds = new TreeSet<String>();
+
+    private boolean started = false;
 
     DataBlockScanner(DataNode datanode,
                      FsDatasetSpi<? extends FsVolumeSpi> dataset,
                      Configuration conf) {
         this.datanode = datanode;
         this.dataset = dataset;
-        this.conf = conf;
+        this.conf = new Conf(conf);
+        LOG.info("Periodic Block Verification Scanner initialized with interval "
+                + (this.conf.scanPeriodMs / 3600 / 1000) + " hours and "
+                + this.conf.targetBytesPerSec + " bytes per second per volume");
+    }
+
+    /**
+     * @return false if the configuration turns block scanning off.
+     */
+    static boolean isEnabled(Configuration conf) {
+        return conf.getInt(DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY,
+                DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT) >= 0
+                && conf.getLong(DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND,
+                DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT) > 0;
     }
 
-    @Override
-    public void run() {
-        String currentBpId = "";
-        boolean firstRun = true;
-        while (datanode.shouldRun && !Thread.interrupted()) {
-            //Sleep everytime except in the first iteration.
-            if (!firstRun) {
-                try {
-                    Thread.sleep(SLEEP_PERIOD_MS);
-                } catch (InterruptedException ex) {
-                    // Interrupt itself again to set the interrupt status
-                    blockScannerThread.interrupt();
+    public synchronized void start() {
+        started = true;
+        refreshVolumes();
+    }
+
+    /**
+     * Start a scanner for each new volume of the dataset, and stop the
+     * scanners of volumes that were removed, e.g. because they failed.
+     */
+    public void refreshVolumes() {
+        final List<VolumeScanner> stopped = new ArrayList<VolumeScanner>();
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            final Set<String> storageIds = new HashSet<String>();
+            for (FsVolumeSpi volume : dataset.getVolumes()) {
+                storageIds.add(volume.getStorageID());
+                if (scanners.containsKey(volume.getStorageID())) {
                     continue;
                 }
-            } else {
-                firstRun = false;
-            }
-
-            BlockPoolSliceScanner bpScanner = getNextBPScanner(currentBpId);
-            if (bpScanner == null) {
-                // Possible if thread is interrupted
-                continue;
+                VolumeScanner scanner = new VolumeScanner(conf, datanode, volume);
+                for (String bpid : blockPoolIds) {
+                    scanner.enableBlockPoolId(bpid);
+                }
+                scanner.start();
+                scanners.put(volume.getStorageID(), scanner);
+                LOG.info("Added " + scanner);
             }
-            currentBpId = bpScanner.getBlockPoolId();
-            // If BPOfferService for this pool is not alive, don't process it
-            if (!datanode.isBPServiceAlive(currentBpId)) {
-                LOG.warn("Block Pool " + currentBpId + " is not alive");
-                // Remove in case BP service died abruptly without proper shutdown
-                removeBlockPool(currentBpId);
-                continue;
+            for (Iterator<Map.Entry<String, VolumeScanner>> i =
+                         scanners.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<String, VolumeScanner> e = i.next();
+                if (!storageIds.contains(e.getKey())) {
+                    i.remove();
+                    e.getValue().shutdown();
+                    stopped.add(e.getValue());
+                    LOG.info("Removed " + e.getValue());
+                }
             }
-            bpScanner.scanBlockPoolSlice();
-        }
-
-        // Call shutdown for each allocated BlockPoolSliceScanner.
-        for (BlockPoolSliceScanner bpss : blockPoolScannerMap.values()) {
-            bpss.shutdown();
         }
+        // Join outside the lock, the scanners call back into this class.
+        joinScanners(stopped);
     }
 
-    // Wait for at least one block pool to be up
-    private void waitForInit() {
-        while ((getBlockPoolSetSize() < datanode.getAllBpOs().length)
-                || (getBlockPoolSetSize() < 1)) {
+    private static void joinScanners(List<VolumeScanner> toJoin) {
+        for (VolumeScanner scanner : toJoin) {
             try {
-                Thread.sleep(SLEEP_PERIOD_MS);
+                scanner.join();
             } catch (InterruptedException e) {
-                blockScannerThread.interrupt();
+                Thread.currentThread().interrupt();
                 return;
             }
         }
     }
 
-    /**
-     * Find next block pool id to scan. There should be only one current
-     * verification log file. Find which block pool contains the current
-     * verification log file and that is used as the starting block pool id. If no
-     * current files are found start with first block-pool in the blockPoolSet.
-     * However, if more than one current files are found, the one with latest
-     * modification time is used to find the next block pool id.
-     */
-    private BlockPoolSliceScanner getNextBPScanner(String currentBpId) {
-
-        String nextBpId = null;
-        while (datanode.shouldRun && !blockScannerThread.isInterrupted()) {
-            waitForInit();
-            synchronized (this) {
-                if (getBlockPoolSetSize() > 0) {
-                    // Find nextBpId by the minimum of the last scan time
-                    long lastScanTime = 0;
-                    for (String bpid : blockPoolScannerMap.keySet()) {
-                        final long t = getBPScanner(bpid).getLastScanTime();
-                        if (t != 0L) {
-                            if (bpid == null || t < lastScanTime) {
-                                lastScanTime = t;
-                                nextBpId = bpid;
-                            }
-                        }
-                    }
-
-                    // nextBpId can still be null if no current log is found,
-                    // find nextBpId sequentially.
-                    if (nextBpId == null) {
-                        nextBpId = blockPoolScannerMap.higherKey(currentBpId);
-                        if (nextBpId == null) {
-                            nextBpId = blockPoolScannerMap.firstKey();
-                        }
-                    }
-                    if (nextBpId != null) {
-                        return getBPScanner(nextBpId);
-                    }
-                }
-            }
-            LOG.warn("No block pool is up, going to wait");
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException ex) {
-                LOG.warn("Received exception: " + ex);
-                blockScannerThread.interrupt();
-                return null;
-            }
+    public synchronized void addBlockPool(String blockPoolId) {
+        if (!blockPoolIds.add(blockPoolId)) {
+            return;
         }
-        return null;
-    }
-
-    private synchronized int getBlockPoolSetSize() {
-        return blockPoolScannerMap.size();
-    }
-
-    @VisibleForTesting
-    synchronized BlockPoolSliceScanner getBPScanner(String bpid) {
-        return blockPoolScannerMap.get(bpid);
-    }
-
-    private synchronized String[] getBpIdList() {
-        return blockPoolScannerMap.keySet().toArray(
-                new String[blockPoolScannerMap.keySet().size()]);
-    }
-
-    public void addBlock(ExtendedBlock block) {
-        BlockPoolSliceScanner bpScanner = getBPScanner(block.getBlockPoolId());
-        if (bpScanner != null) {
-            bpScanner.addBlock(block);
-        } else {
-            LOG.warn("No block pool scanner found for block pool id: "
-                    + block.getBlockPoolId());
+        for (VolumeScanner scanner : scanners.values()) {
+            scanner.enableBlockPoolId(blockPoolId);
         }
+        LOG.info("Added bpid=" + blockPoolId + " to the block scanner, "
+                + blockPoolIds.size() + " block pools are being scanned");
     }
 
-    boolean isInitialized(String bpid) {
-        return getBPScanner(bpid) != null;
-    }
-
-    public synchronized void printBlockReport(StringBuilder buffer,
-                                              boolean summary) {
-        String[] bpIdList = getBpIdList();
-        if (bpIdList == null || bpIdList.length == 0) {
-            buffer.append("Periodic block scanner is not yet initialized. "
-                    + "Please check back again after some time.");
+    public synchronized void removeBlockPool(String blockPoolId) {
+        if (!blockPoolIds.remove(blockPoolId)) {
             return;
         }
-        for (String bpid : bpIdList) {
-            BlockPoolSliceScanner bpScanner = getBPScanner(bpid);
-            buffer.append("\n\nBlock report for block pool: " + bpid + "\n");
-            bpScanner.printBlockReport(buffer, summary);
-            buffer.append("\n");
+        for (VolumeScanner scanner : scanners.values()) {
+            scanner.disableBlockPoolId(blockPoolId);
         }
+        LOG.info("Removed bpid=" + blockPoolId + " from the block scanner");
     }
 
-    public void deleteBlock(String poolId, Block toDelete) {
-        BlockPoolSliceScanner bpScanner = getBPScanner(poolId);
-        if (bpScanner != null) {
-            bpScanner.deleteBlock(toDelete);
-        } else {
-            LOG.warn("No block pool scanner found for block pool id: "
-                    + poolId);
-        }
+    synchronized boolean isInitialized(String bpid) {
+        return blockPoolIds.contains(bpid);
     }
 
-    public void deleteBlocks(String poolId, Block[] toDelete) {
-        BlockPoolSliceScanner bpScanner = getBPScanner(poolId);
-        if (bpScanner != null) {
-            bpScanner.deleteBlocks(toDelete);
-        } else {
-            LOG.warn("No block pool scanner found for block pool id: "
-                    + poolId);
+    /**
+     * Ask for the given block to be verified soon, because reading it failed.
+     */
+    public void markSuspectBlock(ExtendedBlock block) {
+        final FsVolumeSpi volume = dataset.getVolume(block);
+        if (volume == null) {
+            return;
         }
-    }
-
-    public void shutdown() {
+        final VolumeScanner scanner;
         synchronized (this) {
-            if (blockScannerThread != null) {
-                blockScannerThread.interrupt();
-            }
+            scanner = scanners.get(volume.getStorageID());
         }
-
-        // We cannot join within the synchronized block, because it would create a
-        // deadlock situation.  blockScannerThread calls other synchronized methods.
-        if (blockScannerThread != null) {
-            try {
-                blockScannerThread.join();
-            } catch (InterruptedException e) {
-                // shutting down anyway
-            }
+        if (scanner != null) {
+            scanner.markSuspectBlock(block);
         }
     }
 
-    public synchronized void addBlockPool(String blockPoolId) {
-        if (blockPoolScannerMap.get(blockPoolId) != null) {
-            return;
-        }
-        BlockPoolSliceScanner bpScanner = new BlockPoolSliceScanner(blockPoolId,
-                datanode, dataset, conf);
-        blockPoolScannerMap.put(blockPoolId, bpScanner);
-        LOG.info("Added bpid=" + blockPoolId + " to blockPoolScannerMap, new size="
-                + blockPoolScannerMap.size());
+    @VisibleForTesting
+    synchronized VolumeScanner.Statistics getVolumeStats(String storageId) {
+        VolumeScanner scanner = scanners.get(storageId);
+        return scanner == null ? null : scanner.getStatistics();
     }
 
-    public synchronized void removeBlockPool(String blockPoolId) {
-        BlockPoolSliceScanner bpss = blockPoolScannerMap.remove(blockPoolId);
-        if (bpss != null) {
-            bpss.shutdown();
+    public synchronized void printBlockReport(StringBuilder buffer) {
+        if (scanners.isEmpty()) {
+            buffer.append("Periodic block scanner is not yet initialized. "
+                    + "Please check back again after some time.");
+            return;
         }
-        LOG.info("Removed bpid=" + blockPoolId + " from blockPoolScannerMap");
-    }
-
-    @VisibleForTesting
-    long getBlocksScannedInLastRun(String bpid) throws IOException {
-        BlockPoolSliceScanner bpScanner = getBPScanner(bpid);
-        if (bpScanner == null) {
-            throw new IOException("Block Pool: " + bpid + " is not running");
-        } else {
-            return bpScanner.getBlocksScannedInLastRun();
+        buffer.append(String.format("Block pools    : %s%n", blockPoolIds));
+        buffer.append(String.format("Scan period    : %d hours%n",
+                conf.scanPeriodMs / 3600 / 1000));
+        buffer.append(String.format("Scan rate limit: %d KBps per volume%n",
+                conf.targetBytesPerSec / 1024));
+        for (VolumeScanner scanner : scanners.values()) {
+            VolumeScanner.Statistics stats = scanner.getStatistics();
+            buffer.append(String.format("%n%s%n", scanner));
+            buffer.append(String.format("    Blocks scanned               : %d%n",
+                    stats.blocksScanned));
+            buffer.append(String.format("    Blocks scanned this period   : %d%n",
+                    stats.blocksScannedInCurrentPeriod));
+            buffer.append(String.format("    Bytes scanned                : %d%n",
+                    stats.bytesScanned));
+            buffer.append(String.format("    Suspect blocks scanned       : %d%n",
+                    stats.suspectBlocksScanned));
+            buffer.append(String.format("    Scan errors                  : %d%n",
+                    stats.scanErrors));
+            buffer.append(String.format("    Last block scanned           : %s%n",
+                    stats.lastBlockScanned));
+            buffer.append(String.format("    Current block pool           : %s%n",
+                    stats.curBlockPoolId));
         }
     }
 
-    @VisibleForTesting
-    long getTotalScans(String bpid) throws IOException {
-        BlockPoolSliceScanner bpScanner = getBPScanner(bpid);
-        if (bpScanner == null) {
-            throw new IOException("Block Pool: " + bpid + " is not running");
-        } else {
-            return bpScanner.getTotalScans();
+    public void shutdown() {
+        final List<VolumeScanner> stopped;
+        synchronized (this) {
+            started = false;
+            stopped = new ArrayList<VolumeScanner>(scanners.values());
+            scanners.clear();
+            for (VolumeScanner scanner : stopped) {
+                scanner.shutdown();
+            }
         }
-    }
-
-    public void start() {
-        blockScannerThread = new Thread(this);
-        blockScannerThread.setDaemon(true);
-        blockScannerThread.start();
+        // We cannot join within the synchronized block, because it would
+        // create a deadlock: the scanners call synchronized methods.
+        joinScanners(stopped);
     }
 
     @InterfaceAudience.Private
@@ -311,15 +282,13 @@ public void doGet(HttpServletRequest request,
             DataNode datanode = (DataNode) getServletContext().getAttribute("datanode");
             DataBlockScanner blockScanner = datanode.blockScanner;
 
-            boolean summary = (request.getParameter("listblocks") == null);
-
             StringBuilder buffer = new StringBuilder(8 * 1024);
             if (blockScanner == null) {
                 LOG.warn("Periodic block scanner is not running");
                 buffer.append("Periodic block scanner is not running. " +
                         "Please check the datanode log if this is unexpected.");
             } else {
-                blockScanner.printBlockReport(buffer, summary);
+                blockScanner.printBlockReport(buffer);
             }
             response.getWriter().write(buffer.toString()); // extra copy!
         }
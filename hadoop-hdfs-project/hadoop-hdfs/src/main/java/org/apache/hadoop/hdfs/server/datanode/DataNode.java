@@ -43,8 +43,6 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_KEYTAB_FILE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_MAX_LOCKED_MEMORY_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_PLUGINS_KEY;
-import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT;
-import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_STARTUP_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATA_TRANSFER_PROTECTION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT;
@@ -313,6 +311,7 @@ public static InetSocketAddress createSocketAddr(String target) {
     private final List<String> usersWithLocalPathAccess;
     private final boolean connectToDnViaHostname;
     ReadaheadPool readaheadPool;
+    private BlockReadCache blockReadCache;
     SaslDataTransferClient saslClient;
     SaslDataTransferServer saslServer;
     private final boolean getHdfsBlockLocationsEnabled;
@@ -588,8 +587,7 @@ private synchronized void initDataBlockScanner(Configuration conf) {
         }
         String reason = null;
         assert data != null;
-        if (conf.getInt(DFS_DATANODE_SCAN_PERIOD_HOURS_KEY,
-                DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT) < 0) {
+        if (!DataBlockScanner.isEnabled(conf)) {
             reason = "verification is turned off by configuration";
         } else if ("SimulatedFSDataset".equals(data.getClass().getSimpleName())) {
             reason = "verifcation is not supported by SimulatedFSDataset";
@@ -874,6 +872,7 @@ void startDataNode(Configuration conf,
         // Create the ReadaheadPool from the DataNode context so we can
         // exit without having to explicitly shutdown its thread pool.
         readaheadPool = ReadaheadPool.getInstance();
+        blockReadCache = BlockReadCache.create(conf, metrics);
         saslClient = new SaslDataTransferClient(dnConf.saslPropsResolver,
                 dnConf.trustedChannelResolver,
                 conf.getBoolean(
@@ -1865,8 +1864,8 @@ public DataEncryptionKey newDataEncryptionKey() {
     }
 
     /**
-     * After a block becomes finalized, a datanode increases metric counter,
-     * notifies namenode, and adds it to the block scanner
+     * After a block becomes finalized, a datanode increases metric counter
+     * and notifies namenode
      * @param block block to close
      * @param delHint hint on which excess block to delete
      * @param storageUuid UUID of the storage where block is stored
@@ -1880,9 +1879,6 @@ void closeBlock(ExtendedBlock block, String delHint, String storageUuid) {
             LOG.warn("Cannot find BPOfferService for reporting block received for bpid="
                     + block.getBlockPoolId());
         }
-        if (blockScanner != null) {
-            blockScanner.addBlock(block);
-        }
     }
 
     /** Start a single datanode daemon and wait for it to finish.
@@ -2775,6 +2771,13 @@ public ShortCircuitRegistry getShortCircuitRegistry() {
         return shortCircuitRegistry;
     }
 
+    /**
+     * @return the block read cache, or null if it is disabled
+     */
+    public BlockReadCache getBlockReadCache() {
+        return blockReadCache;
+    }
+
     /**
      * Check the disk error
      */
@@ -2782,6 +2785,10 @@ private void checkDiskError() {
         try {
             data.checkDataDir();
         } catch (DiskErrorException de) {
+            // stop scanning the volumes that were removed
+            if (blockScanner != null) {
+                blockScanner.refreshVolumes();
+            }
             handleDiskError(de.getMessage());
         }
     }
@@ -82,6 +82,8 @@ public class DataStorage extends Storage {
     public final static String STORAGE_DIR_RBW = "rbw";
     public final static String STORAGE_DIR_FINALIZED = "finalized";
     public final static String STORAGE_DIR_TMP = "tmp";
+    /** Finalized replicas of a block pool, saved at shutdown for fast restart */
+    public final static String REPLICA_CACHE_FILE = "replicas";
 
     // Set of bpids for which 'trash' is currently enabled.
     // When trash is enabled block files are moved under a separate
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.ERROR;
+import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.ERROR_CHECKSUM;
 import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.ERROR_ACCESS_TOKEN;
 import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.ERROR_INVALID;
 import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.ERROR_UNSUPPORTED;
@@ -499,6 +500,11 @@ public void readBlock(final ExtendedBlock block,
                                 "Will close connection.");
                         IOUtils.closeStream(out);
                     }
+                    if (stat.hasStatus() && stat.getStatus() == ERROR_CHECKSUM) {
+                        // The client found a checksum error; have the replica
+                        // verified ahead of the periodic scan.
+                        markSuspectBlock(block);
+                    }
                 } catch (IOException ioe) {
                     LOG.debug("Error reading client status response. Will close connection.", ioe);
                     IOUtils.closeStream(out);
@@ -522,6 +528,9 @@ public void readBlock(final ExtendedBlock block,
        */
             LOG.warn(dnR + ":Got exception while serving " + block + " to "
                     + remoteAddress, ioe);
+            if (blockSender != null && blockSender.didLocalReadFail()) {
+                markSuspectBlock(block);
+            }
             throw ioe;
         } finally {
             IOUtils.closeStream(blockSender);
@@ -532,6 +541,13 @@ public void readBlock(final ExtendedBlock block,
         datanode.metrics.incrReadsFromClient(peer.isLocal());
     }
 
+    private void markSuspectBlock(ExtendedBlock block) {
+        DataBlockScanner blockScanner = datanode.getBlockScanner();
+        if (blockScanner != null) {
+            blockScanner.markSuspectBlock(block);
+        }
+    }
+
     @Override
     public void writeBlock(final ExtendedBlock block,
                            final StorageType storageType,
@@ -994,6 +1010,18 @@ public void replaceBlock(final ExtendedBlock block,
         DataInputStream proxyReply = null;
         DataOutputStream replyOut = new DataOutputStream(getOutputStream());
         try {
+            if (proxySource.getDatanodeUuid().equals(datanode.getDatanodeUuid())) {
+                // The replica stays on this datanode, it only changes storage.
+                final String storageUuid = datanode.data.moveBlockAcrossStorage(
+                        block, storageType, dataXceiverServer.balanceThrottler);
+                // the request only carries an estimated length
+                block.setNumBytes(datanode.data.getReplicaVisibleLength(block));
+                datanode.notifyNamenodeReceivedBlock(block, delHint, storageUuid);
+                LOG.info("Moved " + block + " to storage type " + storageType
+                        + ", delHint=" + delHint);
+                return;
+            }
+
             // get the output stream to the proxy
             final String dnAddr = proxySource.getXferAddr(connectToDnViaHostname);
             if (LOG.isDebugEnabled()) {
@@ -1066,7 +1094,7 @@ public void replaceBlock(final ExtendedBlock block,
             throw ioe;
         } finally {
             // receive the last byte that indicates the proxy released its thread resource
-            if (opStatus == SUCCESS) {
+            if (opStatus == SUCCESS && proxyReply != null) {
                 try {
                     proxyReply.readChar();
                 } catch (IOException ignored) {
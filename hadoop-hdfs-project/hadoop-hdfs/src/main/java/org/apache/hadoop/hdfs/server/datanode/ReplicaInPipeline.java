@@ -125,8 +125,14 @@ public long getBytesOnDisk() {
 
     @Override // ReplicaInPipelineInterface
     public synchronized void setLastChecksumAndDataLen(long dataLength, byte[] lastChecksum) {
+        final long delta = dataLength - bytesOnDisk;
         this.bytesOnDisk = dataLength;
         this.lastChecksum = lastChecksum;
+        // keep the used space of the volume current while the replica grows
+        final FsVolumeSpi volume = getVolume();
+        if (delta != 0 && volume != null) {
+            volume.onReplicaBytesWritten(getDir(), delta);
+        }
     }
 
     @Override // ReplicaInPipelineInterface
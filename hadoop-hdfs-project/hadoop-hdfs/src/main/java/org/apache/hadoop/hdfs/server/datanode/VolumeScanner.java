@@ -0,0 +1,456 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi.BlockIterator;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Verifies the checksums of the finalized replicas on one volume.
+ * <p>
+ * Each block pool on the volume is walked with a {@link BlockIterator},
+ * whose position is saved to disk periodically so that a restart resumes
+ * where the scan left off.  A block pool is scanned at most once per scan
+ * period; reads are throttled to the configured bytes per second.  Blocks
+ * that a reader failed to read are queued as suspect and scanned ahead of
+ * the regular walk.
+ */
+public class VolumeScanner extends Thread {
+    public static final Log LOG = LogFactory.getLog(VolumeScanner.class);
+
+    /** The name under which the block iterators are saved. */
+    static final String BLOCK_ITERATOR_NAME = "scanner";
+
+    /** How many recently scanned suspect blocks to remember. */
+    private static final int MAX_RECENT_SUSPECT_BLOCKS = 1000;
+
+    private final DataBlockScanner.Conf conf;
+    private final DataNode datanode;
+    private final FsVolumeSpi volume;
+    private final DataTransferThrottler throttler;
+    private final DataOutputStream nullStream =
+            new DataOutputStream(new IOUtils.NullOutputStream());
+
+    /** The block iterators, one per enabled block pool. Guarded by this. */
+    private final List<BlockIterator> blockIters =
+            new ArrayList<BlockIterator>();
+
+    /** Blocks to scan before continuing the walk. Guarded by this. */
+    private final LinkedHashSet<ExtendedBlock> suspectBlocks =
+            new LinkedHashSet<ExtendedBlock>();
+
+    /**
+     * Suspect blocks scanned recently, so that a block read over and over
+     * by a failing client is not rescanned each time.
+     */
+    private final Cache<ExtendedBlock, Boolean> recentSuspectBlocks =
+            CacheBuilder.newBuilder().maximumSize(MAX_RECENT_SUSPECT_BLOCKS)
+                    .expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+    /** Only accessed by the scanner thread. */
+    private BlockIterator curBlockIter = null;
+
+    private final Statistics stats = new Statistics();
+
+    private volatile boolean stopping = false;
+
+    static class Statistics {
+        long blocksScanned = 0;
+        long bytesScanned = 0;
+        long scanErrors = 0;
+        long suspectBlocksScanned = 0;
+        long blocksScannedInCurrentPeriod = 0;
+        long lastBlockScannedMs = 0;
+        ExtendedBlock lastBlockScanned = null;
+        String curBlockPoolId = null;
+        long nextScanStartMs = 0;
+
+        Statistics() {
+        }
+
+        Statistics(Statistics other) {
+            this.blocksScanned = other.blocksScanned;
+            this.bytesScanned = other.bytesScanned;
+            this.scanErrors = other.scanErrors;
+            this.suspectBlocksScanned = other.suspectBlocksScanned;
+            this.blocksScannedInCurrentPeriod = other.blocksScannedInCurrentPeriod;
+            this.lastBlockScannedMs = other.lastBlockScannedMs;
+            this.lastBlockScanned = other.lastBlockScanned;
+            this.curBlockPoolId = other.curBlockPoolId;
+            this.nextScanStartMs = other.nextScanStartMs;
+        }
+
+        @Override
+        public String toString() {
+            return "blocksScanned=" + blocksScanned
+                    + ", bytesScanned=" + bytesScanned
+                    + ", scanErrors=" + scanErrors
+                    + ", suspectBlocksScanned=" + suspectBlocksScanned
+                    + ", blocksScannedInCurrentPeriod=" + blocksScannedInCurrentPeriod
+                    + ", lastBlockScanned=" + lastBlockScanned
+                    + ", curBlockPoolId=" + curBlockPoolId
+                    + ", nextScanStartMs=" + nextScanStartMs;
+        }
+    }
+
+    VolumeScanner(DataBlockScanner.Conf conf, DataNode datanode,
+                  FsVolumeSpi volume) {
+        this.conf = conf;
+        this.datanode = datanode;
+        this.volume = volume;
+        this.throttler = new DataTransferThrottler(conf.targetBytesPerSec);
+        setName("VolumeScannerThread(" + volume.getBasePath() + ")");
+        setDaemon(true);
+    }
+
+    FsVolumeSpi getVolume() {
+        return volume;
+    }
+
+    synchronized Statistics getStatistics() {
+        return new Statistics(stats);
+    }
+
+    /**
+     * Start scanning the given block pool, from the saved position if there
+     * is one.
+     */
+    synchronized void enableBlockPoolId(String bpid) {
+        for (BlockIterator iter : blockIters) {
+            if (iter.getBlockPoolId().equals(bpid)) {
+                return;
+            }
+        }
+        BlockIterator iter = null;
+        try {
+            iter = volume.loadBlockIterator(bpid, BLOCK_ITERATOR_NAME);
+            LOG.debug(this + ": resuming block iterator for " + bpid);
+        } catch (FileNotFoundException e) {
+            LOG.debug(this + ": no saved block iterator for " + bpid);
+        } catch (IOException e) {
+            LOG.warn(this + ": failed to load block iterator for " + bpid, e);
+        }
+        if (iter == null) {
+            iter = volume.newBlockIterator(bpid, BLOCK_ITERATOR_NAME);
+        }
+        blockIters.add(iter);
+        notify();
+    }
+
+    /**
+     * Stop scanning the given block pool.  The position is not saved here:
+     * the block pool may be in the middle of being deleted.  Scanning resumes
+     * from the last periodic save if the block pool comes back.
+     */
+    synchronized void disableBlockPoolId(String bpid) {
+        for (Iterator<BlockIterator> i = blockIters.iterator(); i.hasNext(); ) {
+            BlockIterator iter = i.next();
+            if (iter.getBlockPoolId().equals(bpid)) {
+                i.remove();
+                IOUtils.cleanup(null, iter);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queue a block for scanning ahead of the regular walk.
+     */
+    synchronized void markSuspectBlock(ExtendedBlock block) {
+        if (stopping) {
+            return;
+        }
+        if (recentSuspectBlocks.getIfPresent(block) != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(this + ": not scanning suspect " + block
+                        + ", it was scanned recently");
+            }
+            return;
+        }
+        if (suspectBlocks.add(block)) {
+            LOG.info(this + ": scheduling suspect " + block + " for rescanning");
+            recentSuspectBlocks.put(block, true);
+            notify();
+        }
+    }
+
+    private synchronized ExtendedBlock popNextSuspectBlock() {
+        Iterator<ExtendedBlock> i = suspectBlocks.iterator();
+        if (!i.hasNext()) {
+            return null;
+        }
+        ExtendedBlock block = i.next();
+        i.remove();
+        return block;
+    }
+
+    /**
+     * Save the position of the given iterator, unless its block pool was
+     * disabled in the meantime.
+     */
+    private synchronized void saveBlockIterator(BlockIterator iter) {
+        if (!blockIters.contains(iter)) {
+            return;
+        }
+        try {
+            iter.save();
+        } catch (IOException e) {
+            LOG.warn(this + ": failed to save " + iter, e);
+        }
+    }
+
+    /**
+     * Pick the next block pool to walk: one whose current pass is not
+     * finished, or whose last pass started more than a scan period ago.
+     *
+     * @return 0 if curBlockIter was set, otherwise how long to wait, in ms,
+     *         before a block pool is due for scanning again.
+     */
+    private synchronized long findNextUsableBlockIter() {
+        final long now = Time.now();
+        long minWaitMs = Long.MAX_VALUE;
+        // Start after the current iterator so that block pools take turns.
+        int start = blockIters.indexOf(curBlockIter) + 1;
+        for (int i = 0; i < blockIters.size(); i++) {
+            BlockIterator iter = blockIters.get((start + i) % blockIters.size());
+            if (!iter.atEnd()) {
+                curBlockIter = iter;
+                return 0;
+            }
+            long waitMs = iter.getIterStartMs() + conf.scanPeriodMs - now;
+            if (waitMs <= 0) {
+                iter.rewind();
+                LOG.info(this + ": starting a new scan of " + iter.getBlockPoolId());
+                stats.blocksScannedInCurrentPeriod = 0;
+                curBlockIter = iter;
+                return 0;
+            }
+            minWaitMs = Math.min(minWaitMs, waitMs);
+        }
+        curBlockIter = null;
+        stats.nextScanStartMs = minWaitMs == Long.MAX_VALUE ? 0 : now + minWaitMs;
+        return minWaitMs;
+    }
+
+    /**
+     * Verify one block by reading it through a checksum-verifying
+     * {@link BlockSender}.
+     *
+     * @return the number of bytes scanned, or -1 if the block is not a
+     *         finalized replica on this volume.
+     */
+    private long scanBlock(ExtendedBlock cblock) {
+        final FsDatasetSpi<?> dataset = datanode.getFSDataset();
+        final Replica replica = dataset.getReplica(cblock.getBlockPoolId(),
+                cblock.getBlockId());
+        if (replica == null || replica.getState() != ReplicaState.FINALIZED
+                || !volume.getStorageID().equals(replica.getStorageUuid())) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(this + ": " + cblock + " is not a finalized replica on "
+                        + "this volume, skipping it");
+            }
+            return -1;
+        }
+        final ExtendedBlock block = new ExtendedBlock(cblock.getBlockPoolId(),
+                replica.getBlockId(), replica.getNumBytes(),
+                replica.getGenerationStamp());
+        BlockSender blockSender = null;
+        IOException err = null;
+        long bytesRead = 0;
+        try {
+            blockSender = new BlockSender(block, 0, -1, false, true, true,
+                    datanode, null, CachingStrategy.newDropBehind());
+            bytesRead = blockSender.sendBlock(nullStream, null, throttler);
+        } catch (IOException e) {
+            err = e;
+        } finally {
+            IOUtils.cleanup(null, blockSender);
+        }
+        datanode.getMetrics().incrBlocksVerified();
+        synchronized (this) {
+            stats.blocksScanned++;
+            stats.blocksScannedInCurrentPeriod++;
+            stats.bytesScanned += bytesRead;
+            stats.lastBlockScanned = block;
+            stats.lastBlockScannedMs = Time.now();
+        }
+        handleScanResult(block, err);
+        return bytesRead;
+    }
+
+    private void handleScanResult(ExtendedBlock block, IOException e) {
+        if (e == null) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(this + ": verification succeeded for " + block);
+            }
+            return;
+        }
+        if (stopping) {
+            // the read was most likely interrupted by shutdown()
+            LOG.debug(this + ": scan of " + block + " interrupted", e);
+            return;
+        }
+        // If the block does not exist anymore, then it's not an error.
+        if (!datanode.getFSDataset().contains(block)) {
+            LOG.debug(this + ": " + block + " is no longer in the dataset");
+            return;
+        }
+        // If the block exists, the exception may be due to a race with write:
+        // the block may have been reopened for append since it was looked up.
+        // If a block really was deleted by mistake, the DirectoryScanner
+        // catches it.
+        if (e instanceof FileNotFoundException) {
+            LOG.info(this + ": verification failed for " + block
+                    + " - may be due to race with write");
+            return;
+        }
+        LOG.warn(this + ": reporting bad " + block, e);
+        synchronized (this) {
+            stats.scanErrors++;
+        }
+        // The replica will be replaced; a new replica may be suspect again.
+        recentSuspectBlocks.invalidate(block);
+        datanode.getMetrics().incrBlockVerificationFailures();
+        try {
+            datanode.reportBadBlocks(block);
+        } catch (IOException ie) {
+            // it is bad, but not bad enough to shutdown the scanner
+            LOG.warn(this + ": cannot report bad " + block, ie);
+        }
+    }
+
+    /**
+     * Scan one block: the next suspect block, or else the next block of the
+     * walk.
+     *
+     * @return how long to wait before calling again, in ms.
+     */
+    @VisibleForTesting
+    long runLoop() {
+        ExtendedBlock suspect = popNextSuspectBlock();
+        if (suspect != null) {
+            if (scanBlock(suspect) >= 0) {
+                synchronized (this) {
+                    stats.suspectBlocksScanned++;
+                }
+            }
+            return 0;
+        }
+        synchronized (this) {
+            if (curBlockIter != null && !blockIters.contains(curBlockIter)) {
+                // the block pool was disabled
+                curBlockIter = null;
+            }
+            if (curBlockIter == null || curBlockIter.atEnd()) {
+                long waitMs = findNextUsableBlockIter();
+                if (waitMs > 0) {
+                    return waitMs;
+                }
+            }
+            stats.curBlockPoolId = curBlockIter.getBlockPoolId();
+        }
+        final BlockIterator iter = curBlockIter;
+        ExtendedBlock block;
+        try {
+            block = iter.nextBlock();
+        } catch (IOException e) {
+            // The volume is probably failing; the disk checker will remove it.
+            LOG.warn(this + ": nextBlock error on " + iter, e);
+            return conf.cursorSaveMs;
+        }
+        if (block == null) {
+            LOG.info(this + ": finished scanning " + iter.getBlockPoolId());
+            saveBlockIterator(iter);
+            return 0;
+        }
+        if (Time.now() - iter.getLastSavedMs() >= conf.cursorSaveMs) {
+            saveBlockIterator(iter);
+        }
+        scanBlock(block);
+        return 0;
+    }
+
+    @Override
+    public void run() {
+        LOG.info(this + ": starting");
+        try {
+            while (!stopping) {
+                long waitMs = runLoop();
+                if (waitMs > 0) {
+                    synchronized (this) {
+                        if (!stopping && suspectBlocks.isEmpty()) {
+                            wait(waitMs);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // we were told to stop
+        } catch (Throwable t) {
+            LOG.error(this + ": exiting because of exception", t);
+        } finally {
+            // shutdown() interrupts us; clear it so that the saves can write.
+            Thread.interrupted();
+            synchronized (this) {
+                for (BlockIterator iter : blockIters) {
+                    saveBlockIterator(iter);
+                    IOUtils.cleanup(null, iter);
+                }
+                blockIters.clear();
+            }
+            LOG.info(this + ": exiting");
+        }
+    }
+
+    /**
+     * Stop the scanner; the caller should join the thread afterwards.
+     */
+    synchronized void shutdown() {
+        stopping = true;
+        notify();
+        interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return "VolumeScanner(" + volume.getBasePath() + ", "
+                + volume.getStorageID() + ")";
+    }
+}
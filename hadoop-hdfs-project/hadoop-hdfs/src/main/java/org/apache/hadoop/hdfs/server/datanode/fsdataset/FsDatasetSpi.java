@@ -47,6 +47,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 import org.apache.hadoop.util.ReflectionUtils;
 
@@ -81,15 +82,6 @@ public boolean isSimulated() {
         }
     }
 
-    /**
-     * Create rolling logs.
-     *
-     * @param prefix the prefix of the log names.
-     * @return rolling logs
-     */
-    public RollingLogs createRollingLogs(String bpid, String prefix
-    ) throws IOException;
-
     /** @return a list of volumes. */
     public List<V> getVolumes();
 
@@ -186,6 +178,21 @@ public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, long blkoff,
     public ReplicaInPipelineInterface createTemporary(StorageType storageType,
                                                       ExtendedBlock b) throws IOException;
 
+    /**
+     * Move a finalized replica to a volume of the given storage type on this
+     * datanode.  The replica is copied first and the original files are
+     * removed only after the copy has replaced it.
+     *
+     * @param b block
+     * @param targetStorageType the storage type to move the replica to
+     * @param throttler throttles the copy, or null
+     * @return the storage ID of the volume the replica was moved to
+     * @throws IOException if an error occurs
+     */
+    public String moveBlockAcrossStorage(ExtendedBlock b,
+                                         StorageType targetStorageType, DataTransferThrottler throttler)
+            throws IOException;
+
     /**
      * Creates a RBW replica and returns the meta info of the replica
      *
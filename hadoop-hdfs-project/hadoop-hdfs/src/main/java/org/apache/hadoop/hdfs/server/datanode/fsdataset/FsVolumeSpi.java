@@ -17,10 +17,12 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 
 import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 
 /**
  * This is an interface for the underlying volume.
@@ -45,4 +47,65 @@ public interface FsVolumeSpi {
     public File getFinalizedDir(String bpid) throws IOException;
 
     public StorageType getStorageType();
+
+    /**
+     * Account for block data written to, or truncated from, a replica being
+     * written on this volume.
+     *
+     * @param replicaDir the directory of the replica
+     * @param delta the change in the length of the block file
+     */
+    public void onReplicaBytesWritten(File replicaDir, long delta);
+
+    /**
+     * Iterates over the finalized replicas of one block pool on this volume,
+     * walking the directories on disk in sorted order.  Only the position of
+     * the iterator is kept in memory, so it is cheap to hold for any number
+     * of replicas, and it can be saved to disk and resumed after a restart.
+     *
+     * Replicas added or removed while the iteration is in progress may or may
+     * not be returned.  Iterators are not thread-safe.
+     */
+    public interface BlockIterator extends Closeable {
+        /**
+         * @return the next block, with only its block pool and id set, or
+         *         null if the iteration has reached the end.
+         */
+        public ExtendedBlock nextBlock() throws IOException;
+
+        /** @return true if the iteration has reached the end. */
+        public boolean atEnd();
+
+        /** Move the iterator back to the first block, and start a new pass. */
+        public void rewind();
+
+        /** Persist the position of the iterator. */
+        public void save() throws IOException;
+
+        /** @return the wall-clock time, in ms, the current pass started. */
+        public long getIterStartMs();
+
+        /** @return the wall-clock time, in ms, the iterator was last saved. */
+        public long getLastSavedMs();
+
+        /** @return the block pool this iterator walks. */
+        public String getBlockPoolId();
+    }
+
+    /**
+     * Create a new block iterator positioned at the first block.
+     *
+     * @param bpid the block pool to iterate over
+     * @param name the name under which {@link BlockIterator#save()} stores
+     *             the iterator
+     */
+    public BlockIterator newBlockIterator(String bpid, String name);
+
+    /**
+     * Load a block iterator previously saved under the given name.
+     *
+     * @throws java.io.FileNotFoundException if no iterator was saved
+     */
+    public BlockIterator loadBlockIterator(String bpid, String name)
+            throws IOException;
 }
\ No newline at end of file
@@ -18,22 +18,31 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.DU;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
@@ -42,6 +51,7 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaBeingWritten;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaWaitingToBeRecovered;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DiskChecker;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
@@ -66,9 +76,19 @@ class BlockPoolSlice {
     private static final String DU_CACHE_FILE = "dfsUsed";
     private volatile boolean dfsUsedSaved = false;
     private static final int SHUTDOWN_HOOK_PRIORITY = 30;
-
-    // TODO:FEDERATION scalability issue - a thread per DU is needed
-    private final DU dfsUsage;
+    private static final String REPLICA_CACHE_FILE = DataStorage.REPLICA_CACHE_FILE;
+    private static final int REPLICA_CACHE_VERSION = 1;
+    // version, save time and replica count
+    private static final int REPLICA_CACHE_HEADER_LEN = 4 + 8 + 4;
+    // block id, length and generation stamp of each replica
+    private static final int REPLICA_CACHE_ENTRY_LEN = 3 * 8;
+    // trailing CRC32
+    private static final int REPLICA_CACHE_CHECKSUM_LEN = 8;
+    // Replicas persisted at shutdown are only trusted for this long
+    private final long replicaCacheExpiry;
+    private volatile Daemon replicaCacheValidator = null;
+
+    private final DfsUsage dfsUsage;
 
     /**
      * Create a blook pool slice
@@ -82,6 +102,9 @@ class BlockPoolSlice {
                    Configuration conf) throws IOException {
         this.bpid = bpid;
         this.volume = volume;
+        this.replicaCacheExpiry = conf.getLong(
+                DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_EXPIRY_TIME_MS_KEY,
+                DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_EXPIRY_TIME_MS_DEFAULT);
         this.currentDir = new File(bpDir, DataStorage.STORAGE_DIR_CURRENT);
         this.finalizedDir = new File(
                 currentDir, DataStorage.STORAGE_DIR_FINALIZED);
@@ -112,8 +135,11 @@ class BlockPoolSlice {
             }
         }
         // Use cached value initially if available. Or the following call will
-        // block until the initial du command completes.
-        this.dfsUsage = new DU(bpDir, conf, loadDfsUsed());
+        // block until the replica directories have been walked.
+        this.dfsUsage = new DfsUsage(finalizedDir, rbwDir, tmpDir, conf.getLong(
+                DFSConfigKeys.DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY,
+                DFSConfigKeys.DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_DEFAULT),
+                loadDfsUsed());
         this.dfsUsage.start();
 
         // Make the dfs usage to be saved during shutdown.
@@ -140,7 +166,14 @@ File getRbwDir() {
         return rbwDir;
     }
 
-    /** Run DU on local drives.  It must be synchronized from caller. */
+    File getTmpDir() {
+        return tmpDir;
+    }
+
+    void incDfsUsed(long value) {
+        dfsUsage.incDfsUsed(value);
+    }
+
     void decDfsUsed(long value) {
         dfsUsage.decDfsUsed(value);
     }
@@ -150,9 +183,10 @@ long getDfsUsed() throws IOException {
     }
 
     /**
-     * Read in the cached DU value and return it if it is less than 600 seconds
-     * old (DU update interval). Slight imprecision of dfsUsed is not critical
-     * and skipping DU can significantly shorten the startup time.
+     * Read in the cached dfsUsed value and return it if it is less than 600
+     * seconds old. Slight imprecision of dfsUsed is not critical and skipping
+     * the walk of the finalized directory can significantly shorten the
+     * startup time.
      * If the cached value is not available or too old, -1 is returned.
      */
     long loadDfsUsed() {
@@ -260,12 +294,290 @@ void checkDirs() throws DiskErrorException {
     }
 
     void getVolumeMap(ReplicaMap volumeMap) throws IOException {
-        // add finalized replicas
-        addToReplicasMap(volumeMap, finalizedDir, true);
+        // add finalized replicas, from the inventory saved at shutdown if it is
+        // still usable, otherwise by scanning the finalized directory
+        if (!readReplicasFromCache(volumeMap)) {
+            addToReplicasMap(volumeMap, finalizedDir, true);
+        }
         // add rbw replicas
         addToReplicasMap(volumeMap, rbwDir, false);
     }
 
+    /**
+     * Load the finalized replicas persisted by {@link #saveReplicas(ReplicaMap)}
+     * into the volume map.  The inventory file is deleted once it has been
+     * read, so that it is never used for more than one restart; an unclean
+     * shutdown after this point always falls back to a full scan.
+     * <p>
+     * The loaded replicas are validated against the disk by a background
+     * thread, see {@link #validateCachedReplicas(ReplicaMap, List)}.
+     *
+     * @return true if the replicas were loaded; false if the inventory is
+     *         missing, stale or corrupt and the directory must be scanned
+     */
+    private boolean readReplicasFromCache(ReplicaMap volumeMap) {
+        final File replicaFile = new File(currentDir, REPLICA_CACHE_FILE);
+        if (!replicaFile.exists()) {
+            return false;
+        }
+        List<FinalizedReplica> loaded = null;
+        try {
+            loaded = loadReplicas(replicaFile);
+        } catch (IOException e) {
+            FsDatasetImpl.LOG.warn("Failed to read replica inventory " + replicaFile
+                    + ", will scan " + finalizedDir, e);
+        } finally {
+            if (!replicaFile.delete()) {
+                FsDatasetImpl.LOG.warn("Failed to delete replica inventory "
+                        + replicaFile);
+            }
+        }
+        if (loaded == null) {
+            return false;
+        }
+        for (FinalizedReplica replica : loaded) {
+            ReplicaInfo oldReplica = volumeMap.add(bpid, replica);
+            if (oldReplica != null) {
+                FsDatasetImpl.LOG.warn("Two block files with the same block id exist " +
+                        "on disk: " + oldReplica.getBlockFile() + " and "
+                        + replica.getBlockFile());
+            }
+        }
+        FsDatasetImpl.LOG.info("Loaded " + loaded.size() + " replicas from "
+                + replicaFile + " without scanning " + finalizedDir);
+
+        replicaCacheValidator = new Daemon(new ReplicaCacheValidator(volumeMap, loaded));
+        replicaCacheValidator.start();
+        return true;
+    }
+
+    /**
+     * Parse a replica inventory file.  Its checksum is verified before any
+     * of its contents is used.
+     * @return the replicas, or null if the inventory is stale
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    private List<FinalizedReplica> loadReplicas(File replicaFile)
+            throws IOException {
+        final long fileLength = replicaFile.length();
+        verifyReplicasChecksum(replicaFile, fileLength);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(replicaFile), HdfsConstants.IO_FILE_BUFFER_SIZE));
+        try {
+            int version = in.readInt();
+            if (version != REPLICA_CACHE_VERSION) {
+                throw new IOException("Unexpected replica inventory version "
+                        + version);
+            }
+            long savedTime = in.readLong();
+            if (Time.now() - savedTime > replicaCacheExpiry) {
+                FsDatasetImpl.LOG.info("Replica inventory " + replicaFile
+                        + " is stale, saved at " + savedTime);
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0 || fileLength != REPLICA_CACHE_HEADER_LEN
+                    + (long) count * REPLICA_CACHE_ENTRY_LEN + REPLICA_CACHE_CHECKSUM_LEN) {
+                throw new IOException("Replica count " + count
+                        + " does not match the length " + fileLength
+                        + " of the replica inventory");
+            }
+            List<FinalizedReplica> replicas = new ArrayList<FinalizedReplica>(count);
+            for (int i = 0; i < count; i++) {
+                long blockId = in.readLong();
+                long numBytes = in.readLong();
+                long genStamp = in.readLong();
+                replicas.add(new FinalizedReplica(blockId, numBytes, genStamp,
+                        volume, DatanodeUtil.idToBlockDir(finalizedDir, blockId)));
+            }
+            return replicas;
+        } finally {
+            IOUtils.closeStream(in);
+        }
+    }
+
+    /**
+     * Check the CRC32 at the end of a replica inventory file against the
+     * rest of the file.
+     * @throws IOException if the file cannot be read, is truncated, or does
+     *         not match its checksum
+     */
+    private static void verifyReplicasChecksum(File replicaFile, long fileLength)
+            throws IOException {
+        if (fileLength < REPLICA_CACHE_HEADER_LEN + REPLICA_CACHE_CHECKSUM_LEN) {
+            throw new IOException("Replica inventory is truncated");
+        }
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(replicaFile),
+                        HdfsConstants.IO_FILE_BUFFER_SIZE), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            IOUtils.skipFully(checked, fileLength - REPLICA_CACHE_CHECKSUM_LEN);
+            long computed = checked.getChecksum().getValue();
+            long expected;
+            try {
+                expected = in.readLong();
+            } catch (EOFException e) {
+                throw new IOException("Replica inventory is truncated", e);
+            }
+            if (computed != expected) {
+                throw new IOException("Checksum mismatch in replica inventory:"
+                        + " expected " + expected + ", computed " + computed);
+            }
+        } finally {
+            IOUtils.closeStream(in);
+        }
+    }
+
+    /**
+     * Persist the finalized replicas of this block pool slice, so that the
+     * next startup does not have to scan the finalized directory.  The file
+     * is written under a temporary name and renamed into place, and carries
+     * a CRC32 over its contents.
+     */
+    void saveReplicas(ReplicaMap volumeMap) {
+        final File replicaFile = new File(currentDir, REPLICA_CACHE_FILE);
+        final File tmpFile = new File(currentDir, REPLICA_CACHE_FILE + ".tmp");
+        final List<ReplicaInfo> finalized = new ArrayList<ReplicaInfo>();
+        synchronized (volumeMap.getMutext()) {
+            if (volumeMap.replicas(bpid) == null) {
+                return;
+            }
+            for (ReplicaInfo r : volumeMap.replicas(bpid)) {
+                if (r.getVolume() == volume
+                        && r.getState() == ReplicaState.FINALIZED) {
+                    finalized.add(r);
+                }
+            }
+        }
+
+        DataOutputStream out = null;
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile),
+                            HdfsConstants.IO_FILE_BUFFER_SIZE), new CRC32());
+            out = new DataOutputStream(checked);
+            out.writeInt(REPLICA_CACHE_VERSION);
+            out.writeLong(Time.now());
+            out.writeInt(finalized.size());
+            for (ReplicaInfo r : finalized) {
+                out.writeLong(r.getBlockId());
+                out.writeLong(r.getNumBytes());
+                out.writeLong(r.getGenerationStamp());
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.close();
+            out = null;
+            if (replicaFile.exists() && !replicaFile.delete()) {
+                throw new IOException("Failed to delete old " + replicaFile);
+            }
+            if (!tmpFile.renameTo(replicaFile)) {
+                throw new IOException("Failed to rename " + tmpFile + " to "
+                        + replicaFile);
+            }
+            FsDatasetImpl.LOG.info("Saved " + finalized.size() + " replicas to "
+                    + replicaFile);
+        } catch (IOException ioe) {
+            // The inventory is only an optimization; the next startup will scan.
+            FsDatasetImpl.LOG.warn("Failed to save replica inventory to "
+                    + replicaFile, ioe);
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                FsDatasetImpl.LOG.warn("Failed to delete " + tmpFile);
+            }
+        } finally {
+            IOUtils.cleanup(null, out);
+        }
+    }
+
+    /**
+     * Checks that each replica loaded from the inventory is really on disk
+     * with the recorded length, and replaces the ones that are not with what
+     * is found in their directory.  Replicas that are on disk but missing
+     * from the inventory are picked up by the
+     * {@link org.apache.hadoop.hdfs.server.datanode.DirectoryScanner}.
+     */
+    private class ReplicaCacheValidator implements Runnable {
+        private final ReplicaMap volumeMap;
+        private final List<FinalizedReplica> replicas;
+
+        ReplicaCacheValidator(ReplicaMap volumeMap,
+                              List<FinalizedReplica> replicas) {
+            this.volumeMap = volumeMap;
+            this.replicas = replicas;
+        }
+
+        @Override
+        public void run() {
+            long start = Time.monotonicNow();
+            int mismatched = 0;
+            for (FinalizedReplica replica : replicas) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if (isValid(replica)) {
+                    continue;
+                }
+                synchronized (volumeMap.getMutext()) {
+                    // Only touch the replica if nothing replaced it meanwhile.
+                    if (volumeMap.get(bpid, replica.getBlockId()) == replica) {
+                        volumeMap.remove(bpid, replica.getBlockId());
+                        mismatched++;
+                        FsDatasetImpl.LOG.warn("Replica " + replica
+                                + " loaded from the replica inventory does not"
+                                + " match the files on disk, rescanning "
+                                + replica.getBlockFile().getParent());
+                        rescanReplica(replica);
+                    }
+                }
+            }
+            FsDatasetImpl.LOG.info("Validated " + replicas.size()
+                    + " replicas loaded from the inventory of " + currentDir
+                    + " in " + (Time.monotonicNow() - start) + "ms, "
+                    + mismatched + " did not match the disk");
+        }
+
+        /**
+         * Re-add the replica from what is actually in its directory, the way
+         * {@link BlockPoolSlice#addToReplicasMap(ReplicaMap, File, boolean)}
+         * would have found it.
+         */
+        private void rescanReplica(FinalizedReplica replica) {
+            final File dir = replica.getBlockFile().getParentFile();
+            final String blockName = replica.getBlockName();
+            try {
+                for (File file : FileUtil.listFiles(dir)) {
+                    if (FsDatasetUtil.isUnlinkTmpFile(file)) {
+                        String origName = FsDatasetUtil.getOrigFile(file).getName();
+                        if (origName.equals(blockName)
+                                || origName.startsWith(blockName + "_")) {
+                            recoverTempUnlinkedBlock(file);
+                        }
+                    }
+                }
+                File[] files = FileUtil.listFiles(dir);
+                for (File blockFile : files) {
+                    if (blockFile.getName().equals(blockName)) {
+                        long genStamp = FsDatasetUtil.getGenerationStampFromFile(
+                                files, blockFile);
+                        volumeMap.add(bpid, new FinalizedReplica(replica.getBlockId(),
+                                blockFile.length(), genStamp, volume, dir));
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                FsDatasetImpl.LOG.warn("Failed to rescan " + dir, e);
+            }
+        }
+
+        private boolean isValid(FinalizedReplica replica) {
+            File blockFile = replica.getBlockFile();
+            return blockFile.exists()
+                    && blockFile.length() == replica.getNumBytes()
+                    && replica.getMetaFile().exists();
+        }
+    }
+
     /**
      * Recover an unlinked tmp file on datanode restart. If the original block
      * does not exist, then the tmp file is renamed to be the
@@ -454,9 +766,21 @@ public String toString() {
         return currentDir.getAbsolutePath();
     }
 
-    void shutdown() {
+    /**
+     * Shut down this block pool slice.
+     * @param volumeMap if not null, the finalized replicas of this slice are
+     *                  persisted so that the next startup can skip the scan
+     */
+    void shutdown(ReplicaMap volumeMap) {
+        Daemon validator = replicaCacheValidator;
+        if (validator != null) {
+            validator.interrupt();
+        }
         saveDfsUsed();
         dfsUsedSaved = true;
         dfsUsage.shutdown();
+        if (volumeMap != null && replicaCacheExpiry > 0) {
+            saveReplicas(volumeMap);
+        }
     }
 }
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Space used by the replicas of a block pool slice.
+ * <p>
+ * A finalized replica is counted with its meta file.  A replica in the rbw
+ * or tmp directory is counted by its block file only, which grows with
+ * every packet written to it; its checksums are counted once it is
+ * finalized.
+ * <p>
+ * The value is maintained incrementally as replicas are written, finalized,
+ * reopened for append, truncated and deleted, and is recomputed from the
+ * replica directories every reconcile interval to correct any drift.  The
+ * walk is done in-process: unlike forking <code>du</code>, it does not spawn
+ * a process per block pool slice and it runs rarely.
+ */
+class DfsUsage {
+    private final File finalizedDir;
+    private final File rbwDir;
+    private final File tmpDir;
+    private final long reconcileInterval;
+    private final AtomicLong used = new AtomicLong();
+    private volatile boolean shouldRun = true;
+    private Daemon reconciler = null;
+
+    /**
+     * @param finalizedDir the finalized directory of the block pool slice
+     * @param rbwDir the rbw directory of the block pool slice
+     * @param tmpDir the tmp directory of the block pool slice
+     * @param reconcileInterval how often to recompute the usage from disk, in
+     *                          ms; 0 or less disables periodic reconciliation
+     * @param initialUsed the initial value, or -1 to compute it now
+     */
+    DfsUsage(File finalizedDir, File rbwDir, File tmpDir,
+             long reconcileInterval, long initialUsed) {
+        this.finalizedDir = finalizedDir;
+        this.rbwDir = rbwDir;
+        this.tmpDir = tmpDir;
+        this.reconcileInterval = reconcileInterval;
+        if (initialUsed < 0) {
+            reconcile();
+        } else {
+            used.set(initialUsed);
+        }
+    }
+
+    void start() {
+        if (reconcileInterval > 0) {
+            reconciler = new Daemon(new Runnable() {
+                @Override
+                public void run() {
+                    while (shouldRun) {
+                        try {
+                            Thread.sleep(reconcileInterval);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (shouldRun) {
+                            reconcile();
+                        }
+                    }
+                }
+            });
+            reconciler.setName("DfsUsage reconciler for " + finalizedDir);
+            reconciler.start();
+        }
+    }
+
+    void shutdown() {
+        shouldRun = false;
+        if (reconciler != null) {
+            reconciler.interrupt();
+        }
+    }
+
+    void incDfsUsed(long value) {
+        used.addAndGet(value);
+    }
+
+    void decDfsUsed(long value) {
+        used.addAndGet(-value);
+    }
+
+    long getUsed() {
+        return Math.max(used.get(), 0L);
+    }
+
+    /**
+     * Recompute the usage by walking the replica directories.  The changes
+     * counted while the walk runs are kept on top of the computed value.
+     */
+    @VisibleForTesting
+    void reconcile() {
+        final long start = Time.monotonicNow();
+        final long previous = used.get();
+        final long computed;
+        try {
+            computed = computeUsed();
+        } catch (IOException e) {
+            // Keep the incrementally maintained value; the disk checker deals
+            // with directories that cannot be read.
+            FsDatasetImpl.LOG.warn("Failed to compute dfsUsed of " + finalizedDir
+                    + ", " + rbwDir + " and " + tmpDir, e);
+            return;
+        }
+        used.addAndGet(computed - previous);
+        if (FsDatasetImpl.LOG.isDebugEnabled()) {
+            FsDatasetImpl.LOG.debug("Reconciled dfsUsed of " + finalizedDir + " in "
+                    + (Time.monotonicNow() - start) + "ms: " + previous + " -> "
+                    + computed);
+        }
+    }
+
+    /**
+     * @return the space used by the files under the finalized directory and
+     *         by the block files under the rbw and tmp directories
+     */
+    @VisibleForTesting
+    long computeUsed() throws IOException {
+        return computeUsed(finalizedDir, true) + computeUsed(rbwDir, false)
+                + computeUsed(tmpDir, false);
+    }
+
+    private static long computeUsed(File dir, boolean withMeta)
+            throws IOException {
+        if (!dir.exists()) {
+            return 0;
+        }
+        long total = 0;
+        for (File f : FileUtil.listFiles(dir)) {
+            if (f.isDirectory()) {
+                total += computeUsed(f, withMeta);
+            } else if (withMeta
+                    || !f.getName().endsWith(Block.METADATA_EXTENSION)) {
+                total += f.length();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "DfsUsage for " + finalizedDir + ": used=" + getUsed();
+    }
+}
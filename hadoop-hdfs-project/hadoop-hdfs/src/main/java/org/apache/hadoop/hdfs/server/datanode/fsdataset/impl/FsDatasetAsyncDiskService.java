@@ -181,13 +181,17 @@ public void run() {
     /**
      * Delete the block file and meta file from the disk asynchronously, adjust
      * dfsUsed statistics accordingly.
+     * @param finalized whether the replica is finalized, and so counted in the
+     *                  dfsUsed of the volume with its meta file; other
+     *                  replicas are counted by their block file only
      */
     void deleteAsync(FsVolumeImpl volume, File blockFile, File metaFile,
-                     ExtendedBlock block, String trashDirectory) {
+                     ExtendedBlock block, String trashDirectory,
+                     boolean finalized) {
         LOG.info("Scheduling " + block.getLocalBlock()
                 + " file " + blockFile + " for deletion");
         ReplicaFileDeleteTask deletionTask = new ReplicaFileDeleteTask(
-                volume, blockFile, metaFile, block, trashDirectory);
+                volume, blockFile, metaFile, block, trashDirectory, finalized);
         execute(volume.getCurrentDir(), deletionTask);
     }
 
@@ -203,14 +207,17 @@ class ReplicaFileDeleteTask implements Runnable {
         final File metaFile;
         final ExtendedBlock block;
         final String trashDirectory;
+        final boolean finalized;
 
         ReplicaFileDeleteTask(FsVolumeImpl volume, File blockFile,
-                              File metaFile, ExtendedBlock block, String trashDirectory) {
+                              File metaFile, ExtendedBlock block, String trashDirectory,
+                              boolean finalized) {
             this.volume = volume;
             this.blockFile = blockFile;
             this.metaFile = metaFile;
             this.block = block;
             this.trashDirectory = trashDirectory;
+            this.finalized = finalized;
         }
 
         @Override
@@ -245,7 +252,8 @@ private boolean moveFiles() {
 
         @Override
         public void run() {
-            long dfsBytes = blockFile.length() + metaFile.length();
+            long dfsBytes = finalized ? blockFile.length() + metaFile.length()
+                    : blockFile.length();
             boolean result;
 
             result = (trashDirectory == null) ? deleteFiles() : moveFiles();
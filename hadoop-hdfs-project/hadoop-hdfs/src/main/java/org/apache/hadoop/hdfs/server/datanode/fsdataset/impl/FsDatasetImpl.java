@@ -24,15 +24,18 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 import javax.management.NotCompliantMBeanException;
@@ -52,12 +55,13 @@
 import org.apache.hadoop.hdfs.protocol.BlockLocalPathInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsBlocksMetadata;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
-import org.apache.hadoop.hdfs.server.datanode.DataBlockScanner;
+import org.apache.hadoop.hdfs.server.datanode.BlockReadCache;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
@@ -75,14 +79,16 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
-import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.metrics2.util.MBeans;
 import org.apache.hadoop.util.DataChecksum;
@@ -141,13 +147,13 @@ public StorageReport[] getStorageReports(String bpid)
     }
 
     @Override
-    public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+    public FsVolumeImpl getVolume(final ExtendedBlock b) {
         final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
         return r != null ? (FsVolumeImpl) r.getVolume() : null;
     }
 
     @Override // FsDatasetSpi
-    public synchronized Block getStoredBlock(String bpid, long blkid)
+    public Block getStoredBlock(String bpid, long blkid)
             throws IOException {
         File blockfile = getFile(bpid, blkid);
         if (blockfile == null) {
@@ -211,6 +217,13 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     // Used for synchronizing access to usage stats
     private final Object statsLock = new Object();
 
+    /**
+     * Blocks whose files are being created or finalized under their volume
+     * lock, without the dataset lock. Guarded by this.
+     */
+    private final Set<ExtendedBlockId> volumeOpsInProgress =
+            new HashSet<ExtendedBlockId>();
+
     /**
      * An FSDataset has a directory where it loads its data files.
      */
@@ -252,7 +265,9 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
                         DFSConfigKeys.DFS_DATANODE_FSDATASET_VOLUME_CHOOSING_POLICY_KEY,
                         RoundRobinVolumeChoosingPolicy.class,
                         VolumeChoosingPolicy.class), conf);
-        volumes = new FsVolumeList(volsFailed, blockChooserImpl);
+        volumes = new FsVolumeList(volsFailed, blockChooserImpl, conf.getLong(
+                DFSConfigKeys.DFS_DATANODE_DISK_CHECK_TIMEOUT_MS_KEY,
+                DFSConfigKeys.DFS_DATANODE_DISK_CHECK_TIMEOUT_MS_DEFAULT));
         asyncDiskService = new FsDatasetAsyncDiskService(datanode);
 
         for (int idx = 0; idx < storage.getNumStorageDirs(); idx++) {
@@ -440,10 +455,8 @@ File getBlockFile(String bpid, Block b) throws IOException {
      */
     private File getBlockFileNoExistsCheck(ExtendedBlock b)
             throws IOException {
-        final File f;
-        synchronized (this) {
-            f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
-        }
+        final File f = getFile(b.getBlockPoolId(),
+                b.getLocalBlock().getBlockId());
         if (f == null) {
             throw new IOException("Block " + b + " is not valid");
         }
@@ -619,6 +632,7 @@ public synchronized ReplicaInPipeline append(ExtendedBlock b,
             throw new IOException("The new generation stamp " + newGS +
                     " should be greater than the replica " + b + "'s generation stamp");
         }
+        waitForVolumeOp(b.getBlockPoolId(), b.getBlockId());
         ReplicaInfo replicaInfo = getReplicaInfo(b);
         LOG.info("Appending to " + replicaInfo);
         if (replicaInfo.getState() != ReplicaState.FINALIZED) {
@@ -700,6 +714,10 @@ private synchronized ReplicaBeingWritten append(String bpid,
                     " to rbw dir " + newBlkFile, e);
         }
 
+        // While it is being written, the replica is counted by its bytes on
+        // disk only, until it is finalized again.
+        v.decDfsUsed(bpid, newmeta.length());
+
         // Replace finalized replica by a RBW replica in replicas map
         volumeMap.add(bpid, newReplicaInfo);
 
@@ -708,6 +726,7 @@ private synchronized ReplicaBeingWritten append(String bpid,
 
     private ReplicaInfo recoverCheck(ExtendedBlock b, long newGS,
                                      long expectedBlockLen) throws IOException {
+        waitForVolumeOp(b.getBlockPoolId(), b.getBlockId());
         ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
 
         // check state
@@ -772,7 +791,7 @@ public synchronized ReplicaInPipeline recoverAppend(ExtendedBlock b,
     }
 
     @Override // FsDatasetSpi
-    public String recoverClose(ExtendedBlock b, long newGS,
+    public synchronized String recoverClose(ExtendedBlock b, long newGS,
                                long expectedBlockLen) throws IOException {
         LOG.info("Recover failed close " + b);
         // check replica's state
@@ -816,22 +835,42 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
     }
 
     @Override // FsDatasetSpi
-    public synchronized ReplicaInPipeline createRbw(StorageType storageType,
-                                                    ExtendedBlock b) throws IOException {
-        ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
-                b.getBlockId());
-        if (replicaInfo != null) {
-            throw new ReplicaAlreadyExistsException("Block " + b +
-                    " already exists in state " + replicaInfo.getState() +
-                    " and thus cannot be created.");
-        }
-        // create a new block
-        FsVolumeImpl v = volumes.getNextVolume(storageType, b.getNumBytes());
+    public ReplicaInPipeline createRbw(StorageType storageType,
+                                       ExtendedBlock b) throws IOException {
+        final FsVolumeImpl v;
+        final ReplicaBeingWritten newReplicaInfo;
+        final long lockStartNanos = System.nanoTime();
+        synchronized (this) {
+            addDatasetLockWait(lockStartNanos);
+            ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
+                    b.getBlockId());
+            if (replicaInfo != null) {
+                throw new ReplicaAlreadyExistsException("Block " + b +
+                        " already exists in state " + replicaInfo.getState() +
+                        " and thus cannot be created.");
+            }
+            // create a new block
+            v = volumes.getNextVolume(storageType, b.getNumBytes());
+            newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(),
+                    b.getGenerationStamp(), v, v.getRbwDir(b.getBlockPoolId()));
+            volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+            beginVolumeOp(b.getBlockPoolId(), b.getBlockId());
+        }
         // create a rbw file to hold block in the designated volume
-        File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
-        ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(),
-                b.getGenerationStamp(), v, f.getParentFile());
-        volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+        boolean created = false;
+        try {
+            synchronized (v.getVolumeLock()) {
+                v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+            }
+            created = true;
+        } finally {
+            synchronized (this) {
+                endVolumeOp(b.getBlockPoolId(), b.getBlockId());
+                if (!created) {
+                    volumeMap.remove(b.getBlockPoolId(), b.getBlockId());
+                }
+            }
+        }
         return newReplicaInfo;
     }
 
@@ -841,6 +880,7 @@ public synchronized ReplicaInPipeline recoverRbw(ExtendedBlock b,
             throws IOException {
         LOG.info("Recover RBW replica " + b);
 
+        waitForVolumeOp(b.getBlockPoolId(), b.getBlockId());
         ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
 
         // check the replica's state
@@ -903,6 +943,7 @@ public synchronized ReplicaInPipeline convertTemporaryToRbw(
 
         final ReplicaInPipeline temp;
         {
+            waitForVolumeOp(b.getBlockPoolId(), blockId);
             // get replica
             final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
             if (r == null) {
@@ -954,25 +995,131 @@ public synchronized ReplicaInPipeline convertTemporaryToRbw(
     }
 
     @Override // FsDatasetSpi
-    public synchronized ReplicaInPipeline createTemporary(StorageType storageType,
-                                                          ExtendedBlock b) throws IOException {
-        ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
-        if (replicaInfo != null) {
-            throw new ReplicaAlreadyExistsException("Block " + b +
-                    " already exists in state " + replicaInfo.getState() +
-                    " and thus cannot be created.");
-        }
+    public ReplicaInPipeline createTemporary(StorageType storageType,
+                                             ExtendedBlock b) throws IOException {
+        final FsVolumeImpl v;
+        final ReplicaInPipeline newReplicaInfo;
+        final long lockStartNanos = System.nanoTime();
+        synchronized (this) {
+            addDatasetLockWait(lockStartNanos);
+            ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
+            if (replicaInfo != null) {
+                throw new ReplicaAlreadyExistsException("Block " + b +
+                        " already exists in state " + replicaInfo.getState() +
+                        " and thus cannot be created.");
+            }
 
-        FsVolumeImpl v = volumes.getNextVolume(storageType, b.getNumBytes());
+            v = volumes.getNextVolume(storageType, b.getNumBytes());
+            newReplicaInfo = new ReplicaInPipeline(b.getBlockId(),
+                    b.getGenerationStamp(), v, v.getTmpDir(b.getBlockPoolId()));
+            volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+            beginVolumeOp(b.getBlockPoolId(), b.getBlockId());
+        }
         // create a temporary file to hold block in the designated volume
-        File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
-        ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(),
-                b.getGenerationStamp(), v, f.getParentFile());
-        volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-
+        boolean created = false;
+        try {
+            synchronized (v.getVolumeLock()) {
+                v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
+            }
+            created = true;
+        } finally {
+            synchronized (this) {
+                endVolumeOp(b.getBlockPoolId(), b.getBlockId());
+                if (!created) {
+                    volumeMap.remove(b.getBlockPoolId(), b.getBlockId());
+                }
+            }
+        }
         return newReplicaInfo;
     }
 
+    @Override // FsDatasetSpi
+    public String moveBlockAcrossStorage(ExtendedBlock b,
+                                         StorageType targetStorageType, DataTransferThrottler throttler)
+            throws IOException {
+        final ReplicaInfo replicaInfo;
+        final FsVolumeImpl targetVolume;
+        final File tmpBlockFile;
+        synchronized (this) {
+            waitForVolumeOp(b.getBlockPoolId(), b.getBlockId());
+            replicaInfo = getReplicaInfo(b);
+            if (replicaInfo.getState() != ReplicaState.FINALIZED) {
+                throw new ReplicaNotFoundException(
+                        ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
+            }
+            if (replicaInfo.getVolume().getStorageType() == targetStorageType) {
+                throw new ReplicaAlreadyExistsException("Replica " + replicaInfo
+                        + " is already on storage type " + targetStorageType);
+            }
+            targetVolume = volumes.getNextVolume(targetStorageType,
+                    replicaInfo.getNumBytes());
+            tmpBlockFile = targetVolume.createTmpFile(b.getBlockPoolId(),
+                    replicaInfo);
+        }
+
+        // Copy without holding the dataset lock; the replica stays readable
+        // from its current volume until the copy replaces it.
+        final File srcBlockFile = replicaInfo.getBlockFile();
+        final File srcMetaFile = replicaInfo.getMetaFile();
+        final File tmpMetaFile = FsDatasetUtil.getMetaFile(tmpBlockFile,
+                replicaInfo.getGenerationStamp());
+        final File newBlockFile;
+        try {
+            copyFile(srcMetaFile, tmpMetaFile, throttler);
+            copyFile(srcBlockFile, tmpBlockFile, throttler);
+            synchronized (this) {
+                if (volumeMap.get(b.getBlockPoolId(), b.getBlockId()) != replicaInfo) {
+                    throw new IOException("Replica " + replicaInfo
+                            + " was modified while being moved to " + targetStorageType);
+                }
+                synchronized (targetVolume.getVolumeLock()) {
+                    newBlockFile = targetVolume.addBlock(b.getBlockPoolId(),
+                            replicaInfo, tmpBlockFile);
+                }
+                volumeMap.add(b.getBlockPoolId(), new FinalizedReplica(replicaInfo,
+                        targetVolume, newBlockFile.getParentFile()));
+            }
+        } catch (IOException e) {
+            delBlockFromDisk(tmpBlockFile, tmpMetaFile, replicaInfo);
+            throw e;
+        }
+
+        // Clients reading through short-circuit file descriptors must reopen
+        // the replica at its new location.
+        datanode.getShortCircuitRegistry().processBlockInvalidation(
+                new ExtendedBlockId(b.getBlockId(), b.getBlockPoolId()));
+        final long oldBytes = srcBlockFile.length() + srcMetaFile.length();
+        if (!srcBlockFile.delete() || !srcMetaFile.delete()) {
+            LOG.warn("Failed to delete " + srcBlockFile + " or " + srcMetaFile
+                    + " after moving them to " + newBlockFile.getParent());
+        }
+        ((FsVolumeImpl) replicaInfo.getVolume()).decDfsUsed(b.getBlockPoolId(),
+                oldBytes);
+        LOG.info("Moved " + b + " from " + replicaInfo.getVolume() + " to "
+                + targetVolume);
+        return targetVolume.getStorageID();
+    }
+
+    private static void copyFile(File src, File dst,
+                                 DataTransferThrottler throttler) throws IOException {
+        final byte[] buf = new byte[HdfsConstants.IO_FILE_BUFFER_SIZE];
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try {
+            in = new FileInputStream(src);
+            out = new FileOutputStream(dst);
+            for (int n; (n = in.read(buf)) > 0; ) {
+                out.write(buf, 0, n);
+                if (throttler != null) {
+                    throttler.throttle(n);
+                }
+            }
+            out.getChannel().force(true);
+        } finally {
+            IOUtils.cleanup(LOG, in, out);
+        }
+    }
+
     /**
      * Sets the offset in the meta file so that the
      * last checksum will be overwritten.
@@ -1003,18 +1150,111 @@ public void adjustCrcChannelPosition(ExtendedBlock b, ReplicaOutputStreams strea
      * Complete the block write!
      */
     @Override // FsDatasetSpi
-    public synchronized void finalizeBlock(ExtendedBlock b) throws IOException {
+    public void finalizeBlock(ExtendedBlock b) throws IOException {
         if (Thread.interrupted()) {
             // Don't allow data modifications from interrupted threads
             throw new IOException("Cannot finalize block from Interrupted Thread");
         }
-        ReplicaInfo replicaInfo = getReplicaInfo(b);
-        if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-            // this is legal, when recovery happens on a file that has
-            // been opened for append but never modified
-            return;
+        final String bpid = b.getBlockPoolId();
+        final ReplicaInfo replicaInfo;
+        final long lockStartNanos = System.nanoTime();
+        synchronized (this) {
+            addDatasetLockWait(lockStartNanos);
+            waitForVolumeOp(bpid, b.getBlockId());
+            replicaInfo = getReplicaInfo(b);
+            if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+                // this is legal, when recovery happens on a file that has
+                // been opened for append but never modified
+                return;
+            }
+            if (replicaInfo.getState() != ReplicaState.RBW
+                    && replicaInfo.getState() != ReplicaState.TEMPORARY) {
+                finalizeReplica(bpid, replicaInfo);
+                return;
+            }
+            beginVolumeOp(bpid, b.getBlockId());
+        }
+
+        // Move the files under the volume lock only, so that a slow rename
+        // does not hold up writers and recoveries on the other volumes.
+        FinalizedReplica newReplicaInfo = null;
+        boolean replaced = false;
+        try {
+            newReplicaInfo = moveToFinalized(bpid, replicaInfo);
+        } finally {
+            synchronized (this) {
+                endVolumeOp(bpid, b.getBlockId());
+                if (newReplicaInfo != null
+                        && volumeMap.get(bpid, b.getBlockId()) == replicaInfo) {
+                    volumeMap.add(bpid, newReplicaInfo);
+                    replaced = true;
+                }
+            }
+        }
+        if (!replaced) {
+            throw new IOException("Block pool " + bpid
+                    + " was shut down while finalizing " + replicaInfo);
+        }
+    }
+
+    /**
+     * Mark a block as having a file operation in progress on its volume.
+     * Operations that change the replica wait for it to finish in
+     * {@link #waitForVolumeOp(String, long)}.
+     */
+    private void beginVolumeOp(String bpid, long blockId) {
+        assert Thread.holdsLock(this);
+        volumeOpsInProgress.add(new ExtendedBlockId(blockId, bpid));
+    }
+
+    /**
+     * Finish a file operation started by {@link #beginVolumeOp(String, long)}
+     * and wake up the operations waiting for it. The caller holds the dataset
+     * lock, so it can update the volume map before they proceed.
+     */
+    private void endVolumeOp(String bpid, long blockId) {
+        assert Thread.holdsLock(this);
+        volumeOpsInProgress.remove(new ExtendedBlockId(blockId, bpid));
+        notifyAll();
+    }
+
+    /**
+     * Wait until no file operation started by
+     * {@link #beginVolumeOp(String, long)} is in progress for the block.
+     * Must be called with the dataset lock held, before looking the replica up.
+     */
+    private void waitForVolumeOp(String bpid, long blockId)
+            throws InterruptedIOException {
+        final ExtendedBlockId key = new ExtendedBlockId(blockId, bpid);
+        while (volumeOpsInProgress.contains(key)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for "
+                        + "a file operation on block " + blockId + " to finish");
+            }
+        }
+    }
+
+    /** Record how long it took to load a block pool slice of a volume. */
+    void addVolumeLoadTime(long timeTakenMs) {
+        final DataNodeMetrics metrics = datanode.getMetrics();
+        if (metrics != null) {
+            metrics.addVolumeLoadTime(timeTakenMs);
+        }
+    }
+
+    /**
+     * Record how long the caller waited to acquire the dataset lock.
+     * @param lockStartNanos {@link System#nanoTime()} taken just before
+     *                       entering the synchronized block
+     */
+    private void addDatasetLockWait(long lockStartNanos) {
+        final DataNodeMetrics metrics = datanode.getMetrics();
+        if (metrics != null) {
+            metrics.addDatasetLockWaitNanos(System.nanoTime() - lockStartNanos);
         }
-        finalizeReplica(b.getBlockPoolId(), replicaInfo);
     }
 
     private synchronized FinalizedReplica finalizeReplica(String bpid,
@@ -1026,25 +1266,41 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
             newReplicaInfo = (FinalizedReplica)
                     ((ReplicaUnderRecovery) replicaInfo).getOriginalReplica();
         } else {
-            FsVolumeImpl v = (FsVolumeImpl) replicaInfo.getVolume();
-            File f = replicaInfo.getBlockFile();
-            if (v == null) {
-                throw new IOException("No volume for temporary file " + f +
-                        " for block " + replicaInfo);
-            }
-
-            File dest = v.addBlock(bpid, replicaInfo, f);
-            newReplicaInfo = new FinalizedReplica(replicaInfo, v, dest.getParentFile());
+            newReplicaInfo = moveToFinalized(bpid, replicaInfo);
         }
         volumeMap.add(bpid, newReplicaInfo);
         return newReplicaInfo;
     }
 
+    /**
+     * Move the files of a replica to the finalized directory of its volume.
+     * Only the volume lock is taken; the caller updates the volume map.
+     */
+    private static FinalizedReplica moveToFinalized(String bpid,
+                                                    ReplicaInfo replicaInfo) throws IOException {
+        FsVolumeImpl v = (FsVolumeImpl) replicaInfo.getVolume();
+        File f = replicaInfo.getBlockFile();
+        if (v == null) {
+            throw new IOException("No volume for temporary file " + f +
+                    " for block " + replicaInfo);
+        }
+
+        final File dest;
+        synchronized (v.getVolumeLock()) {
+            dest = v.addBlock(bpid, replicaInfo, f);
+        }
+        // addBlock counted the replica with its meta file; it was counted by
+        // its bytes on disk while it was being written
+        v.decDfsUsed(bpid, replicaInfo.getBytesOnDisk());
+        return new FinalizedReplica(replicaInfo, v, dest.getParentFile());
+    }
+
     /**
      * Remove the temporary block file (if any)
      */
     @Override // FsDatasetSpi
     public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
+        waitForVolumeOp(b.getBlockPoolId(), b.getBlockId());
         ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
                 b.getLocalBlock());
         if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
@@ -1054,6 +1310,8 @@ public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
             // delete the on-disk temp file
             if (delBlockFromDisk(replicaInfo.getBlockFile(),
                     replicaInfo.getMetaFile(), b.getLocalBlock())) {
+                ((FsVolumeImpl) replicaInfo.getVolume()).decDfsUsed(
+                        b.getBlockPoolId(), replicaInfo.getBytesOnDisk());
                 LOG.warn("Block " + b + " unfinalized and removed. ");
             }
         }
@@ -1182,10 +1440,7 @@ private boolean isValid(final ExtendedBlock b, final ReplicaState state) {
      */
     File validateBlockFile(String bpid, Block b) {
         //Should we check for metadata file too?
-        final File f;
-        synchronized (this) {
-            f = getFile(bpid, b.getBlockId());
-        }
+        final File f = getFile(bpid, b.getBlockId());
 
         if (f != null) {
             if (f.exists())
@@ -1234,7 +1489,9 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
         for (int i = 0; i < invalidBlks.length; i++) {
             final File f;
             final FsVolumeImpl v;
+            final boolean finalized;
             synchronized (this) {
+                waitForVolumeOp(bpid, invalidBlks[i].getBlockId());
                 final ReplicaInfo info = volumeMap.get(bpid, invalidBlks[i]);
                 if (info == null) {
                     // It is okay if the block is not found -- it may be deleted earlier.
@@ -1249,6 +1506,7 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
                 }
                 f = info.getBlockFile();
                 v = (FsVolumeImpl) info.getVolume();
+                finalized = info.getState() == ReplicaState.FINALIZED;
                 if (f == null) {
                     errors.add("Failed to delete replica " + invalidBlks[i]
                             + ": File not found, volume=" + v);
@@ -1273,6 +1531,12 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
             datanode.getShortCircuitRegistry().processBlockInvalidation(
                     new ExtendedBlockId(invalidBlks[i].getBlockId(), bpid));
 
+            // Drop the replica from the DataNode block read cache, if enabled.
+            final BlockReadCache readCache = datanode.getBlockReadCache();
+            if (readCache != null) {
+                readCache.invalidate(bpid, invalidBlks[i].getBlockId());
+            }
+
             // If the block is cached, start uncaching it.
             cacheManager.uncacheBlock(bpid, invalidBlks[i].getBlockId());
 
@@ -1282,7 +1546,7 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
             asyncDiskService.deleteAsync(v, f,
                     FsDatasetUtil.getMetaFile(f, invalidBlks[i].getGenerationStamp()),
                     new ExtendedBlock(bpid, invalidBlks[i]),
-                    dataStorage.getTrashDirectoryForBlockFile(bpid, f));
+                    dataStorage.getTrashDirectoryForBlockFile(bpid, f), finalized);
         }
         if (!errors.isEmpty()) {
             StringBuilder b = new StringBuilder("Failed to delete ")
@@ -1365,7 +1629,7 @@ public boolean isCached(String bpid, long blockId) {
     }
 
     @Override // FsDatasetSpi
-    public synchronized boolean contains(final ExtendedBlock block) {
+    public boolean contains(final ExtendedBlock block) {
         final long blockId = block.getLocalBlock().getBlockId();
         return getFile(block.getBlockPoolId(), blockId) != null;
     }
@@ -1467,7 +1731,7 @@ public void shutdown() {
         }
 
         if (volumes != null) {
-            volumes.shutdown();
+            volumes.shutdown(volumeMap);
         }
     }
 
@@ -1530,10 +1794,6 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
                     // Block is in memory and not on the disk
                     // Remove the block from volumeMap
                     volumeMap.remove(bpid, blockId);
-                    final DataBlockScanner blockScanner = datanode.getBlockScanner();
-                    if (blockScanner != null) {
-                        blockScanner.deleteBlock(bpid, new Block(blockId));
-                    }
                     LOG.warn("Removed block " + blockId
                             + " from memory with missing block file on the disk");
                     // Finally remove the metadata file
@@ -1553,10 +1813,6 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
                 ReplicaInfo diskBlockInfo = new FinalizedReplica(blockId,
                         diskFile.length(), diskGS, vol, diskFile.getParentFile());
                 volumeMap.add(bpid, diskBlockInfo);
-                final DataBlockScanner blockScanner = datanode.getBlockScanner();
-                if (blockScanner != null) {
-                    blockScanner.addBlock(new ExtendedBlock(bpid, diskBlockInfo));
-                }
                 LOG.warn("Added missing block to memory " + diskBlockInfo);
                 return;
             }
@@ -1647,7 +1903,7 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
     }
 
     @Override
-    public synchronized String getReplicaString(String bpid, long blockId) {
+    public String getReplicaString(String bpid, long blockId) {
         final Replica r = volumeMap.get(bpid, blockId);
         return r == null ? "null" : r.toString();
     }
@@ -1655,6 +1911,8 @@ public synchronized String getReplicaString(String bpid, long blockId) {
     @Override // FsDatasetSpi
     public synchronized ReplicaRecoveryInfo initReplicaRecovery(
             RecoveringBlock rBlock) throws IOException {
+        waitForVolumeOp(rBlock.getBlock().getBlockPoolId(),
+                rBlock.getBlock().getBlockId());
         return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
                 rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
                 datanode.getDnConf().getXceiverStopTimeout());
@@ -1731,6 +1989,7 @@ public synchronized String updateReplicaUnderRecovery(
             final long newlength) throws IOException {
         //get replica
         final String bpid = oldBlock.getBlockPoolId();
+        waitForVolumeOp(bpid, oldBlock.getBlockId());
         final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
         LOG.info("updateReplica: " + oldBlock
                 + ", recoveryId=" + recoveryId
@@ -1797,9 +2056,22 @@ private FinalizedReplica updateReplicaUnderRecovery(
         }
         if (rur.getNumBytes() > newlength) {
             rur.unlinkBlock(1);
-            truncateBlock(replicafile, rur.getMetaFile(), rur.getNumBytes(), newlength);
+            final File metafile = rur.getMetaFile();
+            final long oldMetaLength = metafile.length();
+            final long oldLength = rur.getNumBytes();
+            final long oldBytesOnDisk = rur.getBytesOnDisk();
+            truncateBlock(replicafile, metafile, oldLength, newlength);
             // update RUR with the new length
             rur.setNumBytes(newlength);
+            final long truncated;
+            if (rur.getOriginalReplica().getState() == ReplicaState.FINALIZED) {
+                // a finalized replica is counted with its meta file
+                truncated = oldLength - newlength + oldMetaLength - metafile.length();
+            } else {
+                // any other replica is counted by its bytes on disk
+                truncated = oldBytesOnDisk - rur.getBytesOnDisk();
+            }
+            ((FsVolumeImpl) rur.getVolume()).decDfsUsed(bpid, truncated);
         }
 
         // finalize the block
@@ -1807,7 +2079,7 @@ private FinalizedReplica updateReplicaUnderRecovery(
     }
 
     @Override // FsDatasetSpi
-    public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
+    public long getReplicaVisibleLength(final ExtendedBlock block)
             throws IOException {
         final Replica replica = getReplicaInfo(block.getBlockPoolId(),
                 block.getBlockId());
@@ -1823,18 +2095,15 @@ public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
     public void addBlockPool(String bpid, Configuration conf)
             throws IOException {
         LOG.info("Adding block pool " + bpid);
-        synchronized (this) {
-            volumes.addBlockPool(bpid, conf);
-            volumeMap.initBlockPool(bpid);
-        }
-        volumes.getAllVolumesMap(bpid, volumeMap);
+        volumeMap.initBlockPool(bpid);
+        volumes.addBlockPool(bpid, conf, volumeMap);
     }
 
     @Override
     public synchronized void shutdownBlockPool(String bpid) {
         LOG.info("Removing block pool " + bpid);
+        volumes.removeBlockPool(bpid, volumeMap);
         volumeMap.cleanUpBlockPool(bpid);
-        volumes.removeBlockPool(bpid);
     }
 
     /**
@@ -1845,12 +2114,15 @@ private static class VolumeInfo {
         final long usedSpace;
         final long freeSpace;
         final long reservedSpace;
+        final Map<String, Long> blockPoolLoadTimes;
 
         VolumeInfo(FsVolumeImpl v, long usedSpace, long freeSpace) {
             this.directory = v.toString();
             this.usedSpace = usedSpace;
             this.freeSpace = freeSpace;
             this.reservedSpace = v.getReserved();
+            this.blockPoolLoadTimes = new HashMap<String, Long>(
+                    v.getBlockPoolLoadTimes());
         }
     }
 
@@ -1882,6 +2154,7 @@ public Map<String, Object> getVolumeInfoMap() {
             innerInfo.put("usedSpace", v.usedSpace);
             innerInfo.put("freeSpace", v.freeSpace);
             innerInfo.put("reservedSpace", v.reservedSpace);
+            innerInfo.put("blockPoolLoadTimeMs", v.blockPoolLoadTimes);
             info.put(v.directory, innerInfo);
         }
         return info;
@@ -1970,24 +2243,6 @@ public boolean trashEnabled(String bpid) {
         return dataStorage.trashEnabled(bpid);
     }
 
-    @Override
-    public RollingLogs createRollingLogs(String bpid, String prefix
-    ) throws IOException {
-        String dir = null;
-        final List<FsVolumeImpl> volumes = getVolumes();
-        for (FsVolumeImpl vol : volumes) {
-            String bpDir = vol.getPath(bpid);
-            if (RollingLogsImpl.isFilePresent(bpDir, prefix)) {
-                dir = bpDir;
-                break;
-            }
-        }
-        if (dir == null) {
-            dir = volumes.get(0).getPath(bpid);
-        }
-        return new RollingLogsImpl(dir, prefix);
-    }
-
     @Override
     public void submitBackgroundSyncFileRangeRequest(ExtendedBlock block,
                                                      FileDescriptor fd, long offset, long nbytes, int flags) {
@@ -18,9 +18,17 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
@@ -36,18 +44,24 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.StorageType;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
+import org.apache.hadoop.util.Time;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * The underlying volume used to store replica.
  *
- * It uses the {@link FsDatasetImpl} object for synchronization.
+ * Replica state is synchronized by the {@link FsDatasetImpl} object. Block
+ * files are created and finalized under the volume lock, so a slow disk
+ * only holds up writers to that volume.
  */
 @InterfaceAudience.Private
 class FsVolumeImpl implements FsVolumeSpi {
@@ -66,6 +80,11 @@ class FsVolumeImpl implements FsVolumeSpi {
      * contention.
      */
     private final ThreadPoolExecutor cacheExecutor;
+    /** Time taken to add each block pool and load its replicas, in ms */
+    private final Map<String, Long> blockPoolLoadTimes
+            = new ConcurrentHashMap<String, Long>();
+    /** Lock for block file creation and renames on this volume */
+    private final Object volumeLock = new Object();
 
     FsVolumeImpl(FsDatasetImpl dataset, String storageID, File currentDir,
                  Configuration conf, StorageType storageType) throws IOException {
@@ -102,21 +121,42 @@ File getRbwDir(String bpid) throws IOException {
         return getBlockPoolSlice(bpid).getRbwDir();
     }
 
+    File getTmpDir(String bpid) throws IOException {
+        return getBlockPoolSlice(bpid).getTmpDir();
+    }
+
+    /**
+     * The lock to hold while creating or renaming block files on this volume.
+     * When the dataset lock is also needed, it must be taken first.
+     */
+    Object getVolumeLock() {
+        return volumeLock;
+    }
+
     void decDfsUsed(String bpid, long value) {
-        synchronized (dataset) {
-            BlockPoolSlice bp = bpSlices.get(bpid);
-            if (bp != null) {
-                bp.decDfsUsed(value);
+        // bpSlices is concurrent and DfsUsage keeps its counter in an AtomicLong,
+        // so usage accounting does not need to wait for the dataset lock.
+        BlockPoolSlice bp = bpSlices.get(bpid);
+        if (bp != null) {
+            bp.decDfsUsed(value);
+        }
+    }
+
+    @Override // FsVolumeSpi
+    public void onReplicaBytesWritten(File replicaDir, long delta) {
+        for (BlockPoolSlice bp : bpSlices.values()) {
+            if (bp.getRbwDir().equals(replicaDir)
+                    || bp.getTmpDir().equals(replicaDir)) {
+                bp.incDfsUsed(delta);
+                return;
             }
         }
     }
 
     long getDfsUsed() throws IOException {
         long dfsUsed = 0;
-        synchronized (dataset) {
-            for (BlockPoolSlice s : bpSlices.values()) {
-                dfsUsed += s.getDfsUsed();
-            }
+        for (BlockPoolSlice s : bpSlices.values()) {
+            dfsUsed += s.getDfsUsed();
         }
         return dfsUsed;
     }
@@ -149,6 +189,15 @@ long getReserved() {
         return reserved;
     }
 
+    void setBlockPoolLoadTime(String bpid, long timeTakenMs) {
+        blockPoolLoadTimes.put(bpid, timeTakenMs);
+        dataset.addVolumeLoadTime(timeTakenMs);
+    }
+
+    Map<String, Long> getBlockPoolLoadTimes() {
+        return blockPoolLoadTimes;
+    }
+
     BlockPoolSlice getBlockPoolSlice(String bpid) throws IOException {
         BlockPoolSlice bp = bpSlices.get(bpid);
         if (bp == null) {
@@ -243,10 +292,19 @@ public String toString() {
     }
 
     void shutdown() {
+        shutdown(null);
+    }
+
+    /**
+     * Shut down the volume.
+     * @param volumeMap if not null, the finalized replicas on this volume are
+     *                  persisted for a fast restart
+     */
+    void shutdown(ReplicaMap volumeMap) {
         cacheExecutor.shutdown();
         Set<Entry<String, BlockPoolSlice>> set = bpSlices.entrySet();
         for (Entry<String, BlockPoolSlice> entry : set) {
-            entry.getValue().shutdown();
+            entry.getValue().shutdown(volumeMap);
         }
     }
 
@@ -256,12 +314,13 @@ void addBlockPool(String bpid, Configuration conf) throws IOException {
         bpSlices.put(bpid, bp);
     }
 
-    void shutdownBlockPool(String bpid) {
+    void shutdownBlockPool(String bpid, ReplicaMap volumeMap) {
         BlockPoolSlice bp = bpSlices.get(bpid);
         if (bp != null) {
-            bp.shutdown();
+            bp.shutdown(volumeMap);
         }
         bpSlices.remove(bpid);
+        blockPoolLoadTimes.remove(bpid);
     }
 
     boolean isBPDirEmpty(String bpid) throws IOException {
@@ -337,5 +396,235 @@ DatanodeStorage toDatanodeStorage() {
         return new DatanodeStorage(storageID, DatanodeStorage.State.NORMAL, storageType);
     }
 
+    @Override
+    public BlockIterator newBlockIterator(String bpid, String name) {
+        return new BlockIteratorImpl(bpid, name);
+    }
+
+    @Override
+    public BlockIterator loadBlockIterator(String bpid, String name)
+            throws IOException {
+        BlockIteratorImpl iter = new BlockIteratorImpl(bpid, name);
+        iter.load();
+        return iter;
+    }
+
+    private static final FilenameFilter SUBDIR_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.startsWith(DataStorage.BLOCK_SUBDIR_PREFIX);
+        }
+    };
+
+    private static final FilenameFilter BLOCK_FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return Block.blockFilePattern.matcher(name).matches();
+        }
+    };
+
+    /**
+     * Walks the block id based layout of the finalized directory,
+     * finalized/subdirN/subdirM/blk_*, in sorted order.  The position is the
+     * names of the two subdirectories and of the last block file returned,
+     * so a saved iterator resumes correctly even after the directories have
+     * changed.  Only the listing of the current leaf directory is cached.
+     */
+    private class BlockIteratorImpl implements BlockIterator {
+        private final String bpid;
+        private final String name;
+
+        private long iterStartMs;
+        private long lastSavedMs;
+        private boolean atEnd;
+        private String curDir1;
+        private String curDir2;
+        private String curEntry;
+
+        private List<String> dir2Entries;
+        private List<String> blockEntries;
+
+        BlockIteratorImpl(String bpid, String name) {
+            this.bpid = bpid;
+            this.name = name;
+            rewind();
+        }
+
+        private File getFinalizedDir() throws IOException {
+            return getBlockPoolSlice(bpid).getFinalizedDir();
+        }
+
+        private File getSaveFile() throws IOException {
+            return new File(getBlockPoolSlice(bpid).getDirectory(),
+                    name + ".cursor");
+        }
+
+        /** @return the sorted names in dir accepted by filter */
+        private List<String> list(File dir, FilenameFilter filter)
+                throws IOException {
+            String[] names = dir.list(filter);
+            if (names == null) {
+                if (dir.exists()) {
+                    throw new IOException("Failed to list " + dir);
+                }
+                // removed since the parent was listed
+                return Collections.emptyList();
+            }
+            List<String> list = new ArrayList<String>(names.length);
+            Collections.addAll(list, names);
+            Collections.sort(list);
+            return list;
+        }
+
+        /** @return the first entry after prev, or the first if prev is null */
+        private String nextSorted(List<String> entries, String prev) {
+            int i = 0;
+            if (prev != null) {
+                i = Collections.binarySearch(entries, prev);
+                i = i < 0 ? -i - 1 : i + 1;
+            }
+            return i < entries.size() ? entries.get(i) : null;
+        }
+
+        @Override
+        public ExtendedBlock nextBlock() throws IOException {
+            while (!atEnd) {
+                final File finalizedDir = getFinalizedDir();
+                if (curDir1 == null) {
+                    curDir1 = nextSorted(list(finalizedDir, SUBDIR_FILTER), null);
+                    if (curDir1 == null) {
+                        atEnd = true;
+                        break;
+                    }
+                }
+                final File dir1 = new File(finalizedDir, curDir1);
+                if (dir2Entries == null) {
+                    dir2Entries = list(dir1, SUBDIR_FILTER);
+                }
+                if (curDir2 == null) {
+                    curDir2 = nextSorted(dir2Entries, null);
+                    if (curDir2 == null) {
+                        nextDir1(finalizedDir);
+                        continue;
+                    }
+                }
+                if (blockEntries == null) {
+                    blockEntries = list(new File(dir1, curDir2), BLOCK_FILE_FILTER);
+                }
+                String entry = nextSorted(blockEntries, curEntry);
+                if (entry != null) {
+                    curEntry = entry;
+                    return new ExtendedBlock(bpid, Block.filename2id(entry));
+                }
+                // the leaf directory is done, move on to the next one
+                blockEntries = null;
+                curEntry = null;
+                curDir2 = nextSorted(dir2Entries, curDir2);
+                if (curDir2 == null) {
+                    nextDir1(finalizedDir);
+                }
+            }
+            return null;
+        }
+
+        private void nextDir1(File finalizedDir) throws IOException {
+            curDir1 = nextSorted(list(finalizedDir, SUBDIR_FILTER), curDir1);
+            curDir2 = null;
+            curEntry = null;
+            dir2Entries = null;
+            blockEntries = null;
+            if (curDir1 == null) {
+                atEnd = true;
+            }
+        }
+
+        @Override
+        public boolean atEnd() {
+            return atEnd;
+        }
+
+        @Override
+        public void rewind() {
+            iterStartMs = Time.now();
+            atEnd = false;
+            curDir1 = null;
+            curDir2 = null;
+            curEntry = null;
+            dir2Entries = null;
+            blockEntries = null;
+        }
+
+        @Override
+        public void save() throws IOException {
+            final long now = Time.now();
+            Properties props = new Properties();
+            props.setProperty("iterStartMs", Long.toString(iterStartMs));
+            props.setProperty("lastSavedMs", Long.toString(now));
+            props.setProperty("atEnd", Boolean.toString(atEnd));
+            if (curDir1 != null) {
+                props.setProperty("curDir1", curDir1);
+            }
+            if (curDir2 != null) {
+                props.setProperty("curDir2", curDir2);
+            }
+            if (curEntry != null) {
+                props.setProperty("curEntry", curEntry);
+            }
+            OutputStream out = new AtomicFileOutputStream(getSaveFile());
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            lastSavedMs = now;
+        }
+
+        void load() throws IOException {
+            Properties props = new Properties();
+            InputStream in = new FileInputStream(getSaveFile());
+            try {
+                props.load(in);
+            } finally {
+                IOUtils.closeStream(in);
+            }
+            try {
+                iterStartMs = Long.parseLong(props.getProperty("iterStartMs"));
+                lastSavedMs = Long.parseLong(props.getProperty("lastSavedMs"));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid block iterator " + getSaveFile(), e);
+            }
+            atEnd = Boolean.parseBoolean(props.getProperty("atEnd"));
+            curDir1 = props.getProperty("curDir1");
+            curDir2 = props.getProperty("curDir2");
+            curEntry = props.getProperty("curEntry");
+        }
+
+        @Override
+        public long getIterStartMs() {
+            return iterStartMs;
+        }
+
+        @Override
+        public long getLastSavedMs() {
+            return lastSavedMs;
+        }
+
+        @Override
+        public String getBlockPoolId() {
+            return bpid;
+        }
+
+        @Override
+        public void close() {
+            blockEntries = null;
+            dir2Entries = null;
+        }
+
+        @Override
+        public String toString() {
+            return "BlockIterator(" + FsVolumeImpl.this + ", " + bpid + ", "
+                    + name + ")";
+        }
+    }
 }
 
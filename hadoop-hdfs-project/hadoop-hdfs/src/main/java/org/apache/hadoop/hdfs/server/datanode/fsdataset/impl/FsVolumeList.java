@@ -22,14 +22,24 @@
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.StorageType;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 class FsVolumeList {
     /**
      * Read access to this unmodifiable list is not synchronized.
@@ -39,11 +49,19 @@ class FsVolumeList {
 
     private final VolumeChoosingPolicy<FsVolumeImpl> blockChooser;
     private volatile int numFailedVolumes;
+    /** Serializes calls to {@link #checkDirs()} */
+    private final Object checkDirsMutex = new Object();
+    private final long diskCheckTimeout;
+    private final ExecutorService diskCheckExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("VolumeDiskChecker-%d").build());
 
     FsVolumeList(int failedVols,
-                 VolumeChoosingPolicy<FsVolumeImpl> blockChooser) {
+                 VolumeChoosingPolicy<FsVolumeImpl> blockChooser,
+                 long diskCheckTimeout) {
         this.blockChooser = blockChooser;
         this.numFailedVolumes = failedVols;
+        this.diskCheckTimeout = diskCheckTimeout;
     }
 
     int numberOfFailedVolumes() {
@@ -101,47 +119,6 @@ long getRemaining() throws IOException {
         return remaining;
     }
 
-    void getAllVolumesMap(final String bpid, final ReplicaMap volumeMap) throws IOException {
-        long totalStartTime = Time.monotonicNow();
-        final List<IOException> exceptions = Collections.synchronizedList(
-                new ArrayList<IOException>());
-        List<Thread> replicaAddingThreads = new ArrayList<Thread>();
-        for (final FsVolumeImpl v : volumes) {
-            Thread t = new Thread() {
-                public void run() {
-                    try {
-                        FsDatasetImpl.LOG.info("Adding replicas to map for block pool " +
-                                bpid + " on volume " + v + "...");
-                        long startTime = Time.monotonicNow();
-                        v.getVolumeMap(bpid, volumeMap);
-                        long timeTaken = Time.monotonicNow() - startTime;
-                        FsDatasetImpl.LOG.info("Time to add replicas to map for block pool"
-                                + " " + bpid + " on volume " + v + ": " + timeTaken + "ms");
-                    } catch (IOException ioe) {
-                        FsDatasetImpl.LOG.info("Caught exception while adding replicas " +
-                                "from " + v + ". Will throw later.", ioe);
-                        exceptions.add(ioe);
-                    }
-                }
-            };
-            replicaAddingThreads.add(t);
-            t.start();
-        }
-        for (Thread t : replicaAddingThreads) {
-            try {
-                t.join();
-            } catch (InterruptedException ie) {
-                throw new IOException(ie);
-            }
-        }
-        if (!exceptions.isEmpty()) {
-            throw exceptions.get(0);
-        }
-        long totalTimeTaken = Time.monotonicNow() - totalStartTime;
-        FsDatasetImpl.LOG.info("Total time to add all replicas to map: "
-                + totalTimeTaken + "ms");
-    }
-
     void getVolumeMap(String bpid, FsVolumeImpl volume, ReplicaMap volumeMap)
             throws IOException {
         FsDatasetImpl.LOG.info("Adding replicas to map for block pool " + bpid +
@@ -155,42 +132,77 @@ void getVolumeMap(String bpid, FsVolumeImpl volume, ReplicaMap volumeMap)
 
     /**
      * Calls {@link FsVolumeImpl#checkDirs()} on each volume, removing any
-     * volumes from the active list that result in a DiskErrorException.
+     * volumes from the active list that result in a DiskErrorException or
+     * that do not finish their check within the disk check timeout.
      *
-     * This method is synchronized to allow only one instance of checkDirs()
-     * call
+     * The volumes are checked concurrently, and without holding the lock
+     * taken by {@link #getNextVolume(StorageType, long)}, so a slow or hung
+     * disk does not hold up block writes to the other volumes.  Only one
+     * checkDirs() call runs at a time.
      * @return list of all the removed volumes.
      */
-    synchronized List<FsVolumeImpl> checkDirs() {
-        ArrayList<FsVolumeImpl> removedVols = null;
+    List<FsVolumeImpl> checkDirs() {
+        synchronized (checkDirsMutex) {
+            final List<FsVolumeImpl> curVolumes = volumes;
+            final List<Future<Void>> checks = new ArrayList<Future<Void>>(
+                    curVolumes.size());
+            for (final FsVolumeImpl fsv : curVolumes) {
+                checks.add(diskCheckExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws DiskErrorException {
+                        fsv.checkDirs();
+                        return null;
+                    }
+                }));
+            }
 
-        // Make a copy of volumes for performing modification
-        final List<FsVolumeImpl> volumeList = new ArrayList<FsVolumeImpl>(volumes);
+            ArrayList<FsVolumeImpl> removedVols = null;
+            final long deadline = Time.monotonicNow() + diskCheckTimeout;
+            for (int i = 0; i < checks.size(); i++) {
+                final FsVolumeImpl fsv = curVolumes.get(i);
+                Throwable failure = null;
+                try {
+                    checks.get(i).get(Math.max(deadline - Time.monotonicNow(), 0),
+                            TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                } catch (TimeoutException e) {
+                    checks.get(i).cancel(true);
+                    failure = new DiskErrorException("Disk check of " + fsv
+                            + " did not complete in " + diskCheckTimeout + "ms");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return removedVols;
+                }
+                if (failure != null) {
+                    FsDatasetImpl.LOG.warn("Removing failed volume " + fsv + ": ",
+                            failure);
+                    if (removedVols == null) {
+                        removedVols = new ArrayList<FsVolumeImpl>(1);
+                    }
+                    removedVols.add(fsv);
+                }
+            }
 
-        for (Iterator<FsVolumeImpl> i = volumeList.iterator(); i.hasNext(); ) {
-            final FsVolumeImpl fsv = i.next();
-            try {
-                fsv.checkDirs();
-            } catch (DiskErrorException e) {
-                FsDatasetImpl.LOG.warn("Removing failed volume " + fsv + ": ", e);
-                if (removedVols == null) {
-                    removedVols = new ArrayList<FsVolumeImpl>(1);
+            if (removedVols != null && removedVols.size() > 0) {
+                synchronized (this) {
+                    // Make a copy of volumes for performing modification
+                    final List<FsVolumeImpl> volumeList =
+                            new ArrayList<FsVolumeImpl>(volumes);
+                    for (FsVolumeImpl fsv : removedVols) {
+                        fsv.shutdown();
+                        volumeList.remove(fsv); // Remove the volume
+                        numFailedVolumes++;
+                    }
+                    // Replace volume list
+                    volumes = Collections.unmodifiableList(volumeList);
                 }
-                removedVols.add(fsv);
-                fsv.shutdown();
-                i.remove(); // Remove the volume
-                numFailedVolumes++;
+                FsDatasetImpl.LOG.warn("Completed checkDirs. Removed " + removedVols.size()
+                        + " volumes. Current volumes: " + this);
             }
-        }
 
-        if (removedVols != null && removedVols.size() > 0) {
-            // Replace volume list
-            volumes = Collections.unmodifiableList(volumeList);
-            FsDatasetImpl.LOG.warn("Completed checkDirs. Removed " + removedVols.size()
-                    + " volumes. Current volumes: " + this);
+            return removedVols;
         }
-
-        return removedVols;
     }
 
     @Override
@@ -212,42 +224,70 @@ synchronized void addVolume(FsVolumeImpl newVolume) {
         FsDatasetImpl.LOG.info("Added new volume: " + newVolume.toString());
     }
 
-    void addBlockPool(final String bpid, final Configuration conf) throws IOException {
+    /**
+     * Add a block pool to every volume and load its replicas into the volume
+     * map.  Each volume is handled by its own task, so that a slow volume
+     * only delays itself; at most
+     * {@link DFSConfigKeys#DFS_DATANODE_VOLUME_INIT_THREADS_KEY} volumes are
+     * initialized at the same time.
+     */
+    void addBlockPool(final String bpid, final Configuration conf,
+                      final ReplicaMap volumeMap) throws IOException {
         long totalStartTime = Time.monotonicNow();
+        final List<FsVolumeImpl> curVolumes = volumes;
+        if (curVolumes.isEmpty()) {
+            return;
+        }
+        int numThreads = conf.getInt(
+                DFSConfigKeys.DFS_DATANODE_VOLUME_INIT_THREADS_KEY,
+                DFSConfigKeys.DFS_DATANODE_VOLUME_INIT_THREADS_DEFAULT);
+        if (numThreads <= 0 || numThreads > curVolumes.size()) {
+            numThreads = curVolumes.size();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("VolumeInit-" + bpid + "-%d").build());
 
-        final List<IOException> exceptions = Collections.synchronizedList(
-                new ArrayList<IOException>());
-        List<Thread> blockPoolAddingThreads = new ArrayList<Thread>();
-        for (final FsVolumeImpl v : volumes) {
-            Thread t = new Thread() {
-                public void run() {
-                    try {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for (final FsVolumeImpl v : curVolumes) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
                         FsDatasetImpl.LOG.info("Scanning block pool " + bpid +
                                 " on volume " + v + "...");
                         long startTime = Time.monotonicNow();
                         v.addBlockPool(bpid, conf);
+                        v.getVolumeMap(bpid, volumeMap);
                         long timeTaken = Time.monotonicNow() - startTime;
+                        v.setBlockPoolLoadTime(bpid, timeTaken);
                         FsDatasetImpl.LOG.info("Time taken to scan block pool " + bpid +
                                 " on " + v + ": " + timeTaken + "ms");
-                    } catch (IOException ioe) {
-                        FsDatasetImpl.LOG.info("Caught exception while scanning " + v +
-                                ". Will throw later.", ioe);
-                        exceptions.add(ioe);
+                        return null;
+                    }
+                }));
+            }
+            IOException firstException = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    FsDatasetImpl.LOG.info("Caught exception while scanning "
+                            + curVolumes.get(i) + ". Will throw later.", e.getCause());
+                    if (firstException == null) {
+                        firstException = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
                     }
                 }
-            };
-            blockPoolAddingThreads.add(t);
-            t.start();
-        }
-        for (Thread t : blockPoolAddingThreads) {
-            try {
-                t.join();
-            } catch (InterruptedException ie) {
-                throw new IOException(ie);
             }
-        }
-        if (!exceptions.isEmpty()) {
-            throw exceptions.get(0);
+            if (firstException != null) {
+                throw firstException;
+            }
+        } catch (InterruptedException ie) {
+            throw new IOException(ie);
+        } finally {
+            executor.shutdownNow();
         }
 
         long totalTimeTaken = Time.monotonicNow() - totalStartTime;
@@ -255,16 +295,17 @@ public void run() {
                 bpid + ": " + totalTimeTaken + "ms");
     }
 
-    void removeBlockPool(String bpid) {
+    void removeBlockPool(String bpid, ReplicaMap volumeMap) {
         for (FsVolumeImpl v : volumes) {
-            v.shutdownBlockPool(bpid);
+            v.shutdownBlockPool(bpid, volumeMap);
         }
     }
 
-    void shutdown() {
+    void shutdown(ReplicaMap volumeMap) {
+        diskCheckExecutor.shutdownNow();
         for (FsVolumeImpl volume : volumes) {
             if (volume != null) {
-                volume.shutdown();
+                volume.shutdown(volumeMap);
             }
         }
     }
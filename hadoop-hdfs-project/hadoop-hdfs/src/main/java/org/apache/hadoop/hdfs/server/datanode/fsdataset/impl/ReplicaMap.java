@@ -18,23 +18,28 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 
 /**
- * Maintains the replica map. 
+ * Maintains the replica map.
+ * <p>
+ * Lookups are lock-free: both the block pool map and the per block pool
+ * replica maps are concurrent, so readers never wait behind a writer that
+ * holds the mutex while doing disk IO. Mutations are still serialized on the
+ * mutex so that compound check-and-modify operations stay atomic.
  */
 class ReplicaMap {
-    // Object using which this class is synchronized
+    // Object using which the mutations of this class are synchronized
     private final Object mutex;
 
     // Map of block pool Id to another map of block Id to ReplicaInfo.
     private final Map<String, Map<Long, ReplicaInfo>> map =
-            new HashMap<String, Map<Long, ReplicaInfo>>();
+            new ConcurrentHashMap<String, Map<Long, ReplicaInfo>>();
 
     ReplicaMap(Object mutex) {
         if (mutex == null) {
@@ -45,9 +50,7 @@ class ReplicaMap {
     }
 
     String[] getBlockPoolList() {
-        synchronized (mutex) {
-            return map.keySet().toArray(new String[map.keySet().size()]);
-        }
+        return map.keySet().toArray(new String[0]);
     }
 
     private void checkBlockPool(String bpid) {
@@ -90,10 +93,8 @@ ReplicaInfo get(String bpid, Block block) {
      */
     ReplicaInfo get(String bpid, long blockId) {
         checkBlockPool(bpid);
-        synchronized (mutex) {
-            Map<Long, ReplicaInfo> m = map.get(bpid);
-            return m != null ? m.get(blockId) : null;
-        }
+        Map<Long, ReplicaInfo> m = map.get(bpid);
+        return m != null ? m.get(blockId) : null;
     }
 
     /**
@@ -111,7 +112,7 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
             Map<Long, ReplicaInfo> m = map.get(bpid);
             if (m == null) {
                 // Add an entry for block pool if it does not exist already
-                m = new HashMap<Long, ReplicaInfo>();
+                m = new ConcurrentHashMap<Long, ReplicaInfo>();
                 map.put(bpid, m);
             }
             return m.put(replicaInfo.getBlockId(), replicaInfo);
@@ -122,7 +123,9 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
      * Add all entries from the given replica map into the local replica map.
      */
     void addAll(ReplicaMap other) {
-        map.putAll(other.map);
+        synchronized (mutex) {
+            map.putAll(other.map);
+        }
     }
 
     /**
@@ -174,18 +177,16 @@ ReplicaInfo remove(String bpid, long blockId) {
      * @return the number of replicas in the map
      */
     int size(String bpid) {
-        Map<Long, ReplicaInfo> m = null;
-        synchronized (mutex) {
-            m = map.get(bpid);
-            return m != null ? m.size() : 0;
-        }
+        Map<Long, ReplicaInfo> m = map.get(bpid);
+        return m != null ? m.size() : 0;
     }
 
     /**
      * Get a collection of the replicas for given block pool
-     * This method is <b>not synchronized</b>. It needs to be synchronized
-     * externally using the mutex, both for getting the replicas
-     * values from the map and iterating over it. Mutex can be accessed using
+     * This method is <b>not synchronized</b>. Iterating over the returned
+     * collection never throws {@link java.util.ConcurrentModificationException},
+     * but callers that need a consistent view of the replicas must synchronize
+     * externally using the mutex, which can be accessed using
      * {@link #getMutext()} method.
      *
      * @param bpid block pool id
@@ -203,7 +204,7 @@ void initBlockPool(String bpid) {
             Map<Long, ReplicaInfo> m = map.get(bpid);
             if (m == null) {
                 // Add an entry for block pool if it does not exist already
-                m = new HashMap<Long, ReplicaInfo>();
+                m = new ConcurrentHashMap<Long, ReplicaInfo>();
                 map.put(bpid, m);
             }
         }
@@ -79,6 +79,14 @@ public class DataNodeMetrics {
     MutableCounterLong writesFromRemoteClient;
     @Metric
     MutableCounterLong blocksGetLocalPathInfo;
+    @Metric
+    MutableCounterLong blockReadCacheHits;
+    @Metric
+    MutableCounterLong blockReadCacheMisses;
+    @Metric
+    MutableCounterLong blockReadCacheEvictions;
+    @Metric
+    MutableCounterLong blockReadCacheLoadFailures;
 
     @Metric
     MutableCounterLong fsyncCount;
@@ -121,6 +129,13 @@ public class DataNodeMetrics {
     MutableRate sendDataPacketTransferNanos;
     final MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
 
+    @Metric("Time to add a block pool to a volume and load its replicas")
+    MutableRate volumeLoadTime;
+
+    @Metric
+    MutableRate datasetLockWaitNanos;
+    final MutableQuantiles[] datasetLockWaitNanosQuantiles;
+
     final MetricsRegistry registry = new MetricsRegistry("datanode");
     final String name;
     JvmMetrics jvmMetrics = null;
@@ -137,6 +152,7 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
         fsyncNanosQuantiles = new MutableQuantiles[len];
         sendDataPacketBlockedOnNetworkNanosQuantiles = new MutableQuantiles[len];
         sendDataPacketTransferNanosQuantiles = new MutableQuantiles[len];
+        datasetLockWaitNanosQuantiles = new MutableQuantiles[len];
 
         for (int i = 0; i < len; i++) {
             int interval = intervals[i];
@@ -157,6 +173,10 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
                     "sendDataPacketTransferNanos" + interval + "s",
                     "Time reading from disk and writing to network while sending " +
                             "a packet in ns", "ops", "latency", interval);
+            datasetLockWaitNanosQuantiles[i] = registry.newQuantiles(
+                    "datasetLockWaitNanos" + interval + "s",
+                    "Time spent waiting for the FsDataset lock in ns",
+                    "ops", "latency", interval);
         }
     }
 
@@ -303,6 +323,22 @@ public void incrBlocksGetLocalPathInfo() {
         blocksGetLocalPathInfo.incr();
     }
 
+    public void incrBlockReadCacheHits() {
+        blockReadCacheHits.incr();
+    }
+
+    public void incrBlockReadCacheMisses() {
+        blockReadCacheMisses.incr();
+    }
+
+    public void incrBlockReadCacheEvictions() {
+        blockReadCacheEvictions.incr();
+    }
+
+    public void incrBlockReadCacheLoadFailures() {
+        blockReadCacheLoadFailures.incr();
+    }
+
     public void addSendDataPacketBlockedOnNetworkNanos(long latencyNanos) {
         sendDataPacketBlockedOnNetworkNanos.add(latencyNanos);
         for (MutableQuantiles q : sendDataPacketBlockedOnNetworkNanosQuantiles) {
@@ -316,4 +352,15 @@ public void addSendDataPacketTransferNanos(long latencyNanos) {
             q.add(latencyNanos);
         }
     }
+
+    public void addVolumeLoadTime(long timeTakenMs) {
+        volumeLoadTime.add(timeTakenMs);
+    }
+
+    public void addDatasetLockWaitNanos(long latencyNanos) {
+        datasetLockWaitNanos.add(latencyNanos);
+        for (MutableQuantiles q : datasetLockWaitNanosQuantiles) {
+            q.add(latencyNanos);
+        }
+    }
 }
@@ -132,6 +132,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BatchedRemoteIterator.BatchedListEntries;
 import org.apache.hadoop.fs.CacheFlag;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.DirectoryListingStartAfterNotFoundException;
@@ -404,6 +405,10 @@ private void logAuditEvent(boolean succeeded,
     private final boolean isDefaultAuditLogger;
     private final List<AuditLogger> auditLoggers;
 
+    // Whether the time waited for the namesystem lock is reported to the RPC
+    // latency histograms; if not, the lock methods do not time the wait.
+    private final boolean lockWaitTimed;
+
     /** The namespace tree. */
     FSDirectory dir;
     private final BlockManager blockManager;
@@ -754,6 +759,9 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
         LOG.info("fsLock is fair:" + fair);
         fsLock = new FSNamesystemLock(fair);
         cond = fsLock.writeLock().newCondition();
+        lockWaitTimed = conf.getBoolean(
+                CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_ENABLE,
+                CommonConfigurationKeys.RPC_METRICS_LATENCY_HISTOGRAMS_ENABLE_DEFAULT);
         this.fsImage = fsImage;
         try {
             resourceRecheckInterval = conf.getLong(
@@ -1431,13 +1439,28 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
         return Util.stringCollectionAsURIs(dirNames);
     }
 
+    /** @return the time to start timing a lock wait from, if it is timed */
+    private long lockWaitStart() {
+        return lockWaitTimed ? System.nanoTime() : 0L;
+    }
+
+    /** Add the time waited for the lock to the latency metrics of the RPC. */
+    private void addLockWait(long start) {
+        if (lockWaitTimed) {
+            Server.addLockWaitTime(System.nanoTime() - start);
+        }
+    }
+
     @Override
     public void readLock() {
+        final long start = lockWaitStart();
         this.fsLock.readLock().lock();
+        addLockWait(start);
     }
 
     @Override
     public void longReadLockInterruptibly() throws InterruptedException {
+        final long start = lockWaitStart();
         this.fsLock.longReadLock().lockInterruptibly();
         try {
             this.fsLock.readLock().lockInterruptibly();
@@ -1447,6 +1470,7 @@ public void longReadLockInterruptibly() throws InterruptedException {
             this.fsLock.longReadLock().unlock();
             throw ie;
         }
+        addLockWait(start);
     }
 
     @Override
@@ -1462,12 +1486,15 @@ public void readUnlock() {
 
     @Override
     public void writeLock() {
+        final long start = lockWaitStart();
         this.fsLock.longReadLock().lock();
         this.fsLock.writeLock().lock();
+        addLockWait(start);
     }
 
     @Override
     public void writeLockInterruptibly() throws InterruptedException {
+        final long start = lockWaitStart();
         this.fsLock.longReadLock().lockInterruptibly();
         try {
             this.fsLock.writeLock().lockInterruptibly();
@@ -1477,6 +1504,7 @@ public void writeLockInterruptibly() throws InterruptedException {
             this.fsLock.longReadLock().unlock();
             throw ie;
         }
+        addLockWait(start);
     }
 
     @Override
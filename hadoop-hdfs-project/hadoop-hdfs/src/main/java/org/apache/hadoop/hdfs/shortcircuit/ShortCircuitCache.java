@@ -27,6 +27,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -97,7 +98,7 @@ private class CacheCleaner implements Runnable, Closeable {
          */
         @Override
         public void run() {
-            ShortCircuitCache.this.lock.lock();
+            ShortCircuitCache.this.acquireLock();
             try {
                 if (ShortCircuitCache.this.closed) return;
                 long curMs = Time.monotonicNow();
@@ -123,6 +124,7 @@ public void run() {
                                 StringUtils.getStackTrace(Thread.currentThread()));
                     }
                     purge(replica);
+                    metrics.incEvictions();
                     numPurged++;
                 }
 
@@ -239,10 +241,15 @@ public interface ShortCircuitReplicaCreator {
     }
 
     /**
-     * Lock protecting the cache.
+     * Lock protecting the eviction lists, the mmaps and all modifications of
+     * the replicaInfoMap.  Looking up a replica which is in use by another
+     * thread, and referencing or unreferencing it, does not take the lock.
      */
     private final ReentrantLock lock = new ReentrantLock();
 
+    private final ShortCircuitCacheMetrics metrics =
+            new ShortCircuitCacheMetrics();
+
     /**
      * The executor service that runs the cacheCleaner.
      */
@@ -263,10 +270,13 @@ public interface ShortCircuitReplicaCreator {
      * A map containing all ShortCircuitReplicaInfo objects, organized by Key.
      * ShortCircuitReplicaInfo objects may contain a replica, or an InvalidToken
      * exception.
+     *
+     * Modified under the cache lock.  May be read without it.
      */
-    private final HashMap<ExtendedBlockId, Waitable<ShortCircuitReplicaInfo>>
-            replicaInfoMap = new HashMap<ExtendedBlockId,
-            Waitable<ShortCircuitReplicaInfo>>();
+    private final ConcurrentHashMap<ExtendedBlockId,
+            Waitable<ShortCircuitReplicaInfo>> replicaInfoMap =
+            new ConcurrentHashMap<ExtendedBlockId,
+                    Waitable<ShortCircuitReplicaInfo>>();
 
     /**
      * The CacheCleaner.  We don't create this and schedule it until it becomes
@@ -326,7 +336,7 @@ public interface ShortCircuitReplicaCreator {
     /**
      * True if the ShortCircuitCache is closed.
      */
-    private boolean closed = false;
+    private volatile boolean closed = false;
 
     /**
      * Number of existing mmaps associated with this cache.
@@ -388,6 +398,68 @@ public long getStaleThresholdMs() {
         return staleThresholdMs;
     }
 
+    public ShortCircuitCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Take the cache lock, recording how long we waited for it if another
+     * thread was holding it.
+     */
+    private void acquireLock() {
+        if (lock.tryLock()) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        lock.lock();
+        metrics.addLockWait(System.nanoTime() - startNs);
+    }
+
+    /**
+     * Increment the reference count of a replica without taking the cache
+     * lock.
+     *
+     * This only succeeds if somebody besides the cache holds a reference.
+     * Such a replica is not in an eviction list, so incrementing the count
+     * does not need to move it.
+     *
+     * @param replica      The replica to reference.
+     * @return True if the reference count was incremented.
+     */
+    private static boolean tryRefUnlocked(ShortCircuitReplica replica) {
+        while (true) {
+            int refCount = replica.refCount.get();
+            if (refCount < 2) {
+                return false;
+            }
+            if (replica.refCount.compareAndSet(refCount, refCount + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decrement the reference count of a replica without taking the cache
+     * lock.
+     *
+     * This only succeeds if the replica keeps a reference besides the cache's,
+     * so that it doesn't become evictable.
+     *
+     * @param replica      The replica to unreference.
+     * @return True if the reference count was decremented.
+     */
+    private static boolean tryUnrefUnlocked(ShortCircuitReplica replica) {
+        while (true) {
+            int refCount = replica.refCount.get();
+            if (refCount <= 2) {
+                return false;
+            }
+            if (replica.refCount.compareAndSet(refCount, refCount - 1)) {
+                return true;
+            }
+        }
+    }
+
     /**
      * Increment the reference count of a replica, and remove it from any free
      * list it may be in.
@@ -397,25 +469,25 @@ public long getStaleThresholdMs() {
      * @param replica      The replica we're removing.
      */
     private void ref(ShortCircuitReplica replica) {
-        lock.lock();
+        acquireLock();
         try {
-            Preconditions.checkArgument(replica.refCount > 0,
+            Preconditions.checkArgument(replica.refCount.get() > 0,
                     "can't ref " + replica + " because its refCount reached " +
                             replica.refCount);
             Long evictableTimeNs = replica.getEvictableTimeNs();
-            replica.refCount++;
+            int newRefCount = replica.refCount.incrementAndGet();
             if (evictableTimeNs != null) {
                 String removedFrom = removeEvictable(replica);
                 if (LOG.isTraceEnabled()) {
                     LOG.trace(this + ": " + removedFrom +
                             " no longer contains " + replica + ".  refCount " +
-                            (replica.refCount - 1) + " -> " + replica.refCount +
+                            (newRefCount - 1) + " -> " + newRefCount +
                             StringUtils.getStackTrace(Thread.currentThread()));
 
                 }
             } else if (LOG.isTraceEnabled()) {
                 LOG.trace(this + ": replica  refCount " +
-                        (replica.refCount - 1) + " -> " + replica.refCount +
+                        (newRefCount - 1) + " -> " + newRefCount +
                         StringUtils.getStackTrace(Thread.currentThread()));
             }
         } finally {
@@ -431,7 +503,17 @@ private void ref(ShortCircuitReplica replica) {
      * @param replica   The replica being unreferenced.
      */
     void unref(ShortCircuitReplica replica) {
-        lock.lock();
+        if (tryUnrefUnlocked(replica)) {
+            // Somebody else still uses the replica.  Whoever drops the last
+            // reference besides the cache's checks whether it should be purged.
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(this + ": unref replica " + replica +
+                        " without the cache lock" +
+                        StringUtils.getStackTrace(Thread.currentThread()));
+            }
+            return;
+        }
+        acquireLock();
         try {
             // If the replica is stale or unusable, but we haven't purged it yet,
             // let's do that.  It would be a shame to evict a non-stale replica so
@@ -452,7 +534,7 @@ void unref(ShortCircuitReplica replica) {
             }
             String addedString = "";
             boolean shouldTrimEvictionMaps = false;
-            int newRefCount = --replica.refCount;
+            int newRefCount = replica.refCount.decrementAndGet();
             if (newRefCount == 0) {
                 // Close replica, since there are no remaining references to it.
                 Preconditions.checkArgument(replica.purged,
@@ -477,9 +559,9 @@ void unref(ShortCircuitReplica replica) {
                     shouldTrimEvictionMaps = true;
                 }
             } else {
-                Preconditions.checkArgument(replica.refCount >= 0,
+                Preconditions.checkArgument(newRefCount >= 0,
                         "replica's refCount went negative (refCount = " +
-                                replica.refCount + " for " + replica + ")");
+                                newRefCount + " for " + replica + ")");
             }
             if (LOG.isTraceEnabled()) {
                 LOG.trace(this + ": unref replica " + replica +
@@ -561,6 +643,7 @@ private void trimEvictionMaps() {
                         StringUtils.getStackTrace(Thread.currentThread()));
             }
             purge(replica);
+            metrics.incEvictions();
         }
     }
 
@@ -683,8 +766,12 @@ private void purge(ShortCircuitReplica replica) {
      */
     public ShortCircuitReplicaInfo fetchOrCreate(ExtendedBlockId key,
                                                  ShortCircuitReplicaCreator creator) {
+        ShortCircuitReplicaInfo cached = fetchUnlocked(key);
+        if (cached != null) {
+            return cached;
+        }
         Waitable<ShortCircuitReplicaInfo> newWaitable = null;
-        lock.lock();
+        acquireLock();
         try {
             ShortCircuitReplicaInfo info = null;
             do {
@@ -709,6 +796,7 @@ public ShortCircuitReplicaInfo fetchOrCreate(ExtendedBlockId key,
             } while (false);
             if (info != null) return info;
             // We need to load the replica ourselves.
+            metrics.incCacheMisses();
             newWaitable = new Waitable<ShortCircuitReplicaInfo>(lock.newCondition());
             replicaInfoMap.put(key, newWaitable);
         } finally {
@@ -717,6 +805,42 @@ public ShortCircuitReplicaInfo fetchOrCreate(ExtendedBlockId key,
         return create(key, creator, newWaitable);
     }
 
+    /**
+     * Fetch a loaded replica which is in use by another thread, without
+     * taking the cache lock.
+     *
+     * @param key       The key that we're using.
+     * @return The existing ReplicaInfo object with a new reference to its
+     *                  replica, or null if the caller has to take the lock.
+     */
+    private ShortCircuitReplicaInfo fetchUnlocked(ExtendedBlockId key) {
+        if (closed) {
+            return null;
+        }
+        Waitable<ShortCircuitReplicaInfo> waitable = replicaInfoMap.get(key);
+        if (waitable == null) {
+            return null;
+        }
+        ShortCircuitReplicaInfo info = waitable.getVal();
+        if (info == null) {
+            return null;
+        }
+        ShortCircuitReplica replica = info.getReplica();
+        if ((replica == null) || replica.purged || replica.isStale()) {
+            return null;
+        }
+        if (!tryRefUnlocked(replica)) {
+            return null;
+        }
+        if (replica.purged) {
+            // The replica was purged while we referenced it.
+            unref(replica);
+            return null;
+        }
+        metrics.incCacheHits();
+        return info;
+    }
+
     /**
      * Fetch an existing ReplicaInfo object.
      *
@@ -768,6 +892,7 @@ private ShortCircuitReplicaInfo fetch(ExtendedBlockId key,
             throw new RetriableException("ignoring stale replica " + replica);
         }
         ref(replica);
+        metrics.incCacheHits();
         return info;
     }
 
@@ -785,7 +910,7 @@ private ShortCircuitReplicaInfo create(ExtendedBlockId key,
             LOG.warn(this + ": failed to load " + key, e);
         }
         if (info == null) info = new ShortCircuitReplicaInfo();
-        lock.lock();
+        acquireLock();
         try {
             if (info.getReplica() != null) {
                 // On success, make sure the cache cleaner thread is running.
@@ -832,8 +957,18 @@ private void startCacheCleanerThreadIfNeeded() {
 
     ClientMmap getOrCreateClientMmap(ShortCircuitReplica replica,
                                      boolean anchored) {
+        // A mapped replica which is in use can't be munmapped, since only
+        // evictable replicas get demoted.  Share its mmap without the lock.
+        Object mmapData = replica.mmapData;
+        if ((mmapData instanceof MappedByteBuffer) && tryRefUnlocked(replica)) {
+            if (replica.mmapData == mmapData) {
+                return new ClientMmap(replica, (MappedByteBuffer) mmapData,
+                        anchored);
+            }
+            unref(replica);
+        }
         Condition newCond;
-        lock.lock();
+        acquireLock();
         try {
             while (replica.mmapData != null) {
                 if (replica.mmapData instanceof MappedByteBuffer) {
@@ -869,7 +1004,7 @@ ClientMmap getOrCreateClientMmap(ShortCircuitReplica replica,
             lock.unlock();
         }
         MappedByteBuffer map = replica.loadMmapInternal();
-        lock.lock();
+        acquireLock();
         try {
             if (map == null) {
                 replica.mmapData = Long.valueOf(Time.monotonicNow());
@@ -893,7 +1028,7 @@ ClientMmap getOrCreateClientMmap(ShortCircuitReplica replica,
     @Override
     public void close() {
         try {
-            lock.lock();
+            acquireLock();
             if (closed) return;
             closed = true;
             LOG.info(this + ": closing");
@@ -929,7 +1064,7 @@ void visit(int numOutstandingMmaps,
 
     @VisibleForTesting // ONLY for testing
     public void accept(CacheVisitor visitor) {
-        lock.lock();
+        acquireLock();
         try {
             Map<ExtendedBlockId, ShortCircuitReplica> replicas =
                     new HashMap<ExtendedBlockId, ShortCircuitReplica>();
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.shortcircuit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The metrics of a {@link ShortCircuitCache}.
+ */
+@InterfaceAudience.Private
+public class ShortCircuitCacheMetrics {
+    public final AtomicLong cacheHits = new AtomicLong();
+    public final AtomicLong cacheMisses = new AtomicLong();
+    public final AtomicLong evictions = new AtomicLong();
+    public final AtomicLong lockWaits = new AtomicLong();
+    public final AtomicLong lockWaitNanos = new AtomicLong();
+
+    public void incCacheHits() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void incCacheMisses() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public void incEvictions() {
+        evictions.incrementAndGet();
+    }
+
+    /** Record a contended acquisition of the cache lock. */
+    public void addLockWait(long nanos) {
+        lockWaits.incrementAndGet();
+        lockWaitNanos.addAndGet(nanos);
+    }
+
+    /** @return the number of lookups served by a replica already cached */
+    public long getCacheHits() {
+        return cacheHits.longValue();
+    }
+
+    /** @return the number of lookups which had to load the replica */
+    public long getCacheMisses() {
+        return cacheMisses.longValue();
+    }
+
+    /** @return the number of replicas purged from the eviction lists */
+    public long getEvictions() {
+        return evictions.longValue();
+    }
+
+    /** @return the number of times a thread had to wait for the cache lock */
+    public long getLockWaits() {
+        return lockWaits.longValue();
+    }
+
+    /** @return the total time threads waited for the cache lock */
+    public long getLockWaitNanos() {
+        return lockWaitNanos.longValue();
+    }
+}
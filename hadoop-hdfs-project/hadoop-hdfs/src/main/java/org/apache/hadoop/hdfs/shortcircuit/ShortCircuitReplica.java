@@ -22,6 +22,7 @@
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -88,16 +89,16 @@ public class ShortCircuitReplica {
     /**
      * Current mmap state.
      *
-     * Protected by the cache lock.
+     * Modified under the cache lock.  May be read without it.
      */
-    Object mmapData;
+    volatile Object mmapData;
 
     /**
      * True if this replica has been purged from the cache; false otherwise.
      *
-     * Protected by the cache lock.
+     * Modified under the cache lock.  May be read without it.
      */
-    boolean purged = false;
+    volatile boolean purged = false;
 
     /**
      * Number of external references to this replica.  Replicas are referenced
@@ -105,9 +106,11 @@ public class ShortCircuitReplica {
      * The number starts at 2 because when we create a replica, it is referenced
      * by both the cache and the requester.
      *
-     * Protected by the cache lock.
+     * Changes which take the count to or from 1 or 0 are made under the cache
+     * lock, since they make the replica evictable or close it.  Changes
+     * between counts of 2 or more may be made without the lock.
      */
-    int refCount = 2;
+    final AtomicInteger refCount = new AtomicInteger(2);
 
     /**
      * The monotonic time in nanoseconds at which the replica became evictable, or
@@ -144,7 +147,7 @@ public void unref() {
     /**
      * Check if the replica is stale.
      *
-     * Must be called with the cache lock held.
+     * Does not require the cache lock.
      */
     boolean isStale() {
         if (slot != null) {
@@ -242,9 +245,9 @@ void munmap() {
     void close() {
         String suffix = "";
 
-        Preconditions.checkState(refCount == 0,
+        Preconditions.checkState(refCount.get() == 0,
                 "tried to close replica with refCount " + refCount + ": " + this);
-        refCount = -1;
+        refCount.set(-1);
         Preconditions.checkState(purged,
                 "tried to close unpurged replica " + this);
         if (hasMmap()) {
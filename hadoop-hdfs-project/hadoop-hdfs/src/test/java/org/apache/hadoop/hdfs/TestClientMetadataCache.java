@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ClientMetadataCache} of {@link DFSClient}.
+ */
+public class TestClientMetadataCache {
+    private static final long SEED = 0xDEADBEEFL;
+
+    private MiniDFSCluster cluster;
+    private DistributedFileSystem fs;
+    private DFSClient client;
+    private ClientMetadataCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        Configuration conf = new HdfsConfiguration();
+        conf.setBoolean(DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_ENABLED_KEY, true);
+        // long enough that entries do not expire during a test
+        conf.setLong(DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_TTL_MS_KEY, 600000);
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        fs = cluster.getFileSystem();
+        client = fs.getClient();
+        cache = client.getMetadataCache();
+        assertNotNull(cache);
+    }
+
+    @After
+    public void tearDown() {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testFileInfo() throws IOException {
+        DFSTestUtil.createFile(fs, new Path("/dir/file"), 10, (short) 1, SEED);
+        assertEquals(10, client.getFileInfo("/dir/file").getLen());
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+        assertEquals(10, client.getFileInfo("/dir/file").getLen());
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(misses, cache.getMisses());
+
+        // changes made by another client are not seen until the entry expires
+        FileSystem other = FileSystem.newInstance(fs.getUri(), fs.getConf());
+        try {
+            other.setPermission(new Path("/dir/file"), new FsPermission((short) 0600));
+        } finally {
+            other.close();
+        }
+        assertEquals(FsPermission.getFileDefault().applyUMask(
+                FsPermission.getUMask(fs.getConf())),
+                client.getFileInfo("/dir/file").getPermission());
+
+        // changes made by this client are seen at once
+        fs.setPermission(new Path("/dir/file"), new FsPermission((short) 0640));
+        assertEquals(new FsPermission((short) 0640),
+                client.getFileInfo("/dir/file").getPermission());
+
+        fs.delete(new Path("/dir"), true);
+        assertNull(client.getFileInfo("/dir/file"));
+        assertNull(client.getFileInfo("/dir"));
+    }
+
+    @Test(timeout = 60000)
+    public void testListing() throws IOException {
+        DFSTestUtil.createFile(fs, new Path("/dir/file1"), 10, (short) 1, SEED);
+        assertEquals(1, fs.listStatus(new Path("/dir")).length);
+        long hits = cache.getHits();
+        assertEquals(1, fs.listStatus(new Path("/dir")).length);
+        assertEquals(hits + 1, cache.getHits());
+
+        DFSTestUtil.createFile(fs, new Path("/dir/file2"), 10, (short) 1, SEED);
+        assertEquals(2, fs.listStatus(new Path("/dir")).length);
+        fs.rename(new Path("/dir/file2"), new Path("/file3"));
+        assertEquals(1, fs.listStatus(new Path("/dir")).length);
+        assertEquals(2, fs.listStatus(new Path("/")).length);
+    }
+
+    @Test(timeout = 60000)
+    public void testFileBeingWritten() throws IOException {
+        Path file = new Path("/file");
+        FSDataOutputStream out = fs.create(file);
+        try {
+            out.write(new byte[100]);
+            out.hflush();
+            client.getFileInfo("/file");
+            long hits = cache.getHits();
+            client.getFileInfo("/file");
+            assertEquals(hits, cache.getHits());
+        } finally {
+            out.close();
+        }
+        assertEquals(100, client.getFileInfo("/file").getLen());
+    }
+
+    @Test(timeout = 60000)
+    public void testBlockLocations() throws IOException {
+        final int fileLen = 8192;
+        Path file = new Path("/file");
+        DFSTestUtil.createFile(fs, file, fileLen, (short) 1, SEED);
+        byte[] expected = DFSTestUtil.readFileBuffer(fs, file);
+        long hits = cache.getHits();
+        DFSInputStream in = client.open("/file", 4096, true);
+        try {
+            assertEquals(hits + 1, cache.getHits());
+            byte[] buf = new byte[fileLen];
+            in.readFully(0, buf);
+            assertArrayEquals(expected, buf);
+        } finally {
+            in.close();
+        }
+
+        // a file replaced by this client is read afresh
+        DFSTestUtil.createFile(fs, file, fileLen / 2, (short) 1, SEED + 1);
+        assertEquals(fileLen / 2, DFSTestUtil.readFileBuffer(fs, file).length);
+    }
+
+    @Test(timeout = 60000)
+    public void testInvalidateBlockLocations() throws IOException {
+        DFSTestUtil.createFile(fs, new Path("/dir/file"), 10, (short) 1, SEED);
+        client.getFileInfo("/dir/file");
+        fs.listStatus(new Path("/dir"));
+        client.open("/dir/file", 4096, true).close();
+        assertNotNull(cache.getBlockLocations("/dir/file"));
+
+        // a stream refetching stale locations keeps the other entries
+        cache.invalidateBlockLocations("/dir/file");
+        assertNull(cache.getBlockLocations("/dir/file"));
+        assertNotNull(cache.getFileInfo("/dir/file"));
+        assertNotNull(cache.getListing("/dir", false));
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.server.namenode.ha.HATestUtil;
+import org.apache.hadoop.ipc.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Tests the asynchronous calls of {@link DFSClient}.
+ */
+public class TestDFSClientAsync {
+    private static final long SEED = 0xDEADBEEFL;
+
+    private MiniDFSCluster cluster;
+    private DistributedFileSystem fs;
+    private DFSClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        fs = cluster.getFileSystem();
+        client = fs.getClient();
+    }
+
+    @After
+    public void tearDown() {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testMetadataCalls() throws Exception {
+        final int numFiles = 100;
+        fs.mkdirs(new Path("/dir"));
+        for (int i = 0; i < numFiles; i++) {
+            DFSTestUtil.createFile(fs, new Path("/dir/file" + i), i, (short) 1, SEED);
+        }
+
+        // many calls outstanding at once from one thread
+        List<ListenableFuture<HdfsFileStatus>> infos =
+                new ArrayList<ListenableFuture<HdfsFileStatus>>();
+        for (int i = 0; i < numFiles; i++) {
+            infos.add(client.getFileInfoAsync("/dir/file" + i));
+        }
+        ListenableFuture<HdfsFileStatus> missing =
+                client.getFileInfoAsync("/dir/missing");
+        ListenableFuture<DirectoryListing> listing =
+                client.listPathsAsync("/dir", HdfsFileStatus.EMPTY_NAME, false);
+        assertFalse(Client.isAsynchronousMode());
+
+        for (int i = 0; i < numFiles; i++) {
+            assertEquals(i, infos.get(i).get().getLen());
+        }
+        assertNull(missing.get());
+        assertEquals(numFiles, listing.get().getPartialListing().length);
+
+        assertTrue(client.renameAsync("/dir/file0", "/dir/renamed").get());
+        assertFalse(client.renameAsync("/dir/file0", "/dir/again").get());
+        assertNotNull(client.getFileInfo("/dir/renamed"));
+        assertNull(client.getFileInfo("/dir/file0"));
+    }
+
+    @Test(timeout = 60000)
+    public void testOpenAndRead() throws Exception {
+        final int fileLen = 8192;
+        Path file = new Path("/file");
+        DFSTestUtil.createFile(fs, file, fileLen, (short) 1, SEED);
+        byte[] expected = DFSTestUtil.readFileBuffer(fs, file);
+
+        DFSInputStream in = client.openAsync("/file", 4096, true).get();
+        try {
+            byte[] buf = new byte[1000];
+            assertEquals(buf.length, (int) in.readAsync(5000, buf, 0, buf.length).get());
+            byte[] expectedRange = new byte[buf.length];
+            System.arraycopy(expected, 5000, expectedRange, 0, buf.length);
+            assertArrayEquals(expectedRange, buf);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A call refused by a standby namenode fails over to the active one.
+     */
+    @Test(timeout = 60000)
+    public void testFailover() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        MiniDFSCluster haCluster = new MiniDFSCluster.Builder(conf)
+                .nnTopology(MiniDFSNNTopology.simpleHATopology())
+                .numDataNodes(0)
+                .build();
+        try {
+            haCluster.waitActive();
+            // the failover proxy tries the first namenode, the standby, first
+            haCluster.transitionToActive(1);
+            haCluster.getFileSystem(1).mkdirs(new Path("/dir"));
+            DistributedFileSystem haFs = (DistributedFileSystem)
+                    HATestUtil.configureFailoverFs(haCluster, conf);
+
+            HdfsFileStatus status = haFs.getClient().getFileInfoAsync("/dir").get();
+            assertNotNull(status);
+            assertTrue(status.isDir());
+        } finally {
+            haCluster.shutdown();
+        }
+    }
+}
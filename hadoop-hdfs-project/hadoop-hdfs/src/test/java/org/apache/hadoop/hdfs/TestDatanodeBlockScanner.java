@@ -26,12 +26,8 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.net.InetSocketAddress;
-import java.net.URL;
 import java.util.Random;
 import java.util.concurrent.TimeoutException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,14 +35,11 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
-import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
-import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Time;
 import org.apache.log4j.Level;
 import org.junit.Test;
@@ -61,126 +54,10 @@ public class TestDatanodeBlockScanner {
 
     private static final long TIMEOUT = 20000; // 20 sec.
 
-    private static final Pattern pattern =
-            Pattern.compile(".*?(blk_[-]*\\d+).*?scan time\\s*:\\s*(\\d+)");
-
-    private static final Pattern pattern_blockVerify =
-            Pattern.compile(".*?(SCAN_PERIOD)\\s*:\\s*(\\d+.*?)");
-
     static {
         ((Log4JLogger) FSNamesystem.auditLog).getLogger().setLevel(Level.WARN);
     }
 
-    /**
-     * This connects to datanode and fetches block verification data.
-     * It repeats this until the given block has a verification time > newTime.
-     * @param newTime - validation timestamps before newTime are "old", the
-     *            result of previous validations.  This method waits until a "new"
-     *            validation timestamp is obtained.  If no validator runs soon
-     *            enough, the method will time out.
-     * @return - the new validation timestamp
-     * @throws IOException
-     * @throws TimeoutException
-     */
-    private static long waitForVerification(int infoPort, FileSystem fs,
-                                            Path file, int blocksValidated,
-                                            long newTime, long timeout)
-            throws IOException, TimeoutException {
-        URL url = new URL("http://localhost:" + infoPort +
-                "/blockScannerReport?listblocks");
-        long lastWarnTime = Time.monotonicNow();
-        if (newTime <= 0) newTime = 1L;
-        long verificationTime = 0;
-
-        String block = DFSTestUtil.getFirstBlock(fs, file).getBlockName();
-        long failtime = (timeout <= 0) ? Long.MAX_VALUE
-                : Time.monotonicNow() + timeout;
-        while (verificationTime < newTime) {
-            if (failtime < Time.monotonicNow()) {
-                throw new TimeoutException("failed to achieve block verification after "
-                        + timeout + " msec.  Current verification timestamp = "
-                        + verificationTime + ", requested verification time > "
-                        + newTime);
-            }
-            String response = DFSTestUtil.urlGet(url);
-            if (blocksValidated >= 0) {
-                for (Matcher matcher = pattern_blockVerify.matcher(response); matcher.find(); ) {
-                    if (block.equals(matcher.group(1))) {
-                        assertEquals(1, blocksValidated);
-                        break;
-                    }
-                }
-            }
-            for (Matcher matcher = pattern.matcher(response); matcher.find(); ) {
-                if (block.equals(matcher.group(1))) {
-                    verificationTime = Long.parseLong(matcher.group(2));
-                    break;
-                }
-            }
-
-            if (verificationTime < newTime) {
-                long now = Time.monotonicNow();
-                if ((now - lastWarnTime) >= 5 * 1000) {
-                    LOG.info("Waiting for verification of " + block);
-                    lastWarnTime = now;
-                }
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ignored) {
-                }
-            }
-        }
-
-        return verificationTime;
-    }
-
-    @Test
-    public void testDatanodeBlockScanner() throws IOException, TimeoutException {
-        long startTime = Time.monotonicNow();
-
-        Configuration conf = new HdfsConfiguration();
-        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
-        cluster.waitActive();
-
-        FileSystem fs = cluster.getFileSystem();
-        Path file1 = new Path("/tmp/testBlockVerification/file1");
-        Path file2 = new Path("/tmp/testBlockVerification/file2");
-    
-    /*
-     * Write the first file and restart the cluster.
-     */
-        DFSTestUtil.createFile(fs, file1, 10, (short) 1, 0);
-        cluster.shutdown();
-
-        cluster = new MiniDFSCluster.Builder(conf)
-                .numDataNodes(1)
-                .format(false).build();
-        cluster.waitActive();
-
-        DFSClient dfsClient = new DFSClient(new InetSocketAddress("localhost",
-                cluster.getNameNodePort()), conf);
-        fs = cluster.getFileSystem();
-        DatanodeInfo dn = dfsClient.datanodeReport(DatanodeReportType.LIVE)[0];
-    
-    /*
-     * The cluster restarted. The block should be verified by now.
-     */
-        assertTrue(waitForVerification(dn.getInfoPort(), fs, file1, 1, startTime,
-                TIMEOUT) >= startTime);
-    
-    /*
-     * Create a new file and read the block. The block should be marked 
-     * verified since the client reads the block and verifies checksum. 
-     */
-        DFSTestUtil.createFile(fs, file2, 10, (short) 1, 0);
-        IOUtils.copyBytes(fs.open(file2), new IOUtils.NullOutputStream(),
-                conf, true);
-        assertTrue(waitForVerification(dn.getInfoPort(), fs, file2, 2, startTime,
-                TIMEOUT) >= startTime);
-
-        cluster.shutdown();
-    }
-
     public static boolean corruptReplica(ExtendedBlock blk, int replica) throws IOException {
         return MiniDFSCluster.corruptReplica(replica, blk);
     }
@@ -206,8 +83,10 @@ public void testBlockCorruptionPolicy() throws Exception {
         // Corrupt random replica of block
         assertTrue(MiniDFSCluster.corruptReplica(rand, block));
 
-        // Restart the datanode hoping the corrupt block to be reported
-        cluster.restartDataNode(rand);
+        // Have the datanode verify the block so that the corrupt replica is
+        // reported
+        DataNodeTestUtils.runBlockScannerForBlock(
+                cluster.getDataNodes().get(rand), block);
 
         // We have 2 good replicas and block is not corrupt
         DFSTestUtil.waitReplication(fs, file1, (short) 2);
@@ -346,7 +225,6 @@ public void testTruncatedBlockReport() throws Exception {
         conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 3L);
         conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_KEY, false);
 
-        long startTime = Time.monotonicNow();
         MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
                 .numDataNodes(REPLICATION_FACTOR)
                 .build();
@@ -362,18 +240,13 @@ public void testTruncatedBlockReport() throws Exception {
             cluster.shutdown();
         }
 
-        // Restart cluster and confirm block is verified on datanode 0,
-        // then truncate it on datanode 0.
+        // Restart cluster and truncate the block on datanode 0.
         cluster = new MiniDFSCluster.Builder(conf)
                 .numDataNodes(REPLICATION_FACTOR)
                 .format(false)
                 .build();
         cluster.waitActive();
         try {
-            FileSystem fs = cluster.getFileSystem();
-            int infoPort = cluster.getDataNodes().get(0).getInfoPort();
-            assertTrue(waitForVerification(infoPort, fs, fileName, 1, startTime, TIMEOUT) >= startTime);
-
             // Truncate replica of block
             if (!changeReplicaLength(block, 0, -1)) {
                 throw new IOException(
@@ -456,43 +329,4 @@ private static void testReplicaInfoParsingSingle(String subDirPath) {
         File testFile = new File(subDirPath);
         assertEquals(BASE_PATH, ReplicaInfo.parseBaseDir(testFile).baseDirPath);
     }
-
-    @Test
-    public void testDuplicateScans() throws Exception {
-        long startTime = Time.monotonicNow();
-        MiniDFSCluster cluster = new MiniDFSCluster.Builder(new Configuration())
-                .numDataNodes(1).build();
-        FileSystem fs = null;
-        try {
-            fs = cluster.getFileSystem();
-            DataNode dataNode = cluster.getDataNodes().get(0);
-            int infoPort = dataNode.getInfoPort();
-            long scanTimeBefore = 0, scanTimeAfter = 0;
-            for (int i = 1; i < 10; i++) {
-                Path fileName = new Path("/test" + i);
-                DFSTestUtil.createFile(fs, fileName, 1024, (short) 1, 1000L);
-                waitForVerification(infoPort, fs, fileName, i, startTime, TIMEOUT);
-                if (i > 1) {
-                    scanTimeAfter = DataNodeTestUtils.getLatestScanTime(dataNode,
-                            DFSTestUtil.getFirstBlock(fs, new Path("/test" + (i - 1))));
-                    assertFalse("scan time shoud not be 0", scanTimeAfter == 0);
-                    assertEquals("There should not be duplicate scan", scanTimeBefore,
-                            scanTimeAfter);
-                }
-
-                scanTimeBefore = DataNodeTestUtils.getLatestScanTime(dataNode,
-                        DFSTestUtil.getFirstBlock(fs, new Path("/test" + i)));
-            }
-            cluster.restartDataNode(0);
-            Thread.sleep(10000);
-            dataNode = cluster.getDataNodes().get(0);
-            scanTimeAfter = DataNodeTestUtils.getLatestScanTime(dataNode,
-                    DFSTestUtil.getFirstBlock(fs, new Path("/test" + (9))));
-            assertEquals("There should not be duplicate scan", scanTimeBefore,
-                    scanTimeAfter);
-        } finally {
-            IOUtils.closeStream(fs);
-            cluster.shutdown();
-        }
-    }
 }
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hdfs.DatanodeLatencyTracker.ReadType;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.junit.Test;
+
+public class TestDatanodeLatencyTracker {
+    private static final int UNIT = DatanodeLatencyTracker.SAMPLE_BYTES;
+
+    private final DatanodeInfo dn1 = DFSTestUtil.getLocalDatanodeInfo(50010);
+    private final DatanodeInfo dn2 = DFSTestUtil.getLocalDatanodeInfo(50011);
+    private final DatanodeInfo dn3 = DFSTestUtil.getLocalDatanodeInfo(50012);
+
+    private static void addSamples(DatanodeLatencyTracker tracker,
+                                   DatanodeInfo dn, long from, long to) {
+        for (long latency = from; latency <= to; latency++) {
+            tracker.addSample(dn, ReadType.PREAD, latency, UNIT);
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        DatanodeLatencyTracker tracker =
+                new DatanodeLatencyTracker(false, 95, 1, 3);
+        addSamples(tracker, dn1, 1, 100);
+        assertEquals(-1, tracker.getPercentile(dn1, ReadType.PREAD, 50));
+        assertEquals(500, tracker.getHedgeThresholdMs(dn1, ReadType.PREAD, 500, UNIT));
+        assertFalse(tracker.isSlow(dn1));
+    }
+
+    @Test
+    public void testHedgeThreshold() {
+        DatanodeLatencyTracker tracker =
+                new DatanodeLatencyTracker(true, 95, 20, 3);
+        // not enough samples yet
+        addSamples(tracker, dn1, 1, 19);
+        assertEquals(500, tracker.getHedgeThresholdMs(dn1, ReadType.PREAD, 500, UNIT));
+
+        addSamples(tracker, dn1, 20, 100);
+        assertEquals(95, tracker.getHedgeThresholdMs(dn1, ReadType.PREAD, 500, UNIT));
+        assertEquals(50, tracker.getPercentile(dn1, ReadType.PREAD, 50));
+        assertEquals(500, tracker.getHedgeThresholdMs(dn2, ReadType.PREAD, 500, UNIT));
+        // sequential reads are tracked separately
+        assertEquals(500, tracker.getHedgeThresholdMs(dn1, ReadType.SEQUENTIAL, 500, UNIT));
+
+        // only the most recent samples are kept
+        addSamples(tracker, dn1, 1000,
+                1000 + DatanodeLatencyTracker.WINDOW_SIZE - 1);
+        assertEquals(1000, tracker.getPercentile(dn1, ReadType.PREAD, 0.1f));
+        assertEquals(1000 + DatanodeLatencyTracker.WINDOW_SIZE - 1,
+                tracker.getPercentile(dn1, ReadType.PREAD, 100));
+    }
+
+    @Test
+    public void testNormalizedByBytes() {
+        DatanodeLatencyTracker tracker =
+                new DatanodeLatencyTracker(true, 95, 1, 3);
+        // 100ms for ten units is 10ms per unit
+        tracker.addSample(dn1, ReadType.PREAD, 100, 10L * UNIT);
+        assertEquals(10, tracker.getPercentile(dn1, ReadType.PREAD, 95));
+        assertEquals(40, tracker.getHedgeThresholdMs(dn1, ReadType.PREAD, 500, 4L * UNIT));
+        // small reads are not scaled up
+        tracker.addSample(dn2, ReadType.PREAD, 20, 1);
+        assertEquals(20, tracker.getHedgeThresholdMs(dn2, ReadType.PREAD, 500, 1));
+    }
+
+    @Test
+    public void testThresholdFloor() {
+        DatanodeLatencyTracker tracker =
+                new DatanodeLatencyTracker(true, 95, 10, 3);
+        for (int i = 0; i < 10; i++) {
+            tracker.addSample(dn1, ReadType.SEQUENTIAL, 0, UNIT);
+        }
+        assertEquals(DatanodeLatencyTracker.MIN_THRESHOLD_MS,
+                tracker.getHedgeThresholdMs(dn1, ReadType.SEQUENTIAL, 500, UNIT));
+        // a smaller fixed threshold is still honoured
+        assertEquals(5, tracker.getHedgeThresholdMs(dn1, ReadType.SEQUENTIAL, 5, UNIT));
+    }
+
+    @Test
+    public void testSlowNode() {
+        DatanodeLatencyTracker tracker =
+                new DatanodeLatencyTracker(true, 95, 10, 3);
+        addSamples(tracker, dn1, 10, 20);
+        addSamples(tracker, dn2, 10, 20);
+        addSamples(tracker, dn3, 100, 110);
+        assertFalse(tracker.isSlow(dn1));
+        assertFalse(tracker.isSlow(dn2));
+        assertTrue(tracker.isSlow(dn3));
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests writing a file through several pipelines with
+ * {@link ParallelDFSOutputStream}.
+ */
+public class TestParallelDFSOutputStream {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private MiniDFSCluster cluster;
+    private DistributedFileSystem fs;
+
+    @Before
+    public void setUp() throws IOException {
+        Configuration conf = new HdfsConfiguration();
+        conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+        conf.setInt(DFSConfigKeys.DFS_CLIENT_PARALLEL_WRITE_STREAMS_KEY, 2);
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+        fs = cluster.getFileSystem();
+    }
+
+    @After
+    public void tearDown() {
+        if (cluster != null) {
+            cluster.shutdown();
+        }
+    }
+
+    private byte[] writeFile(Path file, int length) throws IOException {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        FSDataOutputStream out = fs.createParallel(file, null, true, 4096,
+                (short) 3, BLOCK_SIZE, null);
+        // write in uneven pieces which cross the block boundaries
+        int off = 0;
+        while (off < length) {
+            int n = Math.min(length - off, 10000);
+            out.write(data, off, n);
+            off += n;
+        }
+        out.close();
+        return data;
+    }
+
+    private void checkFile(Path file, byte[] expected) throws IOException {
+        assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs, file));
+        // no part files are left behind
+        FileStatus[] listing = fs.listStatus(file.getParent());
+        assertEquals(1, listing.length);
+        assertEquals((expected.length + BLOCK_SIZE - 1) / BLOCK_SIZE,
+                fs.getClient().getLocatedBlocks(file.toUri().getPath(), 0)
+                        .locatedBlockCount());
+    }
+
+    @Test(timeout = 120000)
+    public void testManyBlocks() throws IOException {
+        Path file = new Path("/many/file");
+        checkFile(file, writeFile(file, 5 * BLOCK_SIZE + BLOCK_SIZE / 2));
+    }
+
+    @Test(timeout = 120000)
+    public void testExactBlocks() throws IOException {
+        Path file = new Path("/exact/file");
+        checkFile(file, writeFile(file, 3 * BLOCK_SIZE));
+    }
+
+    @Test(timeout = 120000)
+    public void testSingleBlock() throws IOException {
+        Path file = new Path("/single/file");
+        checkFile(file, writeFile(file, 1000));
+    }
+
+    @Test(timeout = 120000)
+    public void testNoOverwrite() throws IOException {
+        Path file = new Path("/existing/file");
+        DFSTestUtil.createFile(fs, file, 10, (short) 3, 0);
+        try {
+            fs.createParallel(file, null, false, 4096, (short) 3, BLOCK_SIZE, null);
+            fail("Overwrote an existing file");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(10, fs.getFileStatus(file).getLen());
+    }
+}
@@ -291,4 +291,53 @@ public void testDomainSocketPeers() throws Exception {
         assertEquals(0, cache.size());
         cache.close();
     }
+
+    @Test
+    public void testMaxIdlePerHost() throws Exception {
+        PeerCache cache = new PeerCache(10, 100000, 2, 0);
+        DatanodeID dnId = new DatanodeID("192.168.0.1",
+                "fakehostname", "fake_datanode_id",
+                100, 101, 102, 103);
+        DatanodeID otherDnId = new DatanodeID("192.168.0.2",
+                "fakehostname2", "fake_datanode_id2",
+                100, 101, 102, 103);
+        FakePeer[] peers = new FakePeer[3];
+        for (int i = 0; i < peers.length; ++i) {
+            peers[i] = new FakePeer(dnId, false);
+            cache.put(dnId, peers[i]);
+        }
+        cache.put(otherDnId, new FakePeer(otherDnId, false));
+        // the oldest peer of the first DataNode was closed to make room
+        assertEquals(3, cache.size());
+        assertTrue(peers[0].isClosed());
+        assertSame(peers[1], cache.get(dnId, false));
+        assertSame(peers[2], cache.get(dnId, false));
+        assertEquals(null, cache.get(dnId, false));
+        assertEquals(2, cache.getPeersReused());
+        cache.close();
+    }
+
+    @Test
+    public void testEvictStale() throws Exception {
+        PeerCache cache = new PeerCache(10, 100000);
+        DatanodeID dnId = new DatanodeID("192.168.0.1",
+                "fakehostname", "fake_datanode_id",
+                100, 101, 102, 103);
+        DatanodeID otherDnId = new DatanodeID("192.168.0.2",
+                "fakehostname2", "fake_datanode_id2",
+                100, 101, 102, 103);
+        FakePeer peer1 = new FakePeer(dnId, false);
+        FakePeer peer2 = new FakePeer(dnId, false);
+        FakePeer otherPeer = new FakePeer(otherDnId, false);
+        cache.put(dnId, peer1);
+        cache.put(dnId, peer2);
+        cache.put(otherDnId, otherPeer);
+        cache.evictStale(dnId, false);
+        assertTrue(peer1.isClosed());
+        assertTrue(peer2.isClosed());
+        assertEquals(2, cache.getStalePeersEvicted());
+        assertEquals(null, cache.get(dnId, false));
+        assertSame(otherPeer, cache.get(otherDnId, false));
+        cache.close();
+    }
 }
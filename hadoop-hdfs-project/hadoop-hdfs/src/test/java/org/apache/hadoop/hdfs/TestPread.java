@@ -19,9 +19,15 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -34,10 +40,13 @@
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.log4j.Level;
 import org.junit.Before;
@@ -225,6 +234,68 @@ private void datanodeRestartTest(MiniDFSCluster cluster, FileSystem fileSys,
         checkAndEraseData(actual, 0, expected, "Pread Datanode Restart Test");
     }
 
+    /**
+     * Read small ranges, ranges which get merged, a range across blocks and
+     * a range past the end of the file with a vectored read.
+     */
+    private void vectoredReadFile(FileSystem fileSys, Path name)
+            throws IOException {
+        byte[] expected = new byte[12 * blockSize];
+        if (simulatedStorage) {
+            Arrays.fill(expected, SimulatedFSDataset.DEFAULT_DATABYTE);
+        } else {
+            new Random(seed).nextBytes(expected);
+        }
+        List<FileRange> ranges = Arrays.asList(
+                new FileRange(5 * blockSize, 10),
+                new FileRange(0, 100),
+                new FileRange(150, 100),
+                new FileRange(blockSize - 50, 2 * blockSize),
+                new FileRange(8 * blockSize, 0),
+                new FileRange(12 * blockSize - 20, 20));
+        FileRange pastEof = new FileRange(12 * blockSize - 5, 10);
+        FSDataInputStream stm = fileSys.open(name);
+        try {
+            stm.readVectored(ranges, new ElasticByteBufferPool());
+            for (FileRange range : ranges) {
+                ByteBuffer data = getRangeData(range);
+                assertEquals(range.getLength(), data.remaining());
+                byte[] actual = new byte[range.getLength()];
+                data.get(actual);
+                checkAndEraseData(actual, (int) range.getOffset(), expected,
+                        "Vectored read " + range);
+            }
+
+            stm.readVectored(Arrays.asList(pastEof), null);
+            try {
+                getRangeData(pastEof);
+                fail("Read past the end of the file");
+            } catch (IOException e) {
+                assertTrue(e.getCause() instanceof EOFException);
+            }
+
+            try {
+                stm.readVectored(Arrays.asList(new FileRange(0, 100),
+                        new FileRange(99, 10)), null);
+                fail("Read overlapping ranges");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            stm.close();
+        }
+    }
+
+    private static ByteBuffer getRangeData(FileRange range) throws IOException {
+        try {
+            return range.getData().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted reading " + range);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read " + range, e.getCause());
+        }
+    }
+
     private void cleanupFile(FileSystem fileSys, Path name) throws IOException {
         assertTrue(fileSys.exists(name));
         assertTrue(fileSys.delete(name, true));
@@ -449,6 +520,7 @@ private void dfsPreadTest(Configuration conf, boolean disableTransferTo, boolean
             Path file1 = new Path("preadtest.dat");
             writeFile(fileSys, file1);
             pReadFile(fileSys, file1);
+            vectoredReadFile(fileSys, file1);
             datanodeRestartTest(cluster, fileSys, file1);
             cleanupFile(fileSys, file1);
         } finally {
@@ -474,6 +546,8 @@ public void testPreadLocalFS() throws IOException {
             Path file1 = new Path("build/test/data", "preadtest.dat");
             writeFile(fileSys, file1);
             pReadFile(fileSys, file1);
+            vectoredReadFile(fileSys, file1);
+            vectoredReadFile(((LocalFileSystem) fileSys).getRaw(), file1);
             cleanupFile(fileSys, file1);
         } finally {
             fileSys.close();
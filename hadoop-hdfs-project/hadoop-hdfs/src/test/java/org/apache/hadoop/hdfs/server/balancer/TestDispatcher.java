@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.balancer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.server.balancer.Dispatcher.DDatanode;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+import org.junit.Test;
+
+/**
+ * Test the adaptive number of concurrent moves of the dispatcher.
+ */
+public class TestDispatcher {
+    private static final long MOVE_SIZE = 1L << 20;
+
+    private long now = 0L;
+
+    /** Finish a window of moves which all ran for the given time at once. */
+    private void finishWindow(DDatanode dn, long elapsed) {
+        now += elapsed;
+        for (int i = dn.getConcurrentMovesLimit(); i > 0; i--) {
+            dn.adaptConcurrentMovesLimit(MOVE_SIZE, elapsed, true, now);
+        }
+    }
+
+    @Test
+    public void testConcurrentMovesLimit() {
+        final DDatanode dn = new DDatanode(new DatanodeStorageReport(
+                DFSTestUtil.getLocalDatanodeInfo(), new StorageReport[0]), 2, 6);
+        assertEquals(2, dn.getConcurrentMovesLimit());
+
+        // more concurrent moves of the same duration move more bytes per
+        // second, up to the upper bound
+        for (int expected = 3; expected <= 6; expected++) {
+            finishWindow(dn, 100L);
+            assertEquals(expected, dn.getConcurrentMovesLimit());
+        }
+        finishWindow(dn, 100L);
+        assertEquals(6, dn.getConcurrentMovesLimit());
+
+        // the throughput drops
+        finishWindow(dn, 1000L);
+        assertEquals(5, dn.getConcurrentMovesLimit());
+
+        // and recovers
+        finishWindow(dn, 500L);
+        assertEquals(6, dn.getConcurrentMovesLimit());
+
+        // a failed move halves the limit
+        dn.adaptConcurrentMovesLimit(MOVE_SIZE, 100L, false, now);
+        assertEquals(3, dn.getConcurrentMovesLimit());
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.balancer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.balancer.Mover.Policy;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test the storage type mover.
+ */
+public class TestMover {
+    private static final int BLOCK_SIZE = 1024;
+    private static final long FILE_LEN = 3 * BLOCK_SIZE + 100;
+
+    private static Configuration newConf() {
+        final Configuration conf = new HdfsConfiguration();
+        conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+        conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, BLOCK_SIZE);
+        conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1L);
+        conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 1);
+        conf.setLong(DFSConfigKeys.DFS_BALANCER_MOVEDWINWIDTH_KEY, 2000L);
+        return conf;
+    }
+
+    private static int runMover(Configuration conf, Policy policy, Path path)
+            throws Exception {
+        final Collection<URI> namenodes = DFSUtil.getNsServiceRpcUris(conf);
+        return Mover.run(namenodes,
+                new Mover.Parameters(policy, Arrays.asList(path)), conf);
+    }
+
+    /** Wait until every block of the file has exactly the given types. */
+    private static void waitForStorageTypes(final DistributedFileSystem dfs,
+                                            final Path path, final StorageType... expected) throws Exception {
+        GenericTestUtils.waitFor(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                try {
+                    final List<LocatedBlock> blocks = dfs.getClient()
+                            .getLocatedBlocks(path.toString(), 0).getLocatedBlocks();
+                    for (LocatedBlock lb : blocks) {
+                        final StorageType[] types = lb.getStorageTypes().clone();
+                        Arrays.sort(types);
+                        if (!Arrays.equals(expected, types)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+        }, 100, 30000);
+    }
+
+    /**
+     * Move all replicas to SSD storages on other datanodes, since the
+     * datanodes with the replicas have no SSD.
+     */
+    @Test(timeout = 120000)
+    public void testMoveAcrossDatanodes() throws Exception {
+        final Configuration conf = newConf();
+        final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                .numDataNodes(2).build();
+        try {
+            cluster.waitActive();
+            final DistributedFileSystem dfs = cluster.getFileSystem();
+            final Path file = new Path("/hot/file");
+            DFSTestUtil.createFile(dfs, file, FILE_LEN, (short) 2, 0L);
+            final byte[] expected = DFSTestUtil.readFileBuffer(dfs, file);
+
+            cluster.startDataNodes(conf, 2, StorageType.SSD, true, null, null,
+                    null, null, false, false, false, null);
+            cluster.waitActive();
+
+            assertEquals(ExitStatus.SUCCESS.getExitCode(),
+                    runMover(conf, Policy.ALL_SSD, new Path("/hot")));
+            waitForStorageTypes(dfs, file, StorageType.SSD, StorageType.SSD);
+            assertArrayEquals(expected, DFSTestUtil.readFileBuffer(dfs, file));
+
+            // a second run has nothing to move
+            assertEquals(ExitStatus.SUCCESS.getExitCode(),
+                    runMover(conf, Policy.ALL_SSD, new Path("/hot")));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    /**
+     * Move a replica to the SSD storage of the datanode which has it, without
+     * copying it over the network.
+     */
+    @Test(timeout = 120000)
+    public void testMoveWithinDatanode() throws Exception {
+        final Configuration conf = newConf();
+        final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                .numDataNodes(0).build();
+        try {
+            final File base = new File(cluster.getDataDirectory(), "mixed");
+            final Configuration dnConf = new Configuration(conf);
+            dnConf.set(DFSConfigKeys.DFS_DATANODE_DATA_DIR_KEY,
+                    "[DISK]" + new File(base, "disk").toURI() + ",[SSD]"
+                            + new File(base, "ssd").toURI());
+            cluster.startDataNodes(dnConf, 1, false, null, null);
+            cluster.waitActive();
+
+            final DistributedFileSystem dfs = cluster.getFileSystem();
+            final Path file = new Path("/file");
+            DFSTestUtil.createFile(dfs, file, FILE_LEN, (short) 1, 0L);
+            final byte[] expected = DFSTestUtil.readFileBuffer(dfs, file);
+            waitForStorageTypes(dfs, file, StorageType.DISK);
+
+            assertEquals(ExitStatus.SUCCESS.getExitCode(),
+                    runMover(conf, Policy.ONE_SSD, file));
+            waitForStorageTypes(dfs, file, StorageType.SSD);
+            assertArrayEquals(expected, DFSTestUtil.readFileBuffer(dfs, file));
+
+            // and back
+            assertEquals(ExitStatus.SUCCESS.getExitCode(),
+                    runMover(conf, Policy.HOT, file));
+            waitForStorageTypes(dfs, file, StorageType.DISK);
+            assertArrayEquals(expected, DFSTestUtil.readFileBuffer(dfs, file));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    /**
+     * The moves are scheduled but the SSD datanodes refuse to receive them, so
+     * the mover must not report success.
+     */
+    @Test(timeout = 120000)
+    public void testFailedMove() throws Exception {
+        final Configuration conf = newConf();
+        final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                .numDataNodes(2).build();
+        try {
+            cluster.waitActive();
+            final DistributedFileSystem dfs = cluster.getFileSystem();
+            final Path file = new Path("/hot/file");
+            DFSTestUtil.createFile(dfs, file, FILE_LEN, (short) 2, 0L);
+
+            final Configuration ssdConf = new Configuration(conf);
+            ssdConf.setInt(
+                    DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY, 0);
+            cluster.startDataNodes(ssdConf, 2, StorageType.SSD, true, null, null,
+                    null, null, false, false, false, null);
+            cluster.waitActive();
+
+            assertEquals(ExitStatus.NO_MOVE_PROGRESS.getExitCode(),
+                    runMover(conf, Policy.ALL_SSD, new Path("/hot")));
+            waitForStorageTypes(dfs, file, StorageType.DISK, StorageType.DISK);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    @Test
+    public void testParse() {
+        final Mover.Parameters p = Mover.Cli.parse(new String[]{
+                "-policy", "all_ssd", "-p", "/a", "/b"});
+        assertEquals(Policy.ALL_SSD, p.policy);
+        assertEquals(Arrays.asList(new Path("/a"), new Path("/b")), p.paths);
+
+        for (String[] args : new String[][]{
+                {"-p", "/a"}, {"-policy", "HOT"}, {"-policy", "WARM", "-p", "/a"}}) {
+            try {
+                Mover.Cli.parse(args);
+                fail("Parsed " + Arrays.toString(args));
+            } catch (IllegalArgumentException expectedException) {
+            }
+        }
+    }
+
+    @Test
+    public void testChooseStorageTypes() {
+        assertEquals(Arrays.asList(StorageType.SSD, StorageType.DISK,
+                StorageType.DISK), Policy.ONE_SSD.chooseStorageTypes(3));
+        assertEquals(Arrays.asList(StorageType.DISK),
+                Policy.HOT.chooseStorageTypes(1));
+    }
+}
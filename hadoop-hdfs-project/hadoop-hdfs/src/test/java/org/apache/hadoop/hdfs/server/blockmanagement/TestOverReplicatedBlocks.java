@@ -70,18 +70,14 @@ public void testProcesOverReplicateBlock() throws Exception {
             ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, fileName);
             assertTrue(TestDatanodeBlockScanner.corruptReplica(block, 0));
             DataNodeProperties dnProps = cluster.stopDataNode(0);
-            // remove block scanner log to trigger block scanning
-            File scanLog = new File(MiniDFSCluster.getFinalizedDir(
-                    cluster.getInstanceStorageDir(0, 0),
-                    cluster.getNamesystem().getBlockPoolId()).getParent().toString()
-                    + "/../dncp_block_verification.log.prev");
-            //wait for one minute for deletion to succeed;
-            for (int i = 0; !scanLog.delete(); i++) {
-                assertTrue("Could not delete log file in one minute", i < 60);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ignored) {
-                }
+            // remove the block scanner cursors to trigger block scanning
+            for (int dirIndex = 0; dirIndex < 2; dirIndex++) {
+                File cursor = new File(MiniDFSCluster.getFinalizedDir(
+                        cluster.getInstanceStorageDir(0, dirIndex),
+                        cluster.getNamesystem().getBlockPoolId())
+                        .getParentFile().getParentFile(), "scanner.cursor");
+                assertTrue("Could not delete " + cursor,
+                        !cursor.exists() || cursor.delete());
             }
 
             // restart the datanode so the corrupt replica will be detected
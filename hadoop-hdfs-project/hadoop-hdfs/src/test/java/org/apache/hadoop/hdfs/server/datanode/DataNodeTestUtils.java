@@ -28,6 +28,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocolPB.DatanodeProtocolClientSideTranslatorPB;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetTestUtil;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
@@ -114,22 +115,26 @@ public static InterDatanodeProtocol createInterDatanodeProtocolProxy(
                 dn.getDnConf().socketTimeout, dn.getDnConf().connectToDnViaHostname);
     }
 
+    /**
+     * Ask the block scanner of the datanode to verify the given block soon.
+     */
     public static void runBlockScannerForBlock(DataNode dn, ExtendedBlock b) {
-        BlockPoolSliceScanner bpScanner = getBlockPoolScanner(dn, b);
-        bpScanner.verifyBlock(new ExtendedBlock(b.getBlockPoolId(),
-                new BlockPoolSliceScanner.BlockScanInfo(b.getLocalBlock())));
-    }
-
-    private static BlockPoolSliceScanner getBlockPoolScanner(DataNode dn,
-                                                             ExtendedBlock b) {
-        DataBlockScanner scanner = dn.getBlockScanner();
-        BlockPoolSliceScanner bpScanner = scanner.getBPScanner(b.getBlockPoolId());
-        return bpScanner;
+        dn.getBlockScanner().markSuspectBlock(b);
     }
 
-    public static long getLatestScanTime(DataNode dn, ExtendedBlock b) {
-        BlockPoolSliceScanner scanner = getBlockPoolScanner(dn, b);
-        return scanner.getLastScanTime(b.getLocalBlock());
+    /**
+     * @return the number of blocks scanned on all the volumes of the datanode.
+     */
+    public static long getBlocksScanned(DataNode dn) {
+        long total = 0;
+        for (FsVolumeSpi volume : dn.getFSDataset().getVolumes()) {
+            VolumeScanner.Statistics stats =
+                    dn.getBlockScanner().getVolumeStats(volume.getStorageID());
+            if (stats != null) {
+                total += stats.blocksScanned;
+            }
+        }
+        return total;
     }
 
     public static void shutdownBlockScanner(DataNode dn) {
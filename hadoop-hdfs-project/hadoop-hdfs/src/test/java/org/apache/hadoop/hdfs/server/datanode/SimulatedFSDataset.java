@@ -48,12 +48,12 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
-import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.metrics2.util.MBeans;
 import org.apache.hadoop.util.DataChecksum;
@@ -769,6 +769,13 @@ public synchronized ReplicaInPipelineInterface createTemporary(
         return binfo;
     }
 
+    @Override // FsDatasetSpi
+    public String moveBlockAcrossStorage(ExtendedBlock b,
+                                         StorageType targetStorageType, DataTransferThrottler throttler)
+            throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
     synchronized InputStream getBlockInputStream(ExtendedBlock b
     ) throws IOException {
         final Map<Block, BInfo> map = getMap(b.getBlockPoolId());
@@ -1111,11 +1118,6 @@ public Map<String, Object> getVolumeInfoMap() {
         throw new UnsupportedOperationException();
     }
 
-    @Override
-    public RollingLogs createRollingLogs(String bpid, String prefix) {
-        throw new UnsupportedOperationException();
-    }
-
     @Override
     public FsVolumeSpi getVolume(ExtendedBlock b) {
         throw new UnsupportedOperationException();
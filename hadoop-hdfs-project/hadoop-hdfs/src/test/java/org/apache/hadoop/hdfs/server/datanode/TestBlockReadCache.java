@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Supplier;
+
+public class TestBlockReadCache {
+    private static final String BPID = "BP-TEST";
+    private static final int BLOCK_LEN = 1000;
+    private static final int META_LEN = 20;
+    private static final int ENTRY_SIZE = BLOCK_LEN + META_LEN;
+
+    private static FsDatasetSpi<?> mockDataset() throws Exception {
+        FsDatasetSpi<?> dataset = Mockito.mock(FsDatasetSpi.class);
+        Mockito.when(dataset.getMetaDataInputStream(Mockito.any(ExtendedBlock.class)))
+                .thenAnswer(new Answer<LengthInputStream>() {
+                    @Override
+                    public LengthInputStream answer(InvocationOnMock invocation) {
+                        return new LengthInputStream(
+                                new ByteArrayInputStream(new byte[META_LEN]), META_LEN);
+                    }
+                });
+        Mockito.when(dataset.getBlockInputStream(Mockito.any(ExtendedBlock.class),
+                Mockito.anyLong())).thenAnswer(new Answer<ByteArrayInputStream>() {
+            @Override
+            public ByteArrayInputStream answer(InvocationOnMock invocation) {
+                ExtendedBlock b = (ExtendedBlock) invocation.getArguments()[0];
+                byte[] data = new byte[BLOCK_LEN];
+                data[0] = (byte) b.getBlockId();
+                return new ByteArrayInputStream(data);
+            }
+        });
+        return dataset;
+    }
+
+    /**
+     * Make the reads of block 1's data wait for the latch.
+     */
+    private static void blockReadsOf1(FsDatasetSpi<?> dataset,
+                                      final CountDownLatch latch) throws Exception {
+        Mockito.when(dataset.getBlockInputStream(Mockito.eq(block(1)),
+                Mockito.anyLong())).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Exception {
+                latch.await();
+                return new ByteArrayInputStream(new byte[BLOCK_LEN]);
+            }
+        });
+    }
+
+    private static ExtendedBlock block(long id) {
+        return new ExtendedBlock(BPID, id, BLOCK_LEN, 1);
+    }
+
+    /**
+     * A replica read only once is not admitted, a replica read again is.
+     */
+    @Test
+    public void testAdmission() throws Exception {
+        FsDatasetSpi<?> dataset = mockDataset();
+        BlockReadCache cache = new BlockReadCache(10 * ENTRY_SIZE, BLOCK_LEN, null);
+
+        assertNull(cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset));
+        assertEquals(0, cache.size());
+
+        BlockReadCache.CachedReplica loaded =
+                cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset);
+        assertNotNull(loaded);
+        assertEquals(1, cache.size());
+        assertEquals(ENTRY_SIZE, cache.getUsed());
+        ByteBuffer data = loaded.getData();
+        assertEquals(BLOCK_LEN, data.remaining());
+        assertEquals(1, data.get(0));
+
+        assertSame(loaded, cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset));
+
+        // Replicas larger than the maximum block size are never cached.
+        assertNull(cache.getOrLoad(block(2), 1, BLOCK_LEN + 1, dataset));
+        assertNull(cache.getOrLoad(block(2), 1, BLOCK_LEN + 1, dataset));
+    }
+
+    /**
+     * A newcomer only displaces LRU entries that are less popular than itself.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        FsDatasetSpi<?> dataset = mockDataset();
+        BlockReadCache cache = new BlockReadCache(3 * ENTRY_SIZE, BLOCK_LEN, null);
+        for (long id = 1; id <= 3; id++) {
+            cache.getOrLoad(block(id), 1, BLOCK_LEN, dataset);
+            assertNotNull(cache.getOrLoad(block(id), 1, BLOCK_LEN, dataset));
+        }
+        assertEquals(3, cache.size());
+
+        // As popular as the LRU entry: rejected, and nothing is evicted.
+        cache.getOrLoad(block(4), 1, BLOCK_LEN, dataset);
+        assertNull(cache.getOrLoad(block(4), 1, BLOCK_LEN, dataset));
+        assertEquals(3, cache.size());
+
+        // More popular than the LRU entry: admitted in place of block 1.
+        assertNotNull(cache.getOrLoad(block(4), 1, BLOCK_LEN, dataset));
+        assertEquals(3, cache.size());
+        assertTrue(cache.getUsed() <= 3 * ENTRY_SIZE);
+    }
+
+    /**
+     * Entries are dropped when the replica changes or is invalidated.
+     */
+    @Test
+    public void testStaleEntries() throws Exception {
+        FsDatasetSpi<?> dataset = mockDataset();
+        BlockReadCache cache = new BlockReadCache(10 * ENTRY_SIZE, BLOCK_LEN, null);
+        cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset);
+        BlockReadCache.CachedReplica first =
+                cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset);
+        assertNotNull(first);
+
+        // The generation stamp was bumped, e.g. by an append.
+        BlockReadCache.CachedReplica second =
+                cache.getOrLoad(block(1), 2, BLOCK_LEN, dataset);
+        assertNotNull(second);
+        assertTrue(first != second);
+        assertEquals(1, cache.size());
+
+        cache.invalidate(BPID, 1);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getUsed());
+    }
+
+    /**
+     * A replica that fails to load is not cached, and the reader goes to disk.
+     */
+    @Test
+    public void testLoadFailure() throws Exception {
+        FsDatasetSpi<?> dataset = mockDataset();
+        Mockito.when(dataset.getBlockInputStream(Mockito.eq(block(1)),
+                Mockito.anyLong())).thenThrow(new IOException("injected"));
+        BlockReadCache cache = new BlockReadCache(10 * ENTRY_SIZE, BLOCK_LEN, null);
+        assertNull(cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset));
+        assertNull(cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getReserved());
+        assertEquals(0, cache.getUsed());
+    }
+
+    /**
+     * Concurrent readers of a replica share one load, and its space is
+     * reserved while it is loaded.
+     */
+    @Test(timeout = 60000)
+    public void testConcurrentLoad() throws Exception {
+        final FsDatasetSpi<?> dataset = mockDataset();
+        final CountDownLatch latch = new CountDownLatch(1);
+        blockReadsOf1(dataset, latch);
+        final BlockReadCache cache = new BlockReadCache(ENTRY_SIZE, BLOCK_LEN, null);
+        assertNull(cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset));
+        cache.getOrLoad(block(2), 1, BLOCK_LEN, dataset);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<BlockReadCache.CachedReplica> read =
+                    new Callable<BlockReadCache.CachedReplica>() {
+                        @Override
+                        public BlockReadCache.CachedReplica call() throws Exception {
+                            return cache.getOrLoad(block(1), 1, BLOCK_LEN, dataset);
+                        }
+                    };
+            Future<BlockReadCache.CachedReplica> first = executor.submit(read);
+            GenericTestUtils.waitFor(new Supplier<Boolean>() {
+                @Override
+                public Boolean get() {
+                    return cache.getReserved() == ENTRY_SIZE;
+                }
+            }, 10, 10000);
+            Future<BlockReadCache.CachedReplica> second = executor.submit(read);
+
+            // The cache is full with the reservation: block 2 is not loaded.
+            assertNull(cache.getOrLoad(block(2), 1, BLOCK_LEN, dataset));
+            assertEquals(0, cache.getUsed());
+
+            latch.countDown();
+            assertNotNull(first.get());
+            assertSame(first.get(), second.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        Mockito.verify(dataset, Mockito.times(1))
+                .getBlockInputStream(Mockito.eq(block(1)), Mockito.anyLong());
+        assertEquals(0, cache.getReserved());
+        assertEquals(ENTRY_SIZE, cache.getUsed());
+    }
+
+    /**
+     * Hot blocks read through a DataNode are served from the cache.
+     */
+    @Test
+    public void testReadThroughDataNode() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        conf.setLong(DFSConfigKeys.DFS_DATANODE_BLOCK_READ_CACHE_CAPACITY_KEY,
+                1024 * 1024);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            cluster.waitActive();
+            FileSystem fs = cluster.getFileSystem();
+            Path file = new Path("/hot");
+            DFSTestUtil.createFile(fs, file, 4096, (short) 1, 0xbeefL);
+            byte[] expected = DFSTestUtil.readFileBuffer(fs, file);
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs, file));
+            }
+
+            DataNode dn = cluster.getDataNodes().get(0);
+            assertNotNull(dn.getBlockReadCache());
+            assertEquals(1, dn.getBlockReadCache().size());
+            MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+            assertTrue(getLongCounter("BlockReadCacheHits", rb) >= 2);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi.BlockIterator;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+public class TestBlockScanner {
+    private static final int BLOCK_SIZE = 100;
+
+    private static Configuration newConf() {
+        Configuration conf = new HdfsConfiguration();
+        conf.setInt(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+        conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, BLOCK_SIZE);
+        return conf;
+    }
+
+    /**
+     * Restart the only datanode of the cluster after removing the saved
+     * block scanner cursors, so that it scans every block again.
+     */
+    private static void restartDataNodeWithoutCursors(MiniDFSCluster cluster,
+                                                      String... bpids)
+            throws IOException {
+        DataNodeProperties dnProps = cluster.stopDataNode(0);
+        for (int dirIndex = 0; dirIndex < 2; dirIndex++) {
+            for (String bpid : bpids) {
+                File cursor = new File(MiniDFSCluster.getFinalizedDir(
+                        cluster.getInstanceStorageDir(0, dirIndex), bpid)
+                        .getParentFile().getParentFile(),
+                        VolumeScanner.BLOCK_ITERATOR_NAME + ".cursor");
+                assertTrue("Could not delete " + cursor,
+                        !cursor.exists() || cursor.delete());
+            }
+        }
+        cluster.restartDataNode(dnProps, true);
+        cluster.waitActive();
+    }
+
+    private static void waitForScannedBlocks(final DataNode dn,
+                                             final long expected)
+            throws Exception {
+        GenericTestUtils.waitFor(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return DataNodeTestUtils.getBlocksScanned(dn) >= expected;
+            }
+        }, 100, 60000);
+    }
+
+    private static void waitForBlockPools(final DataNode dn,
+                                          final String... bpids)
+            throws Exception {
+        GenericTestUtils.waitFor(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                for (String bpid : bpids) {
+                    if (!dn.getBlockScanner().isInitialized(bpid)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }, 100, 60000);
+    }
+
+    /**
+     * Every block of every block pool is scanned once per period, and the
+     * saved cursors keep a restarted datanode from scanning them again.
+     */
+    @Test(timeout = 120000)
+    public void testScanAllBlocksOncePerPeriod() throws Exception {
+        Configuration conf = newConf();
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+                .nnTopology(MiniDFSNNTopology.simpleFederatedTopology(2))
+                .build();
+        try {
+            cluster.waitActive();
+            String[] bpids = new String[2];
+            for (int i = 0; i < 2; i++) {
+                bpids[i] = cluster.getNamesystem(i).getBlockPoolId();
+                // 10 blocks per block pool
+                DFSTestUtil.createFile(cluster.getFileSystem(i),
+                        new Path("/file"), 10 * BLOCK_SIZE, (short) 1, i);
+            }
+
+            restartDataNodeWithoutCursors(cluster, bpids);
+            DataNode dn = cluster.getDataNodes().get(0);
+            waitForScannedBlocks(dn, 20);
+            Thread.sleep(1000);
+            assertEquals(20, DataNodeTestUtils.getBlocksScanned(dn));
+
+            cluster.restartDataNode(0, true);
+            cluster.waitActive();
+            dn = cluster.getDataNodes().get(0);
+            waitForBlockPools(dn, bpids);
+            Thread.sleep(2000);
+            assertEquals("There should not be duplicate scans", 0,
+                    DataNodeTestUtils.getBlocksScanned(dn));
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    /**
+     * A new pass starts once the scan period has elapsed.
+     */
+    @Test(timeout = 120000)
+    public void testRescanAfterPeriod() throws Exception {
+        Configuration conf = newConf();
+        conf.setLong(DataBlockScanner.INTERNAL_SCAN_PERIOD_MS_KEY, 1000L);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            cluster.waitActive();
+            DFSTestUtil.createFile(cluster.getFileSystem(), new Path("/file"),
+                    5 * BLOCK_SIZE, (short) 1, 0);
+            // 5 blocks per pass; wait for at least two more passes.
+            waitForScannedBlocks(cluster.getDataNodes().get(0), 15);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    private static VolumeScanner.Statistics getStats(DataNode dn,
+                                                     ExtendedBlock block) {
+        return dn.getBlockScanner().getVolumeStats(
+                dn.getFSDataset().getVolume(block).getStorageID());
+    }
+
+    private static void waitForSuspectScans(final DataNode dn,
+                                            final ExtendedBlock block,
+                                            final long expected)
+            throws Exception {
+        GenericTestUtils.waitFor(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return getStats(dn, block).suspectBlocksScanned >= expected;
+            }
+        }, 100, 60000);
+    }
+
+    /**
+     * A suspect block is scanned ahead of the walk, but a healthy block is
+     * not rescanned over and over.  A corrupt one is reported, after which
+     * it may be suspected again.
+     */
+    @Test(timeout = 120000)
+    public void testSuspectBlock() throws Exception {
+        Configuration conf = newConf();
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            cluster.waitActive();
+            FileSystem fs = cluster.getFileSystem();
+            Path healthyFile = new Path("/healthy");
+            Path corruptFile = new Path("/corrupt");
+            DFSTestUtil.createFile(fs, healthyFile, BLOCK_SIZE, (short) 1, 0);
+            DFSTestUtil.createFile(fs, corruptFile, BLOCK_SIZE, (short) 1, 1);
+            ExtendedBlock healthy = DFSTestUtil.getFirstBlock(fs, healthyFile);
+            ExtendedBlock corrupt = DFSTestUtil.getFirstBlock(fs, corruptFile);
+            DataNode dn = cluster.getDataNodes().get(0);
+            waitForBlockPools(dn, healthy.getBlockPoolId());
+
+            DataNodeTestUtils.runBlockScannerForBlock(dn, healthy);
+            waitForSuspectScans(dn, healthy, 1);
+            assertEquals(0, getStats(dn, healthy).scanErrors);
+            DataNodeTestUtils.runBlockScannerForBlock(dn, healthy);
+            Thread.sleep(1000);
+            assertEquals(1, getStats(dn, healthy).suspectBlocksScanned);
+
+            assertTrue(MiniDFSCluster.corruptReplica(0, corrupt));
+            final long before = getStats(dn, corrupt).suspectBlocksScanned;
+            DataNodeTestUtils.runBlockScannerForBlock(dn, corrupt);
+            waitForSuspectScans(dn, corrupt, before + 1);
+            assertEquals(1, getStats(dn, corrupt).scanErrors);
+            DFSTestUtil.waitCorruptReplicas(fs, cluster.getNamesystem(),
+                    corruptFile, corrupt, 1);
+
+            DataNodeTestUtils.runBlockScannerForBlock(dn, corrupt);
+            waitForSuspectScans(dn, corrupt, before + 2);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    /**
+     * Scanning is throttled to the configured bytes per second per volume.
+     */
+    @Test(timeout = 120000)
+    public void testRateLimit() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        conf.setLong(DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND,
+                32 * 1024L);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            cluster.waitActive();
+            DFSTestUtil.createFile(cluster.getFileSystem(), new Path("/file"),
+                    128 * 1024, (short) 1, 0);
+            long start = Time.monotonicNow();
+            restartDataNodeWithoutCursors(cluster,
+                    cluster.getNamesystem().getBlockPoolId());
+            waitForScannedBlocks(cluster.getDataNodes().get(0), 1);
+            // 128KB at 32KB/s takes about 4 seconds
+            assertTrue(Time.monotonicNow() - start >= 2000);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    /**
+     * The block iterator of each volume walks all its finalized replicas, and
+     * a saved iterator resumes where it was saved.
+     */
+    @Test(timeout = 120000)
+    public void testBlockIterator() throws Exception {
+        Configuration conf = newConf();
+        // keep the block scanner from moving the cursors under the test
+        conf.setLong(DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND, 0L);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            cluster.waitActive();
+            FileSystem fs = cluster.getFileSystem();
+            Path file = new Path("/file");
+            DFSTestUtil.createFile(fs, file, 20 * BLOCK_SIZE, (short) 1, 0);
+            String bpid = cluster.getNamesystem().getBlockPoolId();
+            Set<Long> expected = new HashSet<Long>();
+            for (LocatedBlock lb : DFSTestUtil.getAllBlocks(fs, file)) {
+                expected.add(lb.getBlock().getBlockId());
+            }
+            assertEquals(20, expected.size());
+
+            DataNode dn = cluster.getDataNodes().get(0);
+            Set<Long> found = new HashSet<Long>();
+            for (FsVolumeSpi volume : dn.getFSDataset().getVolumes()) {
+                BlockIterator iter = volume.newBlockIterator(bpid, "test");
+                List<ExtendedBlock> walked = walk(iter);
+                iter.close();
+                for (ExtendedBlock b : walked) {
+                    assertEquals(bpid, b.getBlockPoolId());
+                    assertTrue("Duplicate " + b, found.add(b.getBlockId()));
+                }
+                if (walked.size() < 2) {
+                    continue;
+                }
+
+                try {
+                    volume.loadBlockIterator(bpid, "test");
+                    fail("Loaded an iterator that was never saved");
+                } catch (FileNotFoundException e) {
+                    // expected
+                }
+
+                iter = volume.newBlockIterator(bpid, "test");
+                assertEquals(walked.get(0), iter.nextBlock());
+                iter.save();
+                iter.close();
+
+                iter = volume.loadBlockIterator(bpid, "test");
+                assertEquals(walked.subList(1, walked.size()), walk(iter));
+                assertTrue(iter.atEnd());
+                assertNull(iter.nextBlock());
+                iter.save();
+                iter.close();
+
+                iter = volume.loadBlockIterator(bpid, "test");
+                assertTrue(iter.atEnd());
+                iter.rewind();
+                assertFalse(iter.atEnd());
+                assertEquals(walked, walk(iter));
+                iter.close();
+            }
+            assertEquals(expected, found);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    private static List<ExtendedBlock> walk(BlockIterator iter)
+            throws IOException {
+        List<ExtendedBlock> blocks = new ArrayList<ExtendedBlock>();
+        for (ExtendedBlock b = iter.nextBlock(); b != null; b = iter.nextBlock()) {
+            blocks.add(b);
+        }
+        return blocks;
+    }
+}
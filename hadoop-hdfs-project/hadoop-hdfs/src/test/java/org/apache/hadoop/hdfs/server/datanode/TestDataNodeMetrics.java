@@ -26,6 +26,7 @@
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -192,4 +193,30 @@ public void testRoundTripAckMetric() throws Exception {
             }
         }
     }
+
+    @Test
+    public void testVolumeLoadTimeMetrics() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        // load the two volumes of the datanode one at a time
+        conf.setInt(DFSConfigKeys.DFS_DATANODE_VOLUME_INIT_THREADS_KEY, 1);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            cluster.waitActive();
+            DataNode datanode = cluster.getDataNodes().get(0);
+            MetricsRecordBuilder rb = getMetrics(datanode.getMetrics().name());
+            assertCounter("VolumeLoadTimeNumOps", 2L, rb);
+
+            String bpid = cluster.getNamesystem().getBlockPoolId();
+            Map<String, Object> volumeInfo = datanode.getFSDataset()
+                    .getVolumeInfoMap();
+            assertEquals(2, volumeInfo.size());
+            for (Object info : volumeInfo.values()) {
+                Map<?, ?> loadTimes = (Map<?, ?>)
+                        ((Map<?, ?>) info).get("blockPoolLoadTimeMs");
+                assertTrue(loadTimes.containsKey(bpid));
+            }
+        } finally {
+            cluster.shutdown();
+        }
+    }
 }
@@ -424,6 +424,21 @@ public StorageType getStorageType() {
         public String getStorageID() {
             return "";
         }
+
+        @Override
+        public BlockIterator newBlockIterator(String bpid, String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BlockIterator loadBlockIterator(String bpid, String name)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onReplicaBytesWritten(File replicaDir, long delta) {
+        }
     }
 
     private final static TestFsVolumeSpi TEST_VOLUME = new TestFsVolumeSpi();
@@ -25,6 +25,7 @@
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.zip.CRC32;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -42,9 +43,12 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 /** Test if a datanode can correctly upgrade itself */
 public class TestDatanodeRestart {
     // test finalized replicas persist across DataNode restarts
@@ -183,6 +187,111 @@ public void testRecoverReplicas() throws Exception {
         }
     }
 
+    // test finalized replicas are loaded from the inventory saved at shutdown
+    @Test
+    public void testPersistedReplicas() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 1024L);
+        conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 512);
+        conf.setInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INTERVAL_KEY, -1);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        cluster.waitActive();
+        try {
+            FileSystem fs = cluster.getFileSystem();
+            for (int i = 0; i < 4; i++) {
+                Path fileName = new Path("/test" + i);
+                DFSTestUtil.createFile(fs, fileName, 1, (short) 1, 0L);
+                DFSTestUtil.waitReplication(fs, fileName, (short) 1);
+            }
+            String bpid = cluster.getNamesystem().getBlockPoolId();
+            File[] replicaFiles = new File[2];
+            for (int i = 0; i < replicaFiles.length; i++) {
+                File finalizedDir = MiniDFSCluster.getFinalizedDir(
+                        MiniDFSCluster.getStorageDir(0, i), bpid);
+                replicaFiles[i] = new File(finalizedDir.getParentFile(), "replicas");
+            }
+
+            // a clean restart loads the inventory and consumes it
+            MiniDFSCluster.DataNodeProperties dnProps = cluster.stopDataNode(0);
+            for (File replicaFile : replicaFiles) {
+                Assert.assertTrue(replicaFile.exists());
+            }
+            cluster.restartDataNode(dnProps);
+            cluster.waitActive();
+            for (File replicaFile : replicaFiles) {
+                Assert.assertFalse(replicaFile.exists());
+            }
+            DataNode dn = cluster.getDataNodes().get(0);
+            Assert.assertEquals(4, dataset(dn).volumeMap.size(bpid));
+            for (int i = 0; i < 4; i++) {
+                DFSTestUtil.readFile(fs, new Path("/test" + i));
+            }
+
+            // a corrupt inventory falls back to scanning the directory
+            dnProps = cluster.stopDataNode(0);
+            for (File replicaFile : replicaFiles) {
+                RandomAccessFile raf = new RandomAccessFile(replicaFile, "rw");
+                try {
+                    raf.seek(20);
+                    int b = raf.read();
+                    raf.seek(20);
+                    raf.write(~b);
+                } finally {
+                    raf.close();
+                }
+            }
+            cluster.restartDataNode(dnProps);
+            cluster.waitActive();
+            dn = cluster.getDataNodes().get(0);
+            Assert.assertEquals(4, dataset(dn).volumeMap.size(bpid));
+
+            // a replica count that does not match the file length is
+            // rejected even when the checksum is valid
+            dnProps = cluster.stopDataNode(0);
+            for (File replicaFile : replicaFiles) {
+                RandomAccessFile raf = new RandomAccessFile(replicaFile, "rw");
+                try {
+                    raf.seek(12);
+                    raf.writeInt(Integer.MAX_VALUE);
+                    byte[] data = new byte[(int) raf.length() - 8];
+                    raf.seek(0);
+                    raf.readFully(data);
+                    CRC32 crc = new CRC32();
+                    crc.update(data, 0, data.length);
+                    raf.writeLong(crc.getValue());
+                } finally {
+                    raf.close();
+                }
+            }
+            cluster.restartDataNode(dnProps);
+            cluster.waitActive();
+            dn = cluster.getDataNodes().get(0);
+            Assert.assertEquals(4, dataset(dn).volumeMap.size(bpid));
+
+            // replicas that disappeared while the datanode was down are
+            // removed by the background validation
+            ReplicaInfo replica =
+                    dataset(dn).volumeMap.replicas(bpid).iterator().next();
+            File blockFile = replica.getBlockFile();
+            File metaFile = replica.getMetaFile();
+            dnProps = cluster.stopDataNode(0);
+            Assert.assertTrue(blockFile.delete());
+            Assert.assertTrue(metaFile.delete());
+            cluster.restartDataNode(dnProps);
+            cluster.waitActive();
+            final FsDatasetImpl data = dataset(cluster.getDataNodes().get(0));
+            final String poolId = bpid;
+            GenericTestUtils.waitFor(new Supplier<Boolean>() {
+                @Override
+                public Boolean get() {
+                    return data.volumeMap.size(poolId) == 3;
+                }
+            }, 100, 10000);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
     private static FsDatasetImpl dataset(DataNode dn) {
         return (FsDatasetImpl) DataNodeTestUtils.getFSDataset(dn);
     }
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+public class TestDfsUsage {
+    private static final File BASE_DIR = new File(
+            System.getProperty("test.build.data", "build/test/data"), "TestDfsUsage");
+    private static final File FINALIZED_DIR = new File(BASE_DIR, "finalized");
+    private static final File RBW_DIR = new File(BASE_DIR, "rbw");
+    private static final File TMP_DIR = new File(BASE_DIR, "tmp");
+
+    private static void createFile(File f, int len) throws IOException {
+        f.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(new byte[len]);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testIncrementalAndReconcile() throws IOException {
+        FileUtil.fullyDelete(BASE_DIR);
+        createFile(new File(FINALIZED_DIR, "blk_1"), 100);
+        createFile(new File(FINALIZED_DIR, "subdir0/subdir1/blk_2"), 150);
+        createFile(new File(FINALIZED_DIR, "subdir0/subdir1/blk_2_1.meta"), 10);
+        // replicas being written are counted without their meta files
+        createFile(new File(RBW_DIR, "blk_3"), 30);
+        createFile(new File(RBW_DIR, "blk_3_1.meta"), 7);
+        createFile(new File(TMP_DIR, "blk_4"), 10);
+        createFile(new File(TMP_DIR, "blk_4_1.meta"), 7);
+
+        // computed from disk when there is no cached value
+        DfsUsage usage = new DfsUsage(FINALIZED_DIR, RBW_DIR, TMP_DIR, 0, -1);
+        assertEquals(300, usage.getUsed());
+
+        usage.incDfsUsed(50);
+        assertEquals(350, usage.getUsed());
+        usage.decDfsUsed(400);
+        assertEquals(0, usage.getUsed());
+
+        // reconciliation corrects the drift
+        usage.reconcile();
+        assertEquals(300, usage.getUsed());
+
+        // a cached value is trusted until the next reconciliation
+        usage = new DfsUsage(FINALIZED_DIR, RBW_DIR, TMP_DIR, 0, 1000);
+        assertEquals(1000, usage.getUsed());
+        usage.reconcile();
+        assertEquals(300, usage.getUsed());
+        FileUtil.fullyDelete(BASE_DIR);
+    }
+
+    /**
+     * Changes counted while the directory is walked are not lost.
+     */
+    @Test
+    public void testChangesDuringReconcile() throws IOException {
+        FileUtil.fullyDelete(BASE_DIR);
+        createFile(new File(FINALIZED_DIR, "blk_1"), 100);
+        DfsUsage usage = new DfsUsage(FINALIZED_DIR, RBW_DIR, TMP_DIR, 0, 0) {
+            @Override
+            long computeUsed() throws IOException {
+                long computed = super.computeUsed();
+                // a replica finalized and another deleted during the walk
+                incDfsUsed(70);
+                decDfsUsed(20);
+                return computed;
+            }
+        };
+        usage.reconcile();
+        assertEquals(150, usage.getUsed());
+        FileUtil.fullyDelete(BASE_DIR);
+    }
+
+    /**
+     * dfsUsed follows the replicas as they are written, finalized, appended
+     * to and deleted, without any directory walk.
+     */
+    @Test
+    public void testUsageFollowsReplicas() throws Exception {
+        Configuration conf = new HdfsConfiguration();
+        conf.setLong(DFSConfigKeys.DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY, 0);
+        conf.setLong(DFSConfigKeys.DFS_BLOCKREPORT_INTERVAL_MSEC_KEY, 1000L);
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            cluster.waitActive();
+            FileSystem fs = cluster.getFileSystem();
+            DataNode dn = cluster.getDataNodes().get(0);
+            final FsDatasetImpl dataset =
+                    (FsDatasetImpl) DataNodeTestUtils.getFSDataset(dn);
+            final long initialUsed = dataset.getDfsUsed();
+
+            // the block file of a replica being written is counted as it grows
+            Path file = new Path("/file");
+            FSDataOutputStream out = fs.create(file, (short) 1);
+            out.write(new byte[1000]);
+            out.hflush();
+            assertEquals(initialUsed + 1000, dataset.getDfsUsed());
+            out.close();
+            ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, file);
+            assertEquals(initialUsed + onDisk(dataset, block), dataset.getDfsUsed());
+
+            out = fs.append(file);
+            out.write(new byte[500]);
+            out.hflush();
+            assertEquals(initialUsed + 1500, dataset.getDfsUsed());
+            out.close();
+            block = DFSTestUtil.getFirstBlock(fs, file);
+            assertEquals(1500, block.getNumBytes());
+            assertEquals(initialUsed + onDisk(dataset, block), dataset.getDfsUsed());
+
+            fs.delete(file, false);
+            GenericTestUtils.waitFor(new Supplier<Boolean>() {
+                @Override
+                public Boolean get() {
+                    try {
+                        return dataset.getDfsUsed() == initialUsed;
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, 100, 30000);
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
+    private static long onDisk(FsDatasetImpl dataset, ExtendedBlock block)
+            throws IOException {
+        File blockFile = dataset.getBlockFile(block.getBlockPoolId(),
+                block.getLocalBlock());
+        return blockFile.length() + FsDatasetUtil.getMetaFile(blockFile,
+                block.getGenerationStamp()).length();
+    }
+}
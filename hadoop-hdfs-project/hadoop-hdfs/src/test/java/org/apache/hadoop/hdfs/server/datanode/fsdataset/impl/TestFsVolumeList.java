@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
+import org.apache.hadoop.util.DiskChecker.DiskErrorException;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestFsVolumeList {
+    private final VolumeChoosingPolicy<FsVolumeImpl> blockChooser =
+            new RoundRobinVolumeChoosingPolicy<FsVolumeImpl>();
+
+    @Test
+    public void testCheckDirsRemovesFailedVolumes() throws Exception {
+        FsVolumeList volumeList = new FsVolumeList(0, blockChooser, 10000);
+        FsVolumeImpl healthy = Mockito.mock(FsVolumeImpl.class);
+        FsVolumeImpl failed = Mockito.mock(FsVolumeImpl.class);
+        Mockito.doThrow(new DiskErrorException("bad disk")).when(failed).checkDirs();
+        volumeList.addVolume(healthy);
+        volumeList.addVolume(failed);
+
+        List<FsVolumeImpl> removed = volumeList.checkDirs();
+        assertEquals(1, removed.size());
+        assertSame(failed, removed.get(0));
+        assertEquals(1, volumeList.volumes.size());
+        assertSame(healthy, volumeList.volumes.get(0));
+        assertEquals(1, volumeList.numberOfFailedVolumes());
+        Mockito.verify(failed).shutdown();
+
+        assertNull(volumeList.checkDirs());
+    }
+
+    /**
+     * A volume whose check hangs is removed once the timeout expires, and does
+     * not block choosing a volume for a new block meanwhile.
+     */
+    @Test(timeout = 30000)
+    public void testCheckDirsTimeout() throws Exception {
+        final FsVolumeList volumeList = new FsVolumeList(0, blockChooser, 1000);
+        FsVolumeImpl healthy = Mockito.mock(FsVolumeImpl.class);
+        FsVolumeImpl hung = Mockito.mock(FsVolumeImpl.class);
+        final CountDownLatch checkStarted = new CountDownLatch(1);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                checkStarted.countDown();
+                Thread.sleep(Long.MAX_VALUE);
+                return null;
+            }
+        }).when(hung).checkDirs();
+        for (FsVolumeImpl v : new FsVolumeImpl[] {healthy, hung}) {
+            Mockito.when(v.getStorageType()).thenReturn(StorageType.DEFAULT);
+            Mockito.when(v.getAvailable()).thenReturn(1024L);
+            volumeList.addVolume(v);
+        }
+
+        final List<?>[] removed = new List<?>[1];
+        Thread checker = new Thread() {
+            @Override
+            public void run() {
+                removed[0] = volumeList.checkDirs();
+            }
+        };
+        long start = Time.monotonicNow();
+        checker.start();
+        checkStarted.await();
+        // Not blocked by the disk check in progress.
+        assertTrue(volumeList.getNextVolume(StorageType.DEFAULT, 0) != null);
+
+        checker.join();
+        assertTrue(Time.monotonicNow() - start >= 1000);
+        assertEquals(1, removed[0].size());
+        assertSame(hung, removed[0].get(0));
+        assertEquals(1, volumeList.volumes.size());
+        assertEquals(1, volumeList.numberOfFailedVolumes());
+    }
+}
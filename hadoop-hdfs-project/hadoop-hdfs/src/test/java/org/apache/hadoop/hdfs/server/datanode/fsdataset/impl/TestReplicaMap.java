@@ -17,12 +17,14 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -110,4 +112,26 @@ public void testRemove() {
         map.add(bpid, new FinalizedReplica(block, null, null));
         assertNotNull(map.remove(bpid, block.getBlockId()));
     }
+
+    /**
+     * Lookups and iteration must not be disturbed by concurrent mutations.
+     */
+    @Test
+    public void testIterateWhileModifying() {
+        for (long i = 1; i <= 10; i++) {
+            map.add(bpid, new FinalizedReplica(new Block(i, 0, i), null, null));
+        }
+        assertEquals(11, map.size(bpid));
+
+        int seen = 0;
+        for (ReplicaInfo r : map.replicas(bpid)) {
+            // removing entries while iterating must not throw
+            // ConcurrentModificationException
+            map.remove(bpid, r.getBlockId());
+            seen++;
+        }
+        assertEquals(11, seen);
+        assertEquals(0, map.size(bpid));
+        assertNull(map.get(bpid, block.getBlockId()));
+    }
 }
@@ -18,11 +18,13 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.StorageType;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
@@ -129,6 +131,53 @@ public void testWriteToTempoary() throws Exception {
         }
     }
 
+    // finalizeBlock moves the block files holding only the volume lock
+    @Test
+    public void testFinalizeUnderVolumeLock() throws Exception {
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(new HdfsConfiguration()).build();
+        try {
+            cluster.waitActive();
+            DataNode dn = cluster.getDataNodes().get(0);
+            final FsDatasetImpl dataSet = (FsDatasetImpl) DataNodeTestUtils.getFSDataset(dn);
+            String bpid = cluster.getNamesystem().getBlockPoolId();
+
+            final ExtendedBlock block = new ExtendedBlock(bpid, 100, 0, 1000);
+            ReplicaInPipeline rbw = dataSet.createRbw(StorageType.DEFAULT, block);
+            Assert.assertTrue(rbw.getBlockFile().exists());
+            Assert.assertTrue(rbw.getMetaFile().createNewFile());
+            final FsVolumeImpl v = (FsVolumeImpl) rbw.getVolume();
+
+            final AtomicReference<IOException> error = new AtomicReference<IOException>();
+            Thread finalizer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        dataSet.finalizeBlock(block);
+                    } catch (IOException e) {
+                        error.set(e);
+                    }
+                }
+            };
+            synchronized (v.getVolumeLock()) {
+                finalizer.start();
+                while (finalizer.getState() != Thread.State.BLOCKED) {
+                    Thread.sleep(10);
+                }
+                // the dataset lock is not held while the finalizer waits
+                dataSet.createRbw(StorageType.DEFAULT,
+                        new ExtendedBlock(bpid, 101, 0, 1000));
+                Assert.assertEquals(ReplicaState.RBW,
+                        dataSet.getReplica(bpid, 100).getState());
+            }
+            finalizer.join();
+            Assert.assertNull(error.get());
+            Assert.assertEquals(ReplicaState.FINALIZED,
+                    dataSet.getReplica(bpid, 100).getState());
+        } finally {
+            cluster.shutdown();
+        }
+    }
+
     /**
      * Generate testing environment and return a collection of blocks
      * on which to run the tests.
@@ -440,7 +440,7 @@ public void testlistCorruptFileBlocksDFS() throws Exception {
 
     /**
      * Test if NN.listCorruptFiles() returns the right number of results.
-     * The corrupt blocks are detected by the BlockPoolSliceScanner.
+     * The corrupt blocks are detected by the block scanner.
      * Also, test that DFS.listCorruptFileBlocks can make multiple successive
      * calls.
      */
@@ -488,10 +488,10 @@ public void testMaxCorruptFiles() throws Exception {
                 }
             }
 
-            // Occasionally the BlockPoolSliceScanner can run before we have removed
+            // Occasionally the block scanner can run before we have removed
             // the blocks. Restart the Datanode to trigger the scanner into running
             // once more.
-            LOG.info("Restarting Datanode to trigger BlockPoolSliceScanner");
+            LOG.info("Restarting Datanode to trigger block scanner");
             cluster.restartDataNodes();
             cluster.waitActive();
 
@@ -276,17 +276,10 @@ private void corruptBlock(MiniDFSCluster cluster, FileSystem fs, final Path file
             final String bpid = cluster.getNamesystem().getBlockPoolId();
             File storageDir = MiniDFSCluster.getStorageDir(dnIndex, dirIndex);
             File dataDir = MiniDFSCluster.getFinalizedDir(storageDir, bpid);
-            File scanLogFile = new File(dataDir, "dncp_block_verification.log.curr");
-            if (scanLogFile.exists()) {
-                // wait for one minute for deletion to succeed;
-                for (int i = 0; !scanLogFile.delete(); i++) {
-                    assertTrue("Could not delete log file in one minute", i < 60);
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ignored) {
-                    }
-                }
-            }
+            File cursor = new File(dataDir.getParentFile().getParentFile(),
+                    "scanner.cursor");
+            assertTrue("Could not delete " + cursor,
+                    !cursor.exists() || cursor.delete());
         }
 
         // restart the detained so the corrupt replica will be detected
@@ -74,7 +74,7 @@ public class SnapshotTestHelper {
     /** Disable the logs that are not very useful for snapshot related tests. */
     public static void disableLogs() {
         final String[] lognames = {
-                "org.apache.hadoop.hdfs.server.datanode.BlockPoolSliceScanner",
+                "org.apache.hadoop.hdfs.server.datanode.VolumeScanner",
                 "org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetImpl",
                 "org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetAsyncDiskService",
         };
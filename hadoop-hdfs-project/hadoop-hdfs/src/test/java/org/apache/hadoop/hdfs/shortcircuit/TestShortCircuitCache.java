@@ -35,6 +35,7 @@
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.commons.logging.Log;
@@ -299,6 +300,102 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
         cache.close();
     }
 
+    @Test(timeout = 60000)
+    public void testMetrics() throws Exception {
+        final ShortCircuitCache cache =
+                new ShortCircuitCache(1, 10000000, 1, 10000000, 1, 10000, 0);
+        final ShortCircuitCacheMetrics metrics = cache.getMetrics();
+        final TestFileDescriptorPair pairs[] = new TestFileDescriptorPair[]{
+                new TestFileDescriptorPair(),
+                new TestFileDescriptorPair(),
+        };
+        ShortCircuitReplicaInfo info1 = cache.fetchOrCreate(
+                new ExtendedBlockId(0, "test_bp1"),
+                new SimpleReplicaCreator(0, cache, pairs[0]));
+        Assert.assertEquals(1, metrics.getCacheMisses());
+        Assert.assertEquals(0, metrics.getCacheHits());
+
+        // The replica is in use, so this is served without the lock.
+        ShortCircuitReplicaInfo info2 = cache.fetchOrCreate(
+                new ExtendedBlockId(0, "test_bp1"),
+                new SimpleReplicaCreator(0, cache, pairs[0]));
+        Assert.assertSame(info1, info2);
+        Assert.assertEquals(1, metrics.getCacheMisses());
+        Assert.assertEquals(1, metrics.getCacheHits());
+        info1.getReplica().unref();
+        info2.getReplica().unref();
+
+        // The replica is evictable now, so this takes it out of the
+        // eviction list under the lock.
+        info1 = cache.fetchOrCreate(new ExtendedBlockId(0, "test_bp1"),
+                new SimpleReplicaCreator(0, cache, pairs[0]));
+        Assert.assertSame(info2, info1);
+        Assert.assertEquals(2, metrics.getCacheHits());
+        info1.getReplica().unref();
+
+        // Only one evictable replica fits, so the first one gets evicted.
+        ShortCircuitReplicaInfo info3 = cache.fetchOrCreate(
+                new ExtendedBlockId(1, "test_bp1"),
+                new SimpleReplicaCreator(1, cache, pairs[1]));
+        Assert.assertEquals(2, metrics.getCacheMisses());
+        info3.getReplica().unref();
+        Assert.assertEquals(1, metrics.getEvictions());
+
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i].close();
+        }
+        cache.close();
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentRefAndUnref() throws Exception {
+        final ShortCircuitCache cache =
+                new ShortCircuitCache(10, 10000000, 10, 10000000, 1, 10000, 0);
+        final TestFileDescriptorPair pair = new TestFileDescriptorPair();
+        final ExtendedBlockId key = new ExtendedBlockId(123, "test_bp1");
+        final ShortCircuitReplicaInfo info = cache.fetchOrCreate(key,
+                new SimpleReplicaCreator(123, cache, pair));
+        final ShortCircuitReplica replica = info.getReplica();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Thread threads[] = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        ShortCircuitReplicaInfo fetched = cache.fetchOrCreate(key,
+                                new SimpleReplicaCreator(123, cache, pair));
+                        if (fetched.getReplica() != replica) {
+                            failed.set(true);
+                            return;
+                        }
+                        fetched.getReplica().unref();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertFalse(failed.get());
+        Assert.assertEquals(2, replica.refCount.get());
+        replica.unref();
+        cache.accept(new CacheVisitor() {
+            @Override
+            public void visit(int numOutstandingMmaps,
+                              Map<ExtendedBlockId, ShortCircuitReplica> replicas,
+                              Map<ExtendedBlockId, InvalidToken> failedLoads,
+                              Map<Long, ShortCircuitReplica> evictable,
+                              Map<Long, ShortCircuitReplica> evictableMmapped) {
+                Assert.assertEquals(1, evictable.size());
+                Assert.assertSame(replica, evictable.values().iterator().next());
+            }
+        });
+        pair.close();
+        cache.close();
+    }
+
     @Test(timeout = 60000)
     public void testTimeBasedStaleness() throws Exception {
         // Set up the cache with a short staleness time.